@@ -36,6 +36,7 @@ import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.IProcessIdentifier;
 import com.helger.peppolid.factory.SimpleIdentifierFactory;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailCache;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderBDXR;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderBDXR2;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
@@ -104,7 +105,7 @@ public final class Phase4CEFSender
       // Override default values
       try
       {
-        httpClientFactory (new Phase4CEFHttpClientSettings ());
+        httpClientFactory (Phase4CEFHttpClientSettings.getSharedHttpClientFactory ());
       }
       catch (final Exception ex)
       {
@@ -220,7 +221,10 @@ public final class Phase4CEFSender
     /**
      * Set the SMP v1 client to be used. This is the point where e.g. the
      * differentiation between SMK and SML can be done. This must be set prior
-     * to sending.
+     * to sending. The SMP lookup results are not cached. To use an
+     * {@link AS4EndpointDetailCache}, pass a provider with a cache instance
+     * specific to the SML via
+     * {@link #endpointDetailProvider(IAS4EndpointDetailProvider)}.
      *
      * @param aSMPClient
      *        The SMP v1 client to be used. May not be <code>null</code>.
@@ -236,7 +240,10 @@ public final class Phase4CEFSender
     /**
      * Set the SMP v2 client to be used. This is the point where e.g. the
      * differentiation between SMK and SML can be done. This must be set prior
-     * to sending.
+     * to sending. The SMP lookup results are not cached. To use an
+     * {@link AS4EndpointDetailCache}, pass a provider with a cache instance
+     * specific to the SML via
+     * {@link #endpointDetailProvider(IAS4EndpointDetailProvider)}.
      *
      * @param aSMPClient
      *        The SMP v2 client to be used. May not be <code>null</code>.
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * A shared, bounded cache for resolved receiver endpoint details, to be used
+ * by the SMP based {@link IAS4EndpointDetailProvider} implementations. Entries
+ * expire after the time to live. Once an entry is older than the refresh
+ * ratio of the time to live, it is still returned but refreshed in the
+ * background, so that frequently used entries usually never expire on the
+ * sending thread. Failed lookups are never cached and concurrent lookups of
+ * the same key are performed only once. If the maximum size is exceeded, the
+ * least recently used entry is removed.<br>
+ * Note: the key does not contain the SMP client, so different SMLs should use
+ * different cache instances.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4EndpointDetailCache
+{
+  /**
+   * Callback to resolve the endpoint details if they are not cached.
+   *
+   * @author Philip Helger
+   * @since 1.3.3
+   */
+  @FunctionalInterface
+  public interface IEndpointDetailResolver
+  {
+    /**
+     * @return The resolved details. May not be <code>null</code>.
+     * @throws Phase4Exception
+     *         If resolving failed
+     */
+    @Nonnull
+    AS4EndpointDetails resolve () throws Phase4Exception;
+  }
+
+  public static final Duration DEFAULT_TTL = Duration.ofHours (1);
+  public static final double DEFAULT_REFRESH_RATIO = 0.8;
+  public static final int DEFAULT_MAX_SIZE = 10000;
+  /** The maximum number of pending background refreshes */
+  public static final int MAX_PENDING_REFRESHES = 1000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4EndpointDetailCache.class);
+  private static final char SEPARATOR = '\u0000';
+  private static final AS4EndpointDetailCache DEFAULT_INSTANCE = new AS4EndpointDetailCache ();
+
+  private static final class Entry
+  {
+    private final AS4EndpointDetails m_aDetails;
+    private final long m_nRefreshMillis;
+    private final long m_nExpirationMillis;
+
+    Entry (@Nonnull final AS4EndpointDetails aDetails, final long nRefreshMillis, final long nExpirationMillis)
+    {
+      m_aDetails = aDetails;
+      m_nRefreshMillis = nRefreshMillis;
+      m_nExpirationMillis = nExpirationMillis;
+    }
+  }
+
+  private final Duration m_aTTL;
+  private final double m_dRefreshRatio;
+  private final int m_nMaxSize;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Access ordered for LRU
+  @GuardedBy ("m_aLock")
+  private final Map <String, Entry> m_aMap;
+  // The lookups currently in progress (foreground and background)
+  private final Map <String, CompletableFuture <AS4EndpointDetails>> m_aInFlight = new ConcurrentHashMap <> ();
+  // The keys with a queued or running background refresh
+  private final Set <String> m_aPendingRefreshes = ConcurrentHashMap.newKeySet ();
+  private final ThreadPoolExecutor m_aRefreshExecutor;
+
+  /**
+   * Constructor with {@link #DEFAULT_TTL}, {@link #DEFAULT_REFRESH_RATIO} and
+   * {@link #DEFAULT_MAX_SIZE}.
+   */
+  public AS4EndpointDetailCache ()
+  {
+    this (DEFAULT_TTL, DEFAULT_REFRESH_RATIO, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aTTL
+   *        The time to live of each entry. May not be <code>null</code> and
+   *        must be positive.
+   * @param dRefreshRatio
+   *        The ratio of the time to live after which an entry is refreshed in
+   *        the background. Must be &gt; 0 and &le; 1. A value of 1 disables
+   *        the background refresh.
+   * @param nMaxSize
+   *        The maximum number of cached entries. Must be &gt; 0.
+   */
+  public AS4EndpointDetailCache (@Nonnull final Duration aTTL, final double dRefreshRatio, @Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative () || aTTL.isZero (), "TTL must be positive");
+    ValueEnforcer.isTrue (dRefreshRatio > 0 && dRefreshRatio <= 1, "RefreshRatio must be > 0 and <= 1");
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aTTL = aTTL;
+    m_dRefreshRatio = dRefreshRatio;
+    m_nMaxSize = nMaxSize;
+    m_aMap = new LinkedHashMap <String, Entry> (16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <String, Entry> aEldest)
+      {
+        return size () > m_nMaxSize;
+      }
+    };
+    // One daemon thread that ends when idle - refreshes beyond the queue
+    // capacity are simply skipped
+    m_aRefreshExecutor = new ThreadPoolExecutor (1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue <> (MAX_PENDING_REFRESHES), r -> {
+      final Thread aThread = new Thread (r, "phase4-endpoint-refresh");
+      aThread.setDaemon (true);
+      return aThread;
+    }, new ThreadPoolExecutor.AbortPolicy ());
+    m_aRefreshExecutor.allowCoreThreadTimeOut (true);
+  }
+
+  /**
+   * @return The global default instance. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4EndpointDetailCache getDefaultInstance ()
+  {
+    return DEFAULT_INSTANCE;
+  }
+
+  /**
+   * @return The time to live of each entry. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  /**
+   * @return The ratio of the time to live after which an entry is refreshed in
+   *         the background.
+   */
+  public final double getRefreshRatio ()
+  {
+    return m_dRefreshRatio;
+  }
+
+  /**
+   * @return The maximum number of cached entries. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return The number of currently cached entries, including expired ones.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * Remove all cached entries.
+   */
+  public void clear ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  /**
+   * Create the cache key for an endpoint lookup.
+   *
+   * @param sProviderType
+   *        The type of the provider (e.g. "peppol"), so that entries of
+   *        different SMP specifications are never mixed. May neither be
+   *        <code>null</code> nor empty.
+   * @param aReceiverID
+   *        Receiver participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcID
+   *        Process ID. May not be <code>null</code>.
+   * @param aTP
+   *        Transport profile. May not be <code>null</code>.
+   * @return The key and never <code>null</code>.
+   */
+  @Nonnull
+  public static String createKey (@Nonnull @Nonempty final String sProviderType,
+                                  @Nonnull final IParticipantIdentifier aReceiverID,
+                                  @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                  @Nonnull final IProcessIdentifier aProcID,
+                                  @Nonnull final ISMPTransportProfile aTP)
+  {
+    return sProviderType +
+           SEPARATOR +
+           aReceiverID.getURIEncoded () +
+           SEPARATOR +
+           aDocTypeID.getURIEncoded () +
+           SEPARATOR +
+           aProcID.getURIEncoded () +
+           SEPARATOR +
+           aTP.getID ();
+  }
+
+  private void _put (@Nonnull final String sKey, @Nonnull final AS4EndpointDetails aDetails)
+  {
+    final long nNow = System.currentTimeMillis ();
+    final long nTTLMillis = m_aTTL.toMillis ();
+    final Entry aEntry = new Entry (aDetails, nNow + (long) (nTTLMillis * m_dRefreshRatio), nNow + nTTLMillis);
+    m_aLock.locked ( () -> m_aMap.put (sKey, aEntry));
+  }
+
+  @Nonnull
+  private AS4EndpointDetails _resolve (@Nonnull final String sKey, @Nonnull final IEndpointDetailResolver aResolver) throws Phase4Exception
+  {
+    final CompletableFuture <AS4EndpointDetails> aOwnFuture = new CompletableFuture <> ();
+    final CompletableFuture <AS4EndpointDetails> aOtherFuture = m_aInFlight.putIfAbsent (sKey, aOwnFuture);
+    if (aOtherFuture != null)
+    {
+      // Another thread is already performing the lookup
+      try
+      {
+        return aOtherFuture.get ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new Phase4SMPException ("Interrupted while waiting for the endpoint lookup", ex);
+      }
+      catch (final ExecutionException ex)
+      {
+        if (ex.getCause () instanceof Phase4Exception)
+          throw (Phase4Exception) ex.getCause ();
+        throw new Phase4SMPException ("Error performing the endpoint lookup", ex.getCause ());
+      }
+    }
+
+    try
+    {
+      final AS4EndpointDetails ret = aResolver.resolve ();
+      ValueEnforcer.notNull (ret, "ResolvedDetails");
+      _put (sKey, ret);
+      aOwnFuture.complete (ret);
+      return ret;
+    }
+    catch (final Throwable t)
+    {
+      // Make sure waiting threads are never blocked forever
+      aOwnFuture.completeExceptionally (t);
+      throw t;
+    }
+    finally
+    {
+      m_aInFlight.remove (sKey, aOwnFuture);
+    }
+  }
+
+  private void _scheduleRefresh (@Nonnull final String sKey, @Nonnull final IEndpointDetailResolver aResolver)
+  {
+    // Don't schedule if a lookup is already running or a refresh is already
+    // queued
+    if (m_aInFlight.containsKey (sKey) || !m_aPendingRefreshes.add (sKey))
+      return;
+
+    try
+    {
+      m_aRefreshExecutor.execute ( () -> {
+        try
+        {
+          _resolve (sKey, aResolver);
+        }
+        catch (final Phase4Exception | RuntimeException ex)
+        {
+          // The old entry stays until it expires
+          LOGGER.warn ("Failed to refresh the endpoint details in the background: " + ex.getMessage ());
+        }
+        finally
+        {
+          m_aPendingRefreshes.remove (sKey);
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Too many pending refreshes - try again upon the next access
+      m_aPendingRefreshes.remove (sKey);
+    }
+  }
+
+  /**
+   * @return The number of queued or running background refreshes. Always &ge;
+   *         0.
+   */
+  @Nonnegative
+  public int getPendingRefreshCount ()
+  {
+    return m_aPendingRefreshes.size ();
+  }
+
+  /**
+   * Get the cached endpoint details or resolve them.
+   *
+   * @param sKey
+   *        The cache key as created by
+   *        {@link #createKey(String, IParticipantIdentifier, IDocumentTypeIdentifier, IProcessIdentifier, ISMPTransportProfile)}.
+   *        May not be <code>null</code>.
+   * @param aResolver
+   *        The resolver to be invoked if no valid entry is present. It may also
+   *        be invoked later on from a background thread. May not be
+   *        <code>null</code>.
+   * @return The endpoint details and never <code>null</code>.
+   * @throws Phase4Exception
+   *         If no valid entry is present and resolving failed
+   */
+  @Nonnull
+  public AS4EndpointDetails getOrResolve (@Nonnull final String sKey, @Nonnull final IEndpointDetailResolver aResolver) throws Phase4Exception
+  {
+    ValueEnforcer.notNull (sKey, "Key");
+    ValueEnforcer.notNull (aResolver, "Resolver");
+
+    final Entry aEntry = m_aLock.lockedGet ( () -> m_aMap.get (sKey));
+    if (aEntry != null)
+    {
+      final long nNow = System.currentTimeMillis ();
+      if (nNow < aEntry.m_nExpirationMillis)
+      {
+        if (nNow >= aEntry.m_nRefreshMillis && m_dRefreshRatio < 1)
+          _scheduleRefresh (sKey, aResolver);
+        return aEntry.m_aDetails;
+      }
+    }
+    return _resolve (sKey, aResolver);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TTL", m_aTTL)
+                                       .append ("RefreshRatio", m_dRefreshRatio)
+                                       .append ("MaxSize", m_nMaxSize)
+                                       .getToString ();
+  }
+}
@@ -22,18 +22,12 @@ import java.security.cert.X509Certificate;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.helger.commons.ValueEnforcer;
-import com.helger.commons.annotation.Nonempty;
-import com.helger.commons.string.StringHelper;
 import com.helger.peppol.smp.ESMPTransportProfile;
 import com.helger.peppol.smp.ISMPTransportProfile;
 import com.helger.peppolid.IDocumentTypeIdentifier;
 import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.IProcessIdentifier;
-import com.helger.phase4.util.Phase4Exception;
 import com.helger.smpclient.bdxr2.BDXR2ClientReadOnly;
 import com.helger.smpclient.bdxr2.IBDXR2ServiceMetadataProvider;
 import com.helger.smpclient.exception.SMPClientException;
@@ -46,18 +40,17 @@ import com.helger.xsds.bdxr.smp2.ac.EndpointType;
  * @author Philip Helger
  * @since 0.10.6
  */
-public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvider
+public class AS4EndpointDetailProviderBDXR2 extends AbstractAS4EndpointDetailProviderSMP <EndpointType, AS4EndpointDetailProviderBDXR2>
 {
+  /** The provider type used in the {@link AS4EndpointDetailCache} key */
+  public static final String CACHE_PROVIDER_TYPE = "bdxr2";
   public static final ISMPTransportProfile DEFAULT_TRANSPORT_PROFILE = ESMPTransportProfile.TRANSPORT_PROFILE_BDXR_AS4;
 
-  private static final Logger LOGGER = LoggerFactory.getLogger (AS4EndpointDetailProviderBDXR2.class);
-
   private final IBDXR2ServiceMetadataProvider m_aSMPClient;
-  private ISMPTransportProfile m_aTP = DEFAULT_TRANSPORT_PROFILE;
-  private EndpointType m_aEndpoint;
 
   public AS4EndpointDetailProviderBDXR2 (@Nonnull final IBDXR2ServiceMetadataProvider aSMPClient)
   {
+    super (CACHE_PROVIDER_TYPE, DEFAULT_TRANSPORT_PROFILE);
     ValueEnforcer.notNull (aSMPClient, "SMPClient");
     m_aSMPClient = aSMPClient;
   }
@@ -72,127 +65,27 @@ public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvide
     return m_aSMPClient;
   }
 
-  /**
-   * @return The transport profile to be used. Defaults to
-   *         {@link #DEFAULT_TRANSPORT_PROFILE}.
-   */
-  @Nonnull
-  public final ISMPTransportProfile getTransportProfile ()
-  {
-    return m_aTP;
-  }
-
-  /**
-   * Change the transport profile to be used. This only has an effect if it is
-   * called prior to
-   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
-   *
-   * @param aTP
-   *        The transport profile to be used. May not be <code>null</code>.
-   * @return this for chaining.
-   */
-  @Nonnull
-  public final AS4EndpointDetailProviderBDXR2 setTransportProfile (@Nonnull final ISMPTransportProfile aTP)
-  {
-    ValueEnforcer.notNull (aTP, "TransportProfile");
-    m_aTP = aTP;
-    return this;
-  }
-
-  /**
-   * @return The endpoint resolved. May only be non-<code>null</code> if
-   *         {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}
-   *         was called.
-   */
+  @Override
   @Nullable
-  public final EndpointType getEndpoint ()
-  {
-    return m_aEndpoint;
-  }
-
-  public void init (@Nonnull final IDocumentTypeIdentifier aDocTypeID,
-                    @Nonnull final IProcessIdentifier aProcID,
-                    @Nonnull final IParticipantIdentifier aReceiverID) throws Phase4Exception
+  protected EndpointType getEndpointFromSMP (@Nonnull final IParticipantIdentifier aReceiverID,
+                                             @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                             @Nonnull final IProcessIdentifier aProcID,
+                                             @Nonnull final ISMPTransportProfile aTP) throws SMPClientException
   {
-    ValueEnforcer.notNull (aDocTypeID, "DocTypeID");
-    ValueEnforcer.notNull (aProcID, "ProcID");
-    ValueEnforcer.notNull (aReceiverID, "ReceiverID");
-
-    // Do the real SMP lookup only once
-    if (m_aEndpoint == null)
-    {
-      // Perform SMP lookup
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("Start performing SMP lookup (" +
-                      aReceiverID.getURIEncoded () +
-                      ", " +
-                      aDocTypeID.getURIEncoded () +
-                      ", " +
-                      aProcID.getURIEncoded () +
-                      ")");
-
-      // Perform SMP lookup
-      try
-      {
-        m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
-        if (m_aEndpoint == null)
-          throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
-                                        aReceiverID.getURIEncoded () +
-                                        ", " +
-                                        aDocTypeID.getURIEncoded () +
-                                        ", " +
-                                        aProcID.getURIEncoded () +
-                                        ", " +
-                                        m_aTP.getID () +
-                                        ")");
-
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("Successfully resolved SMP endpoint (" +
-                        aReceiverID.getURIEncoded () +
-                        ", " +
-                        aDocTypeID.getURIEncoded () +
-                        ", " +
-                        aProcID.getURIEncoded () +
-                        ", " +
-                        m_aTP.getID () +
-                        ")");
-      }
-      catch (final SMPClientException ex)
-      {
-        throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
-                                      aReceiverID.getURIEncoded () +
-                                      ", " +
-                                      aDocTypeID.getURIEncoded () +
-                                      ", " +
-                                      aProcID.getURIEncoded () +
-                                      ", " +
-                                      m_aTP.getID () +
-                                      ")",
-                                      ex);
-      }
-    }
+    return m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, aTP);
   }
 
+  @Override
   @Nullable
-  public X509Certificate getReceiverAPCertificate () throws Phase4Exception
+  protected X509Certificate getEndpointCertificate (@Nullable final EndpointType aEndpoint) throws CertificateException
   {
-    try
-    {
-      return BDXR2ClientReadOnly.getEndpointCertificate (m_aEndpoint);
-    }
-    catch (final CertificateException ex)
-    {
-      throw new Phase4Exception ("Failed to extract AP certificate from SMP endpoint: " + m_aEndpoint, ex);
-    }
+    return BDXR2ClientReadOnly.getEndpointCertificate (aEndpoint);
   }
 
-  @Nonnull
-  @Nonempty
-  public String getReceiverAPEndpointURL () throws Phase4Exception
+  @Override
+  @Nullable
+  protected String getEndpointAddress (@Nullable final EndpointType aEndpoint)
   {
-    final String sDestURL = BDXR2ClientReadOnly.getEndpointAddress (m_aEndpoint);
-    if (StringHelper.hasNoText (sDestURL))
-      throw new Phase4Exception ("Failed to determine the destination URL from the SMP endpoint: " + m_aEndpoint);
-    return sDestURL;
+    return BDXR2ClientReadOnly.getEndpointAddress (aEndpoint);
   }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The resolved details of a receiver endpoint as stored in the
+ * {@link AS4EndpointDetailCache}.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@Immutable
+public final class AS4EndpointDetails
+{
+  private final Object m_aEndpoint;
+  private final String m_sEndpointURL;
+  private final X509Certificate m_aCertificate;
+
+  /**
+   * Constructor
+   *
+   * @param aEndpoint
+   *        The SMP specific endpoint object the details were taken from. May
+   *        not be <code>null</code>.
+   * @param sEndpointURL
+   *        The AS4 endpoint URL of the receiver. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCertificate
+   *        The parsed AP certificate of the receiver. May be <code>null</code>.
+   */
+  public AS4EndpointDetails (@Nonnull final Object aEndpoint,
+                             @Nonnull @Nonempty final String sEndpointURL,
+                             @Nullable final X509Certificate aCertificate)
+  {
+    ValueEnforcer.notNull (aEndpoint, "Endpoint");
+    ValueEnforcer.notEmpty (sEndpointURL, "EndpointURL");
+    m_aEndpoint = aEndpoint;
+    m_sEndpointURL = sEndpointURL;
+    m_aCertificate = aCertificate;
+  }
+
+  /**
+   * @return The SMP specific endpoint object. Never <code>null</code>. It is
+   *         shared between all users of the {@link AS4EndpointDetailCache}
+   *         and must not be modified.
+   */
+  @Nonnull
+  public Object getEndpoint ()
+  {
+    return m_aEndpoint;
+  }
+
+  /**
+   * @return The AS4 endpoint URL of the receiver. Neither <code>null</code>
+   *         nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getEndpointURL ()
+  {
+    return m_sEndpointURL;
+  }
+
+  /**
+   * @return The parsed AP certificate of the receiver. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public X509Certificate getCertificate ()
+  {
+    return m_aCertificate;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("EndpointURL", m_sEndpointURL)
+                                       .append ("Certificate", m_aCertificate)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.traits.IGenericImplTrait;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.util.Phase4Exception;
+import com.helger.smpclient.exception.SMPClientException;
+
+/**
+ * Abstract base implementation of {@link IAS4EndpointDetailProvider} using an
+ * SMP client to determine this information from an endpoint. It contains the
+ * SMP lookup, the optional {@link AS4EndpointDetailCache} handling and the
+ * endpoint evaluation that are common to all SMP types.
+ *
+ * @author Philip Helger
+ * @param <ENDPOINTTYPE>
+ *        The SMP specific endpoint type
+ * @param <IMPLTYPE>
+ *        The implementation type
+ * @since 1.3.3
+ */
+public abstract class AbstractAS4EndpointDetailProviderSMP <ENDPOINTTYPE, IMPLTYPE extends AbstractAS4EndpointDetailProviderSMP <ENDPOINTTYPE, IMPLTYPE>>
+                                                           implements
+                                                           IAS4EndpointDetailProvider,
+                                                           IGenericImplTrait <IMPLTYPE>
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AbstractAS4EndpointDetailProviderSMP.class);
+
+  private final String m_sCacheProviderType;
+  private ISMPTransportProfile m_aTP;
+  private AS4EndpointDetailCache m_aEndpointDetailCache;
+  private ENDPOINTTYPE m_aEndpoint;
+  private AS4EndpointDetails m_aEndpointDetails;
+
+  /**
+   * Constructor
+   *
+   * @param sCacheProviderType
+   *        The provider type to be used in the {@link AS4EndpointDetailCache}
+   *        key. May neither be <code>null</code> nor empty.
+   * @param aDefaultTP
+   *        The default transport profile to use. May not be <code>null</code>.
+   */
+  protected AbstractAS4EndpointDetailProviderSMP (@Nonnull @Nonempty final String sCacheProviderType,
+                                                  @Nonnull final ISMPTransportProfile aDefaultTP)
+  {
+    ValueEnforcer.notEmpty (sCacheProviderType, "CacheProviderType");
+    ValueEnforcer.notNull (aDefaultTP, "DefaultTP");
+    m_sCacheProviderType = sCacheProviderType;
+    m_aTP = aDefaultTP;
+  }
+
+  /**
+   * @return The transport profile to be used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final ISMPTransportProfile getTransportProfile ()
+  {
+    return m_aTP;
+  }
+
+  /**
+   * Change the transport profile to be used. This only has an effect if it is
+   * called prior to
+   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
+   *
+   * @param aTP
+   *        The transport profile to be used. May not be <code>null</code>.
+   * @return this for chaining.
+   */
+  @Nonnull
+  public final IMPLTYPE setTransportProfile (@Nonnull final ISMPTransportProfile aTP)
+  {
+    ValueEnforcer.notNull (aTP, "TransportProfile");
+    m_aTP = aTP;
+    return thisAsT ();
+  }
+
+  /**
+   * @return The shared endpoint detail cache to be used. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final AS4EndpointDetailCache getEndpointDetailCache ()
+  {
+    return m_aEndpointDetailCache;
+  }
+
+  /**
+   * Set the shared endpoint detail cache to be used. If a cache is set, the
+   * SMP lookup and the certificate parsing are only performed if no valid
+   * cache entry is present. This only has an effect if it is called prior to
+   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
+   *
+   * @param aEndpointDetailCache
+   *        The cache to be used. May be <code>null</code> to always perform the
+   *        SMP lookup (which is the default).
+   * @return this for chaining.
+   */
+  @Nonnull
+  public final IMPLTYPE setEndpointDetailCache (@Nullable final AS4EndpointDetailCache aEndpointDetailCache)
+  {
+    m_aEndpointDetailCache = aEndpointDetailCache;
+    return thisAsT ();
+  }
+
+  /**
+   * @return The endpoint resolved. May only be non-<code>null</code> if
+   *         {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}
+   *         was called.
+   */
+  @Nullable
+  public final ENDPOINTTYPE getEndpoint ()
+  {
+    return m_aEndpoint;
+  }
+
+  /**
+   * Perform the SMP query for the endpoint.
+   *
+   * @param aReceiverID
+   *        Receiver ID. Never <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. Never <code>null</code>.
+   * @param aProcID
+   *        Process ID. Never <code>null</code>.
+   * @param aTP
+   *        Transport profile. Never <code>null</code>.
+   * @return <code>null</code> if no such endpoint is registered.
+   * @throws SMPClientException
+   *         In case the SMP query failed
+   */
+  @Nullable
+  protected abstract ENDPOINTTYPE getEndpointFromSMP (@Nonnull IParticipantIdentifier aReceiverID,
+                                                     @Nonnull IDocumentTypeIdentifier aDocTypeID,
+                                                     @Nonnull IProcessIdentifier aProcID,
+                                                     @Nonnull ISMPTransportProfile aTP) throws SMPClientException;
+
+  /**
+   * @param aEndpoint
+   *        The endpoint to evaluate. May be <code>null</code>.
+   * @return The certificate of the endpoint. May be <code>null</code>.
+   * @throws CertificateException
+   *         If the certificate cannot be parsed
+   */
+  @Nullable
+  protected abstract X509Certificate getEndpointCertificate (@Nullable ENDPOINTTYPE aEndpoint) throws CertificateException;
+
+  /**
+   * @param aEndpoint
+   *        The endpoint to evaluate. May be <code>null</code>.
+   * @return The address URL of the endpoint. May be <code>null</code>.
+   */
+  @Nullable
+  protected abstract String getEndpointAddress (@Nullable ENDPOINTTYPE aEndpoint);
+
+  @Nonnull
+  private ENDPOINTTYPE _lookupEndpoint (@Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                        @Nonnull final IProcessIdentifier aProcID,
+                                        @Nonnull final IParticipantIdentifier aReceiverID,
+                                        @Nonnull final ISMPTransportProfile aTP) throws Phase4Exception
+  {
+    // Perform SMP lookup
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Start performing SMP lookup (" +
+                    aReceiverID.getURIEncoded () +
+                    ", " +
+                    aDocTypeID.getURIEncoded () +
+                    ", " +
+                    aProcID.getURIEncoded () +
+                    ")");
+
+    final String sLookupDetails = "(" +
+                                  aReceiverID.getURIEncoded () +
+                                  ", " +
+                                  aDocTypeID.getURIEncoded () +
+                                  ", " +
+                                  aProcID.getURIEncoded () +
+                                  ", " +
+                                  aTP.getID () +
+                                  ")";
+    try
+    {
+      final ENDPOINTTYPE ret = getEndpointFromSMP (aReceiverID, aDocTypeID, aProcID, aTP);
+      if (ret == null)
+        throw new Phase4SMPException ("Failed to resolve SMP endpoint " + sLookupDetails);
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Successfully resolved SMP endpoint " + sLookupDetails);
+      return ret;
+    }
+    catch (final SMPClientException ex)
+    {
+      throw new Phase4SMPException ("Failed to resolve SMP endpoint " + sLookupDetails, ex);
+    }
+  }
+
+  @Nullable
+  private X509Certificate _getEndpointCertificate (@Nullable final ENDPOINTTYPE aEndpoint) throws Phase4Exception
+  {
+    try
+    {
+      return getEndpointCertificate (aEndpoint);
+    }
+    catch (final CertificateException ex)
+    {
+      throw new Phase4Exception ("Failed to extract AP certificate from SMP endpoint: " + aEndpoint, ex);
+    }
+  }
+
+  @Nonnull
+  @Nonempty
+  private String _getEndpointURL (@Nullable final ENDPOINTTYPE aEndpoint) throws Phase4Exception
+  {
+    final String sDestURL = getEndpointAddress (aEndpoint);
+    if (StringHelper.hasNoText (sDestURL))
+      throw new Phase4Exception ("Failed to determine the destination URL from the SMP endpoint: " + aEndpoint);
+    return sDestURL;
+  }
+
+  @SuppressWarnings ("unchecked")
+  public void init (@Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                    @Nonnull final IProcessIdentifier aProcID,
+                    @Nonnull final IParticipantIdentifier aReceiverID) throws Phase4Exception
+  {
+    ValueEnforcer.notNull (aDocTypeID, "DocTypeID");
+    ValueEnforcer.notNull (aProcID, "ProcID");
+    ValueEnforcer.notNull (aReceiverID, "ReceiverID");
+
+    // Do the real SMP lookup only once
+    if (m_aEndpoint == null)
+    {
+      final ISMPTransportProfile aTP = m_aTP;
+      if (m_aEndpointDetailCache != null)
+      {
+        // Lookup and parse only if not cached
+        final String sCacheKey = AS4EndpointDetailCache.createKey (m_sCacheProviderType, aReceiverID, aDocTypeID, aProcID, aTP);
+        final AS4EndpointDetails aDetails = m_aEndpointDetailCache.getOrResolve (sCacheKey, () -> {
+          final ENDPOINTTYPE aEndpoint = _lookupEndpoint (aDocTypeID, aProcID, aReceiverID, aTP);
+          return new AS4EndpointDetails (aEndpoint, _getEndpointURL (aEndpoint), _getEndpointCertificate (aEndpoint));
+        });
+        // The provider type is part of the key, so the type matches
+        m_aEndpoint = (ENDPOINTTYPE) aDetails.getEndpoint ();
+        m_aEndpointDetails = aDetails;
+      }
+      else
+        m_aEndpoint = _lookupEndpoint (aDocTypeID, aProcID, aReceiverID, aTP);
+    }
+  }
+
+  @Nullable
+  public X509Certificate getReceiverAPCertificate () throws Phase4Exception
+  {
+    if (m_aEndpointDetails != null)
+      return m_aEndpointDetails.getCertificate ();
+    return _getEndpointCertificate (m_aEndpoint);
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getReceiverAPEndpointURL () throws Phase4Exception
+  {
+    if (m_aEndpointDetails != null)
+      return m_aEndpointDetails.getEndpointURL ();
+    return _getEndpointURL (m_aEndpoint);
+  }
+}
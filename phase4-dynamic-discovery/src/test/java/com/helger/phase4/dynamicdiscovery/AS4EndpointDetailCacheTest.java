@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.peppol.smp.ESMPTransportProfile;
+import com.helger.peppolid.factory.SimpleIdentifierFactory;
+
+/**
+ * Test class for class {@link AS4EndpointDetailCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4EndpointDetailCacheTest
+{
+  @Test
+  public void testBasic () throws Exception
+  {
+    final AS4EndpointDetailCache aCache = new AS4EndpointDetailCache (Duration.ofMinutes (5), 1, 2);
+    final AtomicInteger aCount = new AtomicInteger (0);
+    final AS4EndpointDetails aDetails = new AS4EndpointDetails ("ep", "http://localhost:8080/as4", null);
+
+    final String sKey = AS4EndpointDetailCache.createKey ("peppol",
+                                                          SimpleIdentifierFactory.INSTANCE.createParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                                                        "9915:test"),
+                                                          SimpleIdentifierFactory.INSTANCE.createDocumentTypeIdentifier ("busdox-docid-qns",
+                                                                                                                         "doc"),
+                                                          SimpleIdentifierFactory.INSTANCE.createProcessIdentifier ("cenbii-procid-ubl",
+                                                                                                                    "proc"),
+                                                          ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2);
+    assertSame (aDetails, aCache.getOrResolve (sKey, () -> {
+      aCount.incrementAndGet ();
+      return aDetails;
+    }));
+    assertSame (aDetails, aCache.getOrResolve (sKey, () -> {
+      aCount.incrementAndGet ();
+      return aDetails;
+    }));
+    assertEquals (1, aCount.get ());
+    assertEquals (1, aCache.size ());
+
+    // Failures are not cached
+    for (int i = 0; i < 2; ++i)
+      try
+      {
+        aCache.getOrResolve ("error", () -> {
+          aCount.incrementAndGet ();
+          throw new Phase4SMPException ("bla");
+        });
+        fail ();
+      }
+      catch (final Phase4SMPException ex)
+      {
+        // expected
+      }
+    assertEquals (3, aCount.get ());
+    assertEquals (1, aCache.size ());
+
+    // LRU
+    aCache.getOrResolve ("a", () -> aDetails);
+    aCache.getOrResolve ("b", () -> aDetails);
+    assertEquals (2, aCache.size ());
+    aCache.clear ();
+    assertEquals (0, aCache.size ());
+  }
+
+  @Test (timeout = 10_000)
+  public void testBackgroundRefreshScheduledOnce () throws Exception
+  {
+    // Refresh after 60 ms
+    final AS4EndpointDetailCache aCache = new AS4EndpointDetailCache (Duration.ofMinutes (1), 0.001, 10);
+    final AS4EndpointDetails aDetails = new AS4EndpointDetails ("ep", "http://localhost:8080/as4", null);
+    final AtomicInteger aCount = new AtomicInteger (0);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AS4EndpointDetailCache.IEndpointDetailResolver aResolver = () -> {
+      if (aCount.incrementAndGet () > 1)
+        try
+        {
+          aRelease.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+      return aDetails;
+    };
+
+    assertSame (aDetails, aCache.getOrResolve ("key", aResolver));
+    Thread.sleep (100);
+
+    // Stale entries are returned, but only one refresh is scheduled
+    for (int i = 0; i < 100; ++i)
+      assertSame (aDetails, aCache.getOrResolve ("key", aResolver));
+    assertEquals (1, aCache.getPendingRefreshCount ());
+
+    aRelease.countDown ();
+    while (aCache.getPendingRefreshCount () > 0)
+      Thread.sleep (10);
+    assertEquals (2, aCount.get ());
+  }
+}
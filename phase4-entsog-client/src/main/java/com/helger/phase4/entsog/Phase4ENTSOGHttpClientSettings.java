@@ -21,10 +21,13 @@ package com.helger.phase4.entsog;
 
 import java.security.GeneralSecurityException;
 
+import javax.annotation.Nonnull;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 
+import com.helger.commons.exception.InitializationException;
 import com.helger.commons.ws.TrustManagerTrustAll;
+import com.helger.httpclient.HttpClientFactory;
 import com.helger.httpclient.HttpClientSettings;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.CAS4Version;
@@ -53,4 +56,32 @@ public class Phase4ENTSOGHttpClientSettings extends HttpClientSettings
     // Set an explicit user agent
     setUserAgent (CAS4.LIB_NAME + "/" + CAS4Version.BUILD_VERSION + " " + CAS4.LIB_URL);
   }
+
+  private static final class SharedFactoryHolder
+  {
+    private static final HttpClientFactory INSTANCE;
+    static
+    {
+      try
+      {
+        INSTANCE = new HttpClientFactory (new Phase4ENTSOGHttpClientSettings ());
+      }
+      catch (final GeneralSecurityException ex)
+      {
+        throw new InitializationException ("Failed to create shared ENTSOG HTTP client factory", ex);
+      }
+    }
+  }
+
+  /**
+   * @return The {@link HttpClientFactory} with the default ENTSOG settings.
+   *         It is shared between all senders by default, so that the pooled
+   *         HTTP connections can be reused. Never <code>null</code>.
+   * @since 1.3.3
+   */
+  @Nonnull
+  public static HttpClientFactory getSharedHttpClientFactory ()
+  {
+    return SharedFactoryHolder.INSTANCE;
+  }
 }
@@ -85,7 +85,7 @@ public final class Phase4ENTSOGSender
       // Override default values
       try
       {
-        httpClientFactory (new Phase4ENTSOGHttpClientSettings ());
+        httpClientFactory (Phase4ENTSOGHttpClientSettings.getSharedHttpClientFactory ());
         setSigningKeyIdentifierType (DEFAULT_KEY_IDENTIFIER_TYPE);
         encryptionKeyIdentifierType (DEFAULT_KEY_IDENTIFIER_TYPE);
       }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * An {@link InputStream} that compresses the content of another
+ * {@link InputStream} while it is read. This avoids the need to compress into a
+ * temporary file first. The compressed content is deterministic, so reading the
+ * same source twice (e.g. for signing and sending) results in the same bytes.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@NotThreadSafe
+public class AS4CompressingInputStream extends InputStream
+{
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private final InputStream m_aSrcIS;
+  private final NonBlockingByteArrayOutputStream m_aCompressedBuffer = new NonBlockingByteArrayOutputStream (BUFFER_SIZE);
+  private final OutputStream m_aCompressOS;
+  private final byte [] m_aReadBuffer = new byte [BUFFER_SIZE];
+  private byte [] m_aPending = new byte [0];
+  private int m_nPendingPos = 0;
+  private boolean m_bSrcEOF = false;
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor
+   *
+   * @param aSrcIS
+   *        The uncompressed source stream. May not be <code>null</code>.
+   * @param eCompressionMode
+   *        The compression mode to use. May not be <code>null</code>.
+   * @throws IOException
+   *         If the compression stream cannot be created
+   */
+  public AS4CompressingInputStream (@Nonnull @WillClose final InputStream aSrcIS,
+                                    @Nonnull final EAS4CompressionMode eCompressionMode) throws IOException
+  {
+    ValueEnforcer.notNull (aSrcIS, "SrcIS");
+    ValueEnforcer.notNull (eCompressionMode, "CompressionMode");
+    m_aSrcIS = aSrcIS;
+    m_aCompressOS = eCompressionMode.getCompressStream (m_aCompressedBuffer);
+  }
+
+  /**
+   * Ensure that there are pending compressed bytes available.
+   *
+   * @return <code>false</code> if the end of the compressed content was
+   *         reached.
+   */
+  private boolean _fill () throws IOException
+  {
+    if (m_bClosed)
+      throw new IOException ("Stream is already closed");
+
+    while (m_nPendingPos >= m_aPending.length)
+    {
+      if (m_bSrcEOF)
+        return false;
+
+      final int nRead = m_aSrcIS.read (m_aReadBuffer, 0, m_aReadBuffer.length);
+      if (nRead < 0)
+      {
+        // Writes the trailer
+        m_aCompressOS.close ();
+        m_bSrcEOF = true;
+      }
+      else
+        m_aCompressOS.write (m_aReadBuffer, 0, nRead);
+
+      if (m_aCompressedBuffer.size () > 0)
+      {
+        m_aPending = m_aCompressedBuffer.toByteArray ();
+        m_nPendingPos = 0;
+        m_aCompressedBuffer.reset ();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int read () throws IOException
+  {
+    if (!_fill ())
+      return -1;
+    return m_aPending[m_nPendingPos++] & 0xff;
+  }
+
+  @Override
+  public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+  {
+    ValueEnforcer.isArrayOfsLen (aBuf, nOfs, nLen);
+    if (nLen == 0)
+      return 0;
+    if (!_fill ())
+      return -1;
+
+    final int nCount = Math.min (nLen, m_aPending.length - m_nPendingPos);
+    System.arraycopy (m_aPending, m_nPendingPos, aBuf, nOfs, nCount);
+    m_nPendingPos += nCount;
+    return nCount;
+  }
+
+  @Override
+  public int available ()
+  {
+    return m_bClosed ? 0 : m_aPending.length - m_nPendingPos;
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    if (!m_bClosed)
+    {
+      m_bClosed = true;
+      // Releases the native resources of the compressor
+      StreamHelper.close (m_aCompressOS);
+      m_aSrcIS.close ();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A special {@link DataHandler} for attachments that are sent unchanged from a
+ * file. Instead of copying the file content through buffered streams, it is
+ * transferred via {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * If the target is a file or socket stream, the JDK may transfer the content
+ * without copying it into the Java heap.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+public class AS4FileDataHandler extends DataHandler
+{
+  private final File m_aFile;
+
+  /**
+   * Constructor
+   *
+   * @param aDS
+   *        The data source representing the file content. It is used for all
+   *        operations except writing. May not be <code>null</code>.
+   * @param aFile
+   *        The file to be transferred. May not be <code>null</code>.
+   */
+  public AS4FileDataHandler (@Nonnull final DataSource aDS, @Nonnull final File aFile)
+  {
+    super (aDS);
+    ValueEnforcer.notNull (aFile, "File");
+    m_aFile = aFile;
+  }
+
+  /**
+   * @return The file to be transferred. Never <code>null</code>.
+   */
+  @Nonnull
+  public final File getFile ()
+  {
+    return m_aFile;
+  }
+
+  @Override
+  public void writeTo (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    try (final FileInputStream aFIS = new FileInputStream (m_aFile); final FileChannel aChannel = aFIS.getChannel ())
+    {
+      // Must not be closed, as this would close the OutputStream
+      final WritableByteChannel aTarget = Channels.newChannel (aOS);
+      final long nSize = aChannel.size ();
+      long nPos = 0;
+      while (nPos < nSize)
+      {
+        final long nTransferred = aChannel.transferTo (nPos, nSize - nPos, aTarget);
+        if (nTransferred <= 0)
+          throw new IOException ("Failed to transfer file " + m_aFile + " at position " + nPos + " of " + nSize);
+        nPos += nTransferred;
+      }
+    }
+  }
+}
@@ -17,11 +17,15 @@
 package com.helger.phase4.attachment;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.annotation.Nonnull;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.util.AS4ResourceHelper;
 
 /**
@@ -50,10 +54,60 @@ public interface IAS4IncomingAttachmentFactory
   WSS4JAttachment createAttachment (@Nonnull MimeBodyPart aBodyPart, @Nonnull AS4ResourceHelper aResHelper) throws IOException,
                                                                                                             MessagingException;
 
+  /**
+   * Create an attachment from a MIME part of which only the headers were read.
+   * This is used if incoming attachments are streamed. The default
+   * implementation reads the whole content into a {@link MimeBodyPart} and
+   * calls {@link #createAttachment(MimeBodyPart, AS4ResourceHelper)}.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aContentIS
+   *        The raw (not yet decoded) MIME part content. May not be
+   *        <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The internal attachment representation. Never <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @throws MessagingException
+   *         In case MIME part reading fails.
+   * @since 1.3.3
+   */
+  @Nonnull
+  default WSS4JAttachment createAttachment (@Nonnull final InternetHeaders aHeaders,
+                                            @Nonnull final InputStream aContentIS,
+                                            @Nonnull final AS4ResourceHelper aResHelper) throws IOException, MessagingException
+  {
+    return createAttachment (new MimeBodyPart (aHeaders, StreamHelper.getAllBytes (aContentIS)), aResHelper);
+  }
+
   /**
    * The default instance of {@link IAS4IncomingAttachmentFactory} that uses
    * {@link WSS4JAttachment#createIncomingFileAttachment(MimeBodyPart, AS4ResourceHelper)}
+   * and
+   * {@link WSS4JAttachment#createIncomingFileAttachment(InternetHeaders, InputStream, AS4ResourceHelper, long)}
    */
   @Nonnull
-  IAS4IncomingAttachmentFactory DEFAULT_INSTANCE = WSS4JAttachment::createIncomingFileAttachment;
+  IAS4IncomingAttachmentFactory DEFAULT_INSTANCE = new IAS4IncomingAttachmentFactory ()
+  {
+    @Nonnull
+    public WSS4JAttachment createAttachment (@Nonnull final MimeBodyPart aBodyPart,
+                                             @Nonnull final AS4ResourceHelper aResHelper) throws IOException, MessagingException
+    {
+      return WSS4JAttachment.createIncomingFileAttachment (aBodyPart, aResHelper);
+    }
+
+    @Override
+    @Nonnull
+    public WSS4JAttachment createAttachment (@Nonnull final InternetHeaders aHeaders,
+                                             @Nonnull final InputStream aContentIS,
+                                             @Nonnull final AS4ResourceHelper aResHelper) throws IOException, MessagingException
+    {
+      return WSS4JAttachment.createIncomingFileAttachment (aHeaders,
+                                                           aContentIS,
+                                                           aResHelper,
+                                                           AS4Configuration.getIncomingAttachmentMemoryThreshold ());
+    }
+  };
 }
@@ -27,14 +27,17 @@ import java.util.Map;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.mail.Header;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimeUtility;
 
 import org.apache.wss4j.common.ext.Attachment;
 import org.slf4j.Logger;
@@ -51,12 +54,14 @@ import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.mail.datasource.InputStreamProviderDataSource;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.util.AS4ResourceHelper;
 
@@ -80,6 +85,8 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
   private final AS4ResourceHelper m_aResHelper;
   private IHasInputStream m_aISP;
+  // The file that is sent unchanged, if any
+  private File m_aSrcFile;
   private EContentTransferEncoding m_eCTE = EContentTransferEncoding.BINARY;
   private EAS4CompressionMode m_eCompressionMode;
   private Charset m_aCharset;
@@ -185,6 +192,36 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   {
     ValueEnforcer.notNull (aISP, "InputStreamProvider");
     m_aISP = aISP;
+    m_aSrcFile = null;
+  }
+
+  /**
+   * @return The file that is sent unchanged as the content of this attachment
+   *         or <code>null</code> if the content is not a plain file.
+   * @since 1.3.3
+   */
+  @Nullable
+  public final File getSourceFile ()
+  {
+    return m_aSrcFile;
+  }
+
+  /**
+   * Use the provided file as the unchanged content of this attachment. When
+   * the attachment is written, the file content is transferred via a
+   * {@link java.nio.channels.FileChannel}.
+   *
+   * @param aSrcFile
+   *        The source file. May not be <code>null</code>.
+   * @since 1.3.3
+   */
+  public void setSourceFile (@Nonnull final File aSrcFile)
+  {
+    ValueEnforcer.notNull (aSrcFile, "SrcFile");
+    // Set a stream provider that can be read multiple times (opens a new
+    // FileInputStream internally)
+    setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aSrcFile)));
+    m_aSrcFile = aSrcFile;
   }
 
   @Nonnull
@@ -288,7 +325,8 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     // headers
     // On some tests the datahandler did reset content-type and transfer
     // encoding, so this is now the correct order
-    aMimeBodyPart.setDataHandler (new DataHandler (_getAsDataSource ()));
+    final DataSource aDS = _getAsDataSource ();
+    aMimeBodyPart.setDataHandler (m_aSrcFile != null ? new AS4FileDataHandler (aDS, m_aSrcFile) : new DataHandler (aDS));
 
     // After DataHandler!!
     aMimeBodyPart.setHeader (CHttpHeader.CONTENT_TYPE, getMimeType ());
@@ -312,6 +350,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                        .append ("Headers", getHeaders ())
                                        .append ("ResourceManager", m_aResHelper)
                                        .append ("ISP", m_aISP)
+                                       .append ("SrcFile", m_aSrcFile)
                                        .append ("CTE", m_eCTE)
                                        .append ("CM", m_eCompressionMode)
                                        .append ("Charset", m_aCharset)
@@ -409,28 +448,45 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
     // If the attachment has an compressionMode do it directly, so that
     // encryption later on works on the compressed content
-    final File aRealFile;
     if (eCompressionMode != null)
     {
       ret.setCompressionMode (eCompressionMode);
 
-      // Create temporary file with compressed content to avoid that the
-      // original is compressed more than once
-      aRealFile = aResHelper.createTempFile ();
-      try (final OutputStream aOS = eCompressionMode.getCompressStream (FileHelper.getBufferedOutputStream (aRealFile)))
+      if (AS4Configuration.isOutgoingAttachmentInlineCompression ())
+      {
+        // Compress while reading - each reader compresses on its own, but no
+        // temporary file is needed
+        ret.setSourceStreamProvider (HasInputStream.multiple ( () -> {
+          final InputStream aIS = FileHelper.getBufferedInputStream (aSrcFile);
+          if (aIS == null)
+            return null;
+          try
+          {
+            return new AS4CompressingInputStream (aIS, eCompressionMode);
+          }
+          catch (final IOException ex)
+          {
+            throw new UncheckedIOException (ex);
+          }
+        }));
+      }
+      else
       {
-        StreamHelper.copyInputStreamToOutputStream (FileHelper.getBufferedInputStream (aSrcFile), aOS);
+        // Create temporary file with compressed content to avoid that the
+        // original is compressed more than once
+        final File aRealFile = aResHelper.createTempFile ();
+        try (final OutputStream aOS = eCompressionMode.getCompressStream (FileHelper.getBufferedOutputStream (aRealFile)))
+        {
+          StreamHelper.copyInputStreamToOutputStream (FileHelper.getBufferedInputStream (aSrcFile), aOS);
+        }
+        ret.setSourceFile (aRealFile);
       }
     }
     else
     {
       // No compression - use file as-is
-      aRealFile = aSrcFile;
+      ret.setSourceFile (aSrcFile);
     }
-
-    // Set a stream provider that can be read multiple times (opens a new
-    // FileInputStream internally)
-    ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile)));
     return ret;
   }
 
@@ -590,4 +646,152 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
     return ret;
   }
+
+  /**
+   * Get the content of a MIME part with the Content-Transfer-Encoding of the
+   * provided headers being decoded.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aContentIS
+   *        The raw MIME part content, positioned after the headers. May not be
+   *        <code>null</code>.
+   * @return The decoded input stream. Never <code>null</code>.
+   * @throws MessagingException
+   *         In case the Content-Transfer-Encoding is unknown
+   * @since 1.3.3
+   */
+  @Nonnull
+  public static InputStream getDecodedInputStream (@Nonnull final InternetHeaders aHeaders,
+                                                   @Nonnull final InputStream aContentIS) throws MessagingException
+  {
+    final String sCTE = aHeaders.getHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, null);
+    return sCTE == null ? aContentIS : MimeUtility.decode (aContentIS, sCTE.trim ());
+  }
+
+  /**
+   * Read the provided stream completely and make the content available for
+   * multiple reads. Only the first bytes up to the provided threshold are
+   * buffered in memory - larger content is written directly to a temporary
+   * file.
+   *
+   * @param aIS
+   *        The input stream to read. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use for the temporary file. May not be
+   *        <code>null</code>.
+   * @param nMemoryThreshold
+   *        The number of bytes up to which the content is kept in memory. Must
+   *        be &ge; 0.
+   * @return An input stream provider that can be read multiple times. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @since 1.3.3
+   */
+  @Nonnull
+  public static IHasInputStream createSpooledInputStreamProvider (@Nonnull @WillNotClose final InputStream aIS,
+                                                                  @Nonnull final AS4ResourceHelper aResHelper,
+                                                                  @Nonnegative final long nMemoryThreshold) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+    ValueEnforcer.isGE0 (nMemoryThreshold, "MemoryThreshold");
+
+    final byte [] aBuffer = new byte [16 * CGlobal.BYTES_PER_KILOBYTE];
+
+    // Buffer until the threshold is exceeded
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      long nTotal = 0;
+      int nRead;
+      while (nTotal <= nMemoryThreshold && (nRead = aIS.read (aBuffer)) != -1)
+      {
+        aBAOS.write (aBuffer, 0, nRead);
+        nTotal += nRead;
+      }
+
+      if (nTotal <= nMemoryThreshold)
+      {
+        // Completely read - keep in memory
+        final byte [] aData = aBAOS.toByteArray ();
+        return HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aData));
+      }
+
+      // Write the buffered part and the rest to a temp file
+      final File aTempFile = aResHelper.createTempFile ();
+      try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aTempFile))
+      {
+        aBAOS.writeTo (aOS);
+        while ((nRead = aIS.read (aBuffer)) != -1)
+          aOS.write (aBuffer, 0, nRead);
+      }
+      return HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile));
+    }
+  }
+
+  /**
+   * Create an incoming attachment by streaming the MIME part content. Only
+   * the first bytes up to the provided threshold are buffered in memory -
+   * larger attachments are written directly to a temporary file. So the heap
+   * usage is independent of the attachment size.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aContentIS
+   *        The raw MIME part content, positioned after the headers. May not be
+   *        <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @param nMemoryThreshold
+   *        The number of bytes up to which the attachment is kept in memory.
+   *        Must be &ge; 0.
+   * @return The internal attachment representation. Never <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @throws MessagingException
+   *         In case the Content-Transfer-Encoding is unknown
+   * @since 1.3.3
+   */
+  @Nonnull
+  public static WSS4JAttachment createIncomingFileAttachment (@Nonnull final InternetHeaders aHeaders,
+                                                              @Nonnull @WillNotClose final InputStream aContentIS,
+                                                              @Nonnull final AS4ResourceHelper aResHelper,
+                                                              @Nonnegative final long nMemoryThreshold) throws MessagingException,
+                                                                                                        IOException
+  {
+    ValueEnforcer.notNull (aHeaders, "Headers");
+    ValueEnforcer.notNull (aContentIS, "ContentIS");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+    ValueEnforcer.isGE0 (nMemoryThreshold, "MemoryThreshold");
+
+    // Same default as in MimeBodyPart
+    final String sContentType = aHeaders.getHeader (CHttpHeader.CONTENT_TYPE, null);
+    final WSS4JAttachment ret = new WSS4JAttachment (aResHelper, sContentType != null ? sContentType : "text/plain");
+
+    {
+      // Reference in Content-ID header is: "<ID>"
+      final String sRealContentID = StringHelper.trimStartAndEnd (aHeaders.getHeader (CHttpHeader.CONTENT_ID, null), '<', '>');
+      ret.setId (sRealContentID);
+    }
+
+    ret.setSourceStreamProvider (createSpooledInputStreamProvider (getDecodedInputStream (aHeaders, aContentIS),
+                                                                   aResHelper,
+                                                                   nMemoryThreshold));
+
+    // Read all MIME part headers
+    final Enumeration <Header> aEnum = aHeaders.getAllHeaders ();
+    while (aEnum.hasMoreElements ())
+    {
+      final Header aHeader = aEnum.nextElement ();
+      ret.addHeader (aHeader.getName (), aHeader.getValue ());
+    }
+
+    // These headers are mandatory and overwrite headers from the MIME body part
+    ret.addHeader (CHttpHeader.CONTENT_DESCRIPTION, CONTENT_DESCRIPTION_ATTACHMENT);
+    ret.addHeader (CHttpHeader.CONTENT_ID, CONTENT_ID_PREFIX + ret.getId () + CONTENT_ID_SUFFIX);
+    ret.addHeader (CHttpHeader.CONTENT_TYPE, ret.getMimeType ());
+
+    return ret;
+  }
 }
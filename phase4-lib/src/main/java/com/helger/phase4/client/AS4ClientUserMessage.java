@@ -78,6 +78,7 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4ClientUserMessage.class);
 
   private Node m_aPayload;
+  private boolean m_bAdoptPayload = false;
   private final ICommonsList <WSS4JAttachment> m_aAttachments = new CommonsArrayList <> ();
 
   // Document related attributes
@@ -131,6 +132,35 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
     return this;
   }
 
+  /**
+   * @return <code>true</code> if the payload is moved into the SOAP document
+   *         when building the message, <code>false</code> if it is copied.
+   * @since 1.3.3
+   */
+  public final boolean isAdoptPayload ()
+  {
+    return m_bAdoptPayload;
+  }
+
+  /**
+   * Define whether the payload should be moved into the SOAP document instead
+   * of being copied. This avoids copying the payload, but removes it from its
+   * source document. Only enable this if the payload document was created
+   * solely for this message.
+   *
+   * @param bAdoptPayload
+   *        <code>true</code> to adopt the payload, <code>false</code> to copy
+   *        it. The default is <code>false</code>.
+   * @return this for chaining
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final AS4ClientUserMessage setAdoptPayload (final boolean bAdoptPayload)
+  {
+    m_bAdoptPayload = bAdoptPayload;
+    return this;
+  }
+
   @Nonnull
   @ReturnsMutableObject
   public final ICommonsList <WSS4JAttachment> attachments ()
@@ -639,7 +669,7 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
     if (aCallback != null)
       aCallback.onAS4Message (aUserMsg);
 
-    final Document aPureDoc = aUserMsg.getAsSoapDocument (m_aPayload);
+    final Document aPureDoc = aUserMsg.getAsSoapDocument (m_aPayload, m_bAdoptPayload);
 
     if (aCallback != null)
       aCallback.onSoapDocument (aPureDoc);
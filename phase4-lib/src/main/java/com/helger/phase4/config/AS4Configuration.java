@@ -25,6 +25,7 @@ import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.equals.EqualsHelper;
@@ -63,8 +64,88 @@ public final class AS4Configuration
   public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY = "phase4.wss4j.syncsecurity";
   public static final boolean DEFAULT_PHASE4_WSS4J_SYNCSECURITY = false;
 
+  /**
+   * The boolean property to allow parallel execution of sign/verify and
+   * encrypt/decrypt if synchronization is enabled.
+   *
+   * @since 1.3.3
+   */
+  public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT = "phase4.wss4j.syncsecurity.concurrent";
+  public static final boolean DEFAULT_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT = false;
+
   public static final long DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES = 10;
 
+  /**
+   * The boolean property to stream incoming MIME attachments instead of
+   * reading each MIME part completely into memory.
+   *
+   * @since 1.3.3
+   */
+  public static final String PROPERTY_PHASE4_INCOMING_ATTACHMENT_STREAMING = "phase4.incoming.attachment.streaming";
+  public static final boolean DEFAULT_PHASE4_INCOMING_ATTACHMENT_STREAMING = true;
+
+  /**
+   * The number of bytes up to which an incoming attachment is kept in memory.
+   * Larger attachments are stored in a temporary file.
+   *
+   * @since 1.3.3
+   */
+  public static final String PROPERTY_PHASE4_INCOMING_ATTACHMENT_MEMORY_THRESHOLD = "phase4.incoming.attachment.memorythreshold";
+  public static final long DEFAULT_PHASE4_INCOMING_ATTACHMENT_MEMORY_THRESHOLD = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  /**
+   * The boolean property to compress outgoing file attachments while they are
+   * read instead of compressing them into a temporary file.
+   *
+   * @since 1.3.3
+   */
+  public static final String PROPERTY_PHASE4_OUTGOING_ATTACHMENT_INLINE_COMPRESSION = "phase4.outgoing.attachment.inlinecompression";
+  public static final boolean DEFAULT_PHASE4_OUTGOING_ATTACHMENT_INLINE_COMPRESSION = false;
+
+  /**
+   * The number of threads used for the asynchronous processing of incoming
+   * messages. Values &le; 0 mean twice the number of available processors.
+   *
+   * @since 1.3.3
+   */
+  public static final String PROPERTY_PHASE4_ASYNC_THREADS = "phase4.async.threads";
+  public static final int DEFAULT_PHASE4_ASYNC_THREADS = 0;
+
+  /**
+   * The maximum number of asynchronous processing tasks waiting for a thread.
+   *
+   * @since 1.3.3
+   */
+  public static final String PROPERTY_PHASE4_ASYNC_QUEUE_CAPACITY = "phase4.async.queuecapacity";
+  public static final int DEFAULT_PHASE4_ASYNC_QUEUE_CAPACITY = 1000;
+
+  /**
+   * The maximum number of queued or running asynchronous processing tasks per
+   * PMode. Values &le; 0 mean unlimited.
+   *
+   * @since 1.3.3
+   */
+  public static final String PROPERTY_PHASE4_ASYNC_MAX_PER_KEY = "phase4.async.maxperkey";
+  public static final int DEFAULT_PHASE4_ASYNC_MAX_PER_KEY = 0;
+
+  /**
+   * The boolean property to load the default crypto material when the AS4
+   * server is initialized.
+   *
+   * @since 1.3.3
+   */
+  public static final String PROPERTY_PHASE4_CRYPTO_WARMUP = "phase4.crypto.warmup";
+  public static final boolean DEFAULT_PHASE4_CRYPTO_WARMUP = true;
+
+  /**
+   * The boolean property to reload the default crypto material if the key
+   * store or trust store files are changed.
+   *
+   * @since 1.3.3
+   */
+  public static final String PROPERTY_PHASE4_CRYPTO_HOTRELOAD = "phase4.crypto.hotreload";
+  public static final boolean DEFAULT_PHASE4_CRYPTO_HOTRELOAD = false;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4Configuration.class);
 
   /**
@@ -227,6 +308,22 @@ public final class AS4Configuration
     return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
   }
 
+  /**
+   * @return <code>true</code> if the synchronized WSS4J actions should not be
+   *         linearized in a global lock but run in parallel, using one
+   *         WSSConfig per thread. This is only evaluated if
+   *         {@link #isWSS4JSynchronizedSecurity()} returns <code>true</code>.
+   *         The configuration item is
+   *         <code>phase4.wss4j.syncsecurity.concurrent</code>.
+   * @since 1.3.3
+   */
+  public static boolean isWSS4JSynchronizedSecurityConcurrent ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT);
+  }
+
   /**
    * @return The AS4 profile to use, taken from the configuration item
    *         <code>phase4.profile</code>. May be <code>null</code>.
@@ -249,6 +346,110 @@ public final class AS4Configuration
     return getConfig ().getAsLong ("phase4.incoming.duplicatedisposal.minutes", DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES);
   }
 
+  /**
+   * @return <code>true</code> if incoming MIME attachments should be streamed
+   *         to memory or a temporary file without buffering the whole MIME
+   *         part first. Taken from the configuration item
+   *         <code>phase4.incoming.attachment.streaming</code>.
+   * @since 1.3.3
+   */
+  public static boolean isIncomingAttachmentStreaming ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_INCOMING_ATTACHMENT_STREAMING);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_INCOMING_ATTACHMENT_STREAMING);
+  }
+
+  /**
+   * @return The maximum number of bytes of an incoming attachment that is kept
+   *         in memory. Taken from the configuration item
+   *         <code>phase4.incoming.attachment.memorythreshold</code>. By default
+   *         this is {@value #DEFAULT_PHASE4_INCOMING_ATTACHMENT_MEMORY_THRESHOLD}
+   *         bytes.
+   * @since 1.3.3
+   */
+  public static long getIncomingAttachmentMemoryThreshold ()
+  {
+    return getConfig ().getAsLong (PROPERTY_PHASE4_INCOMING_ATTACHMENT_MEMORY_THRESHOLD, DEFAULT_PHASE4_INCOMING_ATTACHMENT_MEMORY_THRESHOLD);
+  }
+
+  /**
+   * @return <code>true</code> if outgoing file attachments should be
+   *         compressed while they are read, <code>false</code> if they should
+   *         be compressed into a temporary file first. Taken from the
+   *         configuration item
+   *         <code>phase4.outgoing.attachment.inlinecompression</code>.
+   *         Disabled by default, as the attachment is read (and therefore
+   *         compressed) more than once, e.g. for signing and sending.
+   * @since 1.3.3
+   */
+  public static boolean isOutgoingAttachmentInlineCompression ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_OUTGOING_ATTACHMENT_INLINE_COMPRESSION);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_OUTGOING_ATTACHMENT_INLINE_COMPRESSION);
+  }
+
+  /**
+   * @return The number of threads for the asynchronous processing of incoming
+   *         messages. Taken from the configuration item
+   *         <code>phase4.async.threads</code>. Values &le; 0 mean twice the
+   *         number of available processors.
+   * @since 1.3.3
+   */
+  public static int getAsyncThreads ()
+  {
+    return getConfig ().getAsInt (PROPERTY_PHASE4_ASYNC_THREADS, DEFAULT_PHASE4_ASYNC_THREADS);
+  }
+
+  /**
+   * @return The maximum number of waiting asynchronous processing tasks. Taken
+   *         from the configuration item <code>phase4.async.queuecapacity</code>.
+   *         By default this is {@value #DEFAULT_PHASE4_ASYNC_QUEUE_CAPACITY}.
+   * @since 1.3.3
+   */
+  public static int getAsyncQueueCapacity ()
+  {
+    return getConfig ().getAsInt (PROPERTY_PHASE4_ASYNC_QUEUE_CAPACITY, DEFAULT_PHASE4_ASYNC_QUEUE_CAPACITY);
+  }
+
+  /**
+   * @return The maximum number of queued or running asynchronous processing
+   *         tasks per PMode. Taken from the configuration item
+   *         <code>phase4.async.maxperkey</code>. Values &le; 0 mean unlimited.
+   * @since 1.3.3
+   */
+  public static int getAsyncMaxPerKey ()
+  {
+    return getConfig ().getAsInt (PROPERTY_PHASE4_ASYNC_MAX_PER_KEY, DEFAULT_PHASE4_ASYNC_MAX_PER_KEY);
+  }
+
+  /**
+   * @return <code>true</code> if the default crypto material should be loaded
+   *         when the AS4 server is initialized. Taken from the configuration
+   *         item <code>phase4.crypto.warmup</code>.
+   * @since 1.3.3
+   */
+  public static boolean isCryptoWarmUp ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_CRYPTO_WARMUP);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_CRYPTO_WARMUP);
+  }
+
+  /**
+   * @return <code>true</code> if the default crypto material should be
+   *         reloaded when the key store or trust store files change. Taken from
+   *         the configuration item <code>phase4.crypto.hotreload</code>.
+   * @since 1.3.3
+   */
+  public static boolean isCryptoHotReload ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_CRYPTO_HOTRELOAD);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_CRYPTO_HOTRELOAD);
+  }
+
   /**
    * @return The dumping base path. Taken from the configuration item
    *         <code>phase4.dump.path</code>.
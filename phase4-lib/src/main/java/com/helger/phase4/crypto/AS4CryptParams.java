@@ -70,6 +70,9 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
   // The alias into the WSS4J crypto config
   private String m_sAlias;
 
+  // Set for shared instances that may not be modified
+  private boolean m_bReadOnly = false;
+
   /**
    * Default constructor using default
    * {@link #setKeyIdentifierType(ECryptoKeyIdentifierType)},
@@ -79,6 +82,23 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
   public AS4CryptParams ()
   {}
 
+  private void _checkWritable ()
+  {
+    if (m_bReadOnly)
+      throw new IllegalStateException ("This object is read-only. Use getClone () to get a modifiable copy.");
+  }
+
+  /**
+   * @return <code>true</code> if this object is read-only and all setters
+   *         throw an {@link IllegalStateException}, <code>false</code> if it
+   *         may be modified.
+   * @since 1.3.3
+   */
+  public final boolean isReadOnly ()
+  {
+    return m_bReadOnly;
+  }
+
   public boolean isCryptEnabled (@Nullable final Consumer <String> aWarningConsumer)
   {
     if (m_eAlgorithmCrypt == null)
@@ -117,6 +137,7 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
   @Nonnull
   public final AS4CryptParams setKeyIdentifierType (@Nonnull final ECryptoKeyIdentifierType eKeyIdentifierType)
   {
+    _checkWritable ();
     ValueEnforcer.notNull (eKeyIdentifierType, "KeyIdentifierType");
     m_eKeyIdentifierType = eKeyIdentifierType;
     return this;
@@ -142,6 +163,7 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
   @Nonnull
   public final AS4CryptParams setAlgorithmCrypt (@Nullable final ECryptoAlgorithmCrypt eAlgorithmCrypt)
   {
+    _checkWritable ();
     m_eAlgorithmCrypt = eAlgorithmCrypt;
     return this;
   }
@@ -156,6 +178,7 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
   @Nonnull
   public final AS4CryptParams setKeyEncAlgorithm (@Nonnull @Nonempty final String sKeyEncAlgorithm)
   {
+    _checkWritable ();
     m_sKeyEncAlgorithm = sKeyEncAlgorithm;
     return this;
   }
@@ -184,6 +207,7 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
   @Nonnull
   public final AS4CryptParams setMGFAlgorithm (@Nonnull @Nonempty final String sMGFAlgorithm)
   {
+    _checkWritable ();
     ValueEnforcer.notEmpty (sMGFAlgorithm, "MGFAlgorithm");
     m_sMGFAlgorithm = sMGFAlgorithm;
     return this;
@@ -211,6 +235,7 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
   @Nonnull
   public final AS4CryptParams setDigestAlgorithm (@Nonnull @Nonempty final String sDigestAlgorithm)
   {
+    _checkWritable ();
     ValueEnforcer.notEmpty (sDigestAlgorithm, "DigestAlgorithm");
     m_sDigestAlgorithm = sDigestAlgorithm;
     return this;
@@ -246,6 +271,7 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
   @Nonnull
   public final AS4CryptParams setCertificate (@Nullable final X509Certificate aCert)
   {
+    _checkWritable ();
     m_aCert = aCert;
     if (aCert != null)
     {
@@ -279,6 +305,7 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
   @Nonnull
   public final AS4CryptParams setAlias (@Nullable final String sAlias)
   {
+    _checkWritable ();
     m_sAlias = sAlias;
     return this;
   }
@@ -319,6 +346,20 @@ public class AS4CryptParams implements Serializable, ICloneable <AS4CryptParams>
                                 .setAlias (m_sAlias);
   }
 
+  /**
+   * @return A read-only copy of this object, that may safely be shared
+   *         between threads. Never <code>null</code>.
+   * @see #isReadOnly()
+   * @since 1.3.3
+   */
+  @Nonnull
+  public AS4CryptParams getAsReadOnly ()
+  {
+    final AS4CryptParams ret = getClone ();
+    ret.m_bReadOnly = true;
+    return ret;
+  }
+
   @Override
   public String toString ()
   {
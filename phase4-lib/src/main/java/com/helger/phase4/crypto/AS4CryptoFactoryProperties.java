@@ -18,31 +18,40 @@ package com.helger.phase4.crypto;
 
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.security.keystore.KeyStoreHelper;
 
 /**
- * phase4 crypto factory settings based on {@link AS4CryptoProperties}
+ * phase4 crypto factory settings based on {@link AS4CryptoProperties}. All
+ * crypto material is loaded at once upon first access (or upon
+ * {@link #warmUp()}) and may be replaced atomically via {@link #reload()}.
  *
  * @author Philip Helger+
  * @since 0.11.0
  */
-@Immutable
+@ThreadSafe
 public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CryptoFactoryProperties.class);
   private static final AS4CryptoFactoryProperties DEFAULT_INSTANCE = new AS4CryptoFactoryProperties (AS4CryptoProperties.createFromConfig ());
 
   /**
@@ -56,12 +65,119 @@ public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
     return DEFAULT_INSTANCE;
   }
 
+  /**
+   * The minimum time between two attempts to load missing crypto material.
+   *
+   * @since 1.3.3
+   */
+  public static final Duration INCOMPLETE_RETRY_INTERVAL = Duration.ofSeconds (10);
+
+  /**
+   * The crypto material loaded from a single state of the crypto properties.
+   * Instances are never modified after construction, so that they can be
+   * safely shared and replaced as a whole.
+   */
+  @Immutable
+  private static final class CryptoSnapshot
+  {
+    private final Crypto m_aCrypto;
+    private final IllegalStateException m_aCryptoEx;
+    private final KeyStore m_aKeyStore;
+    private final KeyStore.PrivateKeyEntry m_aPK;
+    private final KeyStore m_aTrustStore;
+    private final boolean m_bComplete;
+    private final long m_nCreationMillis;
+
+    /**
+     * Constructor
+     *
+     * @param aCryptoProps
+     *        The crypto properties to use. May not be <code>null</code>.
+     * @param aPrevious
+     *        An optional incomplete snapshot. All parts that were successfully
+     *        loaded by it are reused, only the missing parts are loaded again.
+     *        May be <code>null</code> to load everything.
+     */
+    CryptoSnapshot (@Nonnull final AS4CryptoProperties aCryptoProps, @Nullable final CryptoSnapshot aPrevious)
+    {
+      final boolean bHasKeyStore = StringHelper.hasText (aCryptoProps.getKeyStorePath ());
+      final boolean bHasTrustStore = StringHelper.hasText (aCryptoProps.getTrustStorePath ());
+      final boolean bReuseKeyStore = aPrevious != null && aPrevious.m_aPK != null;
+      final boolean bReuseTrustStore = aPrevious != null && aPrevious.m_aTrustStore != null;
+
+      // The Crypto reads the same files, so it is only reused if they were
+      // completely loaded before
+      if (aPrevious != null &&
+          aPrevious.m_aCrypto != null &&
+          (bReuseKeyStore || !bHasKeyStore) &&
+          (bReuseTrustStore || !bHasTrustStore))
+      {
+        m_aCrypto = aPrevious.m_aCrypto;
+        m_aCryptoEx = null;
+      }
+      else
+      {
+        Crypto aCrypto = null;
+        IllegalStateException aCryptoEx = null;
+        try
+        {
+          aCrypto = createCrypto (aCryptoProps);
+        }
+        catch (final IllegalStateException ex)
+        {
+          aCryptoEx = ex;
+        }
+        m_aCrypto = aCrypto;
+        m_aCryptoEx = aCryptoEx;
+      }
+
+      if (bReuseKeyStore)
+      {
+        m_aKeyStore = aPrevious.m_aKeyStore;
+        m_aPK = aPrevious.m_aPK;
+      }
+      else
+      {
+        m_aKeyStore = KeyStoreHelper.loadKeyStore (aCryptoProps.getKeyStoreType (),
+                                                   aCryptoProps.getKeyStorePath (),
+                                                   aCryptoProps.getKeyStorePassword ())
+                                    .getKeyStore ();
+        if (m_aKeyStore != null)
+        {
+          final String sKeyPassword = aCryptoProps.getKeyPassword ();
+          m_aPK = KeyStoreHelper.loadPrivateKey (m_aKeyStore,
+                                                 aCryptoProps.getKeyStorePath (),
+                                                 aCryptoProps.getKeyAlias (),
+                                                 sKeyPassword == null ? ArrayHelper.EMPTY_CHAR_ARRAY : sKeyPassword.toCharArray ())
+                                .getKeyEntry ();
+        }
+        else
+          m_aPK = null;
+      }
+
+      if (bReuseTrustStore)
+        m_aTrustStore = aPrevious.m_aTrustStore;
+      else
+        m_aTrustStore = KeyStoreHelper.loadKeyStore (aCryptoProps.getTrustStoreType (),
+                                                     aCryptoProps.getTrustStorePath (),
+                                                     aCryptoProps.getTrustStorePassword ())
+                                      .getKeyStore ();
+
+      m_bComplete = m_aCrypto != null && (!bHasKeyStore || m_aPK != null) && (!bHasTrustStore || m_aTrustStore != null);
+      m_nCreationMillis = System.currentTimeMillis ();
+    }
+
+    boolean isRetryDue ()
+    {
+      return !m_bComplete && System.currentTimeMillis () - m_nCreationMillis >= INCOMPLETE_RETRY_INTERVAL.toMillis ();
+    }
+  }
+
   private final AS4CryptoProperties m_aCryptoProps;
-  // Lazy initialized
-  private Crypto m_aCrypto;
-  private KeyStore m_aKeyStore;
-  private KeyStore.PrivateKeyEntry m_aPK;
-  private KeyStore m_aTrustStore;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Lazy initialized and replaced as a whole upon reload. An incomplete
+  // snapshot is used until the missing parts could be loaded.
+  private volatile CryptoSnapshot m_aSnapshot;
 
   /**
    * This constructor takes the crypto properties directly. See the
@@ -112,53 +228,111 @@ public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
     }
   }
 
+  private static boolean _needsLoading (@Nullable final CryptoSnapshot aSnapshot, final boolean bForceRetry)
+  {
+    return aSnapshot == null || (bForceRetry ? !aSnapshot.m_bComplete : aSnapshot.isRetryDue ());
+  }
+
+  @Nonnull
+  private CryptoSnapshot _getSnapshot (final boolean bForceRetry)
+  {
+    CryptoSnapshot ret = m_aSnapshot;
+    if (_needsLoading (ret, bForceRetry))
+    {
+      // Ensure the material is loaded only once
+      ret = m_aLock.lockedGet ( () -> {
+        CryptoSnapshot aSnapshot = m_aSnapshot;
+        if (_needsLoading (aSnapshot, bForceRetry))
+        {
+          // Only load the parts that are missing
+          aSnapshot = new CryptoSnapshot (m_aCryptoProps, aSnapshot);
+          if (!aSnapshot.m_bComplete)
+            LOGGER.warn ("Not all of the configured crypto material could be loaded - trying again in " +
+                         INCOMPLETE_RETRY_INTERVAL.getSeconds () +
+                         " seconds");
+          m_aSnapshot = aSnapshot;
+        }
+        return aSnapshot;
+      });
+    }
+    return ret;
+  }
+
+  @Nonnull
+  private CryptoSnapshot _getSnapshot ()
+  {
+    return _getSnapshot (false);
+  }
+
+  /**
+   * Eagerly load the {@link Crypto}, the key store, the private key and the
+   * trust store, so that the first message does not need to do it. Calling
+   * this method more than once has no effect, unless the previous loading
+   * was incomplete. In that case only the missing material is loaded again.
+   *
+   * @return {@link ESuccess#SUCCESS} if all configured crypto material could
+   *         be loaded.
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final ESuccess warmUp ()
+  {
+    return ESuccess.valueOf (_getSnapshot (true).m_bComplete);
+  }
+
   /**
-   * Lazily create a {@link Crypto} instance using the properties from
-   * {@link #cryptoProperties()}.
+   * Load all crypto material again using the current crypto properties and
+   * replace the previously loaded material atomically. Operations that are
+   * currently running continue to use the previous material. If the new
+   * material is not complete (e.g. because a key store file is currently
+   * written), the previous material is retained.
+   *
+   * @return {@link ESuccess#SUCCESS} if the new material was loaded and is
+   *         used from now on.
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final ESuccess reload ()
+  {
+    final CryptoSnapshot aNew = new CryptoSnapshot (m_aCryptoProps, null);
+    if (!aNew.m_bComplete)
+    {
+      LOGGER.error ("Failed to reload the crypto material - keeping the previous one");
+      return ESuccess.FAILURE;
+    }
+    m_aLock.locked ( () -> m_aSnapshot = aNew);
+    LOGGER.info ("Successfully reloaded the crypto material");
+    return ESuccess.SUCCESS;
+  }
+
+  /**
+   * Get the {@link Crypto} instance using the properties from
+   * {@link #cryptoProperties()}. It is loaded lazily together with all other
+   * crypto material.
    *
    * @return A {@link Crypto} instance and never <code>null</code>.
+   * @throws IllegalStateException
+   *         if creation failed
    */
   @Nonnull
   public final Crypto getCrypto ()
   {
-    Crypto ret = m_aCrypto;
-    if (ret == null)
-      ret = m_aCrypto = createCrypto (m_aCryptoProps);
-    return ret;
+    final CryptoSnapshot aSnapshot = _getSnapshot ();
+    if (aSnapshot.m_aCrypto == null)
+      throw new IllegalStateException (aSnapshot.m_aCryptoEx.getMessage (), aSnapshot.m_aCryptoEx.getCause ());
+    return aSnapshot.m_aCrypto;
   }
 
   @Nullable
   public final KeyStore getKeyStore ()
   {
-    KeyStore ret = m_aKeyStore;
-    if (ret == null)
-    {
-      ret = m_aKeyStore = KeyStoreHelper.loadKeyStore (m_aCryptoProps.getKeyStoreType (),
-                                                       m_aCryptoProps.getKeyStorePath (),
-                                                       m_aCryptoProps.getKeyStorePassword ())
-                                        .getKeyStore ();
-    }
-    return ret;
+    return _getSnapshot ().m_aKeyStore;
   }
 
   @Nullable
   public final KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
   {
-    KeyStore.PrivateKeyEntry ret = m_aPK;
-    if (ret == null)
-    {
-      final KeyStore aKeyStore = getKeyStore ();
-      if (aKeyStore != null)
-      {
-        final String sKeyPassword = m_aCryptoProps.getKeyPassword ();
-        ret = m_aPK = KeyStoreHelper.loadPrivateKey (aKeyStore,
-                                                     m_aCryptoProps.getKeyStorePath (),
-                                                     m_aCryptoProps.getKeyAlias (),
-                                                     sKeyPassword == null ? ArrayHelper.EMPTY_CHAR_ARRAY : sKeyPassword.toCharArray ())
-                                    .getKeyEntry ();
-      }
-    }
-    return ret;
+    return _getSnapshot ().m_aPK;
   }
 
   @Nullable
@@ -188,15 +362,7 @@ public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
   @Nullable
   public final KeyStore getTrustStore ()
   {
-    KeyStore ret = m_aTrustStore;
-    if (ret == null)
-    {
-      ret = m_aTrustStore = KeyStoreHelper.loadKeyStore (m_aCryptoProps.getTrustStoreType (),
-                                                         m_aCryptoProps.getTrustStorePath (),
-                                                         m_aCryptoProps.getTrustStorePassword ())
-                                          .getKeyStore ();
-    }
-    return ret;
+    return _getSnapshot ().m_aTrustStore;
   }
 
   /**
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.wss4j.common.crypto.Crypto;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An {@link IAS4CryptoFactory} that wraps another crypto factory and caches
+ * positive certificate trust decisions in an {@link AS4TrustDecisionCache}. So
+ * the PKIX path building of WSS4J is only performed for the first message of
+ * each sender (per time to live). Verifications with revocation checking
+ * enabled are only cached if the {@link AS4TrustDecisionCache} was explicitly
+ * configured with a revocation time to live, and are otherwise always
+ * delegated. All other methods are delegated unchanged.
+ * <br>
+ * If the wrapped factory returns a different {@link Crypto} instance (e.g.
+ * after a reload), all cached decisions are invalidated automatically. If the
+ * trust store is modified in place, {@link #invalidateTrustDecisions()} must be
+ * called explicitly.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4CryptoFactoryTrustCaching implements IAS4CryptoFactory
+{
+  private static final String METHOD_VERIFY_TRUST = "verifyTrust";
+
+  private static final class CachingCrypto
+  {
+    private final Crypto m_aSrcCrypto;
+    private final Crypto m_aProxy;
+
+    CachingCrypto (@Nonnull final Crypto aSrcCrypto, @Nonnull final AS4TrustDecisionCache aCache)
+    {
+      m_aSrcCrypto = aSrcCrypto;
+      m_aProxy = (Crypto) Proxy.newProxyInstance (Crypto.class.getClassLoader (),
+                                                  new Class <?> [] { Crypto.class },
+                                                  (aProxy, aMethod, aArgs) -> _invoke (aSrcCrypto, aCache, aMethod, aArgs));
+    }
+
+    @Nullable
+    private static Object _invokeSrc (@Nonnull final Crypto aSrcCrypto,
+                                      @Nonnull final Method aMethod,
+                                      @Nullable final Object [] aArgs) throws Throwable
+    {
+      try
+      {
+        return aMethod.invoke (aSrcCrypto, aArgs);
+      }
+      catch (final InvocationTargetException ex)
+      {
+        // Throw the original exception (e.g. WSSecurityException)
+        throw ex.getCause ();
+      }
+    }
+
+    @Nullable
+    @SuppressWarnings ("unchecked")
+    private static Object _invoke (@Nonnull final Crypto aSrcCrypto,
+                                   @Nonnull final AS4TrustDecisionCache aCache,
+                                   @Nonnull final Method aMethod,
+                                   @Nullable final Object [] aArgs) throws Throwable
+    {
+      // verifyTrust (X509Certificate[], boolean, Collection<Pattern>,
+      // Collection<Pattern>)
+      if (METHOD_VERIFY_TRUST.equals (aMethod.getName ()) &&
+          aArgs != null &&
+          aArgs.length == 4 &&
+          aArgs[0] instanceof X509Certificate [])
+      {
+        final String sKey = aCache.createKey ((X509Certificate []) aArgs[0],
+                                              ((Boolean) aArgs[1]).booleanValue (),
+                                              (Collection <Pattern>) aArgs[2],
+                                              (Collection <Pattern>) aArgs[3]);
+        if (aCache.isTrusted (sKey))
+          return null;
+
+        // Throws an exception if not trusted
+        _invokeSrc (aSrcCrypto, aMethod, aArgs);
+        aCache.setTrusted (sKey);
+        return null;
+      }
+      return _invokeSrc (aSrcCrypto, aMethod, aArgs);
+    }
+  }
+
+  private final IAS4CryptoFactory m_aDelegate;
+  private final AS4TrustDecisionCache m_aCache;
+  private volatile CachingCrypto m_aCachingCrypto;
+
+  /**
+   * Constructor with a new default {@link AS4TrustDecisionCache}.
+   *
+   * @param aDelegate
+   *        The crypto factory to wrap. May not be <code>null</code>.
+   */
+  public AS4CryptoFactoryTrustCaching (@Nonnull final IAS4CryptoFactory aDelegate)
+  {
+    this (aDelegate, new AS4TrustDecisionCache ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The crypto factory to wrap. May not be <code>null</code>.
+   * @param aCache
+   *        The trust decision cache to use. May not be <code>null</code>.
+   */
+  public AS4CryptoFactoryTrustCaching (@Nonnull final IAS4CryptoFactory aDelegate, @Nonnull final AS4TrustDecisionCache aCache)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.notNull (aCache, "Cache");
+    m_aDelegate = aDelegate;
+    m_aCache = aCache;
+  }
+
+  /**
+   * @return The wrapped crypto factory. Never <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4CryptoFactory getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  /**
+   * @return The trust decision cache used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4TrustDecisionCache getTrustDecisionCache ()
+  {
+    return m_aCache;
+  }
+
+  /**
+   * Invalidate all cached trust decisions. Must be called whenever the trust
+   * store of the wrapped factory is changed.
+   */
+  public void invalidateTrustDecisions ()
+  {
+    m_aCache.invalidateAll ();
+  }
+
+  @Nonnull
+  public Crypto getCrypto ()
+  {
+    final Crypto aSrcCrypto = m_aDelegate.getCrypto ();
+    CachingCrypto ret = m_aCachingCrypto;
+    if (ret == null || ret.m_aSrcCrypto != aSrcCrypto)
+    {
+      if (ret != null)
+      {
+        // The underlying crypto was reloaded
+        m_aCache.invalidateAll ();
+      }
+      ret = new CachingCrypto (aSrcCrypto, m_aCache);
+      m_aCachingCrypto = ret;
+    }
+    return ret.m_aProxy;
+  }
+
+  @Nullable
+  public KeyStore getKeyStore ()
+  {
+    return m_aDelegate.getKeyStore ();
+  }
+
+  @Nullable
+  public KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+  {
+    return m_aDelegate.getPrivateKeyEntry ();
+  }
+
+  @Nullable
+  public String getKeyAlias ()
+  {
+    return m_aDelegate.getKeyAlias ();
+  }
+
+  @Nullable
+  public String getKeyPassword ()
+  {
+    return m_aDelegate.getKeyPassword ();
+  }
+
+  @Nullable
+  public KeyStore getTrustStore ()
+  {
+    return m_aDelegate.getTrustStore ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate).append ("Cache", m_aCache).getToString ();
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Watches the key store and trust store files of an
+ * {@link AS4CryptoFactoryProperties} and calls
+ * {@link AS4CryptoFactoryProperties#reload()} if one of them changes. This
+ * allows for a certificate rollover without a restart. Only key stores that
+ * are available as files (in the file system or as exploded class path
+ * resources) can be watched.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4CryptoFileWatcher implements AutoCloseable
+{
+  /** The time to wait after a change, until all changes are written */
+  public static final long DEFAULT_SETTLE_MILLIS = 1000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CryptoFileWatcher.class);
+
+  private final AS4CryptoFactoryProperties m_aCryptoFactory;
+  private final Runnable m_aReloadCallback;
+  private final WatchService m_aWatchService;
+  // Directory to the names of the contained files to watch
+  private final ICommonsMap <Path, ICommonsSet <Path>> m_aWatchedFiles = new CommonsHashMap <> ();
+  private final Thread m_aThread;
+
+  /**
+   * Constructor. Starts watching immediately.
+   *
+   * @param aCryptoFactory
+   *        The crypto factory to reload. May not be <code>null</code>.
+   * @param aReloadCallback
+   *        An optional callback that is invoked after each successful reload
+   *        (e.g. to invalidate trust decisions). May be <code>null</code>.
+   * @throws IOException
+   *         If the watch service could not be created
+   */
+  public AS4CryptoFileWatcher (@Nonnull final AS4CryptoFactoryProperties aCryptoFactory,
+                               @Nullable final Runnable aReloadCallback) throws IOException
+  {
+    ValueEnforcer.notNull (aCryptoFactory, "CryptoFactory");
+    m_aCryptoFactory = aCryptoFactory;
+    m_aReloadCallback = aReloadCallback;
+
+    final AS4CryptoProperties aCryptoProps = aCryptoFactory.cryptoProperties ();
+    for (final String sPath : new String [] { aCryptoProps.getKeyStorePath (), aCryptoProps.getTrustStorePath () })
+    {
+      final File aFile = _getFile (sPath);
+      if (aFile != null)
+        m_aWatchedFiles.computeIfAbsent (aFile.getParentFile ().toPath (), x -> new CommonsHashSet <> ())
+                       .add (aFile.toPath ().getFileName ());
+      else
+        if (StringHelper.hasText (sPath))
+          LOGGER.warn ("The crypto file '" + sPath + "' is not available as a file and cannot be watched");
+    }
+
+    m_aWatchService = FileSystems.getDefault ().newWatchService ();
+    for (final Path aDir : m_aWatchedFiles.keySet ())
+      aDir.register (m_aWatchService,
+                     StandardWatchEventKinds.ENTRY_CREATE,
+                     StandardWatchEventKinds.ENTRY_MODIFY);
+
+    m_aThread = new Thread (this::_run, "phase4-crypto-file-watcher");
+    m_aThread.setDaemon (true);
+    if (m_aWatchedFiles.isNotEmpty ())
+    {
+      m_aThread.start ();
+      LOGGER.info ("Watching the crypto files in " + m_aWatchedFiles);
+    }
+  }
+
+  @Nullable
+  private static File _getFile (@Nullable final String sPath)
+  {
+    if (StringHelper.hasNoText (sPath))
+      return null;
+
+    // Same lookup order as the key store loading
+    final File aFile = new File (sPath);
+    if (aFile.isFile ())
+      return aFile.getAbsoluteFile ();
+    final File aCPFile = new ClassPathResource (sPath).getAsFile ();
+    return aCPFile != null && aCPFile.isFile () ? aCPFile.getAbsoluteFile () : null;
+  }
+
+  private boolean _isRelevant (@Nonnull final WatchKey aKey)
+  {
+    final ICommonsSet <Path> aFileNames = m_aWatchedFiles.get ((Path) aKey.watchable ());
+    boolean bRelevant = false;
+    for (final WatchEvent <?> aEvent : aKey.pollEvents ())
+      if (aEvent.kind () == StandardWatchEventKinds.OVERFLOW ||
+          (aFileNames != null && aFileNames.contains ((Path) aEvent.context ())))
+        bRelevant = true;
+    aKey.reset ();
+    return bRelevant;
+  }
+
+  private void _run ()
+  {
+    try
+    {
+      while (true)
+      {
+        if (!_isRelevant (m_aWatchService.take ()))
+          continue;
+
+        // Wait until the file is completely written and consume the events of
+        // the same change
+        Thread.sleep (DEFAULT_SETTLE_MILLIS);
+        WatchKey aKey;
+        while ((aKey = m_aWatchService.poll ()) != null)
+          _isRelevant (aKey);
+
+        try
+        {
+          if (m_aCryptoFactory.reload ().isSuccess () && m_aReloadCallback != null)
+            m_aReloadCallback.run ();
+        }
+        catch (final RuntimeException ex)
+        {
+          // Keep on watching - the next change may fix it
+          LOGGER.error ("Failed to reload the crypto material after a file change", ex);
+        }
+      }
+    }
+    catch (final ClosedWatchServiceException ex)
+    {
+      // Closed - end
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if at least one file is watched.
+   */
+  public boolean isWatching ()
+  {
+    return m_aThread.isAlive ();
+  }
+
+  /**
+   * Stop watching. Calling this method more than once has no effect.
+   */
+  public void close ()
+  {
+    try
+    {
+      m_aWatchService.close ();
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.warn ("Failed to close the watch service", ex);
+    }
+    m_aThread.interrupt ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("CryptoFactory", m_aCryptoFactory)
+                                       .append ("WatchedFiles", m_aWatchedFiles)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.leg.PModeLegSecurity;
+
+/**
+ * The precomputed signing and encryption parameters of a single PMode leg.
+ * The contained {@link AS4SigningParams} and {@link AS4CryptParams} objects are
+ * read-only and shared between all messages using the same PMode leg. Use
+ * <code>getClone ()</code> on them to get a modifiable copy. A per-message
+ * keystore alias for encryption is not stored in the parameters but passed
+ * separately to the encryption.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ * @see AS4PModeLegSecurityProfileCache
+ */
+@Immutable
+public final class AS4PModeLegSecurityProfile
+{
+  private final AS4SigningParams m_aSigningParams;
+  private final AS4CryptParams m_aCryptParams;
+  private final String m_sSignAlgorithmURI;
+  private final String m_sSignDigestAlgorithmURI;
+  private final String m_sCryptAlgorithmURI;
+
+  private AS4PModeLegSecurityProfile (@Nonnull final AS4SigningParams aSigningParams, @Nonnull final AS4CryptParams aCryptParams)
+  {
+    m_aSigningParams = aSigningParams.getAsReadOnly ();
+    m_aCryptParams = aCryptParams.getAsReadOnly ();
+    m_sSignAlgorithmURI = aSigningParams.getAlgorithmSign () == null ? null : aSigningParams.getAlgorithmSign ().getAlgorithmURI ();
+    m_sSignDigestAlgorithmURI = aSigningParams.getAlgorithmSignDigest () == null ? null
+                                                                                  : aSigningParams.getAlgorithmSignDigest ()
+                                                                                                  .getAlgorithmURI ();
+    m_sCryptAlgorithmURI = aCryptParams.getAlgorithmCrypt () == null ? null : aCryptParams.getAlgorithmCrypt ().getAlgorithmURI ();
+  }
+
+  /**
+   * @return The shared, read-only signing parameters. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public AS4SigningParams getSigningParams ()
+  {
+    return m_aSigningParams;
+  }
+
+  /**
+   * @return The shared, read-only encryption parameters without an alias or
+   *         certificate. Never <code>null</code>.
+   */
+  @Nonnull
+  public AS4CryptParams getCryptParams ()
+  {
+    return m_aCryptParams;
+  }
+
+  /**
+   * @return The resolved URI of the signature algorithm or <code>null</code>
+   *         if signing is not configured.
+   */
+  @Nullable
+  public String getSignAlgorithmURI ()
+  {
+    return m_sSignAlgorithmURI;
+  }
+
+  /**
+   * @return The resolved URI of the signature digest algorithm or
+   *         <code>null</code> if signing is not configured.
+   */
+  @Nullable
+  public String getSignDigestAlgorithmURI ()
+  {
+    return m_sSignDigestAlgorithmURI;
+  }
+
+  /**
+   * @return The resolved URI of the encryption algorithm or <code>null</code>
+   *         if encryption is not configured.
+   */
+  @Nullable
+  public String getCryptAlgorithmURI ()
+  {
+    return m_sCryptAlgorithmURI;
+  }
+
+  /**
+   * @return The key identifier type used for signing. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public ECryptoKeyIdentifierType getSignKeyIdentifierType ()
+  {
+    return m_aSigningParams.getKeyIdentifierType ();
+  }
+
+  /**
+   * @return The key identifier type used for encryption. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public ECryptoKeyIdentifierType getCryptKeyIdentifierType ()
+  {
+    return m_aCryptParams.getKeyIdentifierType ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SigningParams", m_aSigningParams)
+                                       .append ("CryptParams", m_aCryptParams)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a new profile from the provided PMode leg security.
+   *
+   * @param aSecurity
+   *        The PMode leg security to use. May be <code>null</code>.
+   * @return A new profile and never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4PModeLegSecurityProfile create (@Nullable final PModeLegSecurity aSecurity)
+  {
+    return new AS4PModeLegSecurityProfile (new AS4SigningParams ().setFromPMode (aSecurity), new AS4CryptParams ().setFromPMode (aSecurity));
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegSecurity;
+
+/**
+ * A bounded cache for {@link AS4PModeLegSecurityProfile} objects, keyed by
+ * PMode ID and leg number. An entry is only reused if the PMode was not
+ * modified since the profile was created and if the leg still references the
+ * same {@link PModeLegSecurity} object. Additionally the PMode managers
+ * explicitly invalidate all entries of a PMode upon update and deletion. If
+ * the maximum size is exceeded, the least recently used entry is removed.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4PModeLegSecurityProfileCache
+{
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  private static final AS4PModeLegSecurityProfileCache DEFAULT_INSTANCE = new AS4PModeLegSecurityProfileCache ();
+
+  @Immutable
+  private static final class Entry
+  {
+    private final PModeLegSecurity m_aSecurity;
+    private final LocalDateTime m_aLastModDT;
+    private final AS4PModeLegSecurityProfile m_aProfile;
+
+    Entry (@Nullable final PModeLegSecurity aSecurity,
+           @Nullable final LocalDateTime aLastModDT,
+           @Nonnull final AS4PModeLegSecurityProfile aProfile)
+    {
+      m_aSecurity = aSecurity;
+      m_aLastModDT = aLastModDT;
+      m_aProfile = aProfile;
+    }
+
+    boolean isValidFor (@Nullable final PModeLegSecurity aSecurity, @Nullable final LocalDateTime aLastModDT)
+    {
+      // Identity check on purpose
+      return m_aSecurity == aSecurity && EqualsHelper.equals (m_aLastModDT, aLastModDT);
+    }
+  }
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final int m_nMaxSize;
+  // Access ordered for LRU
+  @GuardedBy ("m_aLock")
+  private final Map <String, Entry> m_aMap;
+
+  /**
+   * Constructor with {@link #DEFAULT_MAX_SIZE} entries.
+   */
+  public AS4PModeLegSecurityProfileCache ()
+  {
+    this (DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached profiles. Must be &gt; 0.
+   */
+  public AS4PModeLegSecurityProfileCache (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_nMaxSize = nMaxSize;
+    m_aMap = new LinkedHashMap <String, Entry> (16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <String, Entry> aEldest)
+      {
+        return size () > m_nMaxSize;
+      }
+    };
+  }
+
+  /**
+   * @return The global default instance used by the AS4 request handler. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static AS4PModeLegSecurityProfileCache getDefaultInstance ()
+  {
+    return DEFAULT_INSTANCE;
+  }
+
+  /**
+   * @return The maximum number of cached profiles. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return The number of currently cached profiles. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  @Nonnull
+  private static String _getKey (@Nonnull final String sPModeID, final int nLegNumber)
+  {
+    return sPModeID + '\u0000' + nLegNumber;
+  }
+
+  /**
+   * Get the cached security profile of the provided PMode leg or create and
+   * cache a new one.
+   *
+   * @param aPMode
+   *        The PMode the leg belongs to. May be <code>null</code> in which case
+   *        the profile is created but not cached.
+   * @param aLeg
+   *        The PMode leg to get the profile for. May not be <code>null</code>.
+   *        If it is neither leg 1 nor leg 2 of the provided PMode, the profile
+   *        is created but not cached.
+   * @return The profile and never <code>null</code>.
+   */
+  @Nonnull
+  public AS4PModeLegSecurityProfile getProfile (@Nullable final IPMode aPMode, @Nonnull final PModeLeg aLeg)
+  {
+    ValueEnforcer.notNull (aLeg, "Leg");
+
+    final PModeLegSecurity aSecurity = aLeg.getSecurity ();
+    final int nLegNumber;
+    if (aPMode == null)
+      nLegNumber = 0;
+    else
+      if (aLeg == aPMode.getLeg1 ())
+        nLegNumber = 1;
+      else
+        if (aLeg == aPMode.getLeg2 ())
+          nLegNumber = 2;
+        else
+          nLegNumber = 0;
+    if (nLegNumber == 0 || StringHelper.hasNoText (aPMode.getID ()))
+      return AS4PModeLegSecurityProfile.create (aSecurity);
+
+    final String sKey = _getKey (aPMode.getID (), nLegNumber);
+    final LocalDateTime aLastModDT = aPMode.getLastModificationDateTime ();
+    final Entry aCached = m_aLock.lockedGet ( () -> m_aMap.get (sKey));
+    if (aCached != null && aCached.isValidFor (aSecurity, aLastModDT))
+      return aCached.m_aProfile;
+
+    // Create outside of the lock - concurrent creation of the same key is
+    // harmless
+    final AS4PModeLegSecurityProfile aNew = AS4PModeLegSecurityProfile.create (aSecurity);
+    m_aLock.locked ( () -> m_aMap.put (sKey, new Entry (aSecurity, aLastModDT, aNew)));
+    return aNew;
+  }
+
+  /**
+   * Remove all cached profiles of the PMode with the provided ID.
+   *
+   * @param sPModeID
+   *        The ID of the PMode to invalidate. May be <code>null</code>.
+   */
+  public void invalidate (@Nullable final String sPModeID)
+  {
+    if (StringHelper.hasText (sPModeID))
+      m_aLock.locked ( () -> {
+        m_aMap.remove (_getKey (sPModeID, 1));
+        m_aMap.remove (_getKey (sPModeID, 2));
+      });
+  }
+
+  /**
+   * Remove all cached profiles.
+   */
+  public void invalidateAll ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxSize", m_nMaxSize).getToString ();
+  }
+}
@@ -46,9 +46,29 @@ public class AS4SigningParams implements Serializable, ICloneable <AS4SigningPar
   private ECryptoAlgorithmSignDigest m_eAlgorithmSignDigest;
   private ECryptoAlgorithmC14N m_eAlgorithmC14N = ECryptoAlgorithmC14N.C14N_ALGORITHM_DEFAULT;
 
+  // Set for shared instances that may not be modified
+  private boolean m_bReadOnly = false;
+
   public AS4SigningParams ()
   {}
 
+  private void _checkWritable ()
+  {
+    if (m_bReadOnly)
+      throw new IllegalStateException ("This object is read-only. Use getClone () to get a modifiable copy.");
+  }
+
+  /**
+   * @return <code>true</code> if this object is read-only and all setters
+   *         throw an {@link IllegalStateException}, <code>false</code> if it
+   *         may be modified.
+   * @since 1.3.3
+   */
+  public final boolean isReadOnly ()
+  {
+    return m_bReadOnly;
+  }
+
   /**
    * @return <code>true</code> if signing is enabled, <code>false</code> if not
    */
@@ -79,6 +99,7 @@ public class AS4SigningParams implements Serializable, ICloneable <AS4SigningPar
   @Nonnull
   public final AS4SigningParams setKeyIdentifierType (@Nonnull final ECryptoKeyIdentifierType eKeyIdentifierType)
   {
+    _checkWritable ();
     ValueEnforcer.notNull (eKeyIdentifierType, "KeyIdentifierType");
     m_eKeyIdentifierType = eKeyIdentifierType;
     return this;
@@ -105,6 +126,7 @@ public class AS4SigningParams implements Serializable, ICloneable <AS4SigningPar
   @Nonnull
   public final AS4SigningParams setAlgorithmSign (@Nullable final ECryptoAlgorithmSign eAlgorithmSign)
   {
+    _checkWritable ();
     m_eAlgorithmSign = eAlgorithmSign;
     return this;
   }
@@ -130,6 +152,7 @@ public class AS4SigningParams implements Serializable, ICloneable <AS4SigningPar
   @Nonnull
   public final AS4SigningParams setAlgorithmSignDigest (@Nullable final ECryptoAlgorithmSignDigest eAlgorithmSignDigest)
   {
+    _checkWritable ();
     m_eAlgorithmSignDigest = eAlgorithmSignDigest;
     return this;
   }
@@ -160,6 +183,7 @@ public class AS4SigningParams implements Serializable, ICloneable <AS4SigningPar
   @Nonnull
   public final AS4SigningParams setAlgorithmC14N (@Nonnull final ECryptoAlgorithmC14N eAlgorithmC14N)
   {
+    _checkWritable ();
     ValueEnforcer.notNull (eAlgorithmC14N, "AlgorithmC14N");
     m_eAlgorithmC14N = eAlgorithmC14N;
     return this;
@@ -202,6 +226,20 @@ public class AS4SigningParams implements Serializable, ICloneable <AS4SigningPar
                                   .setAlgorithmC14N (m_eAlgorithmC14N);
   }
 
+  /**
+   * @return A read-only copy of this object, that may safely be shared
+   *         between threads. Never <code>null</code>.
+   * @see #isReadOnly()
+   * @since 1.3.3
+   */
+  @Nonnull
+  public AS4SigningParams getAsReadOnly ()
+  {
+    final AS4SigningParams ret = getClone ();
+    ret.m_bReadOnly = true;
+    return ret;
+  }
+
   @Override
   public String toString ()
   {
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A bounded cache for positive certificate trust decisions. The key consists
+ * of the SHA-256 fingerprints of the certificate chain, the revocation flag,
+ * the certificate constraints and the current trust store version. Negative
+ * decisions are never cached. Decisions with revocation checking enabled are
+ * only cached if a separate (usually much shorter) revocation time to live was
+ * explicitly provided, because a certificate may be revoked at any time. Each
+ * entry expires after the configured time to live and if the maximum size is
+ * exceeded, the least recently used entry is removed. Upon
+ * {@link #invalidateAll()} the trust store version is incremented, so that
+ * decisions of verifications that are still running are not cached anymore.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4TrustDecisionCache
+{
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes (10);
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4TrustDecisionCache.class);
+  private static final char SEPARATOR = '|';
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final Duration m_aTTL;
+  private final Duration m_aRevocationTTL;
+  private final int m_nMaxSize;
+  private final AtomicLong m_aTrustStoreVersion = new AtomicLong (0);
+  // Key to expiration millis - access ordered for LRU
+  @GuardedBy ("m_aLock")
+  private final Map <String, Long> m_aMap;
+
+  /**
+   * Constructor with {@link #DEFAULT_TTL} and {@link #DEFAULT_MAX_SIZE}.
+   */
+  public AS4TrustDecisionCache ()
+  {
+    this (DEFAULT_TTL, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aTTL
+   *        The time to live of each positive decision. May not be
+   *        <code>null</code> and must be positive.
+   * @param nMaxSize
+   *        The maximum number of cached decisions. Must be &gt; 0.
+   */
+  public AS4TrustDecisionCache (@Nonnull final Duration aTTL, @Nonnegative final int nMaxSize)
+  {
+    this (aTTL, null, nMaxSize);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aTTL
+   *        The time to live of each positive decision without revocation
+   *        checking. May not be <code>null</code> and must be positive.
+   * @param aRevocationTTL
+   *        The time to live of each positive decision with revocation checking
+   *        enabled. May be <code>null</code> in which case decisions with
+   *        revocation checking are never cached. If present, it must be
+   *        positive and may not be longer than the regular time to live.
+   * @param nMaxSize
+   *        The maximum number of cached decisions. Must be &gt; 0.
+   */
+  public AS4TrustDecisionCache (@Nonnull final Duration aTTL,
+                                @Nullable final Duration aRevocationTTL,
+                                @Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative () || aTTL.isZero (), "TTL must be positive");
+    if (aRevocationTTL != null)
+    {
+      ValueEnforcer.isFalse (aRevocationTTL.isNegative () || aRevocationTTL.isZero (), "RevocationTTL must be positive");
+      ValueEnforcer.isTrue (aRevocationTTL.compareTo (aTTL) <= 0, "RevocationTTL may not be longer than the TTL");
+    }
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aTTL = aTTL;
+    m_aRevocationTTL = aRevocationTTL;
+    m_nMaxSize = nMaxSize;
+    m_aMap = new LinkedHashMap <String, Long> (16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <String, Long> aEldest)
+      {
+        return size () > m_nMaxSize;
+      }
+    };
+  }
+
+  /**
+   * @return The time to live of each decision. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  /**
+   * @return The time to live of each decision with revocation checking
+   *         enabled. May be <code>null</code> if such decisions are not cached
+   *         at all.
+   */
+  @Nullable
+  public final Duration getRevocationTTL ()
+  {
+    return m_aRevocationTTL;
+  }
+
+  /**
+   * @return <code>true</code> if decisions with revocation checking enabled
+   *         are cached, <code>false</code> if not.
+   */
+  public final boolean isCachingWithRevocation ()
+  {
+    return m_aRevocationTTL != null;
+  }
+
+  /**
+   * @return The maximum number of cached decisions. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return The current trust store version. Incremented with every call to
+   *         {@link #invalidateAll()}.
+   */
+  @Nonnegative
+  public long getTrustStoreVersion ()
+  {
+    return m_aTrustStoreVersion.get ();
+  }
+
+  /**
+   * @return The number of currently cached decisions, including expired ones
+   *         that were not yet removed. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  @Nonnull
+  private static String _getFingerprint (@Nonnull final MessageDigest aMD, @Nonnull final X509Certificate aCert) throws CertificateEncodingException
+  {
+    aMD.reset ();
+    return StringHelper.getHexEncoded (aMD.digest (aCert.getEncoded ()));
+  }
+
+  private static void _appendConstraints (@Nonnull final StringBuilder aSB, @Nullable final Collection <Pattern> aConstraints)
+  {
+    aSB.append (SEPARATOR);
+    if (aConstraints == null)
+      aSB.append ('-');
+    else
+    {
+      // Count and length prefixed, because the patterns may contain the
+      // separator
+      aSB.append (aConstraints.size ());
+      for (final Pattern aPattern : aConstraints)
+      {
+        final String sPattern = aPattern.pattern ();
+        aSB.append (':').append (aPattern.flags ()).append (':').append (sPattern.length ()).append (':').append (sPattern);
+      }
+    }
+  }
+
+  /**
+   * Create the cache key for a trust verification with the current trust store
+   * version.
+   *
+   * @param aCerts
+   *        The certificate chain to verify. May be <code>null</code>.
+   * @param bEnableRevocation
+   *        <code>true</code> if revocation checking is enabled
+   * @param aSubjectCertConstraints
+   *        Optional subject constraints. May be <code>null</code>.
+   * @param aIssuerCertConstraints
+   *        Optional issuer constraints. May be <code>null</code>.
+   * @return <code>null</code> if no key can be created or if revocation
+   *         checking is enabled and no revocation time to live was provided.
+   *         In this case the decision must not be cached.
+   */
+  @Nullable
+  public String createKey (@Nullable final X509Certificate [] aCerts,
+                           final boolean bEnableRevocation,
+                           @Nullable final Collection <Pattern> aSubjectCertConstraints,
+                           @Nullable final Collection <Pattern> aIssuerCertConstraints)
+  {
+    if (aCerts == null || aCerts.length == 0)
+      return null;
+    if (bEnableRevocation && m_aRevocationTTL == null)
+      return null;
+
+    final StringBuilder aSB = new StringBuilder ();
+    aSB.append (m_aTrustStoreVersion.get ()).append (SEPARATOR).append (bEnableRevocation);
+    try
+    {
+      final MessageDigest aMD = MessageDigest.getInstance ("SHA-256");
+      for (final X509Certificate aCert : aCerts)
+      {
+        if (aCert == null)
+          return null;
+        aSB.append (SEPARATOR).append (_getFingerprint (aMD, aCert));
+      }
+    }
+    catch (final NoSuchAlgorithmException | CertificateEncodingException ex)
+    {
+      LOGGER.warn ("Failed to create trust decision cache key", ex);
+      return null;
+    }
+    _appendConstraints (aSB, aSubjectCertConstraints);
+    _appendConstraints (aSB, aIssuerCertConstraints);
+    return aSB.toString ();
+  }
+
+  private boolean _isCurrentVersion (@Nonnull final String sKey)
+  {
+    return sKey.startsWith (Long.toString (m_aTrustStoreVersion.get ()) + SEPARATOR);
+  }
+
+  private static boolean _isRevocationKey (@Nonnull final String sKey)
+  {
+    // Layout is "version|revocation|..."
+    final int nIdx = sKey.indexOf (SEPARATOR);
+    return nIdx >= 0 && sKey.startsWith (Boolean.TRUE.toString (), nIdx + 1);
+  }
+
+  /**
+   * Check if a positive, not expired decision is cached.
+   *
+   * @param sKey
+   *        The key created by
+   *        {@link #createKey(X509Certificate[], boolean, Collection, Collection)}.
+   *        May be <code>null</code>.
+   * @return <code>true</code> if the certificate chain is known to be trusted.
+   */
+  public boolean isTrusted (@Nullable final String sKey)
+  {
+    if (sKey == null || !_isCurrentVersion (sKey))
+      return false;
+
+    final long nNow = System.currentTimeMillis ();
+    return m_aLock.lockedBoolean ( () -> {
+      final Long aExpiry = m_aMap.get (sKey);
+      if (aExpiry == null)
+        return false;
+      if (aExpiry.longValue () < nNow)
+      {
+        // Expired
+        m_aMap.remove (sKey);
+        return false;
+      }
+      return true;
+    });
+  }
+
+  /**
+   * Remember a positive decision. If the trust store version changed since the
+   * key was created, nothing is cached.
+   *
+   * @param sKey
+   *        The key created by
+   *        {@link #createKey(X509Certificate[], boolean, Collection, Collection)}.
+   *        May be <code>null</code>.
+   */
+  public void setTrusted (@Nullable final String sKey)
+  {
+    if (sKey == null)
+      return;
+
+    final Duration aTTL = _isRevocationKey (sKey) ? m_aRevocationTTL : m_aTTL;
+    if (aTTL == null)
+      return;
+
+    final Long aExpiry = Long.valueOf (System.currentTimeMillis () + aTTL.toMillis ());
+    m_aLock.locked ( () -> {
+      // Check inside the lock, so that it cannot interfere with invalidateAll
+      if (_isCurrentVersion (sKey))
+        m_aMap.put (sKey, aExpiry);
+    });
+  }
+
+  /**
+   * Remove all cached decisions and increment the trust store version. This
+   * must be called whenever the trust store is reloaded.
+   */
+  public void invalidateAll ()
+  {
+    m_aLock.locked ( () -> {
+      m_aTrustStoreVersion.incrementAndGet ();
+      m_aMap.clear ();
+    });
+    LOGGER.info ("Invalidated all cached trust decisions");
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TTL", m_aTTL)
+                                       .append ("RevocationTTL", m_aRevocationTTL)
+                                       .append ("MaxSize", m_nMaxSize)
+                                       .append ("TrustStoreVersion", m_aTrustStoreVersion.get ())
+                                       .getToString ();
+  }
+}
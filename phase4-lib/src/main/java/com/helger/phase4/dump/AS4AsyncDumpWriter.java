@@ -0,0 +1,731 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Asynchronous writer for message dumps. The request threads only copy the
+ * dumped bytes into chunks, that are handed over to a single background writer
+ * thread via a bounded queue. The writer appends the chunks of all messages as
+ * frames to rolling segment files (<code>segment-N.dseg</code>) and when a
+ * message is complete, it appends an {@link AS4DumpIndexEntry} to the index
+ * file of the current segment (<code>segment-N.didx</code>). Use
+ * {@link AS4DumpSegmentReader} to read the dumps.<br>
+ * If the queue is full, the {@link EAS4DumpOverflowPolicy} decides whether the
+ * request thread is blocked or whether the dump of the message is dropped.
+ * Dropping never blocks the request thread. If the writer thread fails
+ * permanently, all further dumps are dropped.<br>
+ * Instances of this class must be closed to flush all pending dumps.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4AsyncDumpWriter implements Closeable
+{
+  public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+  public static final int DEFAULT_CHUNK_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * CGlobal.BYTES_PER_MEGABYTE;
+  public static final EAS4DumpOverflowPolicy DEFAULT_OVERFLOW_POLICY = EAS4DumpOverflowPolicy.BLOCK;
+
+  static final String SEGMENT_PREFIX = "segment-";
+  static final String SEGMENT_SUFFIX = ".dseg";
+  static final String INDEX_SUFFIX = ".didx";
+  static final int SEGMENT_MAGIC = 0x50344453;
+  static final int INDEX_MAGIC = 0x50344449;
+  static final byte FORMAT_VERSION = 1;
+  // Frame length markers
+  static final int FRAME_END = -1;
+  static final int FRAME_ABORT = -2;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4AsyncDumpWriter.class);
+
+  // How long to wait for free queue space before the writer state is checked
+  private static final long ENQUEUE_POLL_MILLIS = 100;
+  // Consecutive segment open failures before the writer gives up
+  private static final int MAX_SEGMENT_OPEN_FAILURES = 3;
+
+  private enum EChunkType
+  {
+    OPEN,
+    DATA,
+    END,
+    CLOSE;
+  }
+
+  private static final class Chunk
+  {
+    private final EChunkType m_eType;
+    private final long m_nRecordID;
+    private final byte [] m_aData;
+    private final int m_nLength;
+    private final AS4DumpIndexEntry m_aMeta;
+
+    Chunk (@Nonnull final EChunkType eType,
+           final long nRecordID,
+           @Nullable final byte [] aData,
+           final int nLength,
+           @Nullable final AS4DumpIndexEntry aMeta)
+    {
+      m_eType = eType;
+      m_nRecordID = nRecordID;
+      m_aData = aData;
+      m_nLength = nLength;
+      m_aMeta = aMeta;
+    }
+  }
+
+  /**
+   * The state of a message in the writer thread.
+   */
+  private static final class OpenRecord
+  {
+    private final AS4DumpIndexEntry m_aMeta;
+    private final int m_nSegment;
+    private final long m_nOffset;
+    private long m_nLength = 0;
+
+    OpenRecord (@Nonnull final AS4DumpIndexEntry aMeta, final int nSegment, final long nOffset)
+    {
+      m_aMeta = aMeta;
+      m_nSegment = nSegment;
+      m_nOffset = nOffset;
+    }
+  }
+
+  /**
+   * The output stream handed out to the dumpers. Used by a single request
+   * thread.
+   */
+  @NotThreadSafe
+  private final class RecordOutputStream extends OutputStream
+  {
+    private final long m_nRecordID;
+    private byte [] m_aBuf;
+    private int m_nCount = 0;
+    private boolean m_bDropped = false;
+    private boolean m_bClosed = false;
+
+    RecordOutputStream (final long nRecordID)
+    {
+      m_nRecordID = nRecordID;
+      m_aBuf = new byte [m_nChunkSize];
+    }
+
+    private void _drop ()
+    {
+      m_bDropped = true;
+      m_aBuf = null;
+      m_aDroppedCount.incrementAndGet ();
+      LOGGER.warn ("Dump queue is full - dropping the dump of record " + m_nRecordID);
+      // Tell the writer to forget the already written frames. This must not
+      // use the queue, as it is full.
+      m_aAbortedRecordIDs.add (Long.valueOf (m_nRecordID));
+    }
+
+    private void _flushChunk () throws IOException
+    {
+      if (m_nCount > 0 && !m_bDropped)
+      {
+        // Hand over the buffer - no copy needed
+        if (_enqueue (new Chunk (EChunkType.DATA, m_nRecordID, m_aBuf, m_nCount, null)))
+        {
+          m_aBuf = new byte [m_nChunkSize];
+          m_nCount = 0;
+        }
+        else
+          _drop ();
+      }
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      if (m_bDropped)
+        return;
+      if (m_bClosed)
+        throw new IOException ("Stream is already closed");
+      if (m_nCount == m_aBuf.length)
+        _flushChunk ();
+      if (!m_bDropped)
+        m_aBuf[m_nCount++] = (byte) b;
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      if (m_bClosed && !m_bDropped)
+        throw new IOException ("Stream is already closed");
+      int nOfsLeft = nOfs;
+      int nLenLeft = nLen;
+      while (nLenLeft > 0 && !m_bDropped)
+      {
+        if (m_nCount == m_aBuf.length)
+          _flushChunk ();
+        if (m_bDropped)
+          break;
+        final int nCopy = Math.min (nLenLeft, m_aBuf.length - m_nCount);
+        System.arraycopy (aBuf, nOfsLeft, m_aBuf, m_nCount, nCopy);
+        m_nCount += nCopy;
+        nOfsLeft += nCopy;
+        nLenLeft -= nCopy;
+      }
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_bClosed)
+        return;
+      m_bClosed = true;
+      _flushChunk ();
+      if (!m_bDropped)
+      {
+        // The end is needed for the index entry - if it cannot be enqueued,
+        // the record is dropped
+        if (!_enqueue (new Chunk (EChunkType.END, m_nRecordID, null, 0, null)))
+          _drop ();
+      }
+      m_aBuf = null;
+    }
+  }
+
+  private final File m_aDirectory;
+  private final int m_nChunkSize;
+  private final long m_nMaxSegmentSize;
+  private final EAS4DumpOverflowPolicy m_eOverflowPolicy;
+  private final BlockingQueue <Chunk> m_aQueue;
+  private final AtomicLong m_aNextRecordID = new AtomicLong (System.currentTimeMillis () * 1000);
+  private final AtomicLong m_aDroppedCount = new AtomicLong (0);
+  // Records that were dropped after they were opened
+  private final Set <Long> m_aAbortedRecordIDs = ConcurrentHashMap.newKeySet ();
+  private final Thread m_aWriterThread;
+  private volatile boolean m_bClosed = false;
+  private volatile boolean m_bWriterDead = false;
+
+  // Only accessed by the writer thread
+  private final ICommonsMap <Long, OpenRecord> m_aOpenRecords = new CommonsHashMap <> ();
+  private int m_nSegment;
+  private DataOutputStream m_aSegmentOS;
+  private long m_nSegmentPos;
+  private DataOutputStream m_aIndexOS;
+  private int m_nSegmentOpenFailures = 0;
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aDirectory
+   *        The directory to write the segment files to. May not be
+   *        <code>null</code>. Is created if it does not exist.
+   * @throws IOException
+   *         If the directory or the first segment cannot be created
+   */
+  public AS4AsyncDumpWriter (@Nonnull final File aDirectory) throws IOException
+  {
+    this (aDirectory, DEFAULT_QUEUE_CAPACITY, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_OVERFLOW_POLICY);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to write the segment files to. May not be
+   *        <code>null</code>. Is created if it does not exist.
+   * @param nQueueCapacity
+   *        The maximum number of chunks waiting to be written. Must be &gt; 0.
+   *        The maximum memory usage is approximately queue capacity times chunk
+   *        size.
+   * @param nChunkSize
+   *        The size of a single chunk in bytes. Must be &gt; 0.
+   * @param nMaxSegmentSize
+   *        The size in bytes after which a new segment file is started. Must be
+   *        &gt; 0.
+   * @param eOverflowPolicy
+   *        What to do if the queue is full. May not be <code>null</code>.
+   * @throws IOException
+   *         If the directory or the first segment cannot be created
+   */
+  public AS4AsyncDumpWriter (@Nonnull final File aDirectory,
+                             @Nonnegative final int nQueueCapacity,
+                             @Nonnegative final int nChunkSize,
+                             @Nonnegative final long nMaxSegmentSize,
+                             @Nonnull final EAS4DumpOverflowPolicy eOverflowPolicy) throws IOException
+  {
+    this (aDirectory, nQueueCapacity, nChunkSize, nMaxSegmentSize, eOverflowPolicy, true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bStartWriter
+   *        <code>false</code> to not start the writer thread. For testing only,
+   *        see {@link #startWriter()}.
+   */
+  AS4AsyncDumpWriter (@Nonnull final File aDirectory,
+                      @Nonnegative final int nQueueCapacity,
+                      @Nonnegative final int nChunkSize,
+                      @Nonnegative final long nMaxSegmentSize,
+                      @Nonnull final EAS4DumpOverflowPolicy eOverflowPolicy,
+                      final boolean bStartWriter) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.isGT0 (nChunkSize, "ChunkSize");
+    ValueEnforcer.isGT0 (nMaxSegmentSize, "MaxSegmentSize");
+    ValueEnforcer.notNull (eOverflowPolicy, "OverflowPolicy");
+
+    if (AS4IOHelper.getFileOperationManager ().createDirRecursiveIfNotExisting (aDirectory).isFailure ())
+      throw new IOException ("Failed to create dump directory " + aDirectory.getAbsolutePath ());
+    m_aDirectory = aDirectory;
+    m_nChunkSize = nChunkSize;
+    m_nMaxSegmentSize = nMaxSegmentSize;
+    m_eOverflowPolicy = eOverflowPolicy;
+    m_aQueue = new ArrayBlockingQueue <> (nQueueCapacity);
+
+    // Always start with a new segment
+    m_nSegment = getMaxSegmentNr (aDirectory) + 1;
+    _openSegment ();
+
+    m_aWriterThread = new Thread (this::_runWriter, "phase4-dump-writer");
+    m_aWriterThread.setDaemon (true);
+    if (bStartWriter)
+      m_aWriterThread.start ();
+  }
+
+  /**
+   * Start the writer thread, if it was not started in the constructor. For
+   * testing only.
+   */
+  final void startWriter ()
+  {
+    m_aWriterThread.start ();
+  }
+
+  static int getSegmentNr (@Nonnull final File aFile, @Nonnull final String sSuffix)
+  {
+    final String sName = aFile.getName ();
+    if (!sName.startsWith (SEGMENT_PREFIX) || !sName.endsWith (sSuffix))
+      return -1;
+    return StringParser.parseInt (sName.substring (SEGMENT_PREFIX.length (), sName.length () - sSuffix.length ()), -1);
+  }
+
+  static int getMaxSegmentNr (@Nonnull final File aDirectory)
+  {
+    int ret = -1;
+    final File [] aFiles = aDirectory.listFiles ();
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+        ret = Math.max (ret, getSegmentNr (aFile, SEGMENT_SUFFIX));
+    return ret;
+  }
+
+  @Nonnull
+  static File getSegmentFile (@Nonnull final File aDirectory, final int nSegment)
+  {
+    return new File (aDirectory, SEGMENT_PREFIX + nSegment + SEGMENT_SUFFIX);
+  }
+
+  @Nonnull
+  static File getIndexFile (@Nonnull final File aDirectory, final int nSegment)
+  {
+    return new File (aDirectory, SEGMENT_PREFIX + nSegment + INDEX_SUFFIX);
+  }
+
+  /**
+   * @return The directory the segments are written to. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The overflow policy as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final EAS4DumpOverflowPolicy getOverflowPolicy ()
+  {
+    return m_eOverflowPolicy;
+  }
+
+  /**
+   * @return The number of message dumps that were dropped because the queue
+   *         was full. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getDroppedCount ()
+  {
+    return m_aDroppedCount.get ();
+  }
+
+  /**
+   * @return <code>true</code> if the writer thread failed permanently and all
+   *         dumps are dropped.
+   */
+  public boolean isWriterDead ()
+  {
+    return m_bWriterDead;
+  }
+
+  /**
+   * @return The number of chunks currently waiting to be written. Always &ge;
+   *         0.
+   */
+  @Nonnegative
+  public int getQueueSize ()
+  {
+    return m_aQueue.size ();
+  }
+
+  /**
+   * Enqueue a chunk.
+   *
+   * @param aChunk
+   *        The chunk to enqueue
+   * @return <code>false</code> if the chunk was not enqueued because the queue
+   *         is full and the overflow policy is to drop, or because the writer
+   *         thread is dead.
+   * @throws IOException
+   *         If the writer is closed or the thread was interrupted
+   */
+  private boolean _enqueue (@Nonnull final Chunk aChunk) throws IOException
+  {
+    if (m_bClosed)
+      throw new IOException ("The dump writer is already closed");
+    if (m_bWriterDead)
+      return false;
+    if (m_eOverflowPolicy == EAS4DumpOverflowPolicy.BLOCK)
+    {
+      try
+      {
+        // Don't block forever, if the writer dies in the meantime
+        while (!m_aQueue.offer (aChunk, ENQUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS))
+          if (m_bWriterDead)
+            return false;
+        return true;
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new InterruptedIOException ("Interrupted while waiting for the dump queue");
+      }
+    }
+    return m_aQueue.offer (aChunk);
+  }
+
+  /**
+   * Start dumping a new message.
+   *
+   * @param eDirection
+   *        The message direction. May not be <code>null</code>.
+   * @param nTimestampMillis
+   *        The timestamp of the message in milliseconds since the epoch.
+   * @param sIncomingUniqueID
+   *        The incoming unique ID. May be <code>null</code>.
+   * @param sMessageID
+   *        The AS4 message ID. May be <code>null</code>.
+   * @return The output stream to dump to or <code>null</code> if the message
+   *         dump was dropped. The stream must be closed by the caller.
+   * @throws IOException
+   *         If the writer is closed or the thread was interrupted
+   */
+  @Nullable
+  public OutputStream openRecord (@Nonnull final EAS4DumpDirection eDirection,
+                                  final long nTimestampMillis,
+                                  @Nullable final String sIncomingUniqueID,
+                                  @Nullable final String sMessageID) throws IOException
+  {
+    ValueEnforcer.notNull (eDirection, "Direction");
+
+    final long nRecordID = m_aNextRecordID.getAndIncrement ();
+    // Segment, offset and length are determined by the writer
+    final AS4DumpIndexEntry aMeta = new AS4DumpIndexEntry (nRecordID, eDirection, nTimestampMillis, sIncomingUniqueID, sMessageID, 0, 0, 0);
+    if (!_enqueue (new Chunk (EChunkType.OPEN, nRecordID, null, 0, aMeta)))
+    {
+      m_aDroppedCount.incrementAndGet ();
+      LOGGER.warn ("Dump queue is full - not dumping record " + nRecordID);
+      return null;
+    }
+    return new RecordOutputStream (nRecordID);
+  }
+
+  private void _openSegment () throws IOException
+  {
+    final File aSegmentFile = getSegmentFile (m_aDirectory, m_nSegment);
+    m_aSegmentOS = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (aSegmentFile), m_nChunkSize));
+    m_aSegmentOS.writeInt (SEGMENT_MAGIC);
+    m_aSegmentOS.writeByte (FORMAT_VERSION);
+    m_nSegmentPos = m_aSegmentOS.size ();
+
+    m_aIndexOS = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (getIndexFile (m_aDirectory, m_nSegment))));
+    m_aIndexOS.writeInt (INDEX_MAGIC);
+    m_aIndexOS.writeByte (FORMAT_VERSION);
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Started new dump segment " + aSegmentFile.getAbsolutePath ());
+  }
+
+  private void _closeSegment ()
+  {
+    StreamHelper.close (m_aSegmentOS);
+    StreamHelper.close (m_aIndexOS);
+    m_aSegmentOS = null;
+    m_aIndexOS = null;
+  }
+
+  private void _writeFrame (final long nRecordID, final int nLength, @Nullable final byte [] aData) throws IOException
+  {
+    m_aSegmentOS.writeLong (nRecordID);
+    m_aSegmentOS.writeInt (nLength);
+    m_nSegmentPos += 12;
+    if (nLength > 0)
+    {
+      m_aSegmentOS.write (aData, 0, nLength);
+      m_nSegmentPos += nLength;
+    }
+  }
+
+  private void _handle (@Nonnull final Chunk aChunk) throws IOException
+  {
+    final Long aKey = Long.valueOf (aChunk.m_nRecordID);
+    switch (aChunk.m_eType)
+    {
+      case OPEN:
+        // Dropped before it was opened
+        if (!m_aAbortedRecordIDs.remove (aKey))
+          m_aOpenRecords.put (aKey, new OpenRecord (aChunk.m_aMeta, m_nSegment, m_nSegmentPos));
+        break;
+      case DATA:
+      {
+        final OpenRecord aRecord = m_aOpenRecords.get (aKey);
+        if (aRecord != null)
+        {
+          _writeFrame (aChunk.m_nRecordID, aChunk.m_nLength, aChunk.m_aData);
+          aRecord.m_nLength += aChunk.m_nLength;
+        }
+        break;
+      }
+      case END:
+      {
+        final OpenRecord aRecord = m_aOpenRecords.remove (aKey);
+        if (aRecord != null)
+        {
+          _writeFrame (aChunk.m_nRecordID, FRAME_END, null);
+          final AS4DumpIndexEntry aMeta = aRecord.m_aMeta;
+          new AS4DumpIndexEntry (aMeta.getRecordID (),
+                                 aMeta.getDirection (),
+                                 aMeta.getTimestampMillis (),
+                                 aMeta.getIncomingUniqueID (),
+                                 aMeta.getMessageID (),
+                                 aRecord.m_nSegment,
+                                 aRecord.m_nOffset,
+                                 aRecord.m_nLength).writeTo (m_aIndexOS);
+        }
+        break;
+      }
+      default:
+        throw new IllegalStateException ("Unsupported chunk type " + aChunk.m_eType);
+    }
+  }
+
+  /**
+   * Handle the records that were dropped by the request threads.
+   */
+  private void _handleAbortedRecords () throws IOException
+  {
+    if (m_aAbortedRecordIDs.isEmpty ())
+      return;
+    for (final Long aKey : m_aAbortedRecordIDs)
+    {
+      // Records that are not yet opened are handled upon OPEN
+      if (m_aOpenRecords.remove (aKey) != null)
+      {
+        m_aAbortedRecordIDs.remove (aKey);
+        _writeFrame (aKey.longValue (), FRAME_ABORT, null);
+      }
+    }
+  }
+
+  /**
+   * Make sure a segment is open. If opening failed before, it is retried.
+   *
+   * @return <code>true</code> if a segment is open
+   */
+  private boolean _ensureSegment ()
+  {
+    if (m_aSegmentOS != null)
+      return true;
+    try
+    {
+      _openSegment ();
+      m_nSegmentOpenFailures = 0;
+      return true;
+    }
+    catch (final IOException ex)
+    {
+      _closeSegment ();
+      m_nSegmentOpenFailures++;
+      LOGGER.error ("Failed to open dump segment " + m_nSegment + " (failure " + m_nSegmentOpenFailures + ")", ex);
+      // Try the next segment number the next time
+      m_nSegment++;
+      if (m_nSegmentOpenFailures >= MAX_SEGMENT_OPEN_FAILURES)
+        throw new IllegalStateException ("Giving up opening dump segments");
+      return false;
+    }
+  }
+
+  private void _runWriter ()
+  {
+    try
+    {
+      while (true)
+      {
+        final Chunk aChunk;
+        try
+        {
+          aChunk = m_aQueue.poll (1, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException ex)
+        {
+          LOGGER.warn ("Dump writer thread was interrupted - all further dumps are dropped");
+          m_bWriterDead = true;
+          Thread.currentThread ().interrupt ();
+          break;
+        }
+        if (aChunk != null && aChunk.m_eType == EChunkType.CLOSE)
+          break;
+
+        // Without a segment, the chunk is lost
+        if (!_ensureSegment ())
+          continue;
+
+        try
+        {
+          if (aChunk != null)
+            _handle (aChunk);
+          _handleAbortedRecords ();
+
+          // Roll over - open records continue in the next segment
+          if (m_nSegmentPos >= m_nMaxSegmentSize)
+          {
+            _closeSegment ();
+            m_nSegment++;
+            _ensureSegment ();
+          }
+          else
+            if (m_aQueue.isEmpty ())
+            {
+              // Idle - make the data visible on disk
+              m_aSegmentOS.flush ();
+              m_aIndexOS.flush ();
+            }
+        }
+        catch (final IOException ex)
+        {
+          LOGGER.error ("Failed to write dump chunk" + (aChunk == null ? "" : " of record " + aChunk.m_nRecordID), ex);
+        }
+      }
+
+      if (m_aOpenRecords.isNotEmpty ())
+        LOGGER.warn ("Closing the dump writer with " + m_aOpenRecords.size () + " incomplete record(s)");
+    }
+    catch (final Throwable t)
+    {
+      // Drop everything from now on, so that no request thread blocks
+      m_bWriterDead = true;
+      m_aQueue.clear ();
+      LOGGER.error ("The dump writer thread failed - all further dumps are dropped", t);
+    }
+    finally
+    {
+      _closeSegment ();
+    }
+  }
+
+  /**
+   * Write all pending chunks and stop the writer thread. Messages that are
+   * still being dumped are not contained in the index.
+   */
+  public void close ()
+  {
+    if (m_bClosed)
+      return;
+
+    try
+    {
+      // Must be enqueued before the closed flag is set
+      final Chunk aClose = new Chunk (EChunkType.CLOSE, 0, null, 0, null);
+      while (!m_bWriterDead && !m_aQueue.offer (aClose, ENQUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS))
+      {
+        // Wait for free space
+      }
+      m_bClosed = true;
+      if (m_aWriterThread.isAlive ())
+        m_aWriterThread.join ();
+    }
+    catch (final InterruptedException ex)
+    {
+      LOGGER.error ("Interrupted while closing the dump writer", ex);
+      Thread.currentThread ().interrupt ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("ChunkSize", m_nChunkSize)
+                                       .append ("MaxSegmentSize", m_nMaxSegmentSize)
+                                       .append ("OverflowPolicy", m_eOverflowPolicy)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.mail.MessagingException;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.ByteBufferInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Random access reader for the dump archives written by
+ * {@link AS4DumpArchiveWriter}. Upon construction all index files are read and
+ * indexed by incoming unique ID, by message ID and by timestamp. A single
+ * message is read by memory mapping only its compressed bytes from the archive
+ * file, so the archive is never loaded completely.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4DumpArchiveReader implements Closeable
+{
+  private final File m_aDirectory;
+  private final ICommonsList <AS4DumpIndexEntry> m_aEntriesByTimestamp;
+  private final ICommonsMap <String, ICommonsList <AS4DumpIndexEntry>> m_aByIncomingUniqueID = new CommonsHashMap <> ();
+  private final ICommonsMap <String, ICommonsList <AS4DumpIndexEntry>> m_aByMessageID = new CommonsHashMap <> ();
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <Integer, FileChannel> m_aChannels = new CommonsHashMap <> ();
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory containing the archive files. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         If an index file cannot be read
+   */
+  public AS4DumpArchiveReader (@Nonnull final File aDirectory) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    m_aDirectory = aDirectory;
+
+    final ICommonsList <AS4DumpIndexEntry> aEntries = new CommonsArrayList <> ();
+    final int nMaxArchive = AS4DumpArchiveWriter.getMaxArchiveNr (aDirectory);
+    for (int nArchive = 0; nArchive <= nMaxArchive; ++nArchive)
+    {
+      final File aIndexFile = AS4DumpArchiveWriter.getIndexFile (aDirectory, nArchive);
+      if (aIndexFile.isFile ())
+        _readIndex (aIndexFile, aEntries);
+    }
+
+    for (final AS4DumpIndexEntry aEntry : aEntries)
+    {
+      if (StringHelper.hasText (aEntry.getIncomingUniqueID ()))
+        m_aByIncomingUniqueID.computeIfAbsent (aEntry.getIncomingUniqueID (), k -> new CommonsArrayList <> ()).add (aEntry);
+      if (StringHelper.hasText (aEntry.getMessageID ()))
+        m_aByMessageID.computeIfAbsent (aEntry.getMessageID (), k -> new CommonsArrayList <> ()).add (aEntry);
+    }
+    // Stable sort - keeps the archive order for identical timestamps
+    m_aEntriesByTimestamp = aEntries.getSortedInline (Comparator.comparingLong (AS4DumpIndexEntry::getTimestampMillis));
+  }
+
+  private static void _readIndex (@Nonnull final File aIndexFile, @Nonnull final ICommonsList <AS4DumpIndexEntry> aTarget) throws IOException
+  {
+    try (final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (new FileInputStream (aIndexFile))))
+    {
+      if (aDIS.readInt () != AS4DumpArchiveWriter.INDEX_MAGIC)
+        throw new IOException ("Invalid magic number in " + aIndexFile.getAbsolutePath ());
+      final byte nVersion = aDIS.readByte ();
+      if (nVersion != AS4DumpArchiveWriter.FORMAT_VERSION)
+        throw new IOException ("Unsupported version " + nVersion + " in " + aIndexFile.getAbsolutePath ());
+      while (true)
+        aTarget.add (AS4DumpIndexEntry.readFrom (aDIS));
+    }
+    catch (final EOFException ex)
+    {
+      // End of index reached - an incomplete last entry is ignored
+    }
+  }
+
+  /**
+   * @return The directory as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The number of messages in all archives. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getRecordCount ()
+  {
+    return m_aEntriesByTimestamp.size ();
+  }
+
+  /**
+   * @return All index entries ordered by timestamp. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4DumpIndexEntry> getAllEntries ()
+  {
+    return m_aEntriesByTimestamp.getClone ();
+  }
+
+  /**
+   * Get all messages with the provided incoming unique ID. For a request that
+   * contains the incoming message and the response to it.
+   *
+   * @param sIncomingUniqueID
+   *        The incoming unique ID to search. May be <code>null</code>.
+   * @return Never <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4DumpIndexEntry> getAllEntriesOfIncomingUniqueID (@Nullable final String sIncomingUniqueID)
+  {
+    final ICommonsList <AS4DumpIndexEntry> ret = m_aByIncomingUniqueID.get (sIncomingUniqueID);
+    return ret == null ? new CommonsArrayList <> () : ret.getClone ();
+  }
+
+  /**
+   * Get all messages with the provided AS4 message ID. Multiple entries are
+   * e.g. contained for retries.
+   *
+   * @param sMessageID
+   *        The message ID to search. May be <code>null</code>.
+   * @return Never <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4DumpIndexEntry> getAllEntriesOfMessageID (@Nullable final String sMessageID)
+  {
+    final ICommonsList <AS4DumpIndexEntry> ret = m_aByMessageID.get (sMessageID);
+    return ret == null ? new CommonsArrayList <> () : ret.getClone ();
+  }
+
+  /**
+   * Get all messages in the provided time range.
+   *
+   * @param nFromMillisIncl
+   *        Start timestamp in milliseconds since the epoch (inclusive).
+   * @param nToMillisExcl
+   *        End timestamp in milliseconds since the epoch (exclusive).
+   * @return Never <code>null</code> but maybe empty. Ordered by timestamp.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4DumpIndexEntry> getAllEntriesBetween (final long nFromMillisIncl, final long nToMillisExcl)
+  {
+    // Binary search for the first entry not before the start
+    int nLow = 0;
+    int nHigh = m_aEntriesByTimestamp.size ();
+    while (nLow < nHigh)
+    {
+      final int nMid = (nLow + nHigh) >>> 1;
+      if (m_aEntriesByTimestamp.get (nMid).getTimestampMillis () < nFromMillisIncl)
+        nLow = nMid + 1;
+      else
+        nHigh = nMid;
+    }
+
+    final ICommonsList <AS4DumpIndexEntry> ret = new CommonsArrayList <> ();
+    for (int i = nLow; i < m_aEntriesByTimestamp.size (); ++i)
+    {
+      final AS4DumpIndexEntry aEntry = m_aEntriesByTimestamp.get (i);
+      if (aEntry.getTimestampMillis () >= nToMillisExcl)
+        break;
+      ret.add (aEntry);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  private FileChannel _getChannel (final int nArchive) throws IOException
+  {
+    m_aLock.lock ();
+    try
+    {
+      final Integer aKey = Integer.valueOf (nArchive);
+      FileChannel ret = m_aChannels.get (aKey);
+      if (ret == null)
+      {
+        ret = FileChannel.open (AS4DumpArchiveWriter.getArchiveFile (m_aDirectory, nArchive).toPath (), StandardOpenOption.READ);
+        m_aChannels.put (aKey, ret);
+      }
+      return ret;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Open the uncompressed content of a single message. Only the compressed
+   * bytes of this message are mapped into memory.
+   *
+   * @param aEntry
+   *        The index entry of the message. May not be <code>null</code>.
+   * @return The input stream with the uncompressed data. Must be closed by the
+   *         caller.
+   * @throws IOException
+   *         On IO error
+   */
+  @Nonnull
+  public InputStream openRecord (@Nonnull final AS4DumpIndexEntry aEntry) throws IOException
+  {
+    ValueEnforcer.notNull (aEntry, "Entry");
+
+    final MappedByteBuffer aBuffer = _getChannel (aEntry.getSegment ()).map (FileChannel.MapMode.READ_ONLY,
+                                                                              aEntry.getOffset (),
+                                                                              aEntry.getLength ());
+    return new GZIPInputStream (new ByteBufferInputStream (aBuffer), 16 * CGlobal.BYTES_PER_KILOBYTE);
+  }
+
+  /**
+   * Decrypt a single dumped incoming message via
+   * {@link AS4DumpReader#decryptAS4In(InputStream, IAS4CryptoFactory, Consumer, Consumer)}
+   * without loading it completely into memory.
+   *
+   * @param aEntry
+   *        The index entry of an incoming message. May not be
+   *        <code>null</code>.
+   * @param aCF
+   *        The Crypto factory with the private key to decrypt the message. May
+   *        not be <code>null</code>.
+   * @param aHttpHeaderConsumer
+   *        An optional HTTP Header map consumer. May be <code>null</code>.
+   * @param aDecryptedConsumer
+   *        The consumer for the decrypted payload. May not be
+   *        <code>null</code>.
+   * @throws WSSecurityException
+   *         In case of error
+   * @throws Phase4Exception
+   *         In case of error
+   * @throws IOException
+   *         In case of error
+   * @throws MessagingException
+   *         In case of error
+   */
+  public void decryptAS4In (@Nonnull final AS4DumpIndexEntry aEntry,
+                            final IAS4CryptoFactory aCF,
+                            @Nullable final Consumer <HttpHeaderMap> aHttpHeaderConsumer,
+                            @Nonnull final Consumer <byte []> aDecryptedConsumer) throws WSSecurityException,
+                                                                                  Phase4Exception,
+                                                                                  IOException,
+                                                                                  MessagingException
+  {
+    try (final InputStream aIS = openRecord (aEntry))
+    {
+      AS4DumpReader.decryptAS4In (aIS, aCF, aHttpHeaderConsumer, aDecryptedConsumer);
+    }
+  }
+
+  public void close ()
+  {
+    m_aLock.locked ( () -> {
+      for (final FileChannel aChannel : m_aChannels.values ())
+        StreamHelper.close (aChannel);
+      m_aChannels.clear ();
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("RecordCount", m_aEntriesByTimestamp.size ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Writer for compressed dump archives. Each message is stored as a separate
+ * GZIP member in an archive file (<code>archive-N.das</code>), so that a single
+ * message can be decompressed without reading the messages before it. For each
+ * message an {@link AS4DumpIndexEntry} is written to the index file of the
+ * archive (<code>archive-N.dai</code>), containing the incoming unique ID, the
+ * message ID, the timestamp as well as the offset and the compressed length in
+ * the archive file. Use {@link AS4DumpArchiveReader} to read the archives.<br>
+ * Only one message can be written at a time.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@NotThreadSafe
+public class AS4DumpArchiveWriter implements Closeable
+{
+  public static final long DEFAULT_MAX_ARCHIVE_SIZE = 1024L * CGlobal.BYTES_PER_MEGABYTE;
+
+  static final String ARCHIVE_PREFIX = "archive-";
+  static final String ARCHIVE_SUFFIX = ".das";
+  static final String INDEX_SUFFIX = ".dai";
+  static final int ARCHIVE_MAGIC = 0x50344441;
+  static final int INDEX_MAGIC = 0x50344458;
+  static final byte FORMAT_VERSION = 1;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DumpArchiveWriter.class);
+  private static final int BUFFER_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  /**
+   * The GZIP stream of a single message. Closing it does not close the archive.
+   */
+  private final class RecordOutputStream extends GZIPOutputStream
+  {
+    private final AS4DumpIndexEntry m_aMeta;
+    private final long m_nOffset;
+    private boolean m_bAborted = false;
+    private boolean m_bClosed = false;
+
+    RecordOutputStream (@Nonnull final OutputStream aArchiveOS,
+                        @Nonnull final AS4DumpIndexEntry aMeta,
+                        final long nOffset) throws IOException
+    {
+      super (aArchiveOS, BUFFER_SIZE);
+      m_aMeta = aMeta;
+      m_nOffset = nOffset;
+    }
+
+    void abort ()
+    {
+      m_bAborted = true;
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_bClosed)
+        return;
+      m_bClosed = true;
+      try
+      {
+        // Writes the GZIP trailer
+        finish ();
+      }
+      finally
+      {
+        def.end ();
+      }
+      _onRecordClosed (this);
+    }
+  }
+
+  private final File m_aDirectory;
+  private final long m_nMaxArchiveSize;
+  private int m_nArchive;
+  private FileOutputStream m_aArchiveFOS;
+  private OutputStream m_aArchiveOS;
+  private DataOutputStream m_aIndexOS;
+  private long m_nArchivePos;
+  private RecordOutputStream m_aCurrentRecord;
+  private int m_nRecordCount = 0;
+
+  /**
+   * Constructor with {@link #DEFAULT_MAX_ARCHIVE_SIZE}.
+   *
+   * @param aDirectory
+   *        The directory to write the archive files to. May not be
+   *        <code>null</code>. Is created if it does not exist.
+   * @throws IOException
+   *         If the directory or the first archive cannot be created
+   */
+  public AS4DumpArchiveWriter (@Nonnull final File aDirectory) throws IOException
+  {
+    this (aDirectory, DEFAULT_MAX_ARCHIVE_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to write the archive files to. May not be
+   *        <code>null</code>. Is created if it does not exist.
+   * @param nMaxArchiveSize
+   *        The compressed size in bytes after which a new archive file is
+   *        started. Must be &gt; 0.
+   * @throws IOException
+   *         If the directory or the first archive cannot be created
+   */
+  public AS4DumpArchiveWriter (@Nonnull final File aDirectory, @Nonnegative final long nMaxArchiveSize) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isGT0 (nMaxArchiveSize, "MaxArchiveSize");
+
+    if (AS4IOHelper.getFileOperationManager ().createDirRecursiveIfNotExisting (aDirectory).isFailure ())
+      throw new IOException ("Failed to create archive directory " + aDirectory.getAbsolutePath ());
+    m_aDirectory = aDirectory;
+    m_nMaxArchiveSize = nMaxArchiveSize;
+
+    // Never append to existing archives
+    m_nArchive = getMaxArchiveNr (aDirectory) + 1;
+    _openArchive ();
+  }
+
+  static int getMaxArchiveNr (@Nonnull final File aDirectory)
+  {
+    int ret = -1;
+    final File [] aFiles = aDirectory.listFiles ();
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+      {
+        final String sName = aFile.getName ();
+        if (sName.startsWith (ARCHIVE_PREFIX) && sName.endsWith (ARCHIVE_SUFFIX))
+          ret = Math.max (ret,
+                          StringParser.parseInt (sName.substring (ARCHIVE_PREFIX.length (), sName.length () - ARCHIVE_SUFFIX.length ()),
+                                                 -1));
+      }
+    return ret;
+  }
+
+  @Nonnull
+  static File getArchiveFile (@Nonnull final File aDirectory, final int nArchive)
+  {
+    return new File (aDirectory, ARCHIVE_PREFIX + nArchive + ARCHIVE_SUFFIX);
+  }
+
+  @Nonnull
+  static File getIndexFile (@Nonnull final File aDirectory, final int nArchive)
+  {
+    return new File (aDirectory, ARCHIVE_PREFIX + nArchive + INDEX_SUFFIX);
+  }
+
+  /**
+   * @return The directory the archives are written to. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The number of messages written by this instance. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getRecordCount ()
+  {
+    return m_nRecordCount;
+  }
+
+  private void _openArchive () throws IOException
+  {
+    final File aArchiveFile = getArchiveFile (m_aDirectory, m_nArchive);
+    m_aArchiveFOS = new FileOutputStream (aArchiveFile);
+    final DataOutputStream aDOS = new DataOutputStream (new BufferedOutputStream (m_aArchiveFOS, BUFFER_SIZE));
+    aDOS.writeInt (ARCHIVE_MAGIC);
+    aDOS.writeByte (FORMAT_VERSION);
+    m_aArchiveOS = aDOS;
+    m_nArchivePos = aDOS.size ();
+
+    m_aIndexOS = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (getIndexFile (m_aDirectory, m_nArchive))));
+    m_aIndexOS.writeInt (INDEX_MAGIC);
+    m_aIndexOS.writeByte (FORMAT_VERSION);
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Started new dump archive " + aArchiveFile.getAbsolutePath ());
+  }
+
+  private void _closeArchive ()
+  {
+    StreamHelper.close (m_aArchiveOS);
+    StreamHelper.close (m_aIndexOS);
+    m_aArchiveFOS = null;
+    m_aArchiveOS = null;
+    m_aIndexOS = null;
+  }
+
+  private void _onRecordClosed (@Nonnull final RecordOutputStream aRecord) throws IOException
+  {
+    m_aCurrentRecord = null;
+
+    // Determine the compressed length
+    m_aArchiveOS.flush ();
+    final long nNewPos = m_aArchiveFOS.getChannel ().position ();
+    final long nCompressedLength = nNewPos - aRecord.m_nOffset;
+    m_nArchivePos = nNewPos;
+
+    if (aRecord.m_bAborted)
+    {
+      // The bytes remain in the archive but are not referenced
+      LOGGER.warn ("Discarded incomplete record " + aRecord.m_aMeta.getRecordID () + " in dump archive");
+    }
+    else
+    {
+      final AS4DumpIndexEntry aMeta = aRecord.m_aMeta;
+      new AS4DumpIndexEntry (aMeta.getRecordID (),
+                             aMeta.getDirection (),
+                             aMeta.getTimestampMillis (),
+                             aMeta.getIncomingUniqueID (),
+                             aMeta.getMessageID (),
+                             m_nArchive,
+                             aRecord.m_nOffset,
+                             nCompressedLength).writeTo (m_aIndexOS);
+      m_nRecordCount++;
+    }
+
+    if (m_nArchivePos >= m_nMaxArchiveSize)
+    {
+      _closeArchive ();
+      m_nArchive++;
+      _openArchive ();
+    }
+  }
+
+  /**
+   * Start writing a new message to the archive. The returned stream must be
+   * closed before the next message can be written.
+   *
+   * @param eDirection
+   *        The message direction. May not be <code>null</code>.
+   * @param nTimestampMillis
+   *        The timestamp of the message in milliseconds since the epoch.
+   * @param sIncomingUniqueID
+   *        The incoming unique ID. May be <code>null</code>.
+   * @param sMessageID
+   *        The AS4 message ID. May be <code>null</code>.
+   * @return The stream to write the uncompressed message to. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         On IO error
+   */
+  @Nonnull
+  public OutputStream openRecord (@Nonnull final EAS4DumpDirection eDirection,
+                                  final long nTimestampMillis,
+                                  @Nullable final String sIncomingUniqueID,
+                                  @Nullable final String sMessageID) throws IOException
+  {
+    ValueEnforcer.notNull (eDirection, "Direction");
+    if (m_aArchiveOS == null)
+      throw new IOException ("The dump archive writer is already closed");
+    if (m_aCurrentRecord != null)
+      throw new IllegalStateException ("The previous record was not closed");
+
+    final AS4DumpIndexEntry aMeta = new AS4DumpIndexEntry (m_nRecordCount,
+                                                           eDirection,
+                                                           nTimestampMillis,
+                                                           sIncomingUniqueID,
+                                                           sMessageID,
+                                                           m_nArchive,
+                                                           m_nArchivePos,
+                                                           0);
+    // The GZIP stream must not close the archive
+    final OutputStream aNonClosingOS = new FilterOutputStream (m_aArchiveOS)
+    {
+      @Override
+      public void write (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+      {
+        out.write (aBuf, nOfs, nLen);
+      }
+
+      @Override
+      public void close () throws IOException
+      {
+        flush ();
+      }
+    };
+    m_aCurrentRecord = new RecordOutputStream (aNonClosingOS, aMeta, m_nArchivePos);
+    return m_aCurrentRecord;
+  }
+
+  /**
+   * Write a complete message to the archive.
+   *
+   * @param eDirection
+   *        The message direction. May not be <code>null</code>.
+   * @param nTimestampMillis
+   *        The timestamp of the message in milliseconds since the epoch.
+   * @param sIncomingUniqueID
+   *        The incoming unique ID. May be <code>null</code>.
+   * @param sMessageID
+   *        The AS4 message ID. May be <code>null</code>.
+   * @param aIS
+   *        The uncompressed message. May not be <code>null</code>.
+   * @throws IOException
+   *         On IO error
+   */
+  public void addRecord (@Nonnull final EAS4DumpDirection eDirection,
+                         final long nTimestampMillis,
+                         @Nullable final String sIncomingUniqueID,
+                         @Nullable final String sMessageID,
+                         @Nonnull @WillNotClose final InputStream aIS) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    try (final OutputStream aOS = openRecord (eDirection, nTimestampMillis, sIncomingUniqueID, sMessageID))
+    {
+      if (StreamHelper.copyInputStreamToOutputStream (aIS, aOS).isFailure ())
+      {
+        ((RecordOutputStream) aOS).abort ();
+        throw new IOException ("Failed to copy message to the dump archive");
+      }
+    }
+  }
+
+  /**
+   * Add all complete messages from the segment files written by
+   * {@link AS4AsyncDumpWriter} to this archive. The segment files are not
+   * modified.
+   *
+   * @param aSegmentDirectory
+   *        The directory containing the segment files. May not be
+   *        <code>null</code>.
+   * @return The number of messages added. Always &ge; 0.
+   * @throws IOException
+   *         On IO error
+   */
+  @Nonnegative
+  public int addAllFromSegments (@Nonnull final File aSegmentDirectory) throws IOException
+  {
+    ValueEnforcer.notNull (aSegmentDirectory, "SegmentDirectory");
+
+    int ret = 0;
+    final ICommonsList <AS4DumpIndexEntry> aEntries = AS4DumpSegmentReader.readAllIndexEntries (aSegmentDirectory);
+    for (final AS4DumpIndexEntry aEntry : aEntries)
+    {
+      final RecordOutputStream aOS = (RecordOutputStream) openRecord (aEntry.getDirection (),
+                                                                      aEntry.getTimestampMillis (),
+                                                                      aEntry.getIncomingUniqueID (),
+                                                                      aEntry.getMessageID ());
+      try
+      {
+        if (AS4DumpSegmentReader.copyRecord (aSegmentDirectory, aEntry, aOS).isSuccess ())
+          ret++;
+        else
+          aOS.abort ();
+      }
+      finally
+      {
+        aOS.close ();
+      }
+    }
+    LOGGER.info ("Added " + ret + " of " + aEntries.size () + " dumped messages to the dump archive");
+    return ret;
+  }
+
+  public void close () throws IOException
+  {
+    if (m_aCurrentRecord != null)
+    {
+      m_aCurrentRecord.abort ();
+      m_aCurrentRecord.close ();
+    }
+    _closeArchive ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("MaxArchiveSize", m_nMaxArchiveSize)
+                                       .append ("Archive", m_nArchive)
+                                       .getToString ();
+  }
+}
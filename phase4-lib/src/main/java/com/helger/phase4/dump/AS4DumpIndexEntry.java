@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.datetime.PDTConfig;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A single entry of a dump segment index. It references a dumped message by
+ * its record ID and contains the metadata to search for it. It is also used in
+ * the index of dump archives written by {@link AS4DumpArchiveWriter}. In that
+ * case segment, offset and length refer to the compressed bytes in the archive
+ * file.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@Immutable
+public final class AS4DumpIndexEntry
+{
+  private final long m_nRecordID;
+  private final EAS4DumpDirection m_eDirection;
+  private final long m_nTimestampMillis;
+  private final String m_sIncomingUniqueID;
+  private final String m_sMessageID;
+  private final int m_nSegment;
+  private final long m_nOffset;
+  private final long m_nLength;
+
+  public AS4DumpIndexEntry (final long nRecordID,
+                            @Nonnull final EAS4DumpDirection eDirection,
+                            final long nTimestampMillis,
+                            @Nullable final String sIncomingUniqueID,
+                            @Nullable final String sMessageID,
+                            @Nonnegative final int nSegment,
+                            @Nonnegative final long nOffset,
+                            @Nonnegative final long nLength)
+  {
+    ValueEnforcer.notNull (eDirection, "Direction");
+    ValueEnforcer.isGE0 (nSegment, "Segment");
+    ValueEnforcer.isGE0 (nOffset, "Offset");
+    ValueEnforcer.isGE0 (nLength, "Length");
+    m_nRecordID = nRecordID;
+    m_eDirection = eDirection;
+    m_nTimestampMillis = nTimestampMillis;
+    m_sIncomingUniqueID = sIncomingUniqueID;
+    m_sMessageID = sMessageID;
+    m_nSegment = nSegment;
+    m_nOffset = nOffset;
+    m_nLength = nLength;
+  }
+
+  /**
+   * @return The record ID that is unique within one dump directory.
+   */
+  public long getRecordID ()
+  {
+    return m_nRecordID;
+  }
+
+  /**
+   * @return The direction of the dumped message. Never <code>null</code>.
+   */
+  @Nonnull
+  public EAS4DumpDirection getDirection ()
+  {
+    return m_eDirection;
+  }
+
+  /**
+   * @return The timestamp of the message in milliseconds since the epoch.
+   */
+  public long getTimestampMillis ()
+  {
+    return m_nTimestampMillis;
+  }
+
+  /**
+   * @return The timestamp of the message. Never <code>null</code>.
+   */
+  @Nonnull
+  public OffsetDateTime getTimestamp ()
+  {
+    return OffsetDateTime.ofInstant (Instant.ofEpochMilli (m_nTimestampMillis), PDTConfig.getDefaultZoneId ());
+  }
+
+  /**
+   * @return The incoming unique ID of the message. May be <code>null</code>
+   *         for outgoing requests.
+   */
+  @Nullable
+  public String getIncomingUniqueID ()
+  {
+    return m_sIncomingUniqueID;
+  }
+
+  /**
+   * @return The AS4 message ID of the message. May be <code>null</code> for
+   *         incoming messages, because it is not known when dumping starts.
+   */
+  @Nullable
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The number of the segment, in which the first byte of the message
+   *         is stored. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getSegment ()
+  {
+    return m_nSegment;
+  }
+
+  /**
+   * @return The offset in the segment from which on the message is stored.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public long getOffset ()
+  {
+    return m_nOffset;
+  }
+
+  /**
+   * @return The number of dumped bytes of the message. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getLength ()
+  {
+    return m_nLength;
+  }
+
+  void writeTo (@Nonnull final DataOutput aDO) throws IOException
+  {
+    aDO.writeLong (m_nRecordID);
+    aDO.writeUTF (m_eDirection.getID ());
+    aDO.writeLong (m_nTimestampMillis);
+    aDO.writeUTF (StringHelper.getNotNull (m_sIncomingUniqueID));
+    aDO.writeUTF (StringHelper.getNotNull (m_sMessageID));
+    aDO.writeInt (m_nSegment);
+    aDO.writeLong (m_nOffset);
+    aDO.writeLong (m_nLength);
+  }
+
+  @Nonnull
+  static AS4DumpIndexEntry readFrom (@Nonnull final DataInput aDI) throws IOException
+  {
+    final long nRecordID = aDI.readLong ();
+    final String sDirection = aDI.readUTF ();
+    final EAS4DumpDirection eDirection = EAS4DumpDirection.getFromIDOrNull (sDirection);
+    if (eDirection == null)
+      throw new IOException ("Invalid dump direction '" + sDirection + "'");
+    final long nTimestampMillis = aDI.readLong ();
+    final String sIncomingUniqueID = aDI.readUTF ();
+    final String sMessageID = aDI.readUTF ();
+    return new AS4DumpIndexEntry (nRecordID,
+                                  eDirection,
+                                  nTimestampMillis,
+                                  StringHelper.getNotEmpty (sIncomingUniqueID, null),
+                                  StringHelper.getNotEmpty (sMessageID, null),
+                                  aDI.readInt (),
+                                  aDI.readLong (),
+                                  aDI.readLong ());
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("RecordID", m_nRecordID)
+                                       .append ("Direction", m_eDirection)
+                                       .append ("TimestampMillis", m_nTimestampMillis)
+                                       .append ("IncomingUniqueID", m_sIncomingUniqueID)
+                                       .append ("MessageID", m_sMessageID)
+                                       .append ("Segment", m_nSegment)
+                                       .append ("Offset", m_nOffset)
+                                       .append ("Length", m_nLength)
+                                       .getToString ();
+  }
+}
@@ -17,12 +17,14 @@
 package com.helger.phase4.dump;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
 import javax.mail.MessagingException;
 
 import org.apache.wss4j.common.ext.WSSecurityException;
@@ -34,7 +36,9 @@ import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.NonBlockingBufferedInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.string.StringHelper;
@@ -138,6 +142,90 @@ public final class AS4DumpReader
 
     LOGGER.info ("Now at byte " + nHttpEnd + " having " + hm.getCount () + " HTTP headers");
 
+    _handle (new NonBlockingByteArrayInputStream (aAS4InData, nHttpEnd, aAS4InData.length - nHttpEnd), hm, aCF, aDecryptedConsumer);
+  }
+
+  /**
+   * Read a single line terminated by LF from the provided stream. A trailing CR
+   * is removed.
+   *
+   * @return <code>null</code> if the end of the stream was reached before any
+   *         byte was read.
+   */
+  @Nullable
+  private static String _readHeaderLine (@Nonnull final InputStream aIS) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (128);
+    int b;
+    while ((b = aIS.read ()) >= 0 && b != '\n')
+      aBAOS.write (b);
+    if (b < 0 && aBAOS.isEmpty ())
+      return null;
+    final String ret = aBAOS.getAsString (StandardCharsets.ISO_8859_1);
+    return ret.endsWith ("\r") ? ret.substring (0, ret.length () - 1) : ret;
+  }
+
+  /**
+   * Utility method to decrypt dumped .as4in message late, without reading the
+   * whole dump into memory first. This is e.g. used to read single messages
+   * from a dump archive via {@link AS4DumpArchiveReader}.
+   *
+   * @param aAS4InIS
+   *        The input stream with the dumped data. May not be
+   *        <code>null</code>. It is not closed by this method.
+   * @param aCF
+   *        The Crypto factory to be used. This crypto factory must use use the
+   *        private key that can be used to decrypt this particular message. May
+   *        not be <code>null</code>.
+   * @param aHttpHeaderConsumer
+   *        An optional HTTP Header map consumer. May be <code>null</code>.
+   * @param aDecryptedConsumer
+   *        The consumer for the decrypted payload - whatever that is :). May
+   *        not be <code>null</code>.
+   * @throws WSSecurityException
+   *         In case of error
+   * @throws Phase4Exception
+   *         In case of error
+   * @throws IOException
+   *         In case of error
+   * @throws MessagingException
+   *         In case of error
+   * @since 1.3.3
+   */
+  public static void decryptAS4In (@Nonnull @WillNotClose final InputStream aAS4InIS,
+                                   final IAS4CryptoFactory aCF,
+                                   @Nullable final Consumer <HttpHeaderMap> aHttpHeaderConsumer,
+                                   @Nonnull final Consumer <byte []> aDecryptedConsumer) throws WSSecurityException,
+                                                                                         Phase4Exception,
+                                                                                         IOException,
+                                                                                         MessagingException
+  {
+    final InputStream aBufferedIS = new NonBlockingBufferedInputStream (aAS4InIS);
+    final HttpHeaderMap hm = new HttpHeaderMap ();
+    String sLine;
+    while ((sLine = _readHeaderLine (aBufferedIS)) != null && sLine.length () > 0)
+    {
+      final String [] aParts = StringHelper.getExplodedArray (':', sLine, 2);
+      if (aParts.length == 2)
+        hm.addHeader (aParts[0].trim (), aParts[1].trim ());
+    }
+
+    if (aHttpHeaderConsumer != null)
+      aHttpHeaderConsumer.accept (hm);
+
+    LOGGER.info ("Read " + hm.getCount () + " HTTP headers from stream");
+
+    _handle (aBufferedIS, hm, aCF, aDecryptedConsumer);
+  }
+
+  private static void _handle (@Nonnull final InputStream aPayloadIS,
+                               @Nonnull final HttpHeaderMap aHttpHeaders,
+                               final IAS4CryptoFactory aCF,
+                               @Nonnull final Consumer <byte []> aDecryptedConsumer) throws WSSecurityException,
+                                                                                     Phase4Exception,
+                                                                                     IOException,
+                                                                                     MessagingException
+  {
     WebScopeManager.onGlobalBegin (MockServletContext.create ());
     try (final WebScoped w = new WebScoped ();
          final AS4RequestHandler rh = new AS4RequestHandler (aCF,
@@ -181,8 +269,8 @@ public final class AS4DumpReader
         }
       };
       rh.setProcessorSupplier ( () -> new CommonsArrayList <> (aSPI));
-      rh.handleRequest (new NonBlockingByteArrayInputStream (aAS4InData, nHttpEnd, aAS4InData.length - nHttpEnd),
-                        hm,
+      rh.handleRequest (aPayloadIS,
+                        aHttpHeaders,
                         new IAS4ResponseAbstraction ()
                         {
                           public void setStatus (final int nStatusCode)
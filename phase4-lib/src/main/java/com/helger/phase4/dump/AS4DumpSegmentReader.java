@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.ESuccess;
+
+/**
+ * Reader for the segment files written by {@link AS4AsyncDumpWriter}.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@Immutable
+public final class AS4DumpSegmentReader
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DumpSegmentReader.class);
+  // Magic int + version byte
+  private static final int HEADER_SIZE = 5;
+
+  private AS4DumpSegmentReader ()
+  {}
+
+  @Nonnull
+  private static DataInputStream _openAndCheckHeader (@Nonnull final File aFile, final int nExpectedMagic) throws IOException
+  {
+    final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (new FileInputStream (aFile)));
+    boolean bSuccess = false;
+    try
+    {
+      final int nMagic = aDIS.readInt ();
+      if (nMagic != nExpectedMagic)
+        throw new IOException ("Invalid magic number in " + aFile.getAbsolutePath ());
+      final byte nVersion = aDIS.readByte ();
+      if (nVersion != AS4AsyncDumpWriter.FORMAT_VERSION)
+        throw new IOException ("Unsupported version " + nVersion + " in " + aFile.getAbsolutePath ());
+      bSuccess = true;
+      return aDIS;
+    }
+    finally
+    {
+      if (!bSuccess)
+        StreamHelper.close (aDIS);
+    }
+  }
+
+  private static boolean _skip (@Nonnull final DataInputStream aDIS, final long nBytes) throws IOException
+  {
+    long nLeft = nBytes;
+    while (nLeft > 0)
+    {
+      final long nSkipped = aDIS.skip (nLeft);
+      if (nSkipped <= 0)
+      {
+        // Skip may return 0 without being at the end
+        if (aDIS.read () < 0)
+          return false;
+        nLeft--;
+      }
+      else
+        nLeft -= nSkipped;
+    }
+    return true;
+  }
+
+  /**
+   * Read all index entries of all segments in the provided directory, ordered
+   * by segment number. An incomplete last entry (e.g. because the writer is
+   * still running) is ignored.
+   *
+   * @param aDirectory
+   *        The dump directory. May not be <code>null</code>.
+   * @return The list of all index entries. Never <code>null</code> but maybe
+   *         empty.
+   * @throws IOException
+   *         If an index file cannot be read
+   */
+  @Nonnull
+  public static ICommonsList <AS4DumpIndexEntry> readAllIndexEntries (@Nonnull final File aDirectory) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+
+    final ICommonsList <AS4DumpIndexEntry> ret = new CommonsArrayList <> ();
+    final int nMaxSegment = AS4AsyncDumpWriter.getMaxSegmentNr (aDirectory);
+    for (int nSegment = 0; nSegment <= nMaxSegment; ++nSegment)
+    {
+      final File aIndexFile = AS4AsyncDumpWriter.getIndexFile (aDirectory, nSegment);
+      if (aIndexFile.isFile ())
+        try (final DataInputStream aDIS = _openAndCheckHeader (aIndexFile, AS4AsyncDumpWriter.INDEX_MAGIC))
+        {
+          while (true)
+            ret.add (AS4DumpIndexEntry.readFrom (aDIS));
+        }
+        catch (final EOFException ex)
+        {
+          // End of index reached
+        }
+    }
+    return ret;
+  }
+
+  /**
+   * Copy the dumped bytes of a single message to the provided output stream.
+   * The frames of the message may span multiple segments.
+   *
+   * @param aDirectory
+   *        The dump directory. May not be <code>null</code>.
+   * @param aEntry
+   *        The index entry of the message to copy. May not be
+   *        <code>null</code>.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the message is incomplete in the
+   *         segment files.
+   * @throws IOException
+   *         On IO error
+   */
+  @Nonnull
+  public static ESuccess copyRecord (@Nonnull final File aDirectory,
+                                     @Nonnull final AS4DumpIndexEntry aEntry,
+                                     @Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.notNull (aEntry, "Entry");
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    final long nRecordID = aEntry.getRecordID ();
+    int nSegment = aEntry.getSegment ();
+    long nOffset = aEntry.getOffset ();
+    final byte [] aBuf = new byte [AS4AsyncDumpWriter.DEFAULT_CHUNK_SIZE];
+    while (true)
+    {
+      final File aSegmentFile = AS4AsyncDumpWriter.getSegmentFile (aDirectory, nSegment);
+      if (!aSegmentFile.isFile ())
+      {
+        LOGGER.warn ("Dump segment " + aSegmentFile.getAbsolutePath () + " is missing");
+        return ESuccess.FAILURE;
+      }
+
+      try (final DataInputStream aDIS = _openAndCheckHeader (aSegmentFile, AS4AsyncDumpWriter.SEGMENT_MAGIC))
+      {
+        final long nToSkip = nOffset - HEADER_SIZE;
+        if (!_skip (aDIS, nToSkip))
+          return ESuccess.FAILURE;
+
+        while (true)
+        {
+          final long nFrameRecordID;
+          try
+          {
+            nFrameRecordID = aDIS.readLong ();
+          }
+          catch (final EOFException ex)
+          {
+            // Continue in the next segment
+            break;
+          }
+          final int nLength = aDIS.readInt ();
+          if (nFrameRecordID == nRecordID)
+          {
+            if (nLength == AS4AsyncDumpWriter.FRAME_END)
+              return ESuccess.SUCCESS;
+            if (nLength == AS4AsyncDumpWriter.FRAME_ABORT)
+              return ESuccess.FAILURE;
+          }
+          if (nLength > 0)
+          {
+            if (nFrameRecordID == nRecordID)
+            {
+              int nLeft = nLength;
+              while (nLeft > 0)
+              {
+                final int nRead = Math.min (nLeft, aBuf.length);
+                aDIS.readFully (aBuf, 0, nRead);
+                aOS.write (aBuf, 0, nRead);
+                nLeft -= nRead;
+              }
+            }
+            else
+              if (!_skip (aDIS, nLength))
+                return ESuccess.FAILURE;
+          }
+        }
+      }
+      nSegment++;
+      nOffset = HEADER_SIZE;
+    }
+  }
+}
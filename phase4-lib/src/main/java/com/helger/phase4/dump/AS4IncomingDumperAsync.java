@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+
+/**
+ * Implementation of {@link IAS4IncomingDumper} that hands the dumped bytes to
+ * an {@link AS4AsyncDumpWriter}, so that the request thread does not wait for
+ * file system IO.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+public class AS4IncomingDumperAsync extends AbstractAS4IncomingDumperWithHeaders
+{
+  private final AS4AsyncDumpWriter m_aWriter;
+
+  /**
+   * Constructor
+   *
+   * @param aWriter
+   *        The writer to use. May not be <code>null</code>. The writer may be
+   *        shared with an {@link AS4OutgoingDumperAsync}. The caller is
+   *        responsible for closing it.
+   */
+  public AS4IncomingDumperAsync (@Nonnull final AS4AsyncDumpWriter aWriter)
+  {
+    ValueEnforcer.notNull (aWriter, "Writer");
+    m_aWriter = aWriter;
+  }
+
+  /**
+   * @return The writer as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final AS4AsyncDumpWriter getWriter ()
+  {
+    return m_aWriter;
+  }
+
+  @Override
+  @Nullable
+  protected OutputStream openOutputStream (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nonnull final HttpHeaderMap aHttpHeaderMap) throws IOException
+  {
+    return m_aWriter.openRecord (EAS4DumpDirection.INCOMING,
+                                 aMessageMetadata.getIncomingDT ().toInstant ().toEpochMilli (),
+                                 aMessageMetadata.getIncomingUniqueID (),
+                                 null);
+  }
+}
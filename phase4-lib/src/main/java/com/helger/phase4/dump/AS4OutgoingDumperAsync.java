@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.IAS4MessageState;
+
+/**
+ * Implementation of {@link IAS4OutgoingDumper} that hands the dumped bytes to
+ * an {@link AS4AsyncDumpWriter}, so that the sending thread does not wait for
+ * file system IO. For responses, the incoming unique ID of the request is
+ * stored in the index as well.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+public class AS4OutgoingDumperAsync extends AbstractAS4OutgoingDumperWithHeaders
+{
+  private final AS4AsyncDumpWriter m_aWriter;
+
+  /**
+   * Constructor
+   *
+   * @param aWriter
+   *        The writer to use. May not be <code>null</code>. The writer may be
+   *        shared with an {@link AS4IncomingDumperAsync}. The caller is
+   *        responsible for closing it.
+   */
+  public AS4OutgoingDumperAsync (@Nonnull final AS4AsyncDumpWriter aWriter)
+  {
+    ValueEnforcer.notNull (aWriter, "Writer");
+    m_aWriter = aWriter;
+  }
+
+  /**
+   * @return The writer as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final AS4AsyncDumpWriter getWriter ()
+  {
+    return m_aWriter;
+  }
+
+  @Override
+  @Nullable
+  protected OutputStream openOutputStream (@Nonnull final EAS4MessageMode eMsgMode,
+                                           @Nullable final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nullable final IAS4MessageState aState,
+                                           @Nonnull @Nonempty final String sMessageID,
+                                           @Nullable final HttpHeaderMap aCustomHeaders,
+                                           @Nonnegative final int nTry) throws IOException
+  {
+    return m_aWriter.openRecord (EAS4DumpDirection.OUTGOING,
+                                 System.currentTimeMillis (),
+                                 aMessageMetadata == null ? null : aMessageMetadata.getIncomingUniqueID (),
+                                 sMessageID);
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Defines what an asynchronous dumper does, if the writer cannot keep up and
+ * the queue is full.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+public enum EAS4DumpOverflowPolicy implements IHasID <String>
+{
+  /** Block the calling thread until the queue has free space (backpressure) */
+  BLOCK ("block"),
+  /**
+   * Drop the dump of the affected message, so that the calling thread is
+   * never blocked
+   */
+  DROP ("drop");
+
+  private final String m_sID;
+
+  EAS4DumpOverflowPolicy (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EAS4DumpOverflowPolicy getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EAS4DumpOverflowPolicy.class, sID);
+  }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Iterator;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Persistent duplicate checker based on an append-only log. Each registered
+ * message ID is appended as a small binary record to the current segment file
+ * of the provided directory, so the I/O per message is constant, independent
+ * of the number of contained message IDs. A new segment is started after the
+ * configured segment duration. All message IDs are held in an in-memory
+ * {@link AS4DuplicateManagerSharded} that is filled by replaying all segments
+ * upon construction.<br>
+ * Eviction removes the expired entries from memory and deletes all segment
+ * files that only contain expired entries. Entries that were evicted from
+ * memory but are still contained in a partially expired segment file are
+ * restored upon restart and evicted again by the next eviction run.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4DuplicateManagerSegmentLog implements IAS4DuplicateManager, Closeable
+{
+  public static final Duration DEFAULT_SEGMENT_DURATION = Duration.ofMinutes (1);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManagerSegmentLog.class);
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".dup";
+  private static final int SEGMENT_MAGIC = 0x50344450;
+  private static final byte SEGMENT_VERSION = 1;
+
+  private static final class Segment
+  {
+    private final File m_aFile;
+    private long m_nFirstMillis = Long.MAX_VALUE;
+    private long m_nLastMillis = Long.MIN_VALUE;
+    private int m_nCount = 0;
+
+    Segment (@Nonnull final File aFile)
+    {
+      m_aFile = aFile;
+    }
+
+    void onRecord (final long nMillis)
+    {
+      m_nFirstMillis = Math.min (m_nFirstMillis, nMillis);
+      m_nLastMillis = Math.max (m_nLastMillis, nMillis);
+      m_nCount++;
+    }
+  }
+
+  private final AS4DuplicateManagerSharded m_aIndex = new AS4DuplicateManagerSharded ();
+  private final File m_aDirectory;
+  private final long m_nSegmentMillis;
+  private final SimpleLock m_aLogLock = new SimpleLock ();
+  // All closed segments in order of creation
+  @GuardedBy ("m_aLogLock")
+  private final ICommonsList <Segment> m_aSegments = new CommonsArrayList <> ();
+  @GuardedBy ("m_aLogLock")
+  private long m_nNextSegmentNr = 0;
+  @GuardedBy ("m_aLogLock")
+  private Segment m_aActiveSegment;
+  @GuardedBy ("m_aLogLock")
+  private DataOutputStream m_aActiveOS;
+
+  /**
+   * Constructor using {@link #DEFAULT_SEGMENT_DURATION}.
+   *
+   * @param aDirectory
+   *        The directory containing the segment files. May not be
+   *        <code>null</code>. Is created if it does not exist.
+   * @throws IOException
+   *         If the directory cannot be created
+   */
+  public AS4DuplicateManagerSegmentLog (@Nonnull final File aDirectory) throws IOException
+  {
+    this (aDirectory, DEFAULT_SEGMENT_DURATION);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory containing the segment files. May not be
+   *        <code>null</code>. Is created if it does not exist.
+   * @param aSegmentDuration
+   *        The time span covered by a single segment file. May not be
+   *        <code>null</code>. The shorter the duration, the closer segment
+   *        deletion follows the eviction time.
+   * @throws IOException
+   *         If the directory cannot be created
+   */
+  public AS4DuplicateManagerSegmentLog (@Nonnull final File aDirectory, @Nonnull final Duration aSegmentDuration) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.notNull (aSegmentDuration, "SegmentDuration");
+    ValueEnforcer.isTrue ( () -> !aSegmentDuration.isNegative () && !aSegmentDuration.isZero (), "SegmentDuration must be positive");
+
+    if (AS4IOHelper.getFileOperationManager ().createDirRecursiveIfNotExisting (aDirectory).isFailure ())
+      throw new IOException ("Failed to create duplicate log directory " + aDirectory.getAbsolutePath ());
+    m_aDirectory = aDirectory;
+    m_nSegmentMillis = aSegmentDuration.toMillis ();
+
+    _replay ();
+  }
+
+  private static long _getSegmentNr (@Nonnull final File aFile)
+  {
+    final String sName = aFile.getName ();
+    if (!sName.startsWith (SEGMENT_PREFIX) || !sName.endsWith (SEGMENT_SUFFIX))
+      return -1;
+    return StringParser.parseLong (sName.substring (SEGMENT_PREFIX.length (), sName.length () - SEGMENT_SUFFIX.length ()), -1);
+  }
+
+  @Nullable
+  private static String _readOptional (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    return aDIS.readBoolean () ? aDIS.readUTF () : null;
+  }
+
+  private static void _writeOptional (@Nonnull final DataOutputStream aDOS, @Nullable final String s) throws IOException
+  {
+    aDOS.writeBoolean (s != null);
+    if (s != null)
+      aDOS.writeUTF (s);
+  }
+
+  private void _replay ()
+  {
+    final ICommonsList <File> aFiles = new CommonsArrayList <> ();
+    final File [] aAll = m_aDirectory.listFiles ();
+    if (aAll != null)
+      for (final File aFile : aAll)
+        if (aFile.isFile () && _getSegmentNr (aFile) >= 0)
+          aFiles.add (aFile);
+    aFiles.sort ( (x, y) -> Long.compare (_getSegmentNr (x), _getSegmentNr (y)));
+
+    int nRecords = 0;
+    for (final File aFile : aFiles)
+    {
+      final Segment aSegment = new Segment (aFile);
+      try (final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (new FileInputStream (aFile))))
+      {
+        if (aDIS.readInt () != SEGMENT_MAGIC || aDIS.readByte () != SEGMENT_VERSION)
+          throw new IOException ("Unsupported segment header");
+
+        while (true)
+        {
+          final long nMillis;
+          try
+          {
+            nMillis = aDIS.readLong ();
+          }
+          catch (final EOFException ex)
+          {
+            // Regular end of segment
+            break;
+          }
+          final String sMessageID = aDIS.readUTF ();
+          final String sProfileID = _readOptional (aDIS);
+          final String sPModeID = _readOptional (aDIS);
+          m_aIndex.internalRegisterAndCheck (sMessageID, nMillis, sProfileID, sPModeID);
+          aSegment.onRecord (nMillis);
+        }
+      }
+      catch (final IOException ex)
+      {
+        // E.g. an incomplete last record after a crash - new records always go
+        // to a new segment
+        LOGGER.warn ("Failed to completely read duplicate log segment " +
+                     aFile.getAbsolutePath () +
+                     " - using the " +
+                     aSegment.m_nCount +
+                     " record(s) read so far: " +
+                     ex.getMessage ());
+      }
+
+      if (aSegment.m_nCount > 0)
+        m_aSegments.add (aSegment);
+      else
+        AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aFile);
+      nRecords += aSegment.m_nCount;
+      m_nNextSegmentNr = Math.max (m_nNextSegmentNr, _getSegmentNr (aFile) + 1);
+    }
+
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Restored " + nRecords + " duplicate log record(s) from " + m_aSegments.size () + " segment(s) in " + m_aDirectory);
+  }
+
+  @GuardedBy ("m_aLogLock")
+  private void _closeActiveSegment ()
+  {
+    if (m_aActiveSegment != null)
+    {
+      StreamHelper.close (m_aActiveOS);
+      m_aSegments.add (m_aActiveSegment);
+      m_aActiveSegment = null;
+      m_aActiveOS = null;
+    }
+  }
+
+  @GuardedBy ("m_aLogLock")
+  private void _append (@Nonnull final String sMessageID,
+                        final long nMillis,
+                        @Nullable final String sProfileID,
+                        @Nullable final String sPModeID) throws IOException
+  {
+    if (m_aActiveSegment != null && nMillis - m_aActiveSegment.m_nFirstMillis >= m_nSegmentMillis)
+      _closeActiveSegment ();
+
+    if (m_aActiveSegment == null)
+    {
+      final File aFile = new File (m_aDirectory, SEGMENT_PREFIX + m_nNextSegmentNr++ + SEGMENT_SUFFIX);
+      m_aActiveOS = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (aFile)));
+      m_aActiveSegment = new Segment (aFile);
+      m_aActiveOS.writeInt (SEGMENT_MAGIC);
+      m_aActiveOS.writeByte (SEGMENT_VERSION);
+    }
+
+    m_aActiveOS.writeLong (nMillis);
+    m_aActiveOS.writeUTF (sMessageID);
+    _writeOptional (m_aActiveOS, sProfileID);
+    _writeOptional (m_aActiveOS, sPModeID);
+    // Hand over to the OS
+    m_aActiveOS.flush ();
+    m_aActiveSegment.onRecord (nMillis);
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID, @Nullable final String sProfileID, @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    final long nMillis = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().toInstant ().toEpochMilli ();
+    if (m_aIndex.internalRegisterAndCheck (sMessageID, nMillis, sProfileID, sPModeID).isBreak ())
+    {
+      // ID already in use
+      return EContinue.BREAK;
+    }
+
+    m_aLogLock.lock ();
+    try
+    {
+      _append (sMessageID, nMillis, sProfileID, sPModeID);
+    }
+    catch (final IOException ex)
+    {
+      // The check itself worked - only the persistence failed
+      LOGGER.error ("Failed to persist message ID '" + sMessageID + "' in the duplicate log", ex);
+      _closeActiveSegment ();
+    }
+    finally
+    {
+      m_aLogLock.unlock ();
+    }
+    return EContinue.CONTINUE;
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    final EChange ret = m_aIndex.clearCache ();
+    m_aLogLock.locked ( () -> {
+      _closeActiveSegment ();
+      for (final Segment aSegment : m_aSegments)
+        AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aSegment.m_aFile);
+      m_aSegments.clear ();
+    });
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    final ICommonsList <String> ret = m_aIndex.evictAllItemsBefore (aRefDT);
+
+    final long nRefMillis = aRefDT.toInstant ().toEpochMilli ();
+    final int nDeleted = m_aLogLock.lockedGet ( () -> {
+      if (m_aActiveSegment != null && m_aActiveSegment.m_nLastMillis < nRefMillis)
+        _closeActiveSegment ();
+
+      // Drop whole segments
+      int nCount = 0;
+      final Iterator <Segment> it = m_aSegments.iterator ();
+      while (it.hasNext ())
+      {
+        final Segment aSegment = it.next ();
+        if (aSegment.m_nLastMillis < nRefMillis)
+        {
+          AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aSegment.m_aFile);
+          it.remove ();
+          nCount++;
+        }
+      }
+      return Integer.valueOf (nCount);
+    }).intValue ();
+
+    if (nDeleted > 0)
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Deleted " + nDeleted + " expired duplicate log segment(s)");
+    return ret;
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aIndex.isEmpty ();
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aIndex.size ();
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    return m_aIndex.getItemOfMessageID (sMessageID);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    return m_aIndex.getAll ();
+  }
+
+  /**
+   * @return The number of segment files currently in use. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getSegmentCount ()
+  {
+    return m_aLogLock.lockedInt ( () -> m_aSegments.size () + (m_aActiveSegment != null ? 1 : 0));
+  }
+
+  public void close ()
+  {
+    m_aLogLock.locked (this::_closeActiveSegment);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory).append ("SegmentMillis", m_nSegmentMillis).getToString ();
+  }
+}
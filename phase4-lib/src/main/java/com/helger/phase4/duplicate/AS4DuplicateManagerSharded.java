@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.datetime.PDTConfig;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * In-memory duplicate checker optimized for a high number of messages. The
+ * message IDs are distributed over a fixed number of shards, each having its
+ * own lock, so that concurrent registrations of different message IDs rarely
+ * block each other. Lookup by message ID is a hash lookup and each shard keeps
+ * its entries in the order of registration, so that eviction only touches the
+ * expired entries. Timestamps are stored as epoch milliseconds.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4DuplicateManagerSharded implements IAS4DuplicateManager
+{
+  public static final int DEFAULT_SHARD_COUNT = 16;
+
+  private static final class Entry
+  {
+    private final String m_sMessageID;
+    private final long m_nMillis;
+    private final String m_sProfileID;
+    private final String m_sPModeID;
+
+    Entry (@Nonnull final String sMessageID, final long nMillis, @Nullable final String sProfileID, @Nullable final String sPModeID)
+    {
+      m_sMessageID = sMessageID;
+      m_nMillis = nMillis;
+      m_sProfileID = sProfileID;
+      m_sPModeID = sPModeID;
+    }
+
+    @Nonnull
+    AS4DuplicateItem getAsItem ()
+    {
+      final OffsetDateTime aDT = OffsetDateTime.ofInstant (Instant.ofEpochMilli (m_nMillis), PDTConfig.getDefaultZoneId ());
+      return new AS4DuplicateItem (aDT, m_sMessageID, m_sProfileID, m_sPModeID);
+    }
+  }
+
+  private static final class Shard
+  {
+    private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+    @GuardedBy ("m_aRWLock")
+    private final ICommonsMap <String, Entry> m_aMap = new CommonsHashMap <> ();
+    // In order of registration
+    @GuardedBy ("m_aRWLock")
+    private final ArrayDeque <Entry> m_aQueue = new ArrayDeque <> ();
+  }
+
+  private final Shard [] m_aShards;
+  private final int m_nShardMask;
+
+  /**
+   * Constructor using {@link #DEFAULT_SHARD_COUNT} shards.
+   */
+  public AS4DuplicateManagerSharded ()
+  {
+    this (DEFAULT_SHARD_COUNT);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nShardCount
+   *        The number of shards to use. Must be a power of 2.
+   */
+  public AS4DuplicateManagerSharded (@Nonnegative final int nShardCount)
+  {
+    ValueEnforcer.isGT0 (nShardCount, "ShardCount");
+    ValueEnforcer.isTrue (Integer.bitCount (nShardCount) == 1, "ShardCount must be a power of 2");
+    m_aShards = new Shard [nShardCount];
+    for (int i = 0; i < nShardCount; ++i)
+      m_aShards[i] = new Shard ();
+    m_nShardMask = nShardCount - 1;
+  }
+
+  @Nonnull
+  private Shard _getShard (@Nonnull final String sMessageID)
+  {
+    final int h = sMessageID.hashCode ();
+    return m_aShards[(h ^ (h >>> 16)) & m_nShardMask];
+  }
+
+  /**
+   * @return The number of shards used. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getShardCount ()
+  {
+    return m_aShards.length;
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID, @Nullable final String sProfileID, @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    final long nMillis = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().toInstant ().toEpochMilli ();
+    return internalRegisterAndCheck (sMessageID, nMillis, sProfileID, sPModeID);
+  }
+
+  /**
+   * Register the provided message ID with an explicit timestamp. Used when
+   * restoring persisted entries.
+   *
+   * @param sMessageID
+   *        Message ID to check. May neither be <code>null</code> nor empty.
+   * @param nMillis
+   *        The registration time in epoch milliseconds.
+   * @param sProfileID
+   *        Active AS4 profile ID. May be <code>null</code>.
+   * @param sPModeID
+   *        Active AS4 PMode ID. May be <code>null</code>.
+   * @return {@link EContinue#CONTINUE} if the message ID was not yet
+   *         registered.
+   */
+  @Nonnull
+  EContinue internalRegisterAndCheck (@Nonnull final String sMessageID,
+                                      final long nMillis,
+                                      @Nullable final String sProfileID,
+                                      @Nullable final String sPModeID)
+  {
+    final Entry aEntry = new Entry (sMessageID, nMillis, sProfileID, sPModeID);
+    final Shard aShard = _getShard (sMessageID);
+    aShard.m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (aShard.m_aMap.putIfAbsent (sMessageID, aEntry) != null)
+      {
+        // ID already in use
+        return EContinue.BREAK;
+      }
+      aShard.m_aQueue.addLast (aEntry);
+    }
+    finally
+    {
+      aShard.m_aRWLock.writeLock ().unlock ();
+    }
+    return EContinue.CONTINUE;
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    EChange ret = EChange.UNCHANGED;
+    for (final Shard aShard : m_aShards)
+      ret = ret.or (aShard.m_aRWLock.writeLockedGet ( () -> {
+        aShard.m_aQueue.clear ();
+        return aShard.m_aMap.removeAll ();
+      }));
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    final long nRefMillis = aRefDT.toInstant ().toEpochMilli ();
+    final ICommonsList <String> aEvictItems = new CommonsArrayList <> ();
+    for (final Shard aShard : m_aShards)
+      aShard.m_aRWLock.writeLocked ( () -> {
+        // Oldest entries are at the front - stop at the first one that is not
+        // expired
+        Entry aHead;
+        while ((aHead = aShard.m_aQueue.peekFirst ()) != null && aHead.m_nMillis < nRefMillis)
+        {
+          aShard.m_aQueue.removeFirst ();
+          aShard.m_aMap.remove (aHead.m_sMessageID);
+          aEvictItems.add (aHead.m_sMessageID);
+        }
+      });
+    return aEvictItems;
+  }
+
+  public boolean isEmpty ()
+  {
+    for (final Shard aShard : m_aShards)
+      if (aShard.m_aRWLock.readLockedBoolean ( () -> aShard.m_aMap.isNotEmpty ()))
+        return false;
+    return true;
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    int ret = 0;
+    for (final Shard aShard : m_aShards)
+      ret += aShard.m_aRWLock.readLockedInt (aShard.m_aMap::size);
+    return ret;
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    final Shard aShard = _getShard (sMessageID);
+    final Entry aEntry = aShard.m_aRWLock.readLockedGet ( () -> aShard.m_aMap.get (sMessageID));
+    return aEntry == null ? null : aEntry.getAsItem ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    final ICommonsList <IAS4DuplicateItem> ret = new CommonsArrayList <> ();
+    for (final Shard aShard : m_aShards)
+      aShard.m_aRWLock.readLocked ( () -> {
+        for (final Entry aEntry : aShard.m_aQueue)
+          ret.add (aEntry.getAsItem ());
+      });
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("ShardCount", m_aShards.length).getToString ();
+  }
+}
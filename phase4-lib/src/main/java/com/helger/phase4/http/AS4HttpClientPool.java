@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.annotation.UsedViaReflection;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.scope.IScope;
+import com.helger.scope.mgr.ScopeManager;
+import com.helger.scope.singleton.AbstractGlobalSingleton;
+
+/**
+ * This class manages the long-lived {@link AS4PooledHttpClient} instances that
+ * are shared between all {@link BasicHttpPoster} instances using the same
+ * {@link HttpClientFactory} object. The number of cached clients is limited -
+ * the least recently used client is closed as soon as it is no longer in use.
+ * All clients are closed when the global scope ends.<br>
+ * Note: the {@link HttpClientFactory} is used by identity, so senders should
+ * reuse the same factory instance to benefit from the connection pool. Use
+ * {@link #getHttpClientFactory(HttpClientSettings)} to get the same factory
+ * for the same {@link HttpClientSettings} object.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+public class AS4HttpClientPool extends AbstractGlobalSingleton
+{
+  public static final int DEFAULT_MAX_CLIENTS = 32;
+  public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+  public static final Duration DEFAULT_IDLE_EVICTION = Duration.ofSeconds (30);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4HttpClientPool.class);
+
+  // Access ordered for LRU
+  private final Map <HttpClientFactory, AS4PooledHttpClient> m_aClients = new LinkedHashMap <> (16, 0.75f, true);
+  // Weak keys and values, as each factory references its settings. The
+  // factories are kept alive by the pooled clients.
+  private final Map <HttpClientSettings, WeakReference <HttpClientFactory>> m_aFactories = new WeakHashMap <> ();
+  private int m_nMaxClients = DEFAULT_MAX_CLIENTS;
+  private int m_nMaxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+  private int m_nMaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+  private Duration m_aIdleEviction = DEFAULT_IDLE_EVICTION;
+
+  @Deprecated
+  @UsedViaReflection
+  public AS4HttpClientPool ()
+  {}
+
+  @Nonnull
+  public static AS4HttpClientPool getInstance ()
+  {
+    return getGlobalSingleton (AS4HttpClientPool.class);
+  }
+
+  /**
+   * @return The global instance or <code>null</code> if no global scope is
+   *         present.
+   */
+  @Nullable
+  public static AS4HttpClientPool getInstanceIfGlobalScopeIsPresent ()
+  {
+    return ScopeManager.getGlobalScopeOrNull () == null ? null : getInstance ();
+  }
+
+  @Override
+  protected void onBeforeDestroy (@Nonnull final IScope aScopeToBeDestroyed)
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (!m_aClients.isEmpty ())
+      {
+        if (LOGGER.isInfoEnabled ())
+          LOGGER.info ("Closing " + m_aClients.size () + " pooled HTTP client(s)");
+        for (final AS4PooledHttpClient aClient : m_aClients.values ())
+          aClient.close ();
+        m_aClients.clear ();
+      }
+      m_aFactories.clear ();
+    });
+  }
+
+  @Nonnegative
+  public final int getMaxClients ()
+  {
+    return m_aRWLock.readLockedInt ( () -> m_nMaxClients);
+  }
+
+  /**
+   * @param nMaxClients
+   *        The maximum number of different HTTP client factories for which a
+   *        pooled client is kept. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4HttpClientPool setMaxClients (@Nonnegative final int nMaxClients)
+  {
+    ValueEnforcer.isGT0 (nMaxClients, "MaxClients");
+    m_aRWLock.writeLocked ( () -> m_nMaxClients = nMaxClients);
+    return this;
+  }
+
+  @Nonnegative
+  public final int getMaxConnectionsTotal ()
+  {
+    return m_aRWLock.readLockedInt ( () -> m_nMaxConnectionsTotal);
+  }
+
+  /**
+   * @param nMaxConnectionsTotal
+   *        The maximum number of connections per pooled client. Must be &gt;
+   *        0. Only affects clients created afterwards.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4HttpClientPool setMaxConnectionsTotal (@Nonnegative final int nMaxConnectionsTotal)
+  {
+    ValueEnforcer.isGT0 (nMaxConnectionsTotal, "MaxConnectionsTotal");
+    m_aRWLock.writeLocked ( () -> m_nMaxConnectionsTotal = nMaxConnectionsTotal);
+    return this;
+  }
+
+  @Nonnegative
+  public final int getMaxConnectionsPerRoute ()
+  {
+    return m_aRWLock.readLockedInt ( () -> m_nMaxConnectionsPerRoute);
+  }
+
+  /**
+   * @param nMaxConnectionsPerRoute
+   *        The maximum number of connections per route (endpoint) of a pooled
+   *        client. Must be &gt; 0. Only affects clients created afterwards.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4HttpClientPool setMaxConnectionsPerRoute (@Nonnegative final int nMaxConnectionsPerRoute)
+  {
+    ValueEnforcer.isGT0 (nMaxConnectionsPerRoute, "MaxConnectionsPerRoute");
+    m_aRWLock.writeLocked ( () -> m_nMaxConnectionsPerRoute = nMaxConnectionsPerRoute);
+    return this;
+  }
+
+  @Nonnull
+  public final Duration getIdleEviction ()
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aIdleEviction);
+  }
+
+  /**
+   * @param aIdleEviction
+   *        The duration after which idle connections are closed. May not be
+   *        <code>null</code>. Only affects clients created afterwards.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4HttpClientPool setIdleEviction (@Nonnull final Duration aIdleEviction)
+  {
+    ValueEnforcer.notNull (aIdleEviction, "IdleEviction");
+    m_aRWLock.writeLocked ( () -> m_aIdleEviction = aIdleEviction);
+    return this;
+  }
+
+  /**
+   * Get or create the {@link HttpClientFactory} for the provided settings
+   * object. As long as the same settings object is used, the same factory and
+   * therefore the same pooled client is used.
+   *
+   * @param aHttpClientSettings
+   *        The HTTP client settings to use. May not be <code>null</code>.
+   * @return The HTTP client factory. Never <code>null</code>.
+   */
+  @Nonnull
+  public HttpClientFactory getHttpClientFactory (@Nonnull final HttpClientSettings aHttpClientSettings)
+  {
+    ValueEnforcer.notNull (aHttpClientSettings, "HttpClientSettings");
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      final WeakReference <HttpClientFactory> aRef = m_aFactories.get (aHttpClientSettings);
+      HttpClientFactory ret = aRef == null ? null : aRef.get ();
+      if (ret == null)
+      {
+        ret = new HttpClientFactory (aHttpClientSettings);
+        m_aFactories.put (aHttpClientSettings, new WeakReference <> (ret));
+      }
+      return ret;
+    });
+  }
+
+  /**
+   * Get or create the pooled client for the provided factory and mark it as
+   * being used. Each call to this method must be followed by a call to
+   * {@link #releaseHttpClient(AS4PooledHttpClient)}.
+   *
+   * @param aHttpClientFactory
+   *        The HTTP client factory to use. May not be <code>null</code>.
+   * @return The pooled client. Never <code>null</code>.
+   */
+  @Nonnull
+  public AS4PooledHttpClient acquireHttpClient (@Nonnull final HttpClientFactory aHttpClientFactory)
+  {
+    ValueEnforcer.notNull (aHttpClientFactory, "HttpClientFactory");
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      AS4PooledHttpClient ret = m_aClients.get (aHttpClientFactory);
+      if (ret == null)
+      {
+        ret = new AS4PooledHttpClient (aHttpClientFactory, m_nMaxConnectionsTotal, m_nMaxConnectionsPerRoute, m_aIdleEviction);
+        m_aClients.put (aHttpClientFactory, ret);
+
+        // Evict the least recently used ones
+        final Iterator <AS4PooledHttpClient> it = m_aClients.values ().iterator ();
+        while (m_aClients.size () > m_nMaxClients && it.hasNext ())
+        {
+          final AS4PooledHttpClient aEldest = it.next ();
+          if (aEldest != ret)
+          {
+            it.remove ();
+            aEldest.evict ();
+          }
+        }
+
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Created new pooled HTTP client - now having " + m_aClients.size () + " client(s)");
+      }
+      ret.acquire ();
+      return ret;
+    });
+  }
+
+  /**
+   * Release a client previously acquired via
+   * {@link #acquireHttpClient(HttpClientFactory)}.
+   *
+   * @param aClient
+   *        The client to be released. May not be <code>null</code>.
+   */
+  public void releaseHttpClient (@Nonnull final AS4PooledHttpClient aClient)
+  {
+    ValueEnforcer.notNull (aClient, "Client");
+    aClient.release ();
+  }
+
+  /**
+   * @return A copy of all currently pooled clients. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4PooledHttpClient> getAllHttpClients ()
+  {
+    return m_aRWLock.readLockedGet ( () -> new CommonsArrayList <> (m_aClients.values ()));
+  }
+
+  /**
+   * @return The summed up connection pool statistics of all pooled clients.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public PoolStats getTotalStats ()
+  {
+    int nLeased = 0;
+    int nPending = 0;
+    int nAvailable = 0;
+    int nMax = 0;
+    for (final AS4PooledHttpClient aClient : getAllHttpClients ())
+    {
+      final PoolStats aStats = aClient.getTotalStats ();
+      nLeased += aStats.getLeased ();
+      nPending += aStats.getPending ();
+      nAvailable += aStats.getAvailable ();
+      nMax += aStats.getMax ();
+    }
+    return new PoolStats (nLeased, nPending, nAvailable, nMax);
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.UsedViaReflection;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.scope.IScope;
+import com.helger.scope.singleton.AbstractGlobalSingleton;
+
+/**
+ * The scheduler used for asynchronous HTTP sending with retries. Waiting for
+ * the next retry does not block any thread - a single timer thread is used to
+ * start the next attempt after the waiting time elapsed. The attempts
+ * themselves are executed on a separate sending executor with at most
+ * {@link #MAX_SENDER_THREADS} threads. Further attempts are queued.<br>
+ * If an action cannot be run, because the scheduler is shut down, the failure
+ * handler provided together with the action is invoked instead, so that
+ * waiting callers are always notified.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+public class AS4HttpRetryScheduler extends AbstractGlobalSingleton
+{
+  /** The maximum number of threads used for sending */
+  public static final int MAX_SENDER_THREADS = 16;
+  /** The time after which idle sending threads are stopped */
+  public static final Duration SENDER_THREAD_KEEP_ALIVE = Duration.ofSeconds (60);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4HttpRetryScheduler.class);
+
+  private final ScheduledExecutorService m_aTimer = Executors.newSingleThreadScheduledExecutor (_createThreadFactory ("phase4-retry-timer"));
+  private final ThreadPoolExecutor m_aSender;
+  // The scheduled actions that were not yet handed over to the sender
+  private final ICommonsSet <PendingAction> m_aPending = new CommonsHashSet <> ();
+
+  /**
+   * A scheduled action together with its failure handler.
+   */
+  private static final class PendingAction
+  {
+    private final Runnable m_aAction;
+    private final Consumer <? super RejectedExecutionException> m_aFailureHandler;
+
+    PendingAction (@Nonnull final Runnable aAction, @Nonnull final Consumer <? super RejectedExecutionException> aFailureHandler)
+    {
+      m_aAction = aAction;
+      m_aFailureHandler = aFailureHandler;
+    }
+  }
+
+  @Nonnull
+  private static ThreadFactory _createThreadFactory (@Nonnull final String sPrefix)
+  {
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    return r -> {
+      final Thread ret = new Thread (r, sPrefix + "-" + aCounter.incrementAndGet ());
+      ret.setDaemon (true);
+      return ret;
+    };
+  }
+
+  @Deprecated
+  @UsedViaReflection
+  public AS4HttpRetryScheduler ()
+  {
+    m_aSender = new ThreadPoolExecutor (MAX_SENDER_THREADS,
+                                        MAX_SENDER_THREADS,
+                                        SENDER_THREAD_KEEP_ALIVE.toMillis (),
+                                        TimeUnit.MILLISECONDS,
+                                        new LinkedBlockingQueue <> (),
+                                        _createThreadFactory ("phase4-async-sender"));
+    // Don't keep idle threads
+    m_aSender.allowCoreThreadTimeOut (true);
+  }
+
+  @Nonnull
+  public static AS4HttpRetryScheduler getInstance ()
+  {
+    return getGlobalSingleton (AS4HttpRetryScheduler.class);
+  }
+
+  @Override
+  protected void onBeforeDestroy (@Nonnull final IScope aScopeToBeDestroyed)
+  {
+    // Pending retries are not executed, but their failure handlers are
+    // notified
+    m_aTimer.shutdownNow ();
+    final ICommonsList <PendingAction> aPending = m_aRWLock.writeLockedGet ( () -> {
+      final ICommonsList <PendingAction> ret = new CommonsArrayList <> (m_aPending);
+      m_aPending.clear ();
+      return ret;
+    });
+    if (aPending.isNotEmpty ())
+    {
+      LOGGER.warn ("Discarding " + aPending.size () + " pending HTTP retries");
+      for (final PendingAction aAction : aPending)
+        _onRejected (aAction.m_aFailureHandler, new RejectedExecutionException ("The HTTP retry scheduler was shut down"));
+    }
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aSender);
+  }
+
+  private static void _onRejected (@Nonnull final Consumer <? super RejectedExecutionException> aFailureHandler,
+                                   @Nonnull final RejectedExecutionException ex)
+  {
+    try
+    {
+      aFailureHandler.accept (ex);
+    }
+    catch (final RuntimeException ex2)
+    {
+      LOGGER.error ("Failure handler of rejected HTTP sending action failed", ex2);
+    }
+  }
+
+  /**
+   * Run the provided action on the sending executor now.
+   *
+   * @param aAction
+   *        The action to execute. May not be <code>null</code>.
+   * @param aFailureHandler
+   *        The handler to be invoked, if the action cannot be executed because
+   *        the scheduler is shut down. May not be <code>null</code>.
+   */
+  public void execute (@Nonnull final Runnable aAction, @Nonnull final Consumer <? super RejectedExecutionException> aFailureHandler)
+  {
+    ValueEnforcer.notNull (aAction, "Action");
+    ValueEnforcer.notNull (aFailureHandler, "FailureHandler");
+    try
+    {
+      m_aSender.execute (aAction);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      _onRejected (aFailureHandler, ex);
+    }
+  }
+
+  /**
+   * Run the provided action on the sending executor after the provided delay.
+   * No thread is blocked while waiting.
+   *
+   * @param aAction
+   *        The action to execute. May not be <code>null</code>.
+   * @param aDelay
+   *        The delay after which the action should be executed. May not be
+   *        <code>null</code>.
+   * @param aFailureHandler
+   *        The handler to be invoked, if the action cannot be executed because
+   *        the scheduler is shut down - either now, while waiting or when the
+   *        delay elapsed. May not be <code>null</code>.
+   */
+  public void schedule (@Nonnull final Runnable aAction,
+                        @Nonnull final Duration aDelay,
+                        @Nonnull final Consumer <? super RejectedExecutionException> aFailureHandler)
+  {
+    ValueEnforcer.notNull (aAction, "Action");
+    ValueEnforcer.notNull (aDelay, "Delay");
+    ValueEnforcer.notNull (aFailureHandler, "FailureHandler");
+
+    final PendingAction aPending = new PendingAction (aAction, aFailureHandler);
+    m_aRWLock.writeLocked ( () -> m_aPending.add (aPending));
+    try
+    {
+      // The timer thread only hands over to the sender
+      m_aTimer.schedule ( () -> {
+        // If it is no longer contained, the shutdown already took care of it
+        if (m_aRWLock.writeLockedBoolean ( () -> m_aPending.remove (aPending)))
+          execute (aAction, aFailureHandler);
+      }, aDelay.toMillis (), TimeUnit.MILLISECONDS);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      if (m_aRWLock.writeLockedBoolean ( () -> m_aPending.remove (aPending)))
+        _onRejected (aFailureHandler, ex);
+    }
+  }
+
+  /**
+   * @return The number of scheduled actions that are still waiting for their
+   *         delay to elapse. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getPendingCount ()
+  {
+    return m_aRWLock.readLockedInt (m_aPending::size);
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.httpclient.HttpClientFactory;
+
+/**
+ * A single long-lived HTTP client with a pooled, keep-alive connection manager
+ * that is shared by all senders using the same {@link HttpClientFactory}. The
+ * connection pool has a per-route limit, idle connections are evicted in the
+ * background and because the SSL context and the connections are kept, TLS
+ * sessions are reused.<br>
+ * Instances are managed by {@link AS4HttpClientPool}.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public final class AS4PooledHttpClient
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4PooledHttpClient.class);
+
+  private final PoolingHttpClientConnectionManager m_aConnMgr;
+  private final CloseableHttpClient m_aHttpClient;
+  private final AtomicInteger m_aUsers = new AtomicInteger (0);
+  private final AtomicBoolean m_aClosed = new AtomicBoolean (false);
+  private volatile boolean m_bEvicted = false;
+
+  AS4PooledHttpClient (@Nonnull final HttpClientFactory aHttpClientFactory,
+                       @Nonnegative final int nMaxTotal,
+                       @Nonnegative final int nMaxPerRoute,
+                       @Nonnull final Duration aIdleEviction)
+  {
+    ValueEnforcer.notNull (aHttpClientFactory, "HttpClientFactory");
+    ValueEnforcer.isGT0 (nMaxTotal, "MaxTotal");
+    ValueEnforcer.isGT0 (nMaxPerRoute, "MaxPerRoute");
+    ValueEnforcer.notNull (aIdleEviction, "IdleEviction");
+
+    // Use the socket factories (incl. the SSL context) of the factory
+    m_aConnMgr = new PoolingHttpClientConnectionManager (aHttpClientFactory.createConnectionSocketFactoryRegistry ());
+    m_aConnMgr.setMaxTotal (nMaxTotal);
+    m_aConnMgr.setDefaultMaxPerRoute (nMaxPerRoute);
+    m_aConnMgr.setValidateAfterInactivity (1_000);
+
+    // Apply all the other settings of the factory and overwrite the
+    // connection management
+    m_aHttpClient = aHttpClientFactory.createHttpClientBuilder ()
+                                      .setConnectionManager (m_aConnMgr)
+                                      .setConnectionManagerShared (false)
+                                      .evictExpiredConnections ()
+                                      .evictIdleConnections (aIdleEviction.toMillis (), TimeUnit.MILLISECONDS)
+                                      // Connections with a client certificate
+                                      // should be reused as well
+                                      .disableConnectionState ()
+                                      .build ();
+  }
+
+  void acquire ()
+  {
+    m_aUsers.incrementAndGet ();
+  }
+
+  void release ()
+  {
+    if (m_aUsers.decrementAndGet () == 0 && m_bEvicted)
+      close ();
+  }
+
+  /**
+   * Mark this client as evicted from the pool. It is closed as soon as the
+   * last user released it.
+   */
+  void evict ()
+  {
+    m_bEvicted = true;
+    if (m_aUsers.get () == 0)
+      close ();
+  }
+
+  void close ()
+  {
+    if (m_aClosed.compareAndSet (false, true))
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Closing pooled HTTP client " + this);
+      StreamHelper.close (m_aHttpClient);
+      m_aConnMgr.shutdown ();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if this client was closed and can no longer be
+   *         used.
+   */
+  public boolean isClosed ()
+  {
+    return m_aClosed.get ();
+  }
+
+  /**
+   * @return The number of senders currently using this client.
+   */
+  @Nonnegative
+  public int getCurrentUserCount ()
+  {
+    return m_aUsers.get ();
+  }
+
+  /**
+   * Execute the provided HTTP request on the pooled connections.
+   *
+   * @param <T>
+   *        Response data type
+   * @param aRequest
+   *        The request to be executed. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The response handler to use. May not be <code>null</code>.
+   * @return The response data as indicated by the response handler.
+   * @throws IOException
+   *         In case of IO error
+   */
+  @Nullable
+  public <T> T execute (@Nonnull final HttpUriRequest aRequest, @Nonnull final ResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    return m_aHttpClient.execute (aRequest, aResponseHandler);
+  }
+
+  /**
+   * @return The total statistics of the underlying connection pool. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public PoolStats getTotalStats ()
+  {
+    return m_aConnMgr.getTotalStats ();
+  }
+
+  /**
+   * @return The statistics of the underlying connection pool for each route
+   *         (endpoint). Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsMap <HttpRoute, PoolStats> getAllRouteStats ()
+  {
+    final ICommonsMap <HttpRoute, PoolStats> ret = new CommonsHashMap <> ();
+    for (final HttpRoute aRoute : m_aConnMgr.getRoutes ())
+      ret.put (aRoute, m_aConnMgr.getStats (aRoute));
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Users", m_aUsers.get ())
+                                       .append ("Evicted", m_bEvicted)
+                                       .append ("Closed", m_aClosed.get ())
+                                       .append ("TotalStats", m_aConnMgr.getTotalStats ())
+                                       .getToString ();
+  }
+}
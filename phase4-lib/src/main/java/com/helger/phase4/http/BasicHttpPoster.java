@@ -19,6 +19,7 @@ package com.helger.phase4.http;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnegative;
@@ -74,12 +75,18 @@ public class BasicHttpPoster implements IHttpPoster
   }
 
   public static final boolean DEFAULT_QUOTE_HTTP_HEADERS = false;
+  /** @since 1.3.3 */
+  public static final boolean DEFAULT_USE_SHARED_HTTP_CLIENT = true;
   private static final Logger LOGGER = LoggerFactory.getLogger (BasicHttpPoster.class);
+  // Shared by default to allow connection pooling. Never handed out, so that
+  // it cannot be modified by a single user.
+  private static final HttpClientFactory SHARED_DEFAULT_HTTP_CLIENT_FACTORY = createDefaultHttpClientFactory ();
 
-  // By default no special SSL context present
-  private HttpClientFactory m_aHttpClientFactory = createDefaultHttpClientFactory ();
+  // By default no special SSL context present - null means the shared default
+  private HttpClientFactory m_aHttpClientFactory;
   private Consumer <? super HttpPost> m_aHttpCustomizer;
   private boolean m_bQuoteHttpHeaders = DEFAULT_QUOTE_HTTP_HEADERS;
+  private boolean m_bUseSharedHttpClient = DEFAULT_USE_SHARED_HTTP_CLIENT;
 
   public BasicHttpPoster ()
   {}
@@ -87,13 +94,20 @@ public class BasicHttpPoster implements IHttpPoster
   @Nonnull
   public final HttpClientFactory getHttpClientFactory ()
   {
-    return m_aHttpClientFactory;
+    HttpClientFactory ret = m_aHttpClientFactory;
+    if (ret == null)
+    {
+      // The shared default is never handed out - the caller may modify the
+      // returned object, so a separate one is used from now on
+      ret = createDefaultHttpClientFactory ();
+      m_aHttpClientFactory = ret;
+    }
+    return ret;
   }
 
   @Nonnull
-  public final BasicHttpPoster setHttpClientFactory (@Nonnull final HttpClientFactory aHttpClientFactory)
+  public final BasicHttpPoster setHttpClientFactory (@Nullable final HttpClientFactory aHttpClientFactory)
   {
-    ValueEnforcer.notNull (aHttpClientFactory, "HttpClientFactory");
     m_aHttpClientFactory = aHttpClientFactory;
     return this;
   }
@@ -123,6 +137,35 @@ public class BasicHttpPoster implements IHttpPoster
     return this;
   }
 
+  /**
+   * @return <code>true</code> if the long-lived pooled HTTP client from
+   *         {@link AS4HttpClientPool} is used, <code>false</code> if a new HTTP
+   *         client is created for every message.
+   * @since 1.3.3
+   */
+  public final boolean isUseSharedHttpClient ()
+  {
+    return m_bUseSharedHttpClient;
+  }
+
+  /**
+   * Enable or disable the usage of the long-lived pooled HTTP client from
+   * {@link AS4HttpClientPool}. It is only used if a global scope is present.
+   * By default it is enabled.
+   *
+   * @param bUseSharedHttpClient
+   *        <code>true</code> to use the shared client, <code>false</code> to
+   *        create a new HTTP client for every message.
+   * @return this for chaining
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final BasicHttpPoster setUseSharedHttpClient (final boolean bUseSharedHttpClient)
+  {
+    m_bUseSharedHttpClient = bUseSharedHttpClient;
+    return this;
+  }
+
   /**
    * Send an arbitrary HTTP POST message to the provided URL, using the
    * contained HttpClientFactory as well as the customizer. Additionally the AS4
@@ -158,7 +201,12 @@ public class BasicHttpPoster implements IHttpPoster
     if (LOGGER.isInfoEnabled ())
       LOGGER.info ("Starting to transmit AS4 Message to '" + sURL + "'");
 
-    try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+    // Use the shared pooled client if possible
+    final AS4HttpClientPool aPool = m_bUseSharedHttpClient ? AS4HttpClientPool.getInstanceIfGlobalScopeIsPresent () : null;
+    final HttpClientFactory aHttpClientFactory = m_aHttpClientFactory != null ? m_aHttpClientFactory
+                                                                              : SHARED_DEFAULT_HTTP_CLIENT_FACTORY;
+    final AS4PooledHttpClient aPooledClient = aPool != null ? aPool.acquireHttpClient (aHttpClientFactory) : null;
+    try (final HttpClientManager aClientMgr = aPooledClient != null ? null : new HttpClientManager (aHttpClientFactory))
     {
       final HttpPost aPost = new HttpPost (sURL);
 
@@ -196,10 +244,15 @@ public class BasicHttpPoster implements IHttpPoster
         return ret.toString ();
       });
 
+      if (aPooledClient != null)
+        return aPooledClient.execute (aPost, aResponseHandler);
       return aClientMgr.execute (aPost, aResponseHandler);
     }
     finally
     {
+      if (aPooledClient != null)
+        aPool.releaseHttpClient (aPooledClient);
+
       aSW.stop ();
       if (LOGGER.isInfoEnabled ())
         LOGGER.info ("Finished transmitting AS4 Message to '" + sURL + "' after " + aSW.getMillis () + " ms");
@@ -386,12 +439,251 @@ public class BasicHttpPoster implements IHttpPoster
     }
   }
 
+  /**
+   * The state of a single asynchronous sending with retries.
+   *
+   * @param <T>
+   *        Response data type
+   */
+  private final class AsyncRetrySender <T>
+  {
+    private final String m_sURL;
+    private final HttpHeaderMap m_aCustomHttpHeaders;
+    private final HttpEntity m_aHttpEntity;
+    private final String m_sMessageID;
+    private final HttpRetrySettings m_aRetrySettings;
+    private final ResponseHandler <? extends T> m_aResponseHandler;
+    private final IAS4OutgoingDumper m_aOutgoingDumper;
+    private final IAS4RetryCallback m_aRetryCallback;
+    private final AS4HttpRetryScheduler m_aScheduler;
+    private final int m_nMaxTries;
+    private final CompletableFuture <T> m_aFuture = new CompletableFuture <> ();
+    // Only accessed by one attempt at a time
+    private final Wrapper <OutputStream> m_aDumpOSHolder = new Wrapper <> ();
+
+    AsyncRetrySender (@Nonnull final String sURL,
+                      @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                      @Nonnull final HttpEntity aHttpEntity,
+                      @Nonnull final String sMessageID,
+                      @Nonnull final HttpRetrySettings aRetrySettings,
+                      @Nonnull final ResponseHandler <? extends T> aResponseHandler,
+                      @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                      @Nullable final IAS4RetryCallback aRetryCallback,
+                      @Nonnull final AS4HttpRetryScheduler aScheduler)
+    {
+      m_sURL = sURL;
+      m_aCustomHttpHeaders = aCustomHttpHeaders;
+      m_aHttpEntity = aHttpEntity;
+      m_sMessageID = sMessageID;
+      // Copy, as the settings are used in other threads later on
+      m_aRetrySettings = new HttpRetrySettings ();
+      m_aRetrySettings.assignFrom (aRetrySettings);
+      m_aResponseHandler = aResponseHandler;
+      m_aOutgoingDumper = aOutgoingDumper;
+      m_aRetryCallback = aRetryCallback;
+      m_aScheduler = aScheduler;
+      m_nMaxTries = aRetrySettings.isRetryEnabled () ? 1 + aRetrySettings.getMaxRetries () : 1;
+
+      // Add the possibility to close open resources
+      m_aFuture.whenComplete ( (x, y) -> {
+        if (m_aOutgoingDumper != null && m_aDumpOSHolder.isSet ())
+          try
+          {
+            m_aOutgoingDumper.onEndRequest (EAS4MessageMode.REQUEST, null, null, m_sMessageID);
+          }
+          catch (final Exception ex)
+          {
+            LOGGER.error ("OutgoingDumper.onEndRequest failed. Dumper=" + m_aOutgoingDumper + "; MessageID=" + m_sMessageID, ex);
+          }
+      });
+    }
+
+    void attempt (@Nonnegative final int nTry, @Nonnull final Duration aPrevDurationBeforeRetry)
+    {
+      // E.g. cancelled in the meantime
+      if (m_aFuture.isDone ())
+        return;
+
+      if (nTry > 0)
+        LOGGER.info ("Retry #" + nTry + "/" + (m_nMaxTries - 1) + " for sending message with ID '" + m_sMessageID + "'");
+
+      IOException aIOEx = null;
+      try
+      {
+        // Create a new one every time (for new filename, new timestamp, etc.)
+        final HttpEntity aDumpingEntity = createDumpingHttpEntity (m_aOutgoingDumper,
+                                                                   m_aHttpEntity,
+                                                                   m_sMessageID,
+                                                                   m_aCustomHttpHeaders,
+                                                                   nTry,
+                                                                   m_aDumpOSHolder);
+        m_aFuture.complete (sendGenericMessage (m_sURL, m_aCustomHttpHeaders, aDumpingEntity, m_aResponseHandler));
+      }
+      catch (final IOException ex)
+      {
+        aIOEx = ex;
+      }
+      catch (final Exception ex)
+      {
+        m_aFuture.completeExceptionally (ex);
+      }
+      finally
+      {
+        // Flush and close the dump output stream (if any)
+        StreamHelper.close (m_aDumpOSHolder.get ());
+      }
+
+      if (aIOEx != null)
+        _onError (nTry, aPrevDurationBeforeRetry, aIOEx);
+    }
+
+    private void _onError (@Nonnegative final int nTry,
+                           @Nonnull final Duration aPrevDurationBeforeRetry,
+                           @Nonnull final IOException ex)
+    {
+      // Last try? -> propagate exception
+      if (nTry == m_nMaxTries - 1)
+      {
+        m_aFuture.completeExceptionally (ex);
+        return;
+      }
+
+      // Cancelled? -> don't retry
+      if (m_aFuture.isDone ())
+        return;
+
+      // After the first retry, increase the waiting time
+      final Duration aDurationBeforeRetry = nTry > 1 ? HttpRetrySettings.getIncreased (aPrevDurationBeforeRetry,
+                                                                                       m_aRetrySettings.getRetryIncreaseFactor ())
+                                                     : aPrevDurationBeforeRetry;
+      final Duration aJitteredDuration = HttpRetrySettings.getJittered (aDurationBeforeRetry, m_aRetrySettings.getRetryJitterFactor ());
+
+      try
+      {
+        if (m_aRetryCallback != null)
+          if (m_aRetryCallback.onBeforeRetry (m_sMessageID, m_sURL, nTry, m_nMaxTries, aJitteredDuration.toMillis (), ex).isBreak ())
+          {
+            // Explicitly interrupt retry
+            LOGGER.warn ("Error sending message '" +
+                         m_sMessageID +
+                         "' to '" +
+                         m_sURL +
+                         ": " +
+                         ex.getClass ().getSimpleName () +
+                         " - " +
+                         ex.getMessage () +
+                         " - retrying was explicitly stopped by the RetryCallback");
+
+            // Propagate Exception as if it would be the last retry
+            m_aFuture.completeExceptionally (ex);
+            return;
+          }
+
+        LOGGER.warn ("Error sending message '" +
+                     m_sMessageID +
+                     "' to '" +
+                     m_sURL +
+                     "': " +
+                     ex.getClass ().getSimpleName () +
+                     " - " +
+                     ex.getMessage () +
+                     " - retrying in " +
+                     aJitteredDuration.toMillis () +
+                     " ms");
+
+        // Schedule and try again afterwards - no thread is blocked
+        m_aScheduler.schedule ( () -> attempt (nTry + 1, aDurationBeforeRetry), aJitteredDuration, aRejectedEx -> {
+          aRejectedEx.addSuppressed (ex);
+          m_aFuture.completeExceptionally (aRejectedEx);
+        });
+      }
+      catch (final Exception ex2)
+      {
+        ex2.addSuppressed (ex);
+        m_aFuture.completeExceptionally (ex2);
+      }
+    }
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, ResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}.
+   * The sending happens in the background and the waiting time between
+   * retries is handled by the {@link AS4HttpRetryScheduler}, so that no thread
+   * is blocked while waiting for the next retry. Additionally the waiting time
+   * is randomized with the jitter factor of the retry settings.<br>
+   * Note: a global scope must be present when calling this method.
+   *
+   * @param <T>
+   *        Response data type
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be
+   *        <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param sMessageID
+   *        the AS4 message ID. May not be <code>null</code>.
+   * @param aRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP
+   *        response to a domain object.
+   * @param aOutgoingDumper
+   *        An optional outgoing dumper for this message. May be
+   *        <code>null</code> to use the global one.
+   * @param aRetryCallback
+   *        An optional retry callback that is invoked, before a retry happens.
+   * @return The future that is completed with the HTTP response data as
+   *         indicated by the ResponseHandler, or completed exceptionally if
+   *         the last try failed. Cancelling the future stops further retries.
+   *         Never <code>null</code>.
+   * @since 1.3.3
+   */
+  @Nonnull
+  public <T> CompletableFuture <T> sendGenericMessageWithRetriesAsync (@Nonnull @Nonempty final String sURL,
+                                                                      @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                                      @Nonnull final HttpEntity aHttpEntity,
+                                                                      @Nonnull final String sMessageID,
+                                                                      @Nonnull final HttpRetrySettings aRetrySettings,
+                                                                      @Nonnull final ResponseHandler <? extends T> aResponseHandler,
+                                                                      @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                      @Nullable final IAS4RetryCallback aRetryCallback)
+  {
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
+    ValueEnforcer.notNull (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aRetrySettings, "RetrySettings");
+    ValueEnforcer.notNull (aResponseHandler, "ResponseHandler");
+
+    if (aRetrySettings.isRetryEnabled () && !aHttpEntity.isRepeatable ())
+      throw new IllegalStateException ("If retry is enabled, a repeatable entity must be provided");
+
+    // Parameter or global one - may still be null
+    final IAS4OutgoingDumper aRealOutgoingDumper = aOutgoingDumper != null ? aOutgoingDumper : AS4DumpManager.getOutgoingDumper ();
+
+    final AS4HttpRetryScheduler aScheduler = AS4HttpRetryScheduler.getInstance ();
+    final AsyncRetrySender <T> aSender = new AsyncRetrySender <> (sURL,
+                                                                  aCustomHttpHeaders,
+                                                                  aHttpEntity,
+                                                                  sMessageID,
+                                                                  aRetrySettings,
+                                                                  aResponseHandler,
+                                                                  aRealOutgoingDumper,
+                                                                  aRetryCallback,
+                                                                  aScheduler);
+    aScheduler.execute ( () -> aSender.attempt (0, aRetrySettings.getDurationBeforeRetry ()), aSender.m_aFuture::completeExceptionally);
+    return aSender.m_aFuture;
+  }
+
   @Override
   public String toString ()
   {
     return new ToStringGenerator (this).append ("HttpClientFactory", m_aHttpClientFactory)
                                        .append ("HttpCustomizer", m_aHttpCustomizer)
                                        .append ("QuoteHttpHeaders", m_bQuoteHttpHeaders)
+                                       .append ("UseSharedHttpClient", m_bUseSharedHttpClient)
                                        .getToString ();
   }
 }
@@ -18,6 +18,7 @@ package com.helger.phase4.http;
 
 import java.math.BigDecimal;
 import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -42,10 +43,13 @@ public class HttpRetrySettings
   public static final int DEFAULT_MAX_RETRIES = 0;
   public static final Duration DEFAULT_RETRY_DURATION = Duration.ofSeconds (10);
   public static final BigDecimal DEFAULT_RETRY_INCREASE_FACTOR = BigDecimal.ONE;
+  /** @since 1.3.3 */
+  public static final BigDecimal DEFAULT_RETRY_JITTER_FACTOR = new BigDecimal ("0.1");
 
   private int m_nMaxRetries = DEFAULT_MAX_RETRIES;
   private Duration m_aDurationBeforeRetry = DEFAULT_RETRY_DURATION;
   private BigDecimal m_aRetryIncreaseFactor = DEFAULT_RETRY_INCREASE_FACTOR;
+  private BigDecimal m_aRetryJitterFactor = DEFAULT_RETRY_JITTER_FACTOR;
 
   public HttpRetrySettings ()
   {}
@@ -145,6 +149,40 @@ public class HttpRetrySettings
     return this;
   }
 
+  /**
+   * @return The retry jitter factor, that is applied to the waiting time
+   *         before each retry when sending asynchronously. Never
+   *         <code>null</code>. A factor of 0 means no jitter, a factor of 0.1
+   *         means that the waiting time is randomly modified by up to +/- 10%.
+   *         The default is {@link #DEFAULT_RETRY_JITTER_FACTOR}.
+   * @since 1.3.3
+   */
+  @Nonnull
+  @Nonnegative
+  public final BigDecimal getRetryJitterFactor ()
+  {
+    return m_aRetryJitterFactor;
+  }
+
+  /**
+   * Set the retry jitter factor to use. 0 means no jitter. Only values &ge; 0
+   * and &le; 1 are allowed. Randomizing the waiting time avoids that many
+   * pending retries to the same endpoint are all sent at the same time.
+   *
+   * @param aRetryJitterFactor
+   *        The retry jitter factor. May not be <code>null</code> and must be
+   *        between 0 and 1.
+   * @return this for chaining
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final HttpRetrySettings setRetryJitterFactor (@Nonnull final BigDecimal aRetryJitterFactor)
+  {
+    ValueEnforcer.isBetweenInclusive (aRetryJitterFactor, "RetryJitterFactor", BigDecimal.ZERO, BigDecimal.ONE);
+    m_aRetryJitterFactor = aRetryJitterFactor;
+    return this;
+  }
+
   @Nonnull
   public static Duration getIncreased (@Nonnull final Duration aDuration, @Nonnull final BigDecimal aRetryIncreaseFactor)
   {
@@ -155,12 +193,35 @@ public class HttpRetrySettings
     return Duration.ofNanos (aRetryIncreaseFactor.multiply (BigDecimal.valueOf (aDuration.toNanos ())).longValue ());
   }
 
+  /**
+   * Randomly modify the provided duration by up to +/- the provided jitter
+   * factor.
+   *
+   * @param aDuration
+   *        The duration to modify. May not be <code>null</code>.
+   * @param aRetryJitterFactor
+   *        The jitter factor between 0 and 1. May not be <code>null</code>.
+   * @return The modified duration. Never <code>null</code>.
+   * @since 1.3.3
+   */
+  @Nonnull
+  public static Duration getJittered (@Nonnull final Duration aDuration, @Nonnull final BigDecimal aRetryJitterFactor)
+  {
+    if (MathHelper.isEQ0 (aRetryJitterFactor))
+      return aDuration;
+    // Value between -1 and +1
+    final double dRandom = ThreadLocalRandom.current ().nextDouble () * 2 - 1;
+    final double dFactor = 1 + aRetryJitterFactor.doubleValue () * dRandom;
+    return Duration.ofNanos ((long) (aDuration.toNanos () * dFactor));
+  }
+
   public final void assignFrom (@Nonnull final HttpRetrySettings aOther)
   {
     ValueEnforcer.notNull (aOther, "Other");
     setMaxRetries (aOther.getMaxRetries ());
     setDurationBeforeRetry (aOther.getDurationBeforeRetry ());
     setRetryIncreaseFactor (aOther.getRetryIncreaseFactor ());
+    setRetryJitterFactor (aOther.getRetryJitterFactor ());
   }
 
   @Override
@@ -173,7 +234,8 @@ public class HttpRetrySettings
     final HttpRetrySettings rhs = (HttpRetrySettings) o;
     return m_nMaxRetries == rhs.m_nMaxRetries &&
            m_aDurationBeforeRetry.equals (rhs.m_aDurationBeforeRetry) &&
-           EqualsHelper.equals (m_aRetryIncreaseFactor, rhs.m_aRetryIncreaseFactor);
+           EqualsHelper.equals (m_aRetryIncreaseFactor, rhs.m_aRetryIncreaseFactor) &&
+           EqualsHelper.equals (m_aRetryJitterFactor, rhs.m_aRetryJitterFactor);
   }
 
   @Override
@@ -182,6 +244,7 @@ public class HttpRetrySettings
     return new HashCodeGenerator (this).append (m_nMaxRetries)
                                        .append (m_aDurationBeforeRetry)
                                        .append (m_aRetryIncreaseFactor)
+                                       .append (m_aRetryJitterFactor)
                                        .getHashCode ();
   }
 
@@ -191,6 +254,7 @@ public class HttpRetrySettings
     return new ToStringGenerator (this).append ("MaxRetries", m_nMaxRetries)
                                        .append ("DurationBeforeRetry", m_aDurationBeforeRetry)
                                        .append ("RetryIncreaseFactor", m_aRetryIncreaseFactor)
+                                       .append ("RetryJitterFactor", m_aRetryJitterFactor)
                                        .getToString ();
   }
 }
@@ -43,7 +43,9 @@ public interface IHttpPoster
 {
   /**
    * @return The internal http client factory used for http sending. May not be
-   *         <code>null</code>.
+   *         <code>null</code>. If the shared default factory is used, a new
+   *         factory for this poster is created, so that modifications to it
+   *         don't affect other posters.
    */
   @Nonnull
   HttpClientFactory getHttpClientFactory ();
@@ -56,11 +58,12 @@ public interface IHttpPoster
    * http sending.
    *
    * @param aHttpClientFactory
-   *        The HTTP client factory to be used. May not be <code>null</code>.
+   *        The HTTP client factory to be used. May be <code>null</code> to use
+   *        the shared default factory.
    * @return this for chaining
    */
   @Nonnull
-  IHttpPoster setHttpClientFactory (@Nonnull HttpClientFactory aHttpClientFactory);
+  IHttpPoster setHttpClientFactory (@Nullable HttpClientFactory aHttpClientFactory);
 
   /**
    * @return The HTTP Post customizer to be used. May be <code>null</code>.
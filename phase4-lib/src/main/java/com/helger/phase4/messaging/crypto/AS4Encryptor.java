@@ -40,6 +40,7 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.mime.CMimeType;
+import com.helger.commons.string.StringHelper;
 import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.attachment.WSS4JAttachmentCallbackHandler;
@@ -68,7 +69,9 @@ public final class AS4Encryptor
   {}
 
   @Nonnull
-  private static WSSecEncrypt _createEncrypt (@Nonnull final WSSecHeader aSecHeader, @Nonnull final AS4CryptParams aCryptParams)
+  private static WSSecEncrypt _createEncrypt (@Nonnull final WSSecHeader aSecHeader,
+                                              @Nonnull final AS4CryptParams aCryptParams,
+                                              @Nullable final String sAlias)
   {
     final WSSecEncrypt aBuilder = new WSSecEncrypt (aSecHeader);
     // As the receiver MAY not have pre-configured the signing leaf certificate,
@@ -87,11 +90,17 @@ public final class AS4Encryptor
       aBuilder.setUseThisCert (aCryptParams.getCertificate ());
     }
     else
-      if (aCryptParams.hasAlias ())
+      if (StringHelper.hasText (sAlias))
       {
-        // No PW needed here, because we encrypt with the public key
-        aBuilder.setUserInfo (aCryptParams.getAlias ());
+        // Per-message alias has precedence over the one from the parameters
+        aBuilder.setUserInfo (sAlias);
       }
+      else
+        if (aCryptParams.hasAlias ())
+        {
+          // No PW needed here, because we encrypt with the public key
+          aBuilder.setUserInfo (aCryptParams.getAlias ());
+        }
     return aBuilder;
   }
 
@@ -108,7 +117,7 @@ public final class AS4Encryptor
     final WSSecHeader aSecHeader = new WSSecHeader (aDoc);
     aSecHeader.insertSecurityHeader ();
 
-    final WSSecEncrypt aBuilder = _createEncrypt (aSecHeader, aCryptParams);
+    final WSSecEncrypt aBuilder = _createEncrypt (aSecHeader, aCryptParams, null);
     aBuilder.getParts ().add (new WSEncryptionPart ("Body", eSoapVersion.getNamespaceURI (), "Content"));
 
     // Ensure mustUnderstand value
@@ -155,6 +164,16 @@ public final class AS4Encryptor
 
     if (AS4Configuration.isWSS4JSynchronizedSecurity ())
     {
+      if (AS4Configuration.isWSS4JSynchronizedSecurityConcurrent ())
+      {
+        // Synchronize only init and cleanup
+        return WSSSynchronizer.callConcurrent ( () -> _encryptSoapBodyPayload (aCryptoFactory,
+                                                                             eSoapVersion,
+                                                                             aDoc,
+                                                                             bMustUnderstand,
+                                                                             aCryptParams));
+      }
+
       // Synchronize
       return WSSSynchronizer.call ( () -> _encryptSoapBodyPayload (aCryptoFactory, eSoapVersion, aDoc, bMustUnderstand, aCryptParams));
     }
@@ -172,7 +191,8 @@ public final class AS4Encryptor
                                                      @Nonnull final IAS4CryptoFactory aCryptoFactory,
                                                      final boolean bMustUnderstand,
                                                      @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
-                                                     @Nonnull final AS4CryptParams aCryptParams) throws WSSecurityException
+                                                     @Nonnull final AS4CryptParams aCryptParams,
+                                                     @Nullable final String sAlias) throws WSSecurityException
   {
     if (LOGGER.isInfoEnabled ())
       LOGGER.info ("Now encrypting AS4 MIME message");
@@ -180,7 +200,7 @@ public final class AS4Encryptor
     final WSSecHeader aSecHeader = new WSSecHeader (aDoc);
     aSecHeader.insertSecurityHeader ();
 
-    final WSSecEncrypt aBuilder = _createEncrypt (aSecHeader, aCryptParams);
+    final WSSecEncrypt aBuilder = _createEncrypt (aSecHeader, aCryptParams, sAlias);
 
     // "cid:Attachments" is a predefined ID
     aBuilder.getParts ().add (new WSEncryptionPart (MessageHelperMethods.PREFIX_CID + "Attachments", "Content"));
@@ -238,6 +258,49 @@ public final class AS4Encryptor
                                                    final boolean bMustUnderstand,
                                                    @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
                                                    @Nonnull final AS4CryptParams aCryptParams) throws WSSecurityException
+  {
+    return encryptMimeMessage (eSoapVersion, aDoc, aAttachments, aCryptoFactory, bMustUnderstand, aResHelper, aCryptParams, null);
+  }
+
+  /**
+   * Encrypt a MIME message with an optional per-message keystore alias. This
+   * allows to use shared (read-only) encryption parameters for different
+   * receivers.
+   *
+   * @param eSoapVersion
+   *        The SOAP version to use. May not be <code>null</code>.
+   * @param aDoc
+   *        The SOAP XML document to be encrypted. May not be <code>null</code>.
+   * @param aAttachments
+   *        The attachments to be encrypted. May be <code>null</code>.
+   * @param aCryptoFactory
+   *        Crypto factory to use. May not be <code>null</code>.
+   * @param bMustUnderstand
+   *        must understand indicator.
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @param aCryptParams
+   *        Encryption parameter settings. Are not modified. May not be
+   *        <code>null</code>.
+   * @param sAlias
+   *        The keystore alias of the receiver certificate. If present, it has
+   *        precedence over the alias of the encryption parameters. A
+   *        certificate contained in the encryption parameters has precedence
+   *        over both. May be <code>null</code>.
+   * @return The encrypted MIME message. Never <code>null</code>.
+   * @throws WSSecurityException
+   *         in case of error
+   * @since 1.3.3
+   */
+  @Nonnull
+  public static AS4MimeMessage encryptMimeMessage (@Nonnull final ESoapVersion eSoapVersion,
+                                                   @Nonnull final Document aDoc,
+                                                   @Nullable final ICommonsList <WSS4JAttachment> aAttachments,
+                                                   @Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                   final boolean bMustUnderstand,
+                                                   @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                   @Nonnull final AS4CryptParams aCryptParams,
+                                                   @Nullable final String sAlias) throws WSSecurityException
   {
     ValueEnforcer.notNull (aCryptoFactory, "CryptoFactory");
     ValueEnforcer.notNull (eSoapVersion, "SoapVersion");
@@ -247,6 +310,19 @@ public final class AS4Encryptor
 
     if (AS4Configuration.isWSS4JSynchronizedSecurity ())
     {
+      if (AS4Configuration.isWSS4JSynchronizedSecurityConcurrent ())
+      {
+        // Synchronize only init and cleanup
+        return WSSSynchronizer.callConcurrent ( () -> _encryptMimeMessage (eSoapVersion,
+                                                                         aDoc,
+                                                                         aAttachments,
+                                                                         aCryptoFactory,
+                                                                         bMustUnderstand,
+                                                                         aResHelper,
+                                                                         aCryptParams,
+                                                                         sAlias));
+      }
+
       // Synchronize
       return WSSSynchronizer.call ( () -> _encryptMimeMessage (eSoapVersion,
                                                                aDoc,
@@ -254,12 +330,13 @@ public final class AS4Encryptor
                                                                aCryptoFactory,
                                                                bMustUnderstand,
                                                                aResHelper,
-                                                               aCryptParams));
+                                                               aCryptParams,
+                                                               sAlias));
     }
 
     // Ensure WSSConfig is initialized
     WSSConfigManager.getInstance ();
 
-    return _encryptMimeMessage (eSoapVersion, aDoc, aAttachments, aCryptoFactory, bMustUnderstand, aResHelper, aCryptParams);
+    return _encryptMimeMessage (eSoapVersion, aDoc, aAttachments, aCryptoFactory, bMustUnderstand, aResHelper, aCryptParams, sAlias);
   }
 }
@@ -160,6 +160,19 @@ public final class AS4Signer
 
     if (AS4Configuration.isWSS4JSynchronizedSecurity ())
     {
+      if (AS4Configuration.isWSS4JSynchronizedSecurityConcurrent ())
+      {
+        // Synchronize only init and cleanup
+        return WSSSynchronizer.callConcurrent ( () -> _createSignedMessage (aCryptoFactory,
+                                                                          aPreSigningMessage,
+                                                                          eSoapVersion,
+                                                                          sMessagingID,
+                                                                          aAttachments,
+                                                                          aResHelper,
+                                                                          bMustUnderstand,
+                                                                          aSigningParams));
+      }
+
       // Synchronize
       return WSSSynchronizer.call ( () -> _createSignedMessage (aCryptoFactory,
                                                                 aPreSigningMessage,
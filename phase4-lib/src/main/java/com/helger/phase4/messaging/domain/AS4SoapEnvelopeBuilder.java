@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.xml.XMLConstants;
+import javax.xml.transform.dom.DOMResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.marshaller.Ebms3WriterBuilder;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Builder for SOAP envelope DOM documents. The envelope, header and body
+ * elements are created directly in the DOM, the ebMS Messaging header is
+ * marshalled directly into the SOAP header and the payload is imported (or
+ * adopted) into the body. In contrast to marshalling a JAXB SOAP envelope that
+ * wraps already created DOM nodes, no element is marshalled twice.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@NotThreadSafe
+public class AS4SoapEnvelopeBuilder
+{
+  private final ESoapVersion m_eSoapVersion;
+  private Ebms3Messaging m_aMessaging;
+  private Node m_aPayload;
+  private boolean m_bAdoptPayload = false;
+
+  /**
+   * Constructor
+   *
+   * @param eSoapVersion
+   *        The SOAP version to use. May not be <code>null</code>.
+   */
+  public AS4SoapEnvelopeBuilder (@Nonnull final ESoapVersion eSoapVersion)
+  {
+    ValueEnforcer.notNull (eSoapVersion, "SoapVersion");
+    m_eSoapVersion = eSoapVersion;
+  }
+
+  /**
+   * @return The SOAP version as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final ESoapVersion getSoapVersion ()
+  {
+    return m_eSoapVersion;
+  }
+
+  /**
+   * Set the ebMS Messaging element to be added to the SOAP header.
+   *
+   * @param aMessaging
+   *        The messaging element. May be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4SoapEnvelopeBuilder setMessaging (@Nullable final Ebms3Messaging aMessaging)
+  {
+    m_aMessaging = aMessaging;
+    return this;
+  }
+
+  /**
+   * Set the payload to be added to the SOAP body. If a {@link Document} is
+   * provided, its document element is used.
+   *
+   * @param aPayload
+   *        The payload node. May be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4SoapEnvelopeBuilder setPayload (@Nullable final Node aPayload)
+  {
+    m_aPayload = aPayload;
+    return this;
+  }
+
+  /**
+   * Define whether the payload should be adopted or copied. Adopting avoids
+   * the copy of the payload but removes it from its source document, so it
+   * should only be enabled if the caller hands over the ownership of the
+   * payload.
+   *
+   * @param bAdoptPayload
+   *        <code>true</code> to adopt the payload node, <code>false</code> to
+   *        import a deep copy of it. The default is <code>false</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4SoapEnvelopeBuilder setAdoptPayload (final boolean bAdoptPayload)
+  {
+    m_bAdoptPayload = bAdoptPayload;
+    return this;
+  }
+
+  @Nonnull
+  private Element _createSoapElement (@Nonnull final Document aDoc, @Nonnull final String sLocalName)
+  {
+    return aDoc.createElementNS (m_eSoapVersion.getNamespaceURI (), m_eSoapVersion.getNamespacePrefix () + ":" + sLocalName);
+  }
+
+  /**
+   * Build the SOAP document.
+   *
+   * @return The created DOM document. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         if the messaging element could not be written or the payload could
+   *         not be adopted
+   */
+  @Nonnull
+  public Document build ()
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+
+    final Element aEnvelope = _createSoapElement (aDoc, "Envelope");
+    aEnvelope.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                              XMLConstants.XMLNS_ATTRIBUTE + ":" + m_eSoapVersion.getNamespacePrefix (),
+                              m_eSoapVersion.getNamespaceURI ());
+    aDoc.appendChild (aEnvelope);
+
+    final Element aHeader = _createSoapElement (aDoc, m_eSoapVersion.getHeaderElementName ());
+    aEnvelope.appendChild (aHeader);
+    if (m_aMessaging != null)
+    {
+      // Marshal directly into the SOAP header
+      if (Ebms3WriterBuilder.ebms3Messaging ().write (m_aMessaging, new DOMResult (aHeader)).isFailure ())
+        throw new IllegalStateException ("Failed to write EBMS3 Messaging to XML");
+    }
+
+    final Element aBody = _createSoapElement (aDoc, m_eSoapVersion.getBodyElementName ());
+    aEnvelope.appendChild (aBody);
+    final Node aRealPayload = m_aPayload instanceof Document ? ((Document) m_aPayload).getDocumentElement () : m_aPayload;
+    if (aRealPayload != null)
+    {
+      final Node aBodyContent;
+      if (m_bAdoptPayload)
+      {
+        aBodyContent = aDoc.adoptNode (aRealPayload);
+        if (aBodyContent == null)
+          throw new IllegalStateException ("Failed to adopt the payload node");
+      }
+      else
+        aBodyContent = aDoc.importNode (aRealPayload, true);
+      aBody.appendChild (aBodyContent);
+    }
+    return aDoc;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SoapVersion", m_eSoapVersion)
+                                       .append ("Messaging", m_aMessaging)
+                                       .append ("Payload", m_aPayload)
+                                       .append ("AdoptPayload", m_bAdoptPayload)
+                                       .getToString ();
+  }
+}
@@ -29,14 +29,7 @@ import com.helger.commons.string.ToStringGenerator;
 import com.helger.commons.traits.IGenericImplTrait;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
-import com.helger.phase4.marshaller.Ebms3WriterBuilder;
 import com.helger.phase4.soap.ESoapVersion;
-import com.helger.phase4.soap11.Soap11Body;
-import com.helger.phase4.soap11.Soap11Envelope;
-import com.helger.phase4.soap11.Soap11Header;
-import com.helger.phase4.soap12.Soap12Body;
-import com.helger.phase4.soap12.Soap12Envelope;
-import com.helger.phase4.soap12.Soap12Header;
 
 /**
  * Abstract AS4 message implementation
@@ -103,40 +96,30 @@ public abstract class AbstractAS4Message <IMPLTYPE extends AbstractAS4Message <I
   @Nonnull
   public final Document getAsSoapDocument (@Nullable final Node aPayload)
   {
-    // Convert to DOM Node
-    final Document aEbms3Document = Ebms3WriterBuilder.ebms3Messaging ().getAsDocument (m_aMessaging);
-    if (aEbms3Document == null)
-      throw new IllegalStateException ("Failed to write EBMS3 Messaging to XML");
-
-    final Node aRealPayload = aPayload instanceof Document ? ((Document) aPayload).getDocumentElement () : aPayload;
+    return getAsSoapDocument (aPayload, false);
+  }
 
-    switch (m_eSoapVersion)
-    {
-      case SOAP_11:
-      {
-        // Creating SOAP 11 Envelope
-        final Soap11Envelope aSoapEnv = new Soap11Envelope ();
-        aSoapEnv.setHeader (new Soap11Header ());
-        aSoapEnv.setBody (new Soap11Body ());
-        aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
-        if (aRealPayload != null)
-          aSoapEnv.getBody ().addAny (aRealPayload);
-        return Ebms3WriterBuilder.soap11 ().getAsDocument (aSoapEnv);
-      }
-      case SOAP_12:
-      {
-        // Creating SOAP 12 Envelope
-        final Soap12Envelope aSoapEnv = new Soap12Envelope ();
-        aSoapEnv.setHeader (new Soap12Header ());
-        aSoapEnv.setBody (new Soap12Body ());
-        aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
-        if (aRealPayload != null)
-          aSoapEnv.getBody ().addAny (aRealPayload);
-        return Ebms3WriterBuilder.soap12 ().getAsDocument (aSoapEnv);
-      }
-      default:
-        throw new IllegalStateException ("Unsupported SOAP version " + m_eSoapVersion);
-    }
+  /**
+   * Create a SOAP document from this message with the specified optional
+   * payload.
+   *
+   * @param aPayload
+   *        The payload to be added into the SOAP body. May be
+   *        <code>null</code>.
+   * @param bAdoptPayload
+   *        <code>true</code> to move the payload into the SOAP document instead
+   *        of copying it. Only use this if the payload is not used afterwards.
+   * @return The created DOM document.
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final Document getAsSoapDocument (@Nullable final Node aPayload, final boolean bAdoptPayload)
+  {
+    // Build the envelope in a single pass
+    return new AS4SoapEnvelopeBuilder (m_eSoapVersion).setMessaging (m_aMessaging)
+                                                      .setPayload (aPayload)
+                                                      .setAdoptPayload (bAdoptPayload)
+                                                      .build ();
   }
 
   @Override
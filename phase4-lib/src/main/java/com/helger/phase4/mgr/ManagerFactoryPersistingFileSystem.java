@@ -16,10 +16,12 @@
  */
 package com.helger.phase4.mgr;
 
+import java.io.IOException;
+
 import javax.annotation.Nonnull;
 
 import com.helger.dao.DAOException;
-import com.helger.phase4.duplicate.AS4DuplicateManager;
+import com.helger.phase4.duplicate.AS4DuplicateManagerSegmentLog;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.mpc.MPCManager;
@@ -28,6 +30,7 @@ import com.helger.phase4.model.pmode.PModeManager;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
 import com.helger.phase4.util.Phase4Exception;
+import com.helger.photon.app.io.WebFileIO;
 
 /**
  * Implementation of {@link IManagerFactory} creating managers that are
@@ -40,7 +43,7 @@ public class ManagerFactoryPersistingFileSystem implements IManagerFactory
 {
   private static final String MPC_XML = "as4-mpc.xml";
   private static final String PMODE_XML = "as4-pmode.xml";
-  private static final String INCOMING_DUPLICATE_XML = "as4-duplicate-incoming.xml";
+  private static final String INCOMING_DUPLICATE_DIR = "as4-duplicate-incoming";
 
   @Nonnull
   public IMPCManager createMPCManager () throws Phase4Exception
@@ -73,11 +76,11 @@ public class ManagerFactoryPersistingFileSystem implements IManagerFactory
   {
     try
     {
-      return new AS4DuplicateManager (INCOMING_DUPLICATE_XML);
+      return new AS4DuplicateManagerSegmentLog (WebFileIO.getDataIO ().getFile (INCOMING_DUPLICATE_DIR));
     }
-    catch (final DAOException ex)
+    catch (final IOException ex)
     {
-      throw new Phase4Exception ("Error creating AS4DuplicateManager", ex);
+      throw new Phase4Exception ("Error creating AS4DuplicateManagerSegmentLog", ex);
     }
   }
 
@@ -16,6 +16,8 @@
  */
 package com.helger.phase4.mgr;
 
+import java.io.Closeable;
+
 import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
@@ -24,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.UsedViaReflection;
 import com.helger.commons.exception.InitializationException;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.ClassHelper;
 import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
@@ -118,6 +121,14 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
     }
   }
 
+  @Override
+  protected void onBeforeDestroy (@Nonnull final IScope aScopeToBeDestroyed)
+  {
+    // E.g. for the segment log based duplicate manager
+    if (m_aIncomingDuplicateMgr instanceof Closeable)
+      StreamHelper.close ((Closeable) m_aIncomingDuplicateMgr);
+  }
+
   @Nonnull
   public static MetaAS4Manager getInstance ()
   {
@@ -22,6 +22,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.equals.EqualsHelper;
@@ -120,6 +121,25 @@ public interface IPModeManager
     });
   }
 
+  /**
+   * Find all PModes that have the provided initiator ID and responder ID.
+   *
+   * @param sInitiatorID
+   *        Initiator ID to search. May be <code>null</code>.
+   * @param sResponderID
+   *        Responder ID to search. May be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list of all matching
+   *         PModes.
+   * @since 1.3.3
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  default ICommonsList <IPMode> getAllPModesOfInitiatorAndResponder (@Nullable final String sInitiatorID,
+                                                                      @Nullable final String sResponderID)
+  {
+    return getAll ().getAll (x -> x.hasInitiatorID (sInitiatorID) && x.hasResponderID (sResponderID));
+  }
+
   /**
    * Get a predicate that matches a PMode by ID, initiator ID and responder ID?
    *
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * Immutable snapshot of the secondary indexes of a PMode manager. A new
+ * snapshot is created upon each modification (copy-on-write), so that lookups
+ * can be performed without a lock.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@Immutable
+final class PModeIndex
+{
+  static final PModeIndex EMPTY = new PModeIndex (new CommonsArrayList <> ());
+
+  private final ICommonsMap <String, IPMode> m_aByID = new CommonsHashMap <> ();
+  private final ICommonsMap <List <String>, IPMode> m_aByServiceAndAction = new CommonsHashMap <> ();
+  private final ICommonsMap <List <String>, ICommonsList <IPMode>> m_aByInitiatorAndResponder = new CommonsHashMap <> ();
+
+  PModeIndex (@Nonnull final Iterable <? extends IPMode> aPModes)
+  {
+    for (final IPMode aPMode : aPModes)
+    {
+      m_aByID.put (aPMode.getID (), aPMode);
+
+      final PModeLeg aLeg = aPMode.getLeg1 ();
+      if (aLeg != null)
+      {
+        final PModeLegBusinessInformation aBI = aLeg.getBusinessInfo ();
+        if (aBI != null)
+        {
+          // First one wins
+          m_aByServiceAndAction.putIfAbsent (_key (aBI.getService (), aBI.getAction ()), aPMode);
+        }
+      }
+
+      m_aByInitiatorAndResponder.computeIfAbsent (_key (aPMode.getInitiatorID (), aPMode.getResponderID ()), k -> new CommonsArrayList <> ())
+                                .add (aPMode);
+    }
+  }
+
+  @Nonnull
+  private static List <String> _key (@Nullable final String s1, @Nullable final String s2)
+  {
+    // Lists may contain null values
+    return Arrays.asList (s1, s2);
+  }
+
+  @Nullable
+  IPMode getOfID (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return null;
+    return m_aByID.get (sID);
+  }
+
+  @Nullable
+  IPMode getOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aByServiceAndAction.get (_key (sService, sAction));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <IPMode> getAllOfInitiatorAndResponder (@Nullable final String sInitiatorID, @Nullable final String sResponderID)
+  {
+    final ICommonsList <IPMode> ret = m_aByInitiatorAndResponder.get (_key (sInitiatorID, sResponderID));
+    return ret == null ? new CommonsArrayList <> () : ret.getClone ();
+  }
+
+  /**
+   * The same as the filter created by
+   * {@link IPModeManager#getPModeFilter(String, String, String)}.
+   *
+   * @param sID
+   *        PMode ID to search. May be <code>null</code>.
+   * @param sInitiatorID
+   *        Initiator ID to search. May be <code>null</code>.
+   * @param sResponderID
+   *        Responder ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode is contained.
+   */
+  @Nullable
+  IPMode getOfIDAndParties (@Nullable final String sID, @Nullable final String sInitiatorID, @Nullable final String sResponderID)
+  {
+    final IPMode ret = getOfID (sID);
+    return ret != null && ret.hasInitiatorID (sInitiatorID) && ret.hasResponderID (sResponderID) ? ret : null;
+  }
+}
@@ -16,8 +16,6 @@
  */
 package com.helger.phase4.model.pmode;
 
-import java.util.function.Predicate;
-
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
@@ -28,8 +26,11 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ELockType;
 import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.state.EChange;
 import com.helger.dao.DAOException;
+import com.helger.phase4.crypto.AS4PModeLegSecurityProfileCache;
 import com.helger.photon.app.dao.AbstractPhotonMapBasedWALDAO;
 import com.helger.photon.audit.AuditHelper;
 import com.helger.photon.security.object.BusinessObjectHelper;
@@ -44,9 +45,19 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (PModeManager.class);
 
+  // Copy-on-write snapshot - replaced within the write lock
+  private volatile PModeIndex m_aIndex = PModeIndex.EMPTY;
+
   public PModeManager (@Nullable final String sFilename) throws DAOException
   {
     super (PMode.class, sFilename);
+    m_aRWLock.writeLocked (this::_updateIndex);
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _updateIndex ()
+  {
+    m_aIndex = new PModeIndex (getAll ());
   }
 
   private void _validatePMode (@Nonnull final IPMode aPMode)
@@ -65,6 +76,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
   private void _createPModeLocked (@Nonnull final PMode aPMode)
   {
     internalCreateItem (aPMode);
+    _updateIndex ();
     AuditHelper.onAuditCreateSuccess (PMode.OT, aPMode.getID ());
 
     if (LOGGER.isDebugEnabled ())
@@ -115,11 +127,13 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
       internalUpdateItem (aExistingPMode);
+      _updateIndex ();
     }
     finally
     {
       m_aRWLock.writeLock ().unlock ();
     }
+    AS4PModeLegSecurityProfileCache.getDefaultInstance ().invalidate (aExistingPMode.getID ());
     AuditHelper.onAuditModifySuccess (PMode.OT, "all", aExistingPMode.getID ());
 
     if (LOGGER.isDebugEnabled ())
@@ -134,16 +148,18 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     ValueEnforcer.notNull (aPMode, "PMode");
     _validatePMode (aPMode);
 
-    // Try in read-lock
-    final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (), aPMode.getInitiatorID (), aPMode.getResponderID ());
-    IPMode aExisting = findFirst (aFilter);
+    // Try without lock
+    final String sID = aPMode.getID ();
+    final String sInitiatorID = aPMode.getInitiatorID ();
+    final String sResponderID = aPMode.getResponderID ();
+    IPMode aExisting = m_aIndex.getOfIDAndParties (sID, sInitiatorID, sResponderID);
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = m_aIndex.getOfIDAndParties (sID, sInitiatorID, sResponderID);
         if (aExisting == null)
         {
           // Create a new one
@@ -185,6 +201,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     {
       m_aRWLock.writeLock ().unlock ();
     }
+    AS4PModeLegSecurityProfileCache.getDefaultInstance ().invalidate (sPModeID);
     AuditHelper.onAuditDeleteSuccess (PMode.OT, sPModeID);
 
     if (LOGGER.isDebugEnabled ())
@@ -207,11 +224,13 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     try
     {
       internalDeleteItem (sPModeID);
+      _updateIndex ();
     }
     finally
     {
       m_aRWLock.writeLock ().unlock ();
     }
+    AS4PModeLegSecurityProfileCache.getDefaultInstance ().invalidate (sPModeID);
     AuditHelper.onAuditDeleteSuccess (PMode.OT, sPModeID);
 
     return EChange.CHANGED;
@@ -220,6 +239,22 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sID)
   {
-    return getOfID (sID);
+    return m_aIndex.getOfID (sID);
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aIndex.getOfServiceAndAction (sService, sAction);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfInitiatorAndResponder (@Nullable final String sInitiatorID,
+                                                                     @Nullable final String sResponderID)
+  {
+    return m_aIndex.getAllOfInitiatorAndResponder (sInitiatorID, sResponderID);
   }
 }
@@ -39,6 +39,7 @@ import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.state.EChange;
 import com.helger.commons.string.StringHelper;
+import com.helger.phase4.crypto.AS4PModeLegSecurityProfileCache;
 import com.helger.photon.security.object.BusinessObjectHelper;
 
 /**
@@ -54,10 +55,18 @@ public class PModeManagerInMemory implements IPModeManager
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   @GuardedBy ("m_aRWLock")
   private final ICommonsMap <String, PMode> m_aMap = new CommonsHashMap <> ();
+  // Copy-on-write snapshot - replaced within the write lock
+  private volatile PModeIndex m_aIndex = PModeIndex.EMPTY;
 
   public PModeManagerInMemory ()
   {}
 
+  @MustBeLocked (ELockType.WRITE)
+  private void _updateIndex ()
+  {
+    m_aIndex = new PModeIndex (m_aMap.values ());
+  }
+
   private void _validatePMode (@Nonnull final IPMode aPMode)
   {
     try
@@ -77,6 +86,7 @@ public class PModeManagerInMemory implements IPModeManager
     if (m_aMap.containsKey (sID))
       throw new IllegalArgumentException ("An object with ID '" + sID + "' is already contained!");
     m_aMap.put (sID, aPMode);
+    _updateIndex ();
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Created PMode with ID '" + aPMode.getID () + "'");
@@ -117,11 +127,13 @@ public class PModeManagerInMemory implements IPModeManager
         return EChange.UNCHANGED;
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
+      _updateIndex ();
     }
     finally
     {
       m_aRWLock.writeLock ().unlock ();
     }
+    AS4PModeLegSecurityProfileCache.getDefaultInstance ().invalidate (aExistingPMode.getID ());
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Updated PMode with ID '" + aNewPMode.getID () + "'");
@@ -135,16 +147,18 @@ public class PModeManagerInMemory implements IPModeManager
     ValueEnforcer.notNull (aPMode, "PMode");
     _validatePMode (aPMode);
 
-    // Try in read-lock
-    final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (), aPMode.getInitiatorID (), aPMode.getResponderID ());
-    IPMode aExisting = findFirst (aFilter);
+    // Try without lock
+    final String sID = aPMode.getID ();
+    final String sInitiatorID = aPMode.getInitiatorID ();
+    final String sResponderID = aPMode.getResponderID ();
+    IPMode aExisting = m_aIndex.getOfIDAndParties (sID, sInitiatorID, sResponderID);
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = m_aIndex.getOfIDAndParties (sID, sInitiatorID, sResponderID);
         if (aExisting == null)
         {
           // Create a new one
@@ -179,6 +193,7 @@ public class PModeManagerInMemory implements IPModeManager
     {
       m_aRWLock.writeLock ().unlock ();
     }
+    AS4PModeLegSecurityProfileCache.getDefaultInstance ().invalidate (sPModeID);
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Marked PMode with ID '" + aDeletedPMode.getID () + "' as deleted");
@@ -197,11 +212,13 @@ public class PModeManagerInMemory implements IPModeManager
     try
     {
       m_aMap.remove (sPModeID);
+      _updateIndex ();
     }
     finally
     {
       m_aRWLock.writeLock ().unlock ();
     }
+    AS4PModeLegSecurityProfileCache.getDefaultInstance ().invalidate (sPModeID);
 
     return EChange.CHANGED;
   }
@@ -217,7 +234,23 @@ public class PModeManagerInMemory implements IPModeManager
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sID)
   {
-    return getOfID (sID);
+    return m_aIndex.getOfID (sID);
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aIndex.getOfServiceAndAction (sService, sAction);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfInitiatorAndResponder (@Nullable final String sInitiatorID,
+                                                                     @Nullable final String sResponderID)
+  {
+    return m_aIndex.getAllOfInitiatorAndResponder (sInitiatorID, sResponderID);
   }
 
   @Nullable
@@ -16,20 +16,30 @@
  */
 package com.helger.phase4.model.pmode.resolve;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.pmode.DefaultPMode;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.model.pmode.PMode;
 import com.helger.phase4.profile.IAS4Profile;
 
 /**
  * Default implementation of {@link IPModeResolver} using the fixed ID only. If
- * no ID is provided the default pmode is used.
+ * no ID is provided the default pmode is used.<br>
+ * Since v1.3.3 the templated default PModes are cached in a bounded
+ * {@link PModeTemplateCache} and the default PModes are no longer persisted
+ * for each message.
  *
  * @author bayerlma
  * @author Philip Helger
@@ -37,12 +47,34 @@ import com.helger.phase4.profile.IAS4Profile;
 public class DefaultPModeResolver implements IPModeResolver
 {
   public static final IPModeResolver DEFAULT_PMODE_RESOLVER = new DefaultPModeResolver (false);
+  public static final boolean DEFAULT_PERSIST_DEFAULT_PMODES = false;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (DefaultPModeResolver.class);
 
   private final boolean m_bUseDefaultAsFallback;
+  private final PModeTemplateCache m_aTemplateCache;
+  private volatile boolean m_bPersistDefaultPModes = DEFAULT_PERSIST_DEFAULT_PMODES;
 
   public DefaultPModeResolver (final boolean bUseDefaultAsFallback)
   {
+    this (bUseDefaultAsFallback, new PModeTemplateCache ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bUseDefaultAsFallback
+   *        <code>true</code> to use the default PMode if nothing else matches.
+   * @param aTemplateCache
+   *        The cache for the templated default PModes. May not be
+   *        <code>null</code>.
+   * @since 1.3.3
+   */
+  public DefaultPModeResolver (final boolean bUseDefaultAsFallback, @Nonnull final PModeTemplateCache aTemplateCache)
+  {
+    ValueEnforcer.notNull (aTemplateCache, "TemplateCache");
     m_bUseDefaultAsFallback = bUseDefaultAsFallback;
+    m_aTemplateCache = aTemplateCache;
   }
 
   public final boolean isUseDefaultAsFallback ()
@@ -50,6 +82,61 @@ public class DefaultPModeResolver implements IPModeResolver
     return m_bUseDefaultAsFallback;
   }
 
+  /**
+   * @return The cache for templated default PModes. Never <code>null</code>.
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final PModeTemplateCache getTemplateCache ()
+  {
+    return m_aTemplateCache;
+  }
+
+  /**
+   * @return <code>true</code> if newly created default PModes are stored in
+   *         the PMode manager in the background, <code>false</code> if not.
+   * @since 1.3.3
+   */
+  public final boolean isPersistDefaultPModes ()
+  {
+    return m_bPersistDefaultPModes;
+  }
+
+  /**
+   * Enable or disable the write-behind persistence of newly created default
+   * PModes. Each PMode is only stored once per cache entry and never on the
+   * calling thread.
+   *
+   * @param bPersistDefaultPModes
+   *        <code>true</code> to persist, <code>false</code> to keep them in the
+   *        cache only.
+   * @return this for chaining
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final DefaultPModeResolver setPersistDefaultPModes (final boolean bPersistDefaultPModes)
+  {
+    m_bPersistDefaultPModes = bPersistDefaultPModes;
+    return this;
+  }
+
+  @Nonnull
+  private IPMode _createDefaultPMode (@Nonnull @Nonempty final String sInitiatorID,
+                                      @Nonnull @Nonempty final String sResponderID,
+                                      @Nullable final String sAddress)
+  {
+    final IPMode ret = DefaultPMode.getOrCreateDefaultPMode (sInitiatorID, sResponderID, sAddress, false);
+    if (m_bPersistDefaultPModes)
+    {
+      // Write behind
+      CompletableFuture.runAsync ( () -> MetaAS4Manager.getPModeMgr ().createOrUpdatePMode ((PMode) ret)).exceptionally (ex -> {
+        LOGGER.error ("Failed to persist default PMode '" + ret.getID () + "'", ex);
+        return null;
+      });
+    }
+    return ret;
+  }
+
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sPModeID,
                               @Nonnull final String sService,
@@ -78,7 +165,11 @@ public class DefaultPModeResolver implements IPModeResolver
     // Use default pmode based on profile
     final IAS4Profile aProfile = MetaAS4Manager.getProfileMgr ().getDefaultProfileOrNull ();
     if (aProfile != null)
-      return aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress);
+      return m_aTemplateCache.getOrCreate (aProfile.getID (),
+                                           sInitiatorID,
+                                           sResponderID,
+                                           sAddress,
+                                           () -> aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress));
 
     if (!m_bUseDefaultAsFallback)
     {
@@ -87,6 +178,6 @@ public class DefaultPModeResolver implements IPModeResolver
     }
 
     // 2. Default default PMode
-    return DefaultPMode.getOrCreateDefaultPMode (sInitiatorID, sResponderID, sAddress, true);
+    return m_aTemplateCache.getOrCreate (null, sInitiatorID, sResponderID, sAddress, () -> _createDefaultPMode (sInitiatorID, sResponderID, sAddress));
   }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode.resolve;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * A bounded in-memory cache for templated default PModes, keyed by profile ID,
+ * initiator ID, responder ID and address. If the maximum size is exceeded, the
+ * least recently used entry is removed.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class PModeTemplateCache
+{
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final int m_nMaxSize;
+  // Access ordered for LRU
+  @GuardedBy ("m_aLock")
+  private final Map <List <String>, IPMode> m_aMap;
+
+  /**
+   * Constructor with {@link #DEFAULT_MAX_SIZE} entries.
+   */
+  public PModeTemplateCache ()
+  {
+    this (DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached PModes. Must be &gt; 0.
+   */
+  public PModeTemplateCache (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_nMaxSize = nMaxSize;
+    m_aMap = new LinkedHashMap <List <String>, IPMode> (16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <List <String>, IPMode> aEldest)
+      {
+        return size () > m_nMaxSize;
+      }
+    };
+  }
+
+  /**
+   * @return The maximum number of cached PModes. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return The number of currently cached PModes. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * Get the cached PMode or create and cache a new one.
+   *
+   * @param sProfileID
+   *        The ID of the profile the PMode is based on. May be
+   *        <code>null</code>.
+   * @param sInitiatorID
+   *        Initiator ID. May be <code>null</code>.
+   * @param sResponderID
+   *        Responder ID. May be <code>null</code>.
+   * @param sAddress
+   *        Address. May be <code>null</code>.
+   * @param aFactory
+   *        The factory to create the PMode if it is not yet cached. May not be
+   *        <code>null</code>. It is invoked outside of the lock. If it returns
+   *        <code>null</code>, nothing is cached.
+   * @return The cached PMode or the result of the factory.
+   */
+  @Nullable
+  public IPMode getOrCreate (@Nullable final String sProfileID,
+                             @Nullable final String sInitiatorID,
+                             @Nullable final String sResponderID,
+                             @Nullable final String sAddress,
+                             @Nonnull final Supplier <? extends IPMode> aFactory)
+  {
+    ValueEnforcer.notNull (aFactory, "Factory");
+
+    final List <String> aKey = Arrays.asList (sProfileID, sInitiatorID, sResponderID, sAddress);
+    final IPMode aCached = m_aLock.lockedGet ( () -> m_aMap.get (aKey));
+    if (aCached != null)
+      return aCached;
+
+    // Create outside of the lock - concurrent creation of the same key is
+    // harmless
+    final IPMode aNew = aFactory.get ();
+    if (aNew == null)
+      return null;
+    return m_aLock.lockedGet ( () -> {
+      final IPMode aOld = m_aMap.putIfAbsent (aKey, aNew);
+      return aOld != null ? aOld : aNew;
+    });
+  }
+
+  /**
+   * Remove all cached PModes.
+   */
+  public void clear ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxSize", m_nMaxSize).getToString ();
+  }
+}
@@ -17,10 +17,12 @@
 package com.helger.phase4.sender;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.WillClose;
 import javax.mail.MessagingException;
 
 import org.apache.http.HttpEntity;
@@ -31,6 +33,7 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.wrapper.Wrapper;
 import com.helger.httpclient.response.ResponseHandlerHttpEntity;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
@@ -69,6 +72,65 @@ public final class AS4BidirectionalClientHelper
   private AS4BidirectionalClientHelper ()
   {}
 
+  /**
+   * Parser for a streamed HTTP response entity.
+   *
+   * @param <T>
+   *        The result type
+   */
+  @FunctionalInterface
+  private interface IResponseParser <T>
+  {
+    @Nullable
+    T parse (@Nonnull HttpResponse aHttpResponse, @Nonnull @WillClose InputStream aResponseIS) throws Phase4Exception;
+  }
+
+  @Nonnull
+  private static ResponseHandler <byte []> _createBufferingResponseHandler (@Nonnull final Wrapper <HttpResponse> aWrappedResponse)
+  {
+    return aHttpResponse -> {
+      // throws an ExtendedHttpResponseException on exception
+      final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
+      if (aEntity == null)
+        return null;
+      aWrappedResponse.set (aHttpResponse);
+      return EntityUtils.toByteArray (aEntity);
+    };
+  }
+
+  @Nonnull
+  private static <T> ResponseHandler <T> _createStreamingResponseHandler (@Nonnull final IResponseParser <T> aParser,
+                                                                          @Nonnull final Wrapper <Phase4Exception> aParseException)
+  {
+    return aHttpResponse -> {
+      // throws an ExtendedHttpResponseException on exception
+      final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
+      if (aEntity == null)
+        return null;
+
+      try (final InputStream aResponseIS = StreamHelper.getBuffered (aEntity.getContent ()))
+      {
+        // Check for an empty response without consuming it
+        aResponseIS.mark (1);
+        if (aResponseIS.read () < 0)
+        {
+          LOGGER.info ("AS4 ResponseEntity is empty");
+          return null;
+        }
+        aResponseIS.reset ();
+
+        // Read it in any case to ensure signature validation etc. happens
+        return aParser.parse (aHttpResponse, aResponseIS);
+      }
+      catch (final Phase4Exception ex)
+      {
+        // Don't retry sending - remember it for the caller
+        aParseException.set (ex);
+        return null;
+      }
+    };
+  }
+
   public static void sendAS4UserMessageAndReceiveAS4SignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
                                                                    @Nonnull final IPModeResolver aPModeResolver,
                                                                    @Nonnull final IAS4IncomingAttachmentFactory aIAF,
@@ -119,50 +181,76 @@ public final class AS4BidirectionalClientHelper
       }
     }
 
-    final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
-    final ResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
-      // throws an ExtendedHttpResponseException on exception
-      final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
-      if (aEntity == null)
-        return null;
-      aWrappedResponse.set (aHttpResponse);
-      return EntityUtils.toByteArray (aEntity);
-    };
-
-    final AS4ClientSentMessage <byte []> aResponseEntity = aClientUserMsg.sendMessageWithRetries (sURL,
-                                                                                                  aResponseHdl,
-                                                                                                  aBuildMessageCallback,
-                                                                                                  aOutgoingDumper,
-                                                                                                  aRetryCallback);
-    if (LOGGER.isInfoEnabled ())
-      LOGGER.info ("Successfully transmitted AS4 UserMessage with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
-
+    final IAS4IncomingMessageMetadata aMessageMetadata = new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL);
+    final Ebms3SignalMessage aSignalMessage;
     if (aResponseConsumer != null)
+    {
+      // The raw response consumer requires the complete response in memory
+      final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
+      final AS4ClientSentMessage <byte []> aResponseEntity = aClientUserMsg.sendMessageWithRetries (sURL,
+                                                                                                    _createBufferingResponseHandler (aWrappedResponse),
+                                                                                                    aBuildMessageCallback,
+                                                                                                    aOutgoingDumper,
+                                                                                                    aRetryCallback);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Successfully transmitted AS4 UserMessage with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
+
       aResponseConsumer.handleResponse (aResponseEntity);
 
-    // Try interpret result as SignalMessage
-    if (aResponseEntity.hasResponse () && aResponseEntity.getResponse ().length > 0)
-    {
-      final IAS4IncomingMessageMetadata aMessageMetadata = new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL);
-
-      // Read response as EBMS3 Signal Message
-      // Read it in any case to ensure signature validation etc. happens
-      final Ebms3SignalMessage aSignalMessage = AS4IncomingHandler.parseSignalMessage (aCryptoFactory,
-                                                                                       aPModeResolver,
-                                                                                       aIAF,
-                                                                                       aIncomingProfileSelector,
-                                                                                       aClientUserMsg.getAS4ResourceHelper (),
-                                                                                       aClientUserMsg.getPMode (),
-                                                                                       aLocale,
-                                                                                       aMessageMetadata,
-                                                                                       aWrappedResponse.get (),
-                                                                                       aResponseEntity.getResponse (),
-                                                                                       aIncomingDumper);
-      if (aSignalMessage != null && aSignalMsgConsumer != null)
-        aSignalMsgConsumer.handleSignalMessage (aSignalMessage);
+      // Try interpret result as SignalMessage
+      if (aResponseEntity.hasResponse () && aResponseEntity.getResponse ().length > 0)
+      {
+        // Read response as EBMS3 Signal Message
+        // Read it in any case to ensure signature validation etc. happens
+        aSignalMessage = AS4IncomingHandler.parseSignalMessage (aCryptoFactory,
+                                                                aPModeResolver,
+                                                                aIAF,
+                                                                aIncomingProfileSelector,
+                                                                aClientUserMsg.getAS4ResourceHelper (),
+                                                                aClientUserMsg.getPMode (),
+                                                                aLocale,
+                                                                aMessageMetadata,
+                                                                aWrappedResponse.get (),
+                                                                aResponseEntity.getResponse (),
+                                                                aIncomingDumper);
+      }
+      else
+      {
+        LOGGER.info ("AS4 ResponseEntity is empty");
+        aSignalMessage = null;
+      }
     }
     else
-      LOGGER.info ("AS4 ResponseEntity is empty");
+    {
+      // Parse the response while it is received
+      final Wrapper <Phase4Exception> aParseException = new Wrapper <> ();
+      final IResponseParser <Ebms3SignalMessage> aParser = (aHttpResponse, aResponseIS) -> AS4IncomingHandler.parseSignalMessage (aCryptoFactory,
+                                                                                                                                  aPModeResolver,
+                                                                                                                                  aIAF,
+                                                                                                                                  aIncomingProfileSelector,
+                                                                                                                                  aClientUserMsg.getAS4ResourceHelper (),
+                                                                                                                                  aClientUserMsg.getPMode (),
+                                                                                                                                  aLocale,
+                                                                                                                                  aMessageMetadata,
+                                                                                                                                  aHttpResponse,
+                                                                                                                                  aResponseIS,
+                                                                                                                                  aIncomingDumper);
+      final ResponseHandler <Ebms3SignalMessage> aResponseHdl = _createStreamingResponseHandler (aParser, aParseException);
+      final AS4ClientSentMessage <Ebms3SignalMessage> aResponseEntity = aClientUserMsg.sendMessageWithRetries (sURL,
+                                                                                                               aResponseHdl,
+                                                                                                               aBuildMessageCallback,
+                                                                                                               aOutgoingDumper,
+                                                                                                               aRetryCallback);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Successfully transmitted AS4 UserMessage with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
+
+      if (aParseException.get () != null)
+        throw aParseException.get ();
+      aSignalMessage = aResponseEntity.getResponse ();
+    }
+
+    if (aSignalMessage != null && aSignalMsgConsumer != null)
+      aSignalMsgConsumer.handleSignalMessage (aSignalMessage);
   }
 
   public static void sendAS4PullRequestAndReceiveAS4UserMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
@@ -192,48 +280,76 @@ public final class AS4BidirectionalClientHelper
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("  MPC = '" + aClientPullRequest.getMPC () + "'");
 
-    final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
-    final ResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
-      // May throw an ExtendedHttpResponseException
-      final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
-      if (aEntity == null)
-        return null;
-      aWrappedResponse.set (aHttpResponse);
-      return EntityUtils.toByteArray (aEntity);
-    };
-    final AS4ClientSentMessage <byte []> aResponseEntity = aClientPullRequest.sendMessageWithRetries (sURL,
-                                                                                                      aResponseHdl,
-                                                                                                      aBuildMessageCallback,
-                                                                                                      aOutgoingDumper,
-                                                                                                      aRetryCallback);
-    if (LOGGER.isInfoEnabled ())
-      LOGGER.info ("Successfully transmitted AS4 PullRequest with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
-
+    final IAS4IncomingMessageMetadata aMessageMetadata = new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL);
+    final Ebms3UserMessage aUserMessage;
     if (aResponseConsumer != null)
+    {
+      // The raw response consumer requires the complete response in memory
+      final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
+      final AS4ClientSentMessage <byte []> aResponseEntity = aClientPullRequest.sendMessageWithRetries (sURL,
+                                                                                                        _createBufferingResponseHandler (aWrappedResponse),
+                                                                                                        aBuildMessageCallback,
+                                                                                                        aOutgoingDumper,
+                                                                                                        aRetryCallback);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Successfully transmitted AS4 PullRequest with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
+
       aResponseConsumer.handleResponse (aResponseEntity);
 
-    // Try interpret result as SignalMessage
-    if (aResponseEntity.hasResponse () && aResponseEntity.getResponse ().length > 0)
-    {
-      final IAS4IncomingMessageMetadata aMessageMetadata = new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL);
-
-      // Read response as EBMS3 User Message
-      // Read it in any case to ensure signature validation etc. happens
-      final Ebms3UserMessage aUserMessage = AS4IncomingHandler.parseUserMessage (aCryptoFactory,
-                                                                                 aPModeResolver,
-                                                                                 aIAF,
-                                                                                 aIncomingProfileSelector,
-                                                                                 aClientPullRequest.getAS4ResourceHelper (),
-                                                                                 null,
-                                                                                 aLocale,
-                                                                                 aMessageMetadata,
-                                                                                 aWrappedResponse.get (),
-                                                                                 aResponseEntity.getResponse (),
-                                                                                 aIncomingDumper);
-      if (aUserMessage != null && aUserMsgConsumer != null)
-        aUserMsgConsumer.handleUserMessage (aUserMessage);
+      // Try interpret result as UserMessage
+      if (aResponseEntity.hasResponse () && aResponseEntity.getResponse ().length > 0)
+      {
+        // Read response as EBMS3 User Message
+        // Read it in any case to ensure signature validation etc. happens
+        aUserMessage = AS4IncomingHandler.parseUserMessage (aCryptoFactory,
+                                                            aPModeResolver,
+                                                            aIAF,
+                                                            aIncomingProfileSelector,
+                                                            aClientPullRequest.getAS4ResourceHelper (),
+                                                            null,
+                                                            aLocale,
+                                                            aMessageMetadata,
+                                                            aWrappedResponse.get (),
+                                                            aResponseEntity.getResponse (),
+                                                            aIncomingDumper);
+      }
+      else
+      {
+        LOGGER.info ("AS4 ResponseEntity is empty");
+        aUserMessage = null;
+      }
     }
     else
-      LOGGER.info ("AS4 ResponseEntity is empty");
+    {
+      // Parse the response while it is received, so that large attachments
+      // are spooled instead of being kept in memory
+      final Wrapper <Phase4Exception> aParseException = new Wrapper <> ();
+      final IResponseParser <Ebms3UserMessage> aParser = (aHttpResponse, aResponseIS) -> AS4IncomingHandler.parseUserMessage (aCryptoFactory,
+                                                                                                                              aPModeResolver,
+                                                                                                                              aIAF,
+                                                                                                                              aIncomingProfileSelector,
+                                                                                                                              aClientPullRequest.getAS4ResourceHelper (),
+                                                                                                                              null,
+                                                                                                                              aLocale,
+                                                                                                                              aMessageMetadata,
+                                                                                                                              aHttpResponse,
+                                                                                                                              aResponseIS,
+                                                                                                                              aIncomingDumper);
+      final ResponseHandler <Ebms3UserMessage> aResponseHdl = _createStreamingResponseHandler (aParser, aParseException);
+      final AS4ClientSentMessage <Ebms3UserMessage> aResponseEntity = aClientPullRequest.sendMessageWithRetries (sURL,
+                                                                                                                 aResponseHdl,
+                                                                                                                 aBuildMessageCallback,
+                                                                                                                 aOutgoingDumper,
+                                                                                                                 aRetryCallback);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Successfully transmitted AS4 PullRequest with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
+
+      if (aParseException.get () != null)
+        throw aParseException.get ();
+      aUserMessage = aResponseEntity.getResponse ();
+    }
+
+    if (aUserMessage != null && aUserMsgConsumer != null)
+      aUserMsgConsumer.handleUserMessage (aUserMessage);
   }
 }
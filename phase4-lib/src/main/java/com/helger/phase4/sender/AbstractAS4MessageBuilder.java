@@ -41,6 +41,8 @@ import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.http.AS4HttpClientPool;
+import com.helger.phase4.http.BasicHttpPoster;
 import com.helger.phase4.http.HttpRetrySettings;
 import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
@@ -87,7 +89,6 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
 
   /**
    * Create a new builder, with the following fields already set:<br>
-   * {@link #httpClientFactory(HttpClientFactory)}<br>
    * {@link #cryptoFactory(IAS4CryptoFactory)}<br>
    * {@link #soapVersion(ESoapVersion)}
    * {@link #pmodeResolver(IPModeResolver)}<br>
@@ -99,7 +100,6 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
     // Set default values
     try
     {
-      httpClientFactory (new HttpClientFactory ());
       cryptoFactory (AS4CryptoFactoryProperties.getDefaultInstance ());
       soapVersion (ESoapVersion.SOAP_12);
       pmodeResolver (DefaultPModeResolver.DEFAULT_PMODE_RESOLVER);
@@ -124,8 +124,12 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
 
   /**
    * Set the HTTP client factory to be used. If the passed settings are
-   * non-<code>null</code>, a new {@link HttpClientFactory} is created with
-   * them, else a <code>null</code>-{@link HttpClientFactory} is set.
+   * non-<code>null</code>, the {@link HttpClientFactory} for them is taken
+   * from {@link AS4HttpClientPool#getHttpClientFactory(HttpClientSettings)},
+   * else a <code>null</code>-{@link HttpClientFactory} is set.<br>
+   * Note: as the pooled HTTP connections are shared per settings object, it is
+   * recommended to reuse the same settings for multiple messages instead of
+   * creating new settings for every message.
    *
    * @param aHttpClientSettings
    *        The new HTTP client settings to be used. May be <code>null</code>.
@@ -134,16 +138,22 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   @Nonnull
   public final IMPLTYPE httpClientFactory (@Nullable final HttpClientSettings aHttpClientSettings)
   {
-    return httpClientFactory (aHttpClientSettings == null ? null : new HttpClientFactory (aHttpClientSettings));
+    if (aHttpClientSettings == null)
+      return httpClientFactory ((HttpClientFactory) null);
+
+    final AS4HttpClientPool aPool = AS4HttpClientPool.getInstanceIfGlobalScopeIsPresent ();
+    return httpClientFactory (aPool != null ? aPool.getHttpClientFactory (aHttpClientSettings)
+                                            : new HttpClientFactory (aHttpClientSettings));
   }
 
   /**
-   * Set the HTTP client factory to be used. By default a default instance of
-   * {@link HttpClientFactory} is used (set in the constructor) and there is no
-   * need to invoke this method.
+   * Set the HTTP client factory to be used. By default the shared default
+   * factory of {@link BasicHttpPoster} is used and there is no need to invoke
+   * this method.
    *
    * @param aHttpClientFactory
-   *        The new HTTP client factory to be used. May be <code>null</code>.
+   *        The new HTTP client factory to be used. May be <code>null</code> to
+   *        use the shared default factory.
    * @return this for chaining
    */
   @Nonnull
@@ -467,11 +477,7 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   @OverridingMethodsMustInvokeSuper
   public boolean isEveryRequiredFieldSet ()
   {
-    if (m_aHttpClientFactory == null)
-    {
-      LOGGER.warn ("The field 'httpClientFactory' is not set");
-      return false;
-    }
+    // m_aHttpClientFactory may be null
     // m_aCryptoFactory may be null
     // m_sMessageID is optional
     // m_sRefToMessageID is optional
@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.functional.IThrowingRunnable;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.ebms3header.Ebms3PartyId;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * The executor for the asynchronous processing of incoming messages in
+ * {@link AS4RequestHandler}. It uses a fixed number of threads and a bounded
+ * queue. Additionally the number of queued or running tasks can be limited per
+ * key (by default the PMode ID). If a task cannot be accepted, the
+ * {@link EAS4AsyncRejectionPolicy} decides what happens. The metrics (queue
+ * depth, wait time etc.) can be queried at any time.<br>
+ * Admission and execution are separate steps: {@link #admit(IAS4MessageState)}
+ * reserves the capacity, so that a message can be rejected before any side
+ * effects (like the duplicate message ID registration) happen.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class AS4AsyncProcessingExecutor implements AutoCloseable
+{
+  /** Use the PMode ID as the concurrency key */
+  public static final Function <IAS4MessageState, String> KEY_PMODE_ID = aState -> {
+    final IPMode aPMode = aState.getPMode ();
+    return aPMode == null ? null : aPMode.getID ();
+  };
+
+  /** Use the first "From" party ID of the user message as concurrency key */
+  public static final Function <IAS4MessageState, String> KEY_INITIATOR = aState -> {
+    final Ebms3UserMessage aUserMsg = aState.getEbmsUserMessage ();
+    if (aUserMsg == null || aUserMsg.getPartyInfo () == null || aUserMsg.getPartyInfo ().getFrom () == null)
+      return null;
+    final Ebms3PartyId aPartyID = aUserMsg.getPartyInfo ().getFrom ().getPartyIdAtIndex (0);
+    return aPartyID == null ? null : aPartyID.getValue ();
+  };
+
+  public static final EAS4AsyncRejectionPolicy DEFAULT_REJECTION_POLICY = EAS4AsyncRejectionPolicy.EBMS_ERROR;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4AsyncProcessingExecutor.class);
+
+  /**
+   * The result of a successful {@link AS4AsyncProcessingExecutor#admit(IAS4MessageState)}
+   * call. Exactly one of {@link #submit(IThrowingRunnable)} or
+   * {@link #cancel()} must be called to release the reserved capacity.
+   *
+   * @author Philip Helger
+   */
+  public final class Admission
+  {
+    private final String m_sKey;
+    private final boolean m_bCallerRuns;
+    private final AtomicBoolean m_aDone = new AtomicBoolean (false);
+
+    Admission (@Nullable final String sKey, final boolean bCallerRuns)
+    {
+      m_sKey = sKey;
+      m_bCallerRuns = bCallerRuns;
+    }
+
+    /**
+     * @return <code>true</code> if the capacity was exhausted and the task will
+     *         be run in the calling thread according to
+     *         {@link EAS4AsyncRejectionPolicy#CALLER_RUNS}.
+     */
+    public boolean isCallerRuns ()
+    {
+      return m_bCallerRuns;
+    }
+
+    /**
+     * Execute the task using the reserved capacity.
+     *
+     * @param aRunnable
+     *        The task to execute. May not be <code>null</code>. Exceptions are
+     *        logged.
+     * @return A future that is completed when the task was executed. Never
+     *         <code>null</code>.
+     */
+    @Nonnull
+    public CompletableFuture <Void> submit (@Nonnull final IThrowingRunnable <? extends Exception> aRunnable)
+    {
+      ValueEnforcer.notNull (aRunnable, "Runnable");
+      if (!m_aDone.compareAndSet (false, true))
+        throw new IllegalStateException ("The admission was already used");
+
+      m_aSubmittedCount.incrementAndGet ();
+      if (m_bCallerRuns)
+      {
+        _runSafe (m_sKey, aRunnable);
+        return CompletableFuture.completedFuture (null);
+      }
+
+      final CompletableFuture <Void> ret = new CompletableFuture <> ();
+      final long nSubmitNanos = System.nanoTime ();
+      try
+      {
+        m_aExecutor.execute ( () -> {
+          final long nWaitNanos = System.nanoTime () - nSubmitNanos;
+          m_aTotalWaitNanos.addAndGet (nWaitNanos);
+          m_aMaxWaitNanos.accumulateAndGet (nWaitNanos, Math::max);
+          try
+          {
+            _runSafe (m_sKey, aRunnable);
+          }
+          finally
+          {
+            _release (m_sKey);
+            m_aCompletedCount.incrementAndGet ();
+            ret.complete (null);
+          }
+        });
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Only happens after shutdown - the message was already accepted, so
+        // process it anyway
+        LOGGER.warn ("Asynchronous processing executor is shut down - processing key '" + m_sKey + "' in the calling thread");
+        _release (m_sKey);
+        _runSafe (m_sKey, aRunnable);
+        ret.complete (null);
+      }
+      return ret;
+    }
+
+    /**
+     * Release the reserved capacity without executing anything. Calling this
+     * after {@link #submit(IThrowingRunnable)} has no effect.
+     */
+    public void cancel ()
+    {
+      if (m_aDone.compareAndSet (false, true) && !m_bCallerRuns)
+        _release (m_sKey);
+    }
+  }
+
+  private final ThreadPoolExecutor m_aExecutor;
+  // Number of tasks that may be queued or running at the same time
+  private final Semaphore m_aCapacity;
+  private final int m_nMaxPerKey;
+  private final Function <IAS4MessageState, String> m_aKeyProvider;
+  private final EAS4AsyncRejectionPolicy m_eRejectionPolicy;
+  // Number of queued or running tasks per key
+  private final Map <String, Integer> m_aInFlightPerKey = new ConcurrentHashMap <> ();
+
+  private final AtomicLong m_aSubmittedCount = new AtomicLong (0);
+  private final AtomicLong m_aRejectedCount = new AtomicLong (0);
+  private final AtomicLong m_aCompletedCount = new AtomicLong (0);
+  private final AtomicLong m_aTotalWaitNanos = new AtomicLong (0);
+  private final AtomicLong m_aMaxWaitNanos = new AtomicLong (0);
+
+  @Nonnull
+  public static ThreadFactory createDefaultThreadFactory ()
+  {
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    return r -> {
+      final Thread ret = new Thread (r, "phase4-async-processing-" + aCounter.incrementAndGet ());
+      ret.setDaemon (true);
+      return ret;
+    };
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nThreads
+   *        The number of processing threads. Must be &gt; 0.
+   * @param nQueueCapacity
+   *        The maximum number of tasks waiting for a thread. Must be &gt; 0.
+   * @param nMaxPerKey
+   *        The maximum number of queued or running tasks per key. Values &le; 0
+   *        mean unlimited.
+   * @param aKeyProvider
+   *        The function to determine the concurrency key of a message. May not
+   *        be <code>null</code>. See {@link #KEY_PMODE_ID} and
+   *        {@link #KEY_INITIATOR}. If the function returns <code>null</code>
+   *        no per-key limit is applied.
+   * @param eRejectionPolicy
+   *        The rejection policy to use. May not be <code>null</code>.
+   * @param aThreadFactory
+   *        The thread factory to use. May not be <code>null</code>. On Java 21+
+   *        e.g. a virtual thread factory may be provided.
+   */
+  public AS4AsyncProcessingExecutor (@Nonnegative final int nThreads,
+                                     @Nonnegative final int nQueueCapacity,
+                                     final int nMaxPerKey,
+                                     @Nonnull final Function <IAS4MessageState, String> aKeyProvider,
+                                     @Nonnull final EAS4AsyncRejectionPolicy eRejectionPolicy,
+                                     @Nonnull final ThreadFactory aThreadFactory)
+  {
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.notNull (aKeyProvider, "KeyProvider");
+    ValueEnforcer.notNull (eRejectionPolicy, "RejectionPolicy");
+    ValueEnforcer.notNull (aThreadFactory, "ThreadFactory");
+    // The queue is bounded by the capacity semaphore, so that admission can be
+    // decided before the task is submitted
+    m_aExecutor = new ThreadPoolExecutor (nThreads,
+                                          nThreads,
+                                          60,
+                                          TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue <> (),
+                                          aThreadFactory,
+                                          new ThreadPoolExecutor.AbortPolicy ());
+    m_aExecutor.allowCoreThreadTimeOut (true);
+    m_aCapacity = new Semaphore (nThreads + nQueueCapacity);
+    m_nMaxPerKey = nMaxPerKey;
+    m_aKeyProvider = aKeyProvider;
+    m_eRejectionPolicy = eRejectionPolicy;
+  }
+
+  /**
+   * @return The rejection policy. Never <code>null</code>.
+   */
+  @Nonnull
+  public final EAS4AsyncRejectionPolicy getRejectionPolicy ()
+  {
+    return m_eRejectionPolicy;
+  }
+
+  /**
+   * @return The maximum number of queued or running tasks per key. Values
+   *         &le; 0 mean unlimited.
+   */
+  public final int getMaxPerKey ()
+  {
+    return m_nMaxPerKey;
+  }
+
+  /**
+   * @return The number of tasks currently waiting for a thread. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getQueueDepth ()
+  {
+    return m_aExecutor.getQueue ().size ();
+  }
+
+  /**
+   * @return The number of tasks currently running. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getActiveCount ()
+  {
+    return m_aExecutor.getActiveCount ();
+  }
+
+  /**
+   * @param sKey
+   *        The concurrency key to check. May be <code>null</code>.
+   * @return The number of queued or running tasks of the provided key. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public int getInFlightCount (@Nullable final String sKey)
+  {
+    if (sKey == null)
+      return 0;
+    final Integer ret = m_aInFlightPerKey.get (sKey);
+    return ret == null ? 0 : ret.intValue ();
+  }
+
+  /**
+   * @return The number of accepted tasks (including the ones run by the
+   *         caller). Always &ge; 0.
+   */
+  @Nonnegative
+  public long getSubmittedCount ()
+  {
+    return m_aSubmittedCount.get ();
+  }
+
+  /**
+   * @return The number of rejected tasks (including the ones run by the
+   *         caller). Always &ge; 0.
+   */
+  @Nonnegative
+  public long getRejectedCount ()
+  {
+    return m_aRejectedCount.get ();
+  }
+
+  /**
+   * @return The number of tasks that were executed by the executor threads.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public long getCompletedCount ()
+  {
+    return m_aCompletedCount.get ();
+  }
+
+  /**
+   * @return The average time in milliseconds a task waited in the queue.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public long getAverageWaitMillis ()
+  {
+    final long nCompleted = m_aCompletedCount.get ();
+    return nCompleted == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis (m_aTotalWaitNanos.get () / nCompleted);
+  }
+
+  /**
+   * @return The maximum time in milliseconds a task waited in the queue.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public long getMaxWaitMillis ()
+  {
+    return TimeUnit.NANOSECONDS.toMillis (m_aMaxWaitNanos.get ());
+  }
+
+  private boolean _tryAcquire (@Nullable final String sKey)
+  {
+    if (sKey == null || m_nMaxPerKey <= 0)
+      return true;
+    final boolean [] aAcquired = { false };
+    m_aInFlightPerKey.compute (sKey, (k, v) -> {
+      final int nCurrent = v == null ? 0 : v.intValue ();
+      if (nCurrent >= m_nMaxPerKey)
+        return v;
+      aAcquired[0] = true;
+      return Integer.valueOf (nCurrent + 1);
+    });
+    return aAcquired[0];
+  }
+
+  private void _releaseKey (@Nullable final String sKey)
+  {
+    if (sKey != null && m_nMaxPerKey > 0)
+      m_aInFlightPerKey.computeIfPresent (sKey, (k, v) -> v.intValue () <= 1 ? null : Integer.valueOf (v.intValue () - 1));
+  }
+
+  private void _release (@Nullable final String sKey)
+  {
+    _releaseKey (sKey);
+    m_aCapacity.release ();
+  }
+
+  private static void _runSafe (@Nullable final String sKey, @Nonnull final IThrowingRunnable <? extends Exception> aRunnable)
+  {
+    try
+    {
+      aRunnable.run ();
+    }
+    catch (final Exception ex)
+    {
+      LOGGER.error ("Error in asynchronous processing of key '" + sKey + "'", ex);
+    }
+  }
+
+  /**
+   * Reserve the capacity for the processing of a message. If the capacity is
+   * exhausted, the {@link EAS4AsyncRejectionPolicy} decides what happens.
+   *
+   * @param aState
+   *        The message state used to determine the concurrency key. May not be
+   *        <code>null</code>.
+   * @return <code>null</code> if the message was rejected and the rejection
+   *         policy is {@link EAS4AsyncRejectionPolicy#EBMS_ERROR}. Otherwise
+   *         the admission that must be used to submit the task or that must be
+   *         cancelled.
+   */
+  @Nullable
+  public Admission admit (@Nonnull final IAS4MessageState aState)
+  {
+    ValueEnforcer.notNull (aState, "State");
+
+    final String sKey = m_aKeyProvider.apply (aState);
+    if (_tryAcquire (sKey))
+    {
+      if (m_aCapacity.tryAcquire ())
+        return new Admission (sKey, false);
+
+      // Queue is full
+      _releaseKey (sKey);
+    }
+
+    // Rejected
+    m_aRejectedCount.incrementAndGet ();
+    LOGGER.warn ("Asynchronous processing of key '" +
+                 sKey +
+                 "' was rejected (queue depth " +
+                 getQueueDepth () +
+                 ", in flight for key " +
+                 getInFlightCount (sKey) +
+                 ") - " +
+                 m_eRejectionPolicy);
+    if (m_eRejectionPolicy == EAS4AsyncRejectionPolicy.CALLER_RUNS)
+      return new Admission (sKey, true);
+    return null;
+  }
+
+  /**
+   * Submit a processing task. This is a shortcut for
+   * {@link #admit(IAS4MessageState)} followed by
+   * {@link Admission#submit(IThrowingRunnable)}.
+   *
+   * @param aState
+   *        The message state used to determine the concurrency key. May not be
+   *        <code>null</code>.
+   * @param aRunnable
+   *        The task to execute. May not be <code>null</code>. Exceptions are
+   *        logged.
+   * @return <code>null</code> if the task was rejected and the rejection policy
+   *         is {@link EAS4AsyncRejectionPolicy#EBMS_ERROR}. Otherwise a future
+   *         that is completed when the task was executed.
+   */
+  @Nullable
+  public CompletableFuture <Void> submit (@Nonnull final IAS4MessageState aState,
+                                          @Nonnull final IThrowingRunnable <? extends Exception> aRunnable)
+  {
+    ValueEnforcer.notNull (aRunnable, "Runnable");
+
+    final Admission aAdmission = admit (aState);
+    return aAdmission == null ? null : aAdmission.submit (aRunnable);
+  }
+
+  /**
+   * Stop accepting new tasks and wait until all submitted tasks are finished.
+   */
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Threads", m_aExecutor.getMaximumPoolSize ())
+                                       .append ("MaxPerKey", m_nMaxPerKey)
+                                       .append ("RejectionPolicy", m_eRejectionPolicy)
+                                       .append ("QueueDepth", getQueueDepth ())
+                                       .getToString ();
+  }
+}
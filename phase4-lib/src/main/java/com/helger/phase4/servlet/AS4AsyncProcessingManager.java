@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.UsedViaReflection;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.scope.IScope;
+import com.helger.scope.singleton.AbstractGlobalSingleton;
+
+/**
+ * Holds the global default {@link AS4AsyncProcessingExecutor} that is used by
+ * all {@link AS4RequestHandler} instances that don't have a specific executor.
+ * The default executor is created lazily from the configuration properties
+ * <code>phase4.async.threads</code>, <code>phase4.async.queuecapacity</code>
+ * and <code>phase4.async.maxperkey</code> and uses the PMode ID as concurrency
+ * key.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+public class AS4AsyncProcessingManager extends AbstractGlobalSingleton
+{
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  private AS4AsyncProcessingExecutor m_aExecutor;
+
+  @Deprecated
+  @UsedViaReflection
+  public AS4AsyncProcessingManager ()
+  {}
+
+  @Nonnull
+  public static AS4AsyncProcessingManager getInstance ()
+  {
+    return getGlobalSingleton (AS4AsyncProcessingManager.class);
+  }
+
+  @Nonnull
+  private static AS4AsyncProcessingExecutor _createDefaultExecutor ()
+  {
+    int nThreads = AS4Configuration.getAsyncThreads ();
+    if (nThreads <= 0)
+      nThreads = 2 * Runtime.getRuntime ().availableProcessors ();
+    return new AS4AsyncProcessingExecutor (nThreads,
+                                           AS4Configuration.getAsyncQueueCapacity (),
+                                           AS4Configuration.getAsyncMaxPerKey (),
+                                           AS4AsyncProcessingExecutor.KEY_PMODE_ID,
+                                           AS4AsyncProcessingExecutor.DEFAULT_REJECTION_POLICY,
+                                           AS4AsyncProcessingExecutor.createDefaultThreadFactory ());
+  }
+
+  @Override
+  protected void onBeforeDestroy (@Nonnull final IScope aScopeToBeDestroyed)
+  {
+    final AS4AsyncProcessingExecutor aExecutor = m_aRWLock.writeLockedGet ( () -> {
+      final AS4AsyncProcessingExecutor ret = m_aExecutor;
+      m_aExecutor = null;
+      return ret;
+    });
+    if (aExecutor != null)
+      aExecutor.close ();
+  }
+
+  /**
+   * @return The executor to use. Created upon first access. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public AS4AsyncProcessingExecutor getExecutor ()
+  {
+    AS4AsyncProcessingExecutor ret = m_aRWLock.readLockedGet ( () -> m_aExecutor);
+    if (ret == null)
+    {
+      ret = m_aRWLock.writeLockedGet ( () -> {
+        if (m_aExecutor == null)
+          m_aExecutor = _createDefaultExecutor ();
+        return m_aExecutor;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Set a custom default executor. The previous executor is closed after all
+   * of its tasks finished.
+   *
+   * @param aExecutor
+   *        The new executor. May be <code>null</code> to use the default
+   *        executor created from the configuration.
+   */
+  public void setExecutor (@Nullable final AS4AsyncProcessingExecutor aExecutor)
+  {
+    final AS4AsyncProcessingExecutor aOld = m_aRWLock.writeLockedGet ( () -> {
+      final AS4AsyncProcessingExecutor ret = m_aExecutor;
+      m_aExecutor = aExecutor;
+      return ret;
+    });
+    if (aOld != null && aOld != aExecutor)
+      aOld.close ();
+  }
+}
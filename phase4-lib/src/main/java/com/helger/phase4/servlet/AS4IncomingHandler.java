@@ -28,6 +28,7 @@ import javax.annotation.Nullable;
 import javax.annotation.WillClose;
 import javax.annotation.WillNotClose;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.xml.namespace.QName;
 
@@ -44,7 +45,6 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
-import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.error.IError;
 import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.http.CHttpHeader;
@@ -52,6 +52,7 @@ import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.mime.MimeTypeParser;
 import com.helger.commons.string.StringHelper;
@@ -60,6 +61,7 @@ import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.AS4DumpManager;
 import com.helger.phase4.dump.IAS4IncomingDumper;
@@ -198,6 +200,9 @@ public class AS4IncomingHandler
                                                             sBoundary.getBytes (StandardCharsets.ISO_8859_1),
                                                             (MultipartProgressNotifier) null);
 
+        // Stream attachments instead of reading each part into memory?
+        final boolean bStreaming = AS4Configuration.isIncomingAttachmentStreaming ();
+
         int nIndex = 0;
         while (true)
         {
@@ -208,10 +213,23 @@ public class AS4IncomingHandler
           if (LOGGER.isDebugEnabled ())
             LOGGER.debug ("Found MIME part #" + nIndex);
 
-          try (final MultipartItemInputStream aBodyPartIS = aMulti.createInputStream ())
+          try (final MultipartItemInputStream aBodyPartIS = aMulti.createInputStream ();
+               final InputStream aBufferedBodyPartIS = StreamHelper.getBuffered (aBodyPartIS))
           {
-            // Read headers AND content
-            final MimeBodyPart aBodyPart = new MimeBodyPart (aBodyPartIS);
+            final MimeBodyPart aBodyPart;
+            final InternetHeaders aPartHeaders;
+            if (bStreaming)
+            {
+              // Read only the headers - the content stays in the stream
+              aBodyPart = null;
+              aPartHeaders = new InternetHeaders (aBufferedBodyPartIS);
+            }
+            else
+            {
+              // Read headers AND content
+              aBodyPart = new MimeBodyPart (aBufferedBodyPartIS);
+              aPartHeaders = null;
+            }
 
             if (nIndex == 0)
             {
@@ -220,9 +238,19 @@ public class AS4IncomingHandler
                 LOGGER.debug ("Parsing first MIME part as SOAP document");
 
               // Read SOAP document
-              aSoapDocument = DOMReader.readXMLDOM (aBodyPart.getInputStream ());
+              final String sPartContentType;
+              if (aBodyPart != null)
+              {
+                aSoapDocument = DOMReader.readXMLDOM (aBodyPart.getInputStream ());
+                sPartContentType = aBodyPart.getContentType ();
+              }
+              else
+              {
+                aSoapDocument = DOMReader.readXMLDOM (WSS4JAttachment.getDecodedInputStream (aPartHeaders, aBufferedBodyPartIS));
+                sPartContentType = aPartHeaders.getHeader (CHttpHeader.CONTENT_TYPE, null);
+              }
 
-              IMimeType aPlainPartMT = MimeTypeParser.safeParseMimeType (aBodyPart.getContentType ());
+              IMimeType aPlainPartMT = MimeTypeParser.safeParseMimeType (sPartContentType);
               if (aPlainPartMT != null)
                 aPlainPartMT = aPlainPartMT.getCopyWithoutParameters ();
 
@@ -245,7 +273,8 @@ public class AS4IncomingHandler
               if (LOGGER.isDebugEnabled ())
                 LOGGER.debug ("Parsing MIME part #" + nIndex + " as attachment");
 
-              final WSS4JAttachment aAttachment = aIAF.createAttachment (aBodyPart, aResHelper);
+              final WSS4JAttachment aAttachment = aBodyPart != null ? aIAF.createAttachment (aBodyPart, aResHelper)
+                                                                    : aIAF.createAttachment (aPartHeaders, aBufferedBodyPartIS, aResHelper);
               aIncomingAttachments.add (aAttachment);
             }
           }
@@ -352,7 +381,7 @@ public class AS4IncomingHandler
       }
     }
 
-    final ICommonsOrderedMap <QName, ISOAPHeaderElementProcessor> aAllProcessors = aRegistry.getAllElementProcessors ();
+    final Map <QName, ISOAPHeaderElementProcessor> aAllProcessors = aRegistry.getAllElementProcessorsView ();
     if (aAllProcessors.isEmpty ())
       LOGGER.error ("No SOAP Header element processor is registered");
 
@@ -687,7 +716,7 @@ public class AS4IncomingHandler
                                                  @Nonnull final Locale aLocale,
                                                  @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
                                                  @Nonnull final HttpResponse aHttpResponse,
-                                                 @Nonnull final byte [] aResponsePayload,
+                                                 @Nonnull @WillClose final InputStream aResponsePayloadIS,
                                                  @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
   {
     // This wrapper will take the result
@@ -730,10 +759,10 @@ public class AS4IncomingHandler
     for (final Header aHeader : aHttpResponse.getAllHeaders ())
       aHttpHeaders.addHeader (aHeader.getName (), aHeader.getValue ());
 
-    try (final NonBlockingByteArrayInputStream aPayloadIS = new NonBlockingByteArrayInputStream (aResponsePayload))
+    try
     {
-      // Parse incoming message
-      parseAS4Message (aIAF, aResHelper, aMessageMetadata, aPayloadIS, aHttpHeaders, aCallback, aIncomingDumper);
+      // Parse incoming message - closes the stream
+      parseAS4Message (aIAF, aResHelper, aMessageMetadata, aResponsePayloadIS, aHttpHeaders, aCallback, aIncomingDumper);
     }
     catch (final Phase4Exception ex)
     {
@@ -760,6 +789,40 @@ public class AS4IncomingHandler
                                                        @Nonnull final HttpResponse aHttpResponse,
                                                        @Nonnull final byte [] aResponsePayload,
                                                        @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
+  {
+    return parseSignalMessage (aCryptoFactory,
+                               aPModeResolver,
+                               aIAF,
+                               aAS4ProfileSelector,
+                               aResHelper,
+                               aSendingPMode,
+                               aLocale,
+                               aMessageMetadata,
+                               aHttpResponse,
+                               new NonBlockingByteArrayInputStream (aResponsePayload),
+                               aIncomingDumper);
+  }
+
+  /**
+   * Parse the provided response payload as an AS4 SignalMessage. In contrast to the
+   * <code>byte[]</code> version, the payload is read in a streaming way and
+   * attachments are spooled, so the response does not need to be kept in
+   * memory. The stream is closed by this method.
+   *
+   * @since 1.3.3
+   */
+  @Nullable
+  public static Ebms3SignalMessage parseSignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                       @Nonnull final IPModeResolver aPModeResolver,
+                                                       @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                       @Nonnull final IAS4IncomingProfileSelector aAS4ProfileSelector,
+                                                       @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                       @Nullable final IPMode aSendingPMode,
+                                                       @Nonnull final Locale aLocale,
+                                                       @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                                       @Nonnull final HttpResponse aHttpResponse,
+                                                       @Nonnull @WillClose final InputStream aResponsePayloadIS,
+                                                       @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
   {
     final IAS4MessageState aState = _parseMessage (aCryptoFactory,
                                                    aPModeResolver,
@@ -770,7 +833,7 @@ public class AS4IncomingHandler
                                                    aLocale,
                                                    aMessageMetadata,
                                                    aHttpResponse,
-                                                   aResponsePayload,
+                                                   aResponsePayloadIS,
                                                    aIncomingDumper);
     if (aState == null)
     {
@@ -801,6 +864,40 @@ public class AS4IncomingHandler
                                                    @Nonnull final HttpResponse aHttpResponse,
                                                    @Nonnull final byte [] aResponsePayload,
                                                    @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
+  {
+    return parseUserMessage (aCryptoFactory,
+                             aPModeResolver,
+                             aIAF,
+                             aAS4ProfileSelector,
+                             aResHelper,
+                             aSendingPMode,
+                             aLocale,
+                             aMessageMetadata,
+                             aHttpResponse,
+                             new NonBlockingByteArrayInputStream (aResponsePayload),
+                             aIncomingDumper);
+  }
+
+  /**
+   * Parse the provided response payload as an AS4 UserMessage. In contrast to the
+   * <code>byte[]</code> version, the payload is read in a streaming way and
+   * attachments are spooled, so the response does not need to be kept in
+   * memory. The stream is closed by this method.
+   *
+   * @since 1.3.3
+   */
+  @Nullable
+  public static Ebms3UserMessage parseUserMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                   @Nonnull final IPModeResolver aPModeResolver,
+                                                   @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                   @Nonnull final IAS4IncomingProfileSelector aAS4ProfileSelector,
+                                                   @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                   @Nullable final IPMode aSendingPMode,
+                                                   @Nonnull final Locale aLocale,
+                                                   @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                                   @Nonnull final HttpResponse aHttpResponse,
+                                                   @Nonnull @WillClose final InputStream aResponsePayloadIS,
+                                                   @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
   {
     final IAS4MessageState aState = _parseMessage (aCryptoFactory,
                                                    aPModeResolver,
@@ -811,7 +908,7 @@ public class AS4IncomingHandler
                                                    aLocale,
                                                    aMessageMetadata,
                                                    aHttpResponse,
-                                                   aResponsePayload,
+                                                   aResponsePayloadIS,
                                                    aIncomingDumper);
     if (aState == null)
     {
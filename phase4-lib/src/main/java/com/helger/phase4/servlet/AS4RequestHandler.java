@@ -19,7 +19,6 @@ package com.helger.phase4.servlet;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.Charset;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
@@ -60,6 +59,8 @@ import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.IAS4RetryCallback;
 import com.helger.phase4.crypto.AS4CryptParams;
+import com.helger.phase4.crypto.AS4PModeLegSecurityProfile;
+import com.helger.phase4.crypto.AS4PModeLegSecurityProfileCache;
 import com.helger.phase4.crypto.AS4SigningParams;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.AS4DumpManager;
@@ -107,8 +108,8 @@ import com.helger.phase4.servlet.spi.IAS4ServletMessageProcessorSPI;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.phase4.util.MultiOutputStream;
 import com.helger.phase4.util.Phase4Exception;
-import com.helger.photon.app.PhotonWorkerPool;
 import com.helger.web.scope.IRequestWebScopeWithoutResponse;
 import com.helger.xml.serialize.write.XMLWriter;
 
@@ -165,39 +166,57 @@ public class AS4RequestHandler implements AutoCloseable
 
     public void applyToResponse (@Nonnull final IAS4ResponseAbstraction aHttpResponse, @Nullable final IAS4OutgoingDumper aOutgoingDumper)
     {
-      final String sXML = AS4XMLHelper.serializeXML (m_aDoc);
-      final Charset aCharset = AS4XMLHelper.XWS.getCharset ();
-      final byte [] aXMLBytes = sXML.getBytes (aCharset);
-      aHttpResponse.setContent (aXMLBytes, aCharset);
-      aHttpResponse.setMimeType (m_aMimeType);
-
+      OutputStream aDumpOS = null;
       if (aOutgoingDumper != null)
       {
         try
         {
           // No custom headers
-          final OutputStream aDumpOS = aOutgoingDumper.onBeginRequest (EAS4MessageMode.RESPONSE,
-                                                                       m_aIncomingMessageMetadata,
-                                                                       m_aState,
-                                                                       m_sResponseMessageID,
-                                                                       null,
-                                                                       0);
-          if (aDumpOS != null)
-            try
-            {
-              aDumpOS.write (aXMLBytes);
-            }
-            finally
-            {
-              StreamHelper.close (aDumpOS);
-              aOutgoingDumper.onEndRequest (EAS4MessageMode.RESPONSE, m_aIncomingMessageMetadata, m_aState, m_sResponseMessageID);
-            }
+          aDumpOS = aOutgoingDumper.onBeginRequest (EAS4MessageMode.RESPONSE,
+                                                    m_aIncomingMessageMetadata,
+                                                    m_aState,
+                                                    m_sResponseMessageID,
+                                                    null,
+                                                    0);
         }
         catch (final IOException ex)
         {
           LOGGER.warn ("IOException in dumping of outgoing XML response", ex);
         }
       }
+
+      // Serialize only once, directly into the response buffer and the dumper
+      final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+      boolean bSerialized = false;
+      if (aDumpOS != null)
+      {
+        try
+        {
+          final MultiOutputStream aMultiOS = new MultiOutputStream (aBAOS, aDumpOS);
+          AS4XMLHelper.serializeXML (m_aDoc, aMultiOS);
+          // Flush both, but do not close both
+          aMultiOS.flush ();
+          bSerialized = true;
+        }
+        catch (final IOException | IllegalStateException ex)
+        {
+          // Dumping should not break the response
+          LOGGER.warn ("Error in dumping of outgoing XML response", ex);
+        }
+        finally
+        {
+          StreamHelper.close (aDumpOS);
+          aOutgoingDumper.onEndRequest (EAS4MessageMode.RESPONSE, m_aIncomingMessageMetadata, m_aState, m_sResponseMessageID);
+        }
+      }
+      if (!bSerialized)
+      {
+        aBAOS.reset ();
+        AS4XMLHelper.serializeXML (m_aDoc, aBAOS);
+      }
+
+      aHttpResponse.setContent (aBAOS.getBufferOrCopy (), AS4XMLHelper.XWS.getCharset ());
+      aHttpResponse.setMimeType (m_aMimeType);
     }
   }
 
@@ -359,6 +378,9 @@ public class AS4RequestHandler implements AutoCloseable
   private IAS4OutgoingDumper m_aOutgoingDumper;
   private IAS4RetryCallback m_aRetryCallback;
   private ISoapProcessingFinalizedCallback m_aSoapProcessingFinalizedCB;
+  private AS4AsyncProcessingExecutor m_aAsyncProcessingExecutor;
+  private SOAPHeaderElementProcessorRegistry m_aSoapHeaderElementProcessorRegistry;
+  private HttpRetrySettings m_aAsyncResponseRetrySettings = new HttpRetrySettings ();
 
   /** By default get all message processors from the global SPI registry */
   private Supplier <? extends ICommonsList <IAS4ServletMessageProcessorSPI>> m_aProcessorSupplier = AS4ServletMessageProcessorManager::getAllProcessors;
@@ -600,6 +622,90 @@ public class AS4RequestHandler implements AutoCloseable
     return this;
   }
 
+  /**
+   * @return The executor for the asynchronous processing. <code>null</code> by
+   *         default, meaning the executor of
+   *         {@link AS4AsyncProcessingManager} is used.
+   * @since 1.3.3
+   */
+  @Nullable
+  public final AS4AsyncProcessingExecutor getAsyncProcessingExecutor ()
+  {
+    return m_aAsyncProcessingExecutor;
+  }
+
+  /**
+   * Set the executor for the asynchronous processing of incoming messages.
+   *
+   * @param aAsyncProcessingExecutor
+   *        The executor to use. May be <code>null</code> to use the executor of
+   *        {@link AS4AsyncProcessingManager}.
+   * @return this for chaining
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final AS4RequestHandler setAsyncProcessingExecutor (@Nullable final AS4AsyncProcessingExecutor aAsyncProcessingExecutor)
+  {
+    m_aAsyncProcessingExecutor = aAsyncProcessingExecutor;
+    return this;
+  }
+
+  /**
+   * @return The HTTP retry settings for sending asynchronous responses. Never
+   *         <code>null</code>.
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final HttpRetrySettings getAsyncResponseRetrySettings ()
+  {
+    return m_aAsyncResponseRetrySettings;
+  }
+
+  /**
+   * Set the HTTP retry settings for sending asynchronous responses.
+   *
+   * @param aAsyncResponseRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final AS4RequestHandler setAsyncResponseRetrySettings (@Nonnull final HttpRetrySettings aAsyncResponseRetrySettings)
+  {
+    ValueEnforcer.notNull (aAsyncResponseRetrySettings, "AsyncResponseRetrySettings");
+    m_aAsyncResponseRetrySettings = aAsyncResponseRetrySettings;
+    return this;
+  }
+
+  /**
+   * @return The SOAP header element processor registry to be used. May be
+   *         <code>null</code>.
+   * @since 1.3.3
+   */
+  @Nullable
+  public final SOAPHeaderElementProcessorRegistry getSoapHeaderElementProcessorRegistry ()
+  {
+    return m_aSoapHeaderElementProcessorRegistry;
+  }
+
+  /**
+   * Set the SOAP header element processor registry to be used. It must have
+   * been created for the crypto factory and the PMode resolver of this handler
+   * and should be frozen, so that it can be shared between requests.
+   *
+   * @param aSoapHeaderElementProcessorRegistry
+   *        The registry to use. May be <code>null</code> to create a new
+   *        default registry for each message.
+   * @return this for chaining
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final AS4RequestHandler setSoapHeaderElementProcessorRegistry (@Nullable final SOAPHeaderElementProcessorRegistry aSoapHeaderElementProcessorRegistry)
+  {
+    m_aSoapHeaderElementProcessorRegistry = aSoapHeaderElementProcessorRegistry;
+    return this;
+  }
+
   /**
    * Invoke custom SPI message processors
    *
@@ -1065,7 +1171,7 @@ public class AS4RequestHandler implements AutoCloseable
                                            aResponseAttachments,
                                            m_aResHelper,
                                            bMustUnderstand,
-                                           aSigningParams.getClone ());
+                                           aSigningParams);
     }
     else
     {
@@ -1127,7 +1233,9 @@ public class AS4RequestHandler implements AutoCloseable
 
     // We've got our response
     final Document aResponseDoc = aReceiptMessage.getAsSoapDocument ();
-    final AS4SigningParams aSigningParams = new AS4SigningParams ().setFromPMode (aEffectiveLeg.getSecurity ());
+    final AS4SigningParams aSigningParams = AS4PModeLegSecurityProfileCache.getDefaultInstance ()
+                                                                           .getProfile (aState.getPMode (), aEffectiveLeg)
+                                                                           .getSigningParams ();
     final Document aSignedDoc = _signResponseIfNeeded (aResponseAttachments,
                                                        aSigningParams,
                                                        aResponseDoc,
@@ -1144,10 +1252,13 @@ public class AS4RequestHandler implements AutoCloseable
    *        the document that contains the user message
    * @param aResponseAttachments
    *        The Attachments that should be encrypted
-   * @param aLeg
-   *        Leg to get necessary information, EncryptionAlgorithm, SOAPVersion
+   * @param eSoapVersion
+   *        The SOAP version to use
+   * @param aCryptParms
+   *        The shared encryption parameters. Are not modified.
    * @param sEncryptToAlias
-   *        The alias into the keystore that should be used for encryption
+   *        The alias into the keystore that should be used for encryption. May
+   *        be <code>null</code>.
    * @return a MimeMessage to be sent
    * @throws MessagingException
    * @throws WSSecurityException
@@ -1156,11 +1267,14 @@ public class AS4RequestHandler implements AutoCloseable
   private AS4MimeMessage _createMimeMessageForResponse (@Nonnull final Document aResponseDoc,
                                                         @Nonnull final ICommonsList <WSS4JAttachment> aResponseAttachments,
                                                         @Nonnull final ESoapVersion eSoapVersion,
-                                                        @Nonnull final AS4CryptParams aCryptParms) throws WSSecurityException,
-                                                                                                   MessagingException
+                                                        @Nonnull final AS4CryptParams aCryptParms,
+                                                        @Nullable final String sEncryptToAlias) throws WSSecurityException,
+                                                                                                MessagingException
   {
     final AS4MimeMessage aMimeMsg;
-    if (aCryptParms.isCryptEnabled (LOGGER::warn))
+    final boolean bCryptEnabled = (aCryptParms.getAlgorithmCrypt () != null && StringHelper.hasText (sEncryptToAlias)) ||
+                                   aCryptParms.isCryptEnabled (LOGGER::warn);
+    if (bCryptEnabled)
     {
       final boolean bMustUnderstand = true;
       aMimeMsg = AS4Encryptor.encryptMimeMessage (eSoapVersion,
@@ -1169,7 +1283,8 @@ public class AS4RequestHandler implements AutoCloseable
                                                   m_aCryptoFactory,
                                                   bMustUnderstand,
                                                   m_aResHelper,
-                                                  aCryptParms);
+                                                  aCryptParms,
+                                                  sEncryptToAlias);
     }
     else
     {
@@ -1198,6 +1313,9 @@ public class AS4RequestHandler implements AutoCloseable
    *        Signing parameters
    * @param aCryptParams
    *        Encryption parameters
+   * @param sEncryptToAlias
+   *        The alias into the keystore that should be used for encryption. May
+   *        be <code>null</code>.
    * @throws WSSecurityException
    *         on error
    * @throws MessagingException
@@ -1209,8 +1327,9 @@ public class AS4RequestHandler implements AutoCloseable
                                                           @Nonnull final AS4UserMessage aResponseUserMsg,
                                                           @Nonnull final ICommonsList <WSS4JAttachment> aResponseAttachments,
                                                           @Nonnull final AS4SigningParams aSigningParams,
-                                                          @Nonnull final AS4CryptParams aCryptParams) throws WSSecurityException,
-                                                                                                      MessagingException
+                                                          @Nonnull final AS4CryptParams aCryptParams,
+                                                          @Nullable final String sEncryptToAlias) throws WSSecurityException,
+                                                                                                  MessagingException
   {
     final String sResponseMessageID = aResponseUserMsg.getEbms3UserMessage ().getMessageInfo ().getMessageId ();
     final Document aSignedDoc = _signResponseIfNeeded (aResponseAttachments,
@@ -1228,7 +1347,11 @@ public class AS4RequestHandler implements AutoCloseable
     else
     {
       // Create (maybe encrypted) MIME message
-      final AS4MimeMessage aMimeMsg = _createMimeMessageForResponse (aSignedDoc, aResponseAttachments, eSoapVersion, aCryptParams);
+      final AS4MimeMessage aMimeMsg = _createMimeMessageForResponse (aSignedDoc,
+                                                                     aResponseAttachments,
+                                                                     eSoapVersion,
+                                                                     aCryptParams,
+                                                                     sEncryptToAlias);
       ret = new AS4ResponseFactoryMIME (m_aMessageMetadata, aState, sResponseMessageID, aMimeMsg);
     }
     return ret;
@@ -1243,9 +1366,10 @@ public class AS4RequestHandler implements AutoCloseable
                                                                                                                  MessagingException,
                                                                                                                  Phase4Exception
   {
-    final SOAPHeaderElementProcessorRegistry aRegistry = SOAPHeaderElementProcessorRegistry.createDefault (m_aPModeResolver,
-                                                                                                           m_aCryptoFactory,
-                                                                                                           (IPMode) null);
+    final SOAPHeaderElementProcessorRegistry aRegistry = m_aSoapHeaderElementProcessorRegistry != null ? m_aSoapHeaderElementProcessorRegistry
+                                                                                                         : SOAPHeaderElementProcessorRegistry.createDefault (m_aPModeResolver,
+                                                                                                                                                             m_aCryptoFactory,
+                                                                                                                                                             (IPMode) null);
     final IAS4MessageState aState = AS4IncomingHandler.processEbmsMessage (m_aResHelper,
                                                                            m_aLocale,
                                                                            aRegistry,
@@ -1264,86 +1388,84 @@ public class AS4RequestHandler implements AutoCloseable
     final Ebms3UserMessage aEbmsUserMessage = aState.getEbmsUserMessage ();
     final Ebms3SignalMessage aEbmsSignalMessage = aState.getEbmsSignalMessage ();
 
-    if (aState.isSoapHeaderElementProcessingSuccessful ())
-    {
-      final String sProfileID = aState.getProfileID ();
-
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("No checking for duplicate message with message ID '" + sMessageID + "' and profile ID '" + sProfileID + "'");
-
-      final boolean bIsDuplicate = MetaAS4Manager.getIncomingDuplicateMgr ()
-                                                 .registerAndCheck (sMessageID, sProfileID, aPMode == null ? null : aPMode.getID ())
-                                                 .isBreak ();
-      if (bIsDuplicate)
-      {
-        LOGGER.error ("Not invoking SPIs, because message with Message ID '" + sMessageID + "' was already handled!");
-        aErrorMessagesTarget.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (m_aLocale,
-                                                                         sMessageID,
-                                                                         "Another message with the same Message ID '" +
-                                                                                     sMessageID +
-                                                                                     "' was already received!"));
-      }
-      else
-      {
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("Message is not a duplicate");
-      }
-    }
+    // PMode may be null for receipts
+    // Only leg1 can be async!
+    final boolean bProcessAsync = aPMode != null &&
+                                  !aPMode.getMEPBinding ().isSynchronous () &&
+                                  !aPMode.getMEPBinding ().isAsynchronousInitiator () &&
+                                  aState.getEffectivePModeLegNumber () == 1;
+    AS4AsyncProcessingExecutor.Admission aAsyncAdmission = null;
 
     final SPIInvocationResult aSPIResult = new SPIInvocationResult ();
 
     // Storing for two-way response messages
     final ICommonsList <WSS4JAttachment> aResponseAttachments = new CommonsArrayList <> ();
 
-    // Invoke SPIs if
-    // * No errors so far (sign, encrypt, ...)
-    // * Valid PMode
-    // * Exactly one UserMessage or SignalMessage
-    // * No ping/test message
-    // * No Duplicate message ID
-    final boolean bCanInvokeSPIs = aErrorMessagesTarget.isEmpty () && !aState.isPingMessage ();
-    if (bCanInvokeSPIs)
+    try
     {
-      // PMode may be null for receipts
-      if (aPMode == null ||
-          aPMode.getMEPBinding ().isSynchronous () ||
-          aPMode.getMEPBinding ().isAsynchronousInitiator () ||
-          aState.getEffectivePModeLegNumber () != 1)
+      boolean bAsyncRejected = false;
+      if (bProcessAsync && aErrorMessagesTarget.isEmpty () && !aState.isPingMessage ())
       {
-        // Call synchronous
-
-        // Might add to aErrorMessages
-        // Might add to aResponseAttachments
-        // Might add to m_aPullReturnUserMsg
-        _invokeSPIsForIncoming (aHttpHeaders,
-                                aEbmsUserMessage,
-                                aEbmsSignalMessage,
-                                aPayloadNode,
-                                aDecryptedAttachments,
-                                aPMode,
-                                aState,
-                                aErrorMessagesTarget,
-                                aResponseAttachments,
-                                aSPIResult);
-        if (aSPIResult.isFailure ())
-          LOGGER.warn ("Error invoking synchronous SPIs");
+        // Check the capacity before the message ID is registered, so that a
+        // rejected message is not considered a duplicate when the sender retries
+        final AS4AsyncProcessingExecutor aExecutor = m_aAsyncProcessingExecutor != null ? m_aAsyncProcessingExecutor
+                                                                                        : AS4AsyncProcessingManager.getInstance ()
+                                                                                                                   .getExecutor ();
+        aAsyncAdmission = aExecutor.admit (aState);
+        if (aAsyncAdmission == null)
+        {
+          // Rejected - let the sender try again later
+          bAsyncRejected = true;
+          aErrorMessagesTarget.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (m_aLocale,
+                                                                           sMessageID,
+                                                                           "The message cannot be processed at the moment because the server is overloaded"));
+          if (m_aSoapProcessingFinalizedCB != null)
+            m_aSoapProcessingFinalizedCB.onProcessingFinalized (true);
+        }
+      }
+
+      if (aState.isSoapHeaderElementProcessingSuccessful () && !bAsyncRejected)
+      {
+        final String sProfileID = aState.getProfileID ();
+
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("No checking for duplicate message with message ID '" + sMessageID + "' and profile ID '" + sProfileID + "'");
+
+        final boolean bIsDuplicate = MetaAS4Manager.getIncomingDuplicateMgr ()
+                                                   .registerAndCheck (sMessageID, sProfileID, aPMode == null ? null : aPMode.getID ())
+                                                   .isBreak ();
+        if (bIsDuplicate)
+        {
+          LOGGER.error ("Not invoking SPIs, because message with Message ID '" + sMessageID + "' was already handled!");
+          aErrorMessagesTarget.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (m_aLocale,
+                                                                           sMessageID,
+                                                                           "Another message with the same Message ID '" +
+                                                                                       sMessageID +
+                                                                                       "' was already received!"));
+        }
         else
+        {
           if (LOGGER.isDebugEnabled ())
-            LOGGER.debug ("Successfully invoked synchronous SPIs");
-
-        if (m_aSoapProcessingFinalizedCB != null)
-          m_aSoapProcessingFinalizedCB.onProcessingFinalized (true);
+            LOGGER.debug ("Message is not a duplicate");
+        }
       }
-      else
+
+      // Invoke SPIs if
+      // * No errors so far (sign, encrypt, ...)
+      // * Valid PMode
+      // * Exactly one UserMessage or SignalMessage
+      // * No ping/test message
+      // * No Duplicate message ID
+      final boolean bCanInvokeSPIs = aErrorMessagesTarget.isEmpty () && !aState.isPingMessage ();
+      if (bCanInvokeSPIs)
       {
-        // Call asynchronous
-        // Only leg1 can be async!
-        final IThrowingRunnable <Exception> r = () -> {
-          // Start async
-          final ICommonsList <Ebms3Error> aLocalErrorMessages = new CommonsArrayList <> ();
-          final ICommonsList <WSS4JAttachment> aLocalResponseAttachments = new CommonsArrayList <> ();
-
-          final SPIInvocationResult aAsyncSPIResult = new SPIInvocationResult ();
+        if (!bProcessAsync)
+        {
+          // Call synchronous
+
+          // Might add to aErrorMessages
+          // Might add to aResponseAttachments
+          // Might add to m_aPullReturnUserMsg
           _invokeSPIsForIncoming (aHttpHeaders,
                                   aEbmsUserMessage,
                                   aEbmsSignalMessage,
@@ -1351,109 +1473,144 @@ public class AS4RequestHandler implements AutoCloseable
                                   aDecryptedAttachments,
                                   aPMode,
                                   aState,
-                                  aLocalErrorMessages,
-                                  aLocalResponseAttachments,
-                                  aAsyncSPIResult);
-
-          final IAS4ResponseFactory aAsyncResponseFactory;
-          final String sResponseMessageID;
-          if (aAsyncSPIResult.isSuccess ())
-          {
-            // SPI processing succeeded
-            assert aLocalErrorMessages.isEmpty ();
-
-            // The response user message has no explicit payload. All data of
-            // the response user message is in the local attachments
-            sResponseMessageID = MessageHelperMethods.createRandomMessageID ();
-            final AS4UserMessage aResponseUserMsg = _createReversedUserMessage (eSoapVersion,
-                                                                                sResponseMessageID,
-                                                                                aEbmsUserMessage,
-                                                                                aLocalResponseAttachments);
-
-            // Send UserMessage
-            final AS4SigningParams aSigningParams = new AS4SigningParams ().setFromPMode (aEffectiveLeg.getSecurity ());
-            // Use the original receiver ID as the alias into the keystore for
-            // encrypting the response message
-            final String sEncryptionAlias = aEbmsUserMessage.getPartyInfo ().getTo ().getPartyIdAtIndex (0).getValue ();
-            final AS4CryptParams aCryptParams = new AS4CryptParams ().setFromPMode (aEffectiveLeg.getSecurity ())
-                                                                     .setAlias (sEncryptionAlias);
-
-            aAsyncResponseFactory = _createResponseUserMessage (aState,
-                                                                aEffectiveLeg.getProtocol ().getSoapVersion (),
-                                                                aResponseUserMsg,
-                                                                aResponseAttachments,
-                                                                aSigningParams,
-                                                                aCryptParams);
-          }
+                                  aErrorMessagesTarget,
+                                  aResponseAttachments,
+                                  aSPIResult);
+          if (aSPIResult.isFailure ())
+            LOGGER.warn ("Error invoking synchronous SPIs");
           else
-          {
-            // SPI processing failed
-
-            // Send ErrorMessage Undefined - see
-            // https://github.com/phax/phase4/issues/4
-            final AS4ErrorMessage aResponseErrorMsg = AS4ErrorMessage.create (eSoapVersion, aState.getMessageID (), aLocalErrorMessages);
-            sResponseMessageID = aResponseErrorMsg.getEbms3SignalMessage ().getMessageInfo ().getMessageId ();
-
-            // Pass error messages to the outside
-            if (m_aErrorConsumer != null && aLocalErrorMessages.isNotEmpty ())
-              m_aErrorConsumer.onAS4ErrorMessage (aState, aLocalErrorMessages, aResponseErrorMsg);
-
-            aAsyncResponseFactory = new AS4ResponseFactoryXML (m_aMessageMetadata,
-                                                               aState,
-                                                               sResponseMessageID,
-                                                               aResponseErrorMsg.getAsSoapDocument (),
-                                                               eSoapVersion.getMimeType ());
-          }
+            if (LOGGER.isDebugEnabled ())
+              LOGGER.debug ("Successfully invoked synchronous SPIs");
 
-          // where to send it back (must be determined by SPI!)
-          final String sAsyncResponseURL = aAsyncSPIResult.getAsyncResponseURL ();
-          if (StringHelper.hasNoText (sAsyncResponseURL))
-            throw new IllegalStateException ("No asynchronous response URL present - please check your SPI implementation");
+          if (m_aSoapProcessingFinalizedCB != null)
+            m_aSoapProcessingFinalizedCB.onProcessingFinalized (true);
+        }
+        else
+        {
+          // Call asynchronous
+          final IThrowingRunnable <Exception> r = () -> {
+            // Start async
+            final ICommonsList <Ebms3Error> aLocalErrorMessages = new CommonsArrayList <> ();
+            final ICommonsList <WSS4JAttachment> aLocalResponseAttachments = new CommonsArrayList <> ();
+
+            final SPIInvocationResult aAsyncSPIResult = new SPIInvocationResult ();
+            _invokeSPIsForIncoming (aHttpHeaders,
+                                    aEbmsUserMessage,
+                                    aEbmsSignalMessage,
+                                    aPayloadNode,
+                                    aDecryptedAttachments,
+                                    aPMode,
+                                    aState,
+                                    aLocalErrorMessages,
+                                    aLocalResponseAttachments,
+                                    aAsyncSPIResult);
+
+            final IAS4ResponseFactory aAsyncResponseFactory;
+            final String sResponseMessageID;
+            if (aAsyncSPIResult.isSuccess ())
+            {
+              // SPI processing succeeded
+              assert aLocalErrorMessages.isEmpty ();
 
-          if (LOGGER.isDebugEnabled ())
-            LOGGER.debug ("Responding asynchronous to: " + sAsyncResponseURL);
+              // The response user message has no explicit payload. All data of
+              // the response user message is in the local attachments
+              sResponseMessageID = MessageHelperMethods.createRandomMessageID ();
+              final AS4UserMessage aResponseUserMsg = _createReversedUserMessage (eSoapVersion,
+                                                                                  sResponseMessageID,
+                                                                                  aEbmsUserMessage,
+                                                                                  aLocalResponseAttachments);
+
+              // Send UserMessage
+              final AS4PModeLegSecurityProfile aSecurityProfile = AS4PModeLegSecurityProfileCache.getDefaultInstance ()
+                                                                                                 .getProfile (aPMode, aEffectiveLeg);
+              final AS4SigningParams aSigningParams = aSecurityProfile.getSigningParams ();
+              // Use the original receiver ID as the alias into the keystore for
+              // encrypting the response message
+              final String sEncryptionAlias = aEbmsUserMessage.getPartyInfo ().getTo ().getPartyIdAtIndex (0).getValue ();
 
-          // Ensure HttpEntity is repeatable
-          HttpEntity aHttpEntity = aAsyncResponseFactory.getHttpEntityForSending (eSoapVersion.getMimeType ());
-          aHttpEntity = m_aResHelper.createRepeatableHttpEntity (aHttpEntity);
+              aAsyncResponseFactory = _createResponseUserMessage (aState,
+                                                                  aEffectiveLeg.getProtocol ().getSoapVersion (),
+                                                                  aResponseUserMsg,
+                                                                  aResponseAttachments,
+                                                                  aSigningParams,
+                                                                  aSecurityProfile.getCryptParams (),
+                                                                  sEncryptionAlias);
+            }
+            else
+            {
+              // SPI processing failed
+
+              // Send ErrorMessage Undefined - see
+              // https://github.com/phax/phase4/issues/4
+              final AS4ErrorMessage aResponseErrorMsg = AS4ErrorMessage.create (eSoapVersion, aState.getMessageID (), aLocalErrorMessages);
+              sResponseMessageID = aResponseErrorMsg.getEbms3SignalMessage ().getMessageInfo ().getMessageId ();
+
+              // Pass error messages to the outside
+              if (m_aErrorConsumer != null && aLocalErrorMessages.isNotEmpty ())
+                m_aErrorConsumer.onAS4ErrorMessage (aState, aLocalErrorMessages, aResponseErrorMsg);
+
+              aAsyncResponseFactory = new AS4ResponseFactoryXML (m_aMessageMetadata,
+                                                                 aState,
+                                                                 sResponseMessageID,
+                                                                 aResponseErrorMsg.getAsSoapDocument (),
+                                                                 eSoapVersion.getMimeType ());
+            }
 
-          // Use the prebuilt entity for dumping
-          _invokeSPIsForResponse (aState, aAsyncResponseFactory, aHttpEntity, eSoapVersion.getMimeType (), sResponseMessageID);
+            // where to send it back (must be determined by SPI!)
+            final String sAsyncResponseURL = aAsyncSPIResult.getAsyncResponseURL ();
+            if (StringHelper.hasNoText (sAsyncResponseURL))
+              throw new IllegalStateException ("No asynchronous response URL present - please check your SPI implementation");
 
-          // invoke client with new document
-          final BasicHttpPoster aSender = new BasicHttpPoster ();
-          final Document aAsyncResponse;
-          if (true)
-          {
-            final HttpHeaderMap aResponseHttpHeaders = null;
-            // TODO make async send parameters customizable
-            final HttpRetrySettings aRetrySettings = new HttpRetrySettings ();
-            aAsyncResponse = aSender.sendGenericMessageWithRetries (sAsyncResponseURL,
-                                                                    aResponseHttpHeaders,
-                                                                    aHttpEntity,
-                                                                    sMessageID,
-                                                                    aRetrySettings,
-                                                                    new ResponseHandlerXml (),
-                                                                    m_aOutgoingDumper,
-                                                                    m_aRetryCallback);
-          }
-          else
+            if (LOGGER.isDebugEnabled ())
+              LOGGER.debug ("Responding asynchronous to: " + sAsyncResponseURL);
+
+            // Ensure HttpEntity is repeatable
+            HttpEntity aHttpEntity = aAsyncResponseFactory.getHttpEntityForSending (eSoapVersion.getMimeType ());
+            aHttpEntity = m_aResHelper.createRepeatableHttpEntity (aHttpEntity);
+
+            // Use the prebuilt entity for dumping
+            _invokeSPIsForResponse (aState, aAsyncResponseFactory, aHttpEntity, eSoapVersion.getMimeType (), sResponseMessageID);
+
+            // invoke client with new document
+            final BasicHttpPoster aSender = new BasicHttpPoster ();
+            final Document aAsyncResponse;
+            if (true)
+            {
+              final HttpHeaderMap aResponseHttpHeaders = null;
+              aAsyncResponse = aSender.sendGenericMessageWithRetries (sAsyncResponseURL,
+                                                                      aResponseHttpHeaders,
+                                                                      aHttpEntity,
+                                                                      sMessageID,
+                                                                      m_aAsyncResponseRetrySettings,
+                                                                      new ResponseHandlerXml (),
+                                                                      m_aOutgoingDumper,
+                                                                      m_aRetryCallback);
+            }
+            else
+            {
+              aAsyncResponse = aSender.sendGenericMessage (sAsyncResponseURL, null, aHttpEntity, new ResponseHandlerXml ());
+            }
+            AS4HttpDebug.debug ( () -> "SEND-RESPONSE [async sent] received: " +
+                                       XMLWriter.getNodeAsString (aAsyncResponse, AS4HttpDebug.getDebugXMLWriterSettings ()));
+          };
+          // The admission was granted before the duplicate check
+          final CompletableFuture <Void> aFuture = aAsyncAdmission.submit (r);
+          if (m_aSoapProcessingFinalizedCB != null)
           {
-            aAsyncResponse = aSender.sendGenericMessage (sAsyncResponseURL, null, aHttpEntity, new ResponseHandlerXml ());
+            // Give the outside world the possibility to get notified when the
+            // processing is done
+            aFuture.thenRun ( () -> m_aSoapProcessingFinalizedCB.onProcessingFinalized (false));
           }
-          AS4HttpDebug.debug ( () -> "SEND-RESPONSE [async sent] received: " +
-                                     XMLWriter.getNodeAsString (aAsyncResponse, AS4HttpDebug.getDebugXMLWriterSettings ()));
-        };
-        final CompletableFuture <Void> aFuture = PhotonWorkerPool.getInstance ().runThrowing (CAS4.LIB_NAME + " async processing", r);
-
-        if (m_aSoapProcessingFinalizedCB != null)
-        {
-          // Give the outside world the possibility to get notified when the
-          // processing is done
-          aFuture.thenRun ( () -> m_aSoapProcessingFinalizedCB.onProcessingFinalized (false));
         }
       }
     }
+    finally
+    {
+      // Release the reserved capacity if it was not handed over to the
+      // executor - e.g. for duplicates or in case of an exception
+      if (aAsyncAdmission != null)
+        aAsyncAdmission.cancel ();
+    }
 
     // Try building error message
     final String sResponseMessageID;
@@ -1571,15 +1728,17 @@ public class AS4RequestHandler implements AutoCloseable
                                                                                   aEbmsUserMessage,
                                                                                   aResponseAttachments);
 
-              final AS4SigningParams aSigningParams = new AS4SigningParams ().setFromPMode (aLeg2.getSecurity ());
+              final AS4PModeLegSecurityProfile aSecurityProfile = AS4PModeLegSecurityProfileCache.getDefaultInstance ()
+                                                                                                 .getProfile (aPMode, aLeg2);
+              final AS4SigningParams aSigningParams = aSecurityProfile.getSigningParams ();
               final String sEncryptionAlias = aEbmsUserMessage.getPartyInfo ().getTo ().getPartyIdAtIndex (0).getValue ();
-              final AS4CryptParams aCryptParams = new AS4CryptParams ().setFromPMode (aLeg2.getSecurity ()).setAlias (sEncryptionAlias);
               ret = _createResponseUserMessage (aState,
                                                 aLeg2.getProtocol ().getSoapVersion (),
                                                 aResponseUserMsg,
                                                 aResponseAttachments,
                                                 aSigningParams,
-                                                aCryptParams);
+                                                aSecurityProfile.getCryptParams (),
+                                                sEncryptionAlias);
             }
             else
             {
@@ -16,6 +16,8 @@
  */
 package com.helger.phase4.servlet;
 
+import java.io.IOException;
+
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -23,7 +25,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.StringHelper;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.AS4CryptoFileWatcher;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.servlet.mgr.AS4DuplicateCleanupJob;
 import com.helger.quartz.TriggerKey;
@@ -33,6 +38,8 @@ import com.helger.quartz.TriggerKey;
  * <ul>
  * <li>The {@link MetaAS4Manager} instance is ensured to be present</li>
  * <li>The duplicate cleanup job will also be started.</li>
+ * <li>The default crypto material is loaded and optionally watched for
+ * changes.</li>
  * </ul>
  *
  * @author bayerlma
@@ -46,6 +53,8 @@ public final class AS4ServerInitializer
   private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
   @GuardedBy ("RW_LOCK")
   private static TriggerKey s_aTriggerKey;
+  @GuardedBy ("RW_LOCK")
+  private static AS4CryptoFileWatcher s_aCryptoFileWatcher;
 
   private AS4ServerInitializer ()
   {}
@@ -74,6 +83,38 @@ public final class AS4ServerInitializer
         s_aTriggerKey = aTriggerKey;
       }
     });
+
+    _initDefaultCrypto ();
+  }
+
+  private static void _initDefaultCrypto ()
+  {
+    final AS4CryptoFactoryProperties aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+    if (StringHelper.hasNoText (aCryptoFactory.cryptoProperties ().getKeyStorePath ()))
+    {
+      // No default crypto configured
+      return;
+    }
+
+    if (AS4Configuration.isCryptoWarmUp ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Loading the default crypto material");
+      aCryptoFactory.warmUp ();
+    }
+
+    if (AS4Configuration.isCryptoHotReload ())
+      RW_LOCK.writeLocked ( () -> {
+        if (s_aCryptoFileWatcher == null)
+          try
+          {
+            s_aCryptoFileWatcher = new AS4CryptoFileWatcher (aCryptoFactory, null);
+          }
+          catch (final IOException ex)
+          {
+            LOGGER.error ("Failed to watch the default crypto files", ex);
+          }
+      });
   }
 
   /**
@@ -86,6 +127,11 @@ public final class AS4ServerInitializer
     RW_LOCK.writeLocked ( () -> {
       AS4DuplicateCleanupJob.unschedule (s_aTriggerKey);
       s_aTriggerKey = null;
+      if (s_aCryptoFileWatcher != null)
+      {
+        s_aCryptoFileWatcher.close ();
+        s_aCryptoFileWatcher = null;
+      }
     });
   }
 }
@@ -36,7 +36,9 @@ import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.messaging.EAS4MessageMode;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
+import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
+import com.helger.phase4.servlet.soap.SOAPHeaderElementProcessorRegistry;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.servlet.response.UnifiedResponse;
 import com.helger.web.scope.IRequestWebScope;
@@ -84,12 +86,38 @@ public class AS4XServletHandler implements IXServletSimpleHandler
     {}
   }
 
+  /**
+   * The frozen SOAP header element processor registry for a combination of
+   * crypto factory and PMode resolver.
+   */
+  private static final class CachedRegistry
+  {
+    private final IAS4CryptoFactory m_aCryptoFactory;
+    private final IPModeResolver m_aPModeResolver;
+    private final SOAPHeaderElementProcessorRegistry m_aRegistry;
+
+    CachedRegistry (@Nonnull final IAS4CryptoFactory aCryptoFactory, @Nonnull final IPModeResolver aPModeResolver)
+    {
+      m_aCryptoFactory = aCryptoFactory;
+      m_aPModeResolver = aPModeResolver;
+      m_aRegistry = SOAPHeaderElementProcessorRegistry.createDefault (aPModeResolver, aCryptoFactory, (IPMode) null).freeze ();
+    }
+
+    boolean isFor (@Nonnull final IAS4CryptoFactory aCryptoFactory, @Nonnull final IPModeResolver aPModeResolver)
+    {
+      // Identity is sufficient
+      return m_aCryptoFactory == aCryptoFactory && m_aPModeResolver == aPModeResolver;
+    }
+  }
+
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4XServletHandler.class);
 
   private Supplier <? extends IAS4CryptoFactory> m_aCryptoFactorySupplier;
   private IPModeResolver m_aPModeResolver;
   private IAS4IncomingAttachmentFactory m_aIAF;
   private IHandlerCustomizer m_aHandlerCustomizer;
+  // The registry of the last request
+  private volatile CachedRegistry m_aCachedRegistry;
 
   /**
    * Default constructor.
@@ -254,6 +282,33 @@ public class AS4XServletHandler implements IXServletSimpleHandler
                                                                    .setCookies (aRequestScope.getCookies ());
   }
 
+  /**
+   * Get the SOAP header element processor registry for the provided
+   * parameters. The registry is cached, so that it is not created for every
+   * request, as long as the crypto factory and the PMode resolver are the same
+   * objects.
+   *
+   * @param aCF
+   *        The AS4 crypto factory to be used. May not be <code>null</code>.
+   * @param aPModeResolver
+   *        The PMode resolver to be used. May not be <code>null</code>.
+   * @return The frozen registry and never <code>null</code>.
+   * @since 1.3.3
+   */
+  @Nonnull
+  protected SOAPHeaderElementProcessorRegistry getSoapHeaderElementProcessorRegistry (@Nonnull final IAS4CryptoFactory aCF,
+                                                                                      @Nonnull final IPModeResolver aPModeResolver)
+  {
+    CachedRegistry aCached = m_aCachedRegistry;
+    if (aCached == null || !aCached.isFor (aCF, aPModeResolver))
+    {
+      // Creating it twice in parallel does no harm
+      aCached = new CachedRegistry (aCF, aPModeResolver);
+      m_aCachedRegistry = aCached;
+    }
+    return aCached.m_aRegistry;
+  }
+
   /**
    * Handle an incoming request. Compared to
    * {@link #handleRequest(IRequestWebScopeWithoutResponse, UnifiedResponse)}
@@ -295,6 +350,9 @@ public class AS4XServletHandler implements IXServletSimpleHandler
 
     try (final AS4RequestHandler aHandler = new AS4RequestHandler (aCF, aPModeResolver, aIAF, aMessageMetadata))
     {
+      // Reuse the SOAP header element processors
+      aHandler.setSoapHeaderElementProcessorRegistry (getSoapHeaderElementProcessorRegistry (aCF, aPModeResolver));
+
       // Customize before handling
       if (aHandlerCustomizer != null)
       {
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Defines what happens if an asynchronous processing task cannot be accepted
+ * by the {@link AS4AsyncProcessingExecutor}, because the queue is full or the
+ * concurrency limit of the key is reached.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+public enum EAS4AsyncRejectionPolicy implements IHasID <String>
+{
+  /**
+   * Don't process the message and synchronously respond with an EBMS error
+   * instead, so that the sender can retry later
+   */
+  EBMS_ERROR ("ebmserror"),
+  /** Process the message synchronously in the calling thread */
+  CALLER_RUNS ("callerruns");
+
+  private final String m_sID;
+
+  EAS4AsyncRejectionPolicy (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EAS4AsyncRejectionPolicy getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EAS4AsyncRejectionPolicy.class, sID);
+  }
+}
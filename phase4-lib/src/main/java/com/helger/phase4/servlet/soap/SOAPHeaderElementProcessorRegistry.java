@@ -16,6 +16,9 @@
  */
 package com.helger.phase4.servlet.soap;
 
+import java.util.Collections;
+import java.util.Map;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -25,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsImmutableObject;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
@@ -35,7 +39,9 @@ import com.helger.phase4.model.pmode.resolve.IPModeResolver;
 /**
  * This class manages the SOAP header element processors. This is used to
  * validate the "must understand" SOAP requirement. It manages all instances of
- * {@link ISOAPHeaderElementProcessor}.
+ * {@link ISOAPHeaderElementProcessor}.<br>
+ * After {@link #freeze()} was called, no more processors can be registered and
+ * the instance can safely be shared between threads.
  *
  * @author Philip Helger
  */
@@ -44,15 +50,53 @@ public class SOAPHeaderElementProcessorRegistry
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (SOAPHeaderElementProcessorRegistry.class);
   private final ICommonsOrderedMap <QName, ISOAPHeaderElementProcessor> m_aMap = new CommonsLinkedHashMap <> ();
+  private final Map <QName, ISOAPHeaderElementProcessor> m_aMapView = Collections.unmodifiableMap (m_aMap);
+  // Only set if frozen
+  private volatile QName [] m_aFrozenQNames;
+  private volatile ISOAPHeaderElementProcessor [] m_aFrozenProcessors;
 
   public SOAPHeaderElementProcessorRegistry ()
   {}
 
+  /**
+   * Freeze this registry. Afterwards no more processors can be registered and
+   * the lookup uses a precomputed array, because there are only very few
+   * processors.
+   *
+   * @return this for chaining
+   * @since 1.3.3
+   */
+  @Nonnull
+  public SOAPHeaderElementProcessorRegistry freeze ()
+  {
+    if (!isFrozen ())
+    {
+      final ISOAPHeaderElementProcessor [] aProcessors = m_aMap.values ().toArray (new ISOAPHeaderElementProcessor [0]);
+      m_aFrozenProcessors = aProcessors;
+      // Written last, as it is checked first
+      m_aFrozenQNames = m_aMap.keySet ().toArray (new QName [0]);
+    }
+    return this;
+  }
+
+  /**
+   * @return <code>true</code> if {@link #freeze()} was called,
+   *         <code>false</code> if not.
+   * @since 1.3.3
+   */
+  public boolean isFrozen ()
+  {
+    return m_aFrozenQNames != null;
+  }
+
   public void registerHeaderElementProcessor (@Nonnull final QName aQName, @Nonnull final ISOAPHeaderElementProcessor aProcessor)
   {
     ValueEnforcer.notNull (aQName, "QName");
     ValueEnforcer.notNull (aProcessor, "Processor");
 
+    if (isFrozen ())
+      throw new IllegalStateException ("This registry is frozen and cannot be modified");
+
     if (m_aMap.containsKey (aQName))
       throw new IllegalArgumentException ("A processor for QName " + aQName.toString () + " is already registered!");
     m_aMap.put (aQName, aProcessor);
@@ -66,12 +110,25 @@ public class SOAPHeaderElementProcessorRegistry
   {
     if (aQName == null)
       return null;
+
+    final QName [] aFrozenQNames = m_aFrozenQNames;
+    if (aFrozenQNames != null)
+    {
+      // Compare the local part first, as it differs most likely
+      for (int i = 0; i < aFrozenQNames.length; ++i)
+      {
+        final QName aCur = aFrozenQNames[i];
+        if (aCur.getLocalPart ().equals (aQName.getLocalPart ()) && aCur.getNamespaceURI ().equals (aQName.getNamespaceURI ()))
+          return m_aFrozenProcessors[i];
+      }
+      return null;
+    }
     return m_aMap.get (aQName);
   }
 
   public boolean containsHeaderElementProcessor (@Nullable final QName aQName)
   {
-    return aQName != null && m_aMap.containsKey (aQName);
+    return getHeaderElementProcessor (aQName) != null;
   }
 
   @Nonnull
@@ -81,6 +138,20 @@ public class SOAPHeaderElementProcessorRegistry
     return m_aMap.getClone ();
   }
 
+  /**
+   * @return A read-only view on all processors in registration order. Never
+   *         <code>null</code>. Use this instead of
+   *         {@link #getAllElementProcessors()} on a hot path, as no copy is
+   *         created.
+   * @since 1.3.3
+   */
+  @Nonnull
+  @ReturnsImmutableObject
+  public Map <QName, ISOAPHeaderElementProcessor> getAllElementProcessorsView ()
+  {
+    return m_aMapView;
+  }
+
   @Nonnull
   public static SOAPHeaderElementProcessorRegistry createDefault (@Nonnull final IPModeResolver aPModeResolver,
                                                                   @Nonnull final IAS4CryptoFactory aCryptoFactory,
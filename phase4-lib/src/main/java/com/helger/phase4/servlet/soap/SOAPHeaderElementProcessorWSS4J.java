@@ -16,8 +16,8 @@
  */
 package com.helger.phase4.servlet.soap;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.List;
@@ -46,9 +46,6 @@ import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.error.list.ErrorList;
-import com.helger.commons.io.file.FileHelper;
-import com.helger.commons.io.stream.HasInputStream;
-import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.CAS4;
@@ -178,15 +175,22 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
 
       // Decrypting the Attachments
       final ICommonsList <WSS4JAttachment> aResponseAttachments = aAttachmentCallbackHandler.getAllResponseAttachments ();
+      final long nMemoryThreshold = AS4Configuration.getIncomingAttachmentMemoryThreshold ();
       for (final WSS4JAttachment aResponseAttachment : aResponseAttachments)
       {
-        // Always copy to a temporary file, so that decrypted content can be
-        // read more than once. By default the stream can only be read once
-        // Not nice, but working :)
-        final File aTempFile = aState.getResourceHelper ().createTempFile ();
-        StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aResponseAttachment.getSourceStream (),
-                                                              FileHelper.getBufferedOutputStream (aTempFile));
-        aResponseAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile)));
+        // Attachments that were not decrypted can already be read more than
+        // once
+        if (aResponseAttachment.getInputStreamProvider ().isReadMultiple ())
+          continue;
+
+        // Decrypted content can only be read once - spool it, so that it can
+        // be read more than once. Small attachments stay in memory.
+        try (final InputStream aDecryptedIS = aResponseAttachment.getSourceStream ())
+        {
+          aResponseAttachment.setSourceStreamProvider (WSS4JAttachment.createSpooledInputStreamProvider (aDecryptedIS,
+                                                                                                         aState.getResourceHelper (),
+                                                                                                         nMemoryThreshold));
+        }
       }
 
       // Remember in State
@@ -397,12 +401,24 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       final ESuccess eSuccess;
       if (AS4Configuration.isWSS4JSynchronizedSecurity ())
       {
-        // Use static WSSConfig creation
-        eSuccess = WSSSynchronizer.call ( () -> _verifyAndDecrypt (aSOAPDoc,
-                                                                   aAttachments,
-                                                                   aState,
-                                                                   aErrorList,
-                                                                   WSSConfigManager::createStaticWSSConfig));
+        if (AS4Configuration.isWSS4JSynchronizedSecurityConcurrent ())
+        {
+          // Use the WSSConfig of the current thread
+          eSuccess = WSSSynchronizer.callConcurrent ( () -> _verifyAndDecrypt (aSOAPDoc,
+                                                                               aAttachments,
+                                                                               aState,
+                                                                               aErrorList,
+                                                                               WSSConfigManager::getThreadLocalWSSConfig));
+        }
+        else
+        {
+          // Use static WSSConfig creation
+          eSuccess = WSSSynchronizer.call ( () -> _verifyAndDecrypt (aSOAPDoc,
+                                                                     aAttachments,
+                                                                     aState,
+                                                                     aErrorList,
+                                                                     WSSConfigManager::createStaticWSSConfig));
+        }
       }
       else
       {
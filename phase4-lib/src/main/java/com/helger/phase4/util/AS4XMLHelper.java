@@ -16,7 +16,11 @@
  */
 package com.helger.phase4.util;
 
+import java.io.OutputStream;
+
 import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -82,4 +86,33 @@ public final class AS4XMLHelper
       return _serializeRT (aNode);
     return _serializePh (aNode);
   }
+
+  /**
+   * Serialize the provided node directly to an output stream, using the
+   * charset of {@link #XWS}. This avoids the creation of an intermediate
+   * String. The result is identical to the bytes of
+   * {@link #serializeXML(Node)} in that charset.
+   *
+   * @param aNode
+   *        The node to be serialized. May not be <code>null</code>.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @since 1.3.3
+   */
+  public static void serializeXML (@Nonnull final Node aNode, @Nonnull @WillNotClose final OutputStream aOS)
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+    ValueEnforcer.notNull (aOS, "OutputStream");
+    try
+    {
+      // Use runtime serialization otherwise XMLDsig signature wont work
+      final Transformer aTransformer = TransformerFactory.newInstance ().newTransformer ();
+      aTransformer.setOutputProperty (OutputKeys.ENCODING, XWS.getCharset ().name ());
+      aTransformer.transform (new DOMSource (aNode), new StreamResult (aOS));
+    }
+    catch (final TransformerException ex)
+    {
+      throw new IllegalStateException ("Failed to serialize XML", ex);
+    }
+  }
 }
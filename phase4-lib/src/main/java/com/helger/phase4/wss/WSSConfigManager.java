@@ -38,6 +38,11 @@ public class WSSConfigManager extends AbstractGlobalSingleton
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (WSSConfigManager.class);
 
+  // One WSSConfig per thread, so that it can be reused without locking. It is
+  // bound to the life cycle of this singleton, so that the per-thread objects
+  // can be reclaimed when the singleton is destroyed.
+  private final ThreadLocal <WSSConfig> m_aPerThreadConfig = ThreadLocal.withInitial (WSSConfigManager::createStaticWSSConfig);
+
   @Deprecated
   @UsedViaReflection
   public WSSConfigManager ()
@@ -97,6 +102,10 @@ public class WSSConfigManager extends AbstractGlobalSingleton
   @Override
   protected void onBeforeDestroy (final IScope aScopeToBeDestroyed) throws Exception
   {
+    // Only the current thread can be cleaned explicitly. The entries of other
+    // threads become stale as soon as this singleton is no longer referenced.
+    m_aPerThreadConfig.remove ();
+
     // Cleanup WSSConfig
     if (LOGGER.isInfoEnabled ())
       LOGGER.info ("Cleaning up WSSConfig." +
@@ -125,4 +134,22 @@ public class WSSConfigManager extends AbstractGlobalSingleton
   {
     return createStaticWSSConfig ();
   }
+
+  /**
+   * Get the {@link WSSConfig} that is bound to the current thread. It is
+   * created via {@link #createStaticWSSConfig()} upon first access of a thread
+   * and reused afterwards for the life time of the global
+   * {@link WSSConfigManager} instance. As the object is only used by a single
+   * thread, no locking is needed. The returned object must not be modified by
+   * the caller.
+   *
+   * @return The {@link WSSConfig} of the current thread. Never
+   *         <code>null</code>.
+   * @since 1.3.3
+   */
+  @Nonnull
+  public static WSSConfig getThreadLocalWSSConfig ()
+  {
+    return getInstance ().m_aPerThreadConfig.get ();
+  }
 }
@@ -32,6 +32,12 @@ import com.helger.phase4.config.AS4Configuration;
 /**
  * A helper class to run all WSS stuff in a lock. {@link WSSConfig#init()} and
  * {@link WSSConfig#cleanUp()} is called for every invocation.<br>
+ * Since 1.3.3 there is also a concurrent mode available (see
+ * {@link #callConcurrent(IThrowingSupplier)}) that only uses the lock to
+ * reference count the active invocations. {@link WSSConfig#init()} is called
+ * when the first invocation starts and {@link WSSConfig#cleanUp()} is called
+ * when the last invocation ends, so that multiple threads can sign, encrypt,
+ * verify and decrypt in parallel.<br>
  * Note: this class may only be invoked if
  * {@link AS4Configuration#isWSS4JSynchronizedSecurity()} returns
  * <code>true</code>.
@@ -43,6 +49,8 @@ import com.helger.phase4.config.AS4Configuration;
 public final class WSSSynchronizer
 {
   private static final Lock s_aLock = new ReentrantLock ();
+  // Number of currently running concurrent invocations - guarded by s_aLock
+  private static int s_nConcurrentInvocations = 0;
 
   private WSSSynchronizer ()
   {}
@@ -80,8 +88,9 @@ public final class WSSSynchronizer
       }
       finally
       {
-        // Unregister
-        WSSConfig.cleanUp ();
+        // Unregister - but only if no concurrent invocation is running
+        if (s_nConcurrentInvocations == 0)
+          WSSConfig.cleanUp ();
       }
     }
     finally
@@ -90,4 +99,77 @@ public final class WSSSynchronizer
       s_aLock.unlock ();
     }
   }
+
+  /**
+   * A wrapper around {@link #callConcurrent(IThrowingSupplier)} swallowing the
+   * return value
+   *
+   * @param aRunnable
+   *        The runnable to be run. May not be <code>null</code>.
+   * @since 1.3.3
+   */
+  public static void runConcurrent (@Nonnull final Runnable aRunnable)
+  {
+    ValueEnforcer.notNull (aRunnable, "Runnable");
+    callConcurrent ( () -> {
+      aRunnable.run ();
+      return null;
+    });
+  }
+
+  /**
+   * Run the provided supplier without holding the global lock while it is
+   * executed. The lock is only used to ensure that {@link WSSConfig#init()} is
+   * called before the first invocation and that {@link WSSConfig#cleanUp()} is
+   * called after the last parallel invocation finished.
+   *
+   * @param <T>
+   *        Return type
+   * @param <EX>
+   *        Exception type
+   * @param aSupplier
+   *        The supplier to be invoked. May not be <code>null</code>.
+   * @return The return value of the supplier. May be <code>null</code>.
+   * @throws EX
+   *         if the supplier throws an Exception
+   * @since 1.3.3
+   */
+  @Nullable
+  public static <T, EX extends Exception> T callConcurrent (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    ValueEnforcer.notNull (aSupplier, "Supplier");
+
+    s_aLock.lock ();
+    try
+    {
+      // Register only for the first one
+      if (s_nConcurrentInvocations == 0)
+        WSSConfig.init ();
+      s_nConcurrentInvocations++;
+    }
+    finally
+    {
+      s_aLock.unlock ();
+    }
+
+    try
+    {
+      return aSupplier.get ();
+    }
+    finally
+    {
+      s_aLock.lock ();
+      try
+      {
+        // Unregister only for the last one
+        s_nConcurrentInvocations--;
+        if (s_nConcurrentInvocations == 0)
+          WSSConfig.cleanUp ();
+      }
+      finally
+      {
+        s_aLock.unlock ();
+      }
+    }
+  }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link AS4CompressingInputStream}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CompressingInputStreamTest
+{
+  @Test
+  public void testRoundTrip () throws IOException
+  {
+    final byte [] aSrc = StreamHelper.getAllBytes (ClassPathResource.getInputStream ("SOAPBodyPayload.xml"));
+    assertNotNull (aSrc);
+
+    for (final EAS4CompressionMode eMode : EAS4CompressionMode.values ())
+    {
+      final byte [] aCompressed;
+      try (final InputStream aIS = new AS4CompressingInputStream (new NonBlockingByteArrayInputStream (aSrc), eMode))
+      {
+        aCompressed = StreamHelper.getAllBytes (aIS);
+      }
+
+      // Reading again must produce the same bytes (e.g. for signing)
+      try (final InputStream aIS = new AS4CompressingInputStream (new NonBlockingByteArrayInputStream (aSrc), eMode))
+      {
+        assertArrayEquals (aCompressed, StreamHelper.getAllBytes (aIS));
+      }
+
+      // Same as the compression via OutputStream
+      final NonBlockingByteArrayOutputStream aCompressedOS = new NonBlockingByteArrayOutputStream ();
+      StreamHelper.copyInputStreamToOutputStreamAndCloseOS (new NonBlockingByteArrayInputStream (aSrc),
+                                                            eMode.getCompressStream (aCompressedOS));
+      assertArrayEquals (aCompressedOS.toByteArray (), aCompressed);
+
+      // Decompression
+      try (final InputStream aIS = eMode.getDecompressStream (new NonBlockingByteArrayInputStream (aCompressed)))
+      {
+        assertArrayEquals (aSrc, StreamHelper.getAllBytes (aIS));
+      }
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileOperations;
+import com.helger.security.keystore.EKeyStoreType;
+
+/**
+ * Test class for class {@link AS4CryptoFactoryProperties}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CryptoFactoryPropertiesTest
+{
+  private static final String PASSWORD = "password";
+  private static final String ALIAS = "key";
+
+  private static void _writeKeyStore (@Nonnull final File aFile, @Nonnull final String sCN) throws Exception
+  {
+    final KeyPairGenerator aKPG = KeyPairGenerator.getInstance ("RSA");
+    aKPG.initialize (2048);
+    final KeyPair aKP = aKPG.generateKeyPair ();
+    final X500Name aName = new X500Name ("CN=" + sCN);
+    final long nNow = System.currentTimeMillis ();
+    final JcaX509v3CertificateBuilder aBuilder = new JcaX509v3CertificateBuilder (aName,
+                                                                                  BigInteger.valueOf (nNow),
+                                                                                  new Date (nNow - 60_000),
+                                                                                  new Date (nNow + 3_600_000),
+                                                                                  aName,
+                                                                                  aKP.getPublic ());
+    final X509Certificate aCert = new JcaX509CertificateConverter ().getCertificate (aBuilder.build (new JcaContentSignerBuilder ("SHA256withRSA").build (aKP.getPrivate ())));
+
+    final KeyStore aKS = KeyStore.getInstance (EKeyStoreType.PKCS12.getID ());
+    aKS.load (null, null);
+    aKS.setKeyEntry (ALIAS, aKP.getPrivate (), PASSWORD.toCharArray (), new Certificate [] { aCert });
+    try (final OutputStream aOS = new FileOutputStream (aFile))
+    {
+      aKS.store (aOS, PASSWORD.toCharArray ());
+    }
+  }
+
+  @Nonnull
+  private static AS4CryptoFactoryProperties _createCF (@Nonnull final File aKeyStoreFile)
+  {
+    final AS4CryptoProperties aCP = new AS4CryptoProperties ().setKeyStoreType (EKeyStoreType.PKCS12)
+                                                              .setKeyStorePath (aKeyStoreFile.getAbsolutePath ())
+                                                              .setKeyStorePassword (PASSWORD)
+                                                              .setKeyAlias (ALIAS)
+                                                              .setKeyPassword (PASSWORD);
+    return new AS4CryptoFactoryProperties (aCP);
+  }
+
+  @Nonnull
+  private static String _getCN (@Nonnull final AS4CryptoFactoryProperties aCF)
+  {
+    final X509Certificate aCert = aCF.getCertificate ();
+    assertNotNull (aCert);
+    return aCert.getSubjectX500Principal ().getName ();
+  }
+
+  @Test
+  public void testRetryAfterIncompleteLoad () throws Exception
+  {
+    final File aFile = File.createTempFile ("phase4-ks", ".p12");
+    try
+    {
+      FileOperations.deleteFile (aFile);
+      final AS4CryptoFactoryProperties aCF = _createCF (aFile);
+
+      // Key store is not yet present
+      assertTrue (aCF.warmUp ().isFailure ());
+
+      // The partial state is used until the retry interval elapsed
+      _writeKeyStore (aFile, "test1");
+      assertNull (aCF.getCertificate ());
+
+      // Warming up again loads the missing parts
+      assertTrue (aCF.warmUp ().isSuccess ());
+      assertNotNull (aCF.getCrypto ());
+      assertEquals ("CN=test1", _getCN (aCF));
+    }
+    finally
+    {
+      FileOperations.deleteFileIfExisting (aFile);
+    }
+  }
+
+  @Test
+  public void testReloadSwapsKeyStore () throws Exception
+  {
+    final File aFile = File.createTempFile ("phase4-ks", ".p12");
+    try
+    {
+      _writeKeyStore (aFile, "test1");
+      final AS4CryptoFactoryProperties aCF = _createCF (aFile);
+      assertTrue (aCF.warmUp ().isSuccess ());
+      assertEquals ("CN=test1", _getCN (aCF));
+
+      // Changing the file has no effect until reload is called
+      _writeKeyStore (aFile, "test2");
+      assertEquals ("CN=test1", _getCN (aCF));
+
+      assertTrue (aCF.reload ().isSuccess ());
+      assertEquals ("CN=test2", _getCN (aCF));
+      assertNotNull (aCF.getCrypto ());
+
+      // A failed reload keeps the previous material
+      FileOperations.deleteFile (aFile);
+      assertTrue (aCF.reload ().isFailure ());
+      assertEquals ("CN=test2", _getCN (aCF));
+    }
+    finally
+    {
+      FileOperations.deleteFileIfExisting (aFile);
+    }
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4CryptoFactoryTrustCaching} and
+ * {@link AS4TrustDecisionCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CryptoFactoryTrustCachingTest
+{
+  private static X509Certificate [] s_aChain1;
+  private static X509Certificate [] s_aChain2;
+
+  @Nonnull
+  private static X509Certificate _createCert (@Nonnull final String sCN) throws Exception
+  {
+    final KeyPairGenerator aKPG = KeyPairGenerator.getInstance ("RSA");
+    aKPG.initialize (2048);
+    final KeyPair aKP = aKPG.generateKeyPair ();
+    final X500Name aName = new X500Name ("CN=" + sCN);
+    final long nNow = System.currentTimeMillis ();
+    final JcaX509v3CertificateBuilder aBuilder = new JcaX509v3CertificateBuilder (aName,
+                                                                                  BigInteger.valueOf (nNow),
+                                                                                  new Date (nNow - 60_000),
+                                                                                  new Date (nNow + 3_600_000),
+                                                                                  aName,
+                                                                                  aKP.getPublic ());
+    return new JcaX509CertificateConverter ().getCertificate (aBuilder.build (new JcaContentSignerBuilder ("SHA256withRSA").build (aKP.getPrivate ())));
+  }
+
+  @BeforeClass
+  public static void beforeClass () throws Exception
+  {
+    s_aChain1 = new X509Certificate [] { _createCert ("test1") };
+    s_aChain2 = new X509Certificate [] { _createCert ("test2") };
+  }
+
+  /**
+   * A crypto factory whose {@link Crypto} only counts the calls to
+   * <code>verifyTrust</code>.
+   */
+  private static final class MockCryptoFactory implements IAS4CryptoFactory
+  {
+    private final AtomicInteger m_aVerifyCount = new AtomicInteger (0);
+    private final AtomicBoolean m_aTrusted = new AtomicBoolean (true);
+    private volatile Runnable m_aDuringVerify;
+    private final Crypto m_aCrypto;
+
+    MockCryptoFactory ()
+    {
+      m_aCrypto = (Crypto) Proxy.newProxyInstance (Crypto.class.getClassLoader (),
+                                                   new Class <?> [] { Crypto.class },
+                                                   (aProxy, aMethod, aArgs) -> {
+                                                     if ("verifyTrust".equals (aMethod.getName ()))
+                                                     {
+                                                       m_aVerifyCount.incrementAndGet ();
+                                                       final Runnable aDuringVerify = m_aDuringVerify;
+                                                       if (aDuringVerify != null)
+                                                         aDuringVerify.run ();
+                                                       if (!m_aTrusted.get ())
+                                                         throw new WSSecurityException (WSSecurityException.ErrorCode.FAILURE);
+                                                       return null;
+                                                     }
+                                                     throw new UnsupportedOperationException (aMethod.getName ());
+                                                   });
+    }
+
+    public Crypto getCrypto ()
+    {
+      return m_aCrypto;
+    }
+
+    public KeyStore getKeyStore ()
+    {
+      return null;
+    }
+
+    public KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+    {
+      return null;
+    }
+
+    public String getKeyAlias ()
+    {
+      return null;
+    }
+
+    public String getKeyPassword ()
+    {
+      return null;
+    }
+
+    public KeyStore getTrustStore ()
+    {
+      return null;
+    }
+  }
+
+  private static void _verify (@Nonnull final IAS4CryptoFactory aCF,
+                               @Nonnull final X509Certificate [] aChain,
+                               final boolean bEnableRevocation) throws WSSecurityException
+  {
+    aCF.getCrypto ().verifyTrust (aChain, bEnableRevocation, null, null);
+  }
+
+  @Test
+  public void testHitAndMiss () throws Exception
+  {
+    final MockCryptoFactory aMock = new MockCryptoFactory ();
+    final AS4CryptoFactoryTrustCaching aCF = new AS4CryptoFactoryTrustCaching (aMock);
+
+    // Miss
+    _verify (aCF, s_aChain1, false);
+    assertEquals (1, aMock.m_aVerifyCount.get ());
+    assertEquals (1, aCF.getTrustDecisionCache ().size ());
+
+    // Hit
+    _verify (aCF, s_aChain1, false);
+    _verify (aCF, s_aChain1, false);
+    assertEquals (1, aMock.m_aVerifyCount.get ());
+
+    // Different chain is a miss
+    _verify (aCF, s_aChain2, false);
+    assertEquals (2, aMock.m_aVerifyCount.get ());
+    assertEquals (2, aCF.getTrustDecisionCache ().size ());
+
+    // Explicit invalidation
+    aCF.invalidateTrustDecisions ();
+    assertEquals (0, aCF.getTrustDecisionCache ().size ());
+    _verify (aCF, s_aChain1, false);
+    assertEquals (3, aMock.m_aVerifyCount.get ());
+  }
+
+  @Test
+  public void testExpiry () throws Exception
+  {
+    final MockCryptoFactory aMock = new MockCryptoFactory ();
+    final AS4CryptoFactoryTrustCaching aCF = new AS4CryptoFactoryTrustCaching (aMock,
+                                                                               new AS4TrustDecisionCache (Duration.ofMillis (50), 10));
+    _verify (aCF, s_aChain1, false);
+    _verify (aCF, s_aChain1, false);
+    assertEquals (1, aMock.m_aVerifyCount.get ());
+
+    Thread.sleep (100);
+
+    // Expired
+    _verify (aCF, s_aChain1, false);
+    assertEquals (2, aMock.m_aVerifyCount.get ());
+  }
+
+  @Test
+  public void testNegativeResultsNotCached () throws Exception
+  {
+    final MockCryptoFactory aMock = new MockCryptoFactory ();
+    aMock.m_aTrusted.set (false);
+    final AS4CryptoFactoryTrustCaching aCF = new AS4CryptoFactoryTrustCaching (aMock);
+
+    for (int i = 0; i < 3; ++i)
+      try
+      {
+        _verify (aCF, s_aChain1, false);
+        fail ();
+      }
+      catch (final WSSecurityException ex)
+      {
+        // expected
+      }
+    assertEquals (3, aMock.m_aVerifyCount.get ());
+    assertEquals (0, aCF.getTrustDecisionCache ().size ());
+
+    // Becomes trusted
+    aMock.m_aTrusted.set (true);
+    _verify (aCF, s_aChain1, false);
+    _verify (aCF, s_aChain1, false);
+    assertEquals (4, aMock.m_aVerifyCount.get ());
+  }
+
+  @Test
+  public void testInvalidateAllWhileVerifying () throws Exception
+  {
+    final MockCryptoFactory aMock = new MockCryptoFactory ();
+    final AS4CryptoFactoryTrustCaching aCF = new AS4CryptoFactoryTrustCaching (aMock);
+
+    // The trust store is reloaded while the first verification is running
+    aMock.m_aDuringVerify = aCF::invalidateTrustDecisions;
+    _verify (aCF, s_aChain1, false);
+    assertEquals (1, aMock.m_aVerifyCount.get ());
+    assertEquals (0, aCF.getTrustDecisionCache ().size ());
+
+    // So the decision of the running verification must not be used
+    aMock.m_aDuringVerify = null;
+    _verify (aCF, s_aChain1, false);
+    assertEquals (2, aMock.m_aVerifyCount.get ());
+    assertEquals (1, aCF.getTrustDecisionCache ().size ());
+    _verify (aCF, s_aChain1, false);
+    assertEquals (2, aMock.m_aVerifyCount.get ());
+  }
+
+  @Test
+  public void testNoCachingWithRevocation () throws Exception
+  {
+    final MockCryptoFactory aMock = new MockCryptoFactory ();
+    final AS4CryptoFactoryTrustCaching aCF = new AS4CryptoFactoryTrustCaching (aMock);
+    assertFalse (aCF.getTrustDecisionCache ().isCachingWithRevocation ());
+    assertNull (aCF.getTrustDecisionCache ().createKey (s_aChain1, true, null, null));
+
+    for (int i = 0; i < 3; ++i)
+      _verify (aCF, s_aChain1, true);
+    assertEquals (3, aMock.m_aVerifyCount.get ());
+    assertEquals (0, aCF.getTrustDecisionCache ().size ());
+
+    // A positive decision without revocation is not used for a check with
+    // revocation
+    _verify (aCF, s_aChain1, false);
+    assertEquals (4, aMock.m_aVerifyCount.get ());
+    _verify (aCF, s_aChain1, true);
+    assertEquals (5, aMock.m_aVerifyCount.get ());
+  }
+
+  @Test
+  public void testCachingWithRevocationOptIn () throws Exception
+  {
+    final MockCryptoFactory aMock = new MockCryptoFactory ();
+    final AS4CryptoFactoryTrustCaching aCF = new AS4CryptoFactoryTrustCaching (aMock,
+                                                                               new AS4TrustDecisionCache (Duration.ofMinutes (10),
+                                                                                                          Duration.ofMillis (50),
+                                                                                                          10));
+    assertTrue (aCF.getTrustDecisionCache ().isCachingWithRevocation ());
+
+    _verify (aCF, s_aChain1, true);
+    _verify (aCF, s_aChain1, true);
+    _verify (aCF, s_aChain1, false);
+    _verify (aCF, s_aChain1, false);
+    assertEquals (2, aMock.m_aVerifyCount.get ());
+
+    Thread.sleep (100);
+
+    // Only the revocation decision expired
+    _verify (aCF, s_aChain1, true);
+    _verify (aCF, s_aChain1, false);
+    assertEquals (3, aMock.m_aVerifyCount.get ());
+  }
+
+  @Test
+  public void testConstraintKeysDoNotCollide ()
+  {
+    final AS4TrustDecisionCache aCache = new AS4CryptoFactoryTrustCaching (new MockCryptoFactory ()).getTrustDecisionCache ();
+    final String sKeyJoined = aCache.createKey (s_aChain1, false, Arrays.asList (Pattern.compile ("a|b")), null);
+    final String sKeySplit = aCache.createKey (s_aChain1, false, Arrays.asList (Pattern.compile ("a"), Pattern.compile ("b")), null);
+    assertNotEquals (sKeyJoined, sKeySplit);
+
+    // Same pattern in subject or issuer constraints
+    assertNotEquals (aCache.createKey (s_aChain1, false, Arrays.asList (Pattern.compile ("a")), null),
+                     aCache.createKey (s_aChain1, false, null, Arrays.asList (Pattern.compile ("a"))));
+
+    // Different pattern flags
+    assertNotEquals (aCache.createKey (s_aChain1, false, Arrays.asList (Pattern.compile ("a")), null),
+                     aCache.createKey (s_aChain1, false, Arrays.asList (Pattern.compile ("a", Pattern.CASE_INSENSITIVE)), null));
+
+    // Equal constraints create equal keys
+    assertEquals (sKeyJoined, aCache.createKey (s_aChain1, false, Arrays.asList (Pattern.compile ("a|b")), null));
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testRevocationTTLLongerThanTTL ()
+  {
+    new AS4TrustDecisionCache (Duration.ofMinutes (1), Duration.ofMinutes (2), 10);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * Test class for class {@link AS4PModeLegSecurityProfileCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4PModeLegSecurityProfileCacheTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testBasic ()
+  {
+    final AS4PModeLegSecurityProfileCache aCache = new AS4PModeLegSecurityProfileCache (5);
+    assertEquals (0, aCache.size ());
+
+    final IPMode aPMode = DefaultPMode.getOrCreateDefaultPMode ("a", "b", null, false);
+    final AS4PModeLegSecurityProfile aProfile = aCache.getProfile (aPMode, aPMode.getLeg1 ());
+    assertEquals (1, aCache.size ());
+    assertSame (aProfile, aCache.getProfile (aPMode, aPMode.getLeg1 ()));
+    assertNull (aProfile.getCryptParams ().getAlias ());
+
+    // The shared parameters are handed out as is, but are read-only
+    assertSame (aProfile.getSigningParams (), aProfile.getSigningParams ());
+    assertSame (aProfile.getCryptParams (), aProfile.getCryptParams ());
+    assertTrue (aProfile.getSigningParams ().isReadOnly ());
+    assertTrue (aProfile.getCryptParams ().isReadOnly ());
+    try
+    {
+      aProfile.getSigningParams ().setKeyIdentifierType (ECryptoKeyIdentifierType.ISSUER_SERIAL);
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    try
+    {
+      aProfile.getCryptParams ().setAlias ("other");
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    assertNull (aProfile.getCryptParams ().getAlias ());
+
+    // Clones are modifiable again
+    final AS4CryptParams aClone = aProfile.getCryptParams ().getClone ();
+    assertFalse (aClone.isReadOnly ());
+    assertEquals ("alias", aClone.setAlias ("alias").getAlias ());
+
+    // Not cached without a PMode
+    assertNotSame (aProfile, aCache.getProfile (null, aPMode.getLeg1 ()));
+    assertEquals (1, aCache.size ());
+
+    aCache.invalidate (aPMode.getID ());
+    assertEquals (0, aCache.size ());
+    assertNotSame (aProfile, aCache.getProfile (aPMode, aPMode.getLeg1 ()));
+
+    aCache.invalidateAll ();
+    assertEquals (0, aCache.size ());
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Test class for class {@link AS4AsyncDumpWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AsyncDumpWriterTest
+{
+  @Test
+  public void testWriteAndRead () throws Exception
+  {
+    final File aDir = new File ("target/dump-async-test");
+    AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aDir);
+    try
+    {
+      final byte [] aLarge = new byte [100_000];
+      for (int i = 0; i < aLarge.length; ++i)
+        aLarge[i] = (byte) i;
+
+      // Small chunks and segments to test the frames and the roll over
+      try (final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (aDir, 16, 1024, 32 * 1024, EAS4DumpOverflowPolicy.BLOCK))
+      {
+        final OutputStream aOS1 = aWriter.openRecord (EAS4DumpDirection.INCOMING, 1000, "in1", null);
+        final OutputStream aOS2 = aWriter.openRecord (EAS4DumpDirection.OUTGOING, 2000, "in1", "msg1");
+        assertNotNull (aOS1);
+        assertNotNull (aOS2);
+        // Interleaved
+        aOS1.write (aLarge);
+        aOS2.write ("Response".getBytes (StandardCharsets.ISO_8859_1));
+        aOS2.close ();
+        aOS1.close ();
+        // Not closed - not in the index
+        aWriter.openRecord (EAS4DumpDirection.INCOMING, 3000, "in2", null).write (1);
+      }
+
+      final ICommonsList <AS4DumpIndexEntry> aEntries = AS4DumpSegmentReader.readAllIndexEntries (aDir);
+      assertEquals (2, aEntries.size ());
+      for (final AS4DumpIndexEntry aEntry : aEntries)
+      {
+        final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+        assertTrue (AS4DumpSegmentReader.copyRecord (aDir, aEntry, aBAOS).isSuccess ());
+        if (aEntry.getDirection () == EAS4DumpDirection.INCOMING)
+        {
+          assertEquals ("in1", aEntry.getIncomingUniqueID ());
+          assertEquals (aLarge.length, aEntry.getLength ());
+          assertArrayEquals (aLarge, aBAOS.toByteArray ());
+        }
+        else
+        {
+          assertEquals ("msg1", aEntry.getMessageID ());
+          assertEquals (2000, aEntry.getTimestampMillis ());
+          assertEquals ("Response", aBAOS.getAsString (StandardCharsets.ISO_8859_1));
+        }
+      }
+      assertTrue (AS4AsyncDumpWriter.getMaxSegmentNr (aDir) > 0);
+    }
+    finally
+    {
+      AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+
+  @Test (timeout = 10_000)
+  public void testDropNeverBlocks () throws Exception
+  {
+    final File aDir = new File ("target/dump-async-drop-test");
+    AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aDir);
+    try
+    {
+      // Writer thread not started, so that the queue stays full
+      try (final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (aDir, 2, 16, 1024, EAS4DumpOverflowPolicy.DROP, false))
+      {
+        final OutputStream aOS1 = aWriter.openRecord (EAS4DumpDirection.INCOMING, 1000, "in1", null);
+        assertNotNull (aOS1);
+        // Fills the queue with the first data chunk
+        aOS1.write (new byte [32]);
+        assertEquals (2, aWriter.getQueueSize ());
+        // Queue is full - must be dropped without blocking
+        aOS1.write (new byte [32]);
+        aOS1.close ();
+        assertEquals (1, aWriter.getDroppedCount ());
+
+        // Cannot even be opened
+        assertNull (aWriter.openRecord (EAS4DumpDirection.INCOMING, 2000, "in2", null));
+        assertEquals (2, aWriter.getDroppedCount ());
+
+        aWriter.startWriter ();
+      }
+
+      // The dropped record is not in the index
+      assertEquals (0, AS4DumpSegmentReader.readAllIndexEntries (aDir).size ());
+    }
+    finally
+    {
+      AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+}
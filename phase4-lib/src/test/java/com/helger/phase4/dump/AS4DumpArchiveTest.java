@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Test class for classes {@link AS4DumpArchiveWriter} and
+ * {@link AS4DumpArchiveReader}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DumpArchiveTest
+{
+  @Test
+  public void testWriteAndRead () throws Exception
+  {
+    final File aSegmentDir = new File ("target/dump-archive-test/segments");
+    final File aArchiveDir = new File ("target/dump-archive-test/archive");
+    AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (new File ("target/dump-archive-test"));
+    try
+    {
+      final byte [] aPayload = "Content-Type: text/xml\r\n\r\n<Envelope/>".getBytes (StandardCharsets.ISO_8859_1);
+      try (final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (aSegmentDir))
+      {
+        for (int i = 0; i < 10; ++i)
+          try (final OutputStream aOS = aWriter.openRecord (EAS4DumpDirection.INCOMING, 1000 + i, "in" + i, null))
+          {
+            aOS.write (aPayload);
+          }
+      }
+
+      // Small archives to test the roll over
+      try (final AS4DumpArchiveWriter aArchiveWriter = new AS4DumpArchiveWriter (aArchiveDir, 100))
+      {
+        assertEquals (10, aArchiveWriter.addAllFromSegments (aSegmentDir));
+        aArchiveWriter.addRecord (EAS4DumpDirection.OUTGOING, 500, "in3", "msg3", new NonBlockingByteArrayInputStream (aPayload));
+      }
+
+      try (final AS4DumpArchiveReader aReader = new AS4DumpArchiveReader (aArchiveDir))
+      {
+        assertEquals (11, aReader.getRecordCount ());
+        assertEquals (500, aReader.getAllEntries ().getFirst ().getTimestampMillis ());
+        assertEquals (2, aReader.getAllEntriesOfIncomingUniqueID ("in3").size ());
+        assertEquals (1, aReader.getAllEntriesOfMessageID ("msg3").size ());
+        assertEquals (0, aReader.getAllEntriesOfMessageID ("msg4").size ());
+        assertEquals (3, aReader.getAllEntriesBetween (1002, 1005).size ());
+
+        for (final AS4DumpIndexEntry aEntry : aReader.getAllEntries ())
+          try (final InputStream aIS = aReader.openRecord (aEntry))
+          {
+            assertArrayEquals (aPayload, StreamHelper.getAllBytes (aIS));
+          }
+      }
+    }
+    finally
+    {
+      AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (new File ("target/dump-archive-test"));
+    }
+  }
+}
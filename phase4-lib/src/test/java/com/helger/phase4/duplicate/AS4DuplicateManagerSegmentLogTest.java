@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.Duration;
+
+import org.junit.Test;
+
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.state.EContinue;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerSegmentLog}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerSegmentLogTest
+{
+  @Test
+  public void testBasic () throws Exception
+  {
+    final File aDir = new File ("target/duplicate-log-test");
+    AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aDir);
+    try
+    {
+      try (final AS4DuplicateManagerSegmentLog aMgr = new AS4DuplicateManagerSegmentLog (aDir))
+      {
+        assertTrue (aMgr.isEmpty ());
+        assertEquals (0, aMgr.getSegmentCount ());
+        for (int i = 0; i < 100; ++i)
+          assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("msg" + i, i % 2 == 0 ? "profile" : null, "pmode"));
+        assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("msg5", null, null));
+        assertEquals (100, aMgr.size ());
+        assertEquals (1, aMgr.getSegmentCount ());
+      }
+
+      // Restart
+      try (final AS4DuplicateManagerSegmentLog aMgr = new AS4DuplicateManagerSegmentLog (aDir))
+      {
+        assertEquals (100, aMgr.size ());
+        assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("msg5", null, null));
+        final IAS4DuplicateItem aItem = aMgr.getItemOfMessageID ("msg4");
+        assertNotNull (aItem);
+        assertEquals ("profile", aItem.getProfileID ());
+        assertEquals ("pmode", aItem.getPModeID ());
+        assertNull (aMgr.getItemOfMessageID ("msg5").getProfileID ());
+
+        // Nothing is expired
+        assertTrue (aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().minus (Duration.ofMinutes (1))).isEmpty ());
+        assertEquals (1, aMgr.getSegmentCount ());
+
+        // All expired - segment is deleted
+        assertEquals (100, aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().plus (Duration.ofMinutes (1))).size ());
+        assertTrue (aMgr.isEmpty ());
+        assertEquals (0, aMgr.getSegmentCount ());
+      }
+
+      // Restart again
+      try (final AS4DuplicateManagerSegmentLog aMgr = new AS4DuplicateManagerSegmentLog (aDir))
+      {
+        assertTrue (aMgr.isEmpty ());
+      }
+    }
+    finally
+    {
+      AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+}
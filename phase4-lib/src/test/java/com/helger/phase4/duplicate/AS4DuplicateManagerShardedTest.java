@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerSharded}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerShardedTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final AS4DuplicateManagerSharded aMgr = new AS4DuplicateManagerSharded (4);
+    assertTrue (aMgr.isEmpty ());
+    assertEquals (0, aMgr.size ());
+
+    for (int i = 0; i < 100; ++i)
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("msg" + i, "profile", "pmode"));
+    assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("msg5", null, null));
+    assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck (null, null, null));
+    assertFalse (aMgr.isEmpty ());
+    assertEquals (100, aMgr.size ());
+    assertEquals (100, aMgr.getAll ().size ());
+
+    final IAS4DuplicateItem aItem = aMgr.getItemOfMessageID ("msg5");
+    assertNotNull (aItem);
+    assertEquals ("msg5", aItem.getMessageID ());
+    assertEquals ("profile", aItem.getProfileID ());
+    assertEquals ("pmode", aItem.getPModeID ());
+    assertNull (aMgr.getItemOfMessageID ("msg100"));
+
+    // Nothing is expired
+    assertTrue (aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().minus (Duration.ofMinutes (1))).isEmpty ());
+    assertEquals (100, aMgr.size ());
+
+    // All are expired
+    assertEquals (100, aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().plus (Duration.ofMinutes (1))).size ());
+    assertTrue (aMgr.isEmpty ());
+    assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("msg5", null, null));
+
+    assertEquals (EChange.CHANGED, aMgr.clearCache ());
+    assertEquals (EChange.UNCHANGED, aMgr.clearCache ());
+    assertTrue (aMgr.isEmpty ());
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testInvalidShardCount ()
+  {
+    new AS4DuplicateManagerSharded (3);
+  }
+}
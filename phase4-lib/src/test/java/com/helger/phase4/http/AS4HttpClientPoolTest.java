@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.phase4.AS4TestRule;
+
+/**
+ * Test class for class {@link AS4HttpClientPool}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4HttpClientPoolTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testSameSettingsSameClient ()
+  {
+    final AS4HttpClientPool aPool = AS4HttpClientPool.getInstance ();
+    assertNotNull (aPool);
+
+    final HttpClientSettings aSettings = new HttpClientSettings ();
+    final HttpClientFactory aFactory = aPool.getHttpClientFactory (aSettings);
+    assertNotNull (aFactory);
+    assertSame (aFactory, aPool.getHttpClientFactory (aSettings));
+    assertNotSame (aFactory, aPool.getHttpClientFactory (new HttpClientSettings ()));
+
+    final AS4PooledHttpClient aClient1 = aPool.acquireHttpClient (aFactory);
+    try
+    {
+      final AS4PooledHttpClient aClient2 = aPool.acquireHttpClient (aPool.getHttpClientFactory (aSettings));
+      try
+      {
+        assertSame (aClient1, aClient2);
+      }
+      finally
+      {
+        aPool.releaseHttpClient (aClient2);
+      }
+    }
+    finally
+    {
+      aPool.releaseHttpClient (aClient1);
+    }
+  }
+}
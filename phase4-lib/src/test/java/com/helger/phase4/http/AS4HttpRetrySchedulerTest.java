@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.scope.mgr.ScopeManager;
+
+/**
+ * Test class for class {@link AS4HttpRetryScheduler}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4HttpRetrySchedulerTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  private static void _assertRejected (@Nonnull final CompletableFuture <?> aFuture) throws Exception
+  {
+    try
+    {
+      aFuture.get (5, TimeUnit.SECONDS);
+      fail ("Future should have been completed exceptionally");
+    }
+    catch (final ExecutionException ex)
+    {
+      assertTrue (ex.getCause () instanceof RejectedExecutionException);
+    }
+  }
+
+  @Test
+  @SuppressWarnings ("deprecation")
+  public void testExecute () throws Exception
+  {
+    final AS4HttpRetryScheduler aScheduler = new AS4HttpRetryScheduler ();
+    final CompletableFuture <String> aFuture = new CompletableFuture <> ();
+    aScheduler.execute ( () -> aFuture.complete ("done"), aFuture::completeExceptionally);
+    assertEquals ("done", aFuture.get (5, TimeUnit.SECONDS));
+
+    final CompletableFuture <String> aFuture2 = new CompletableFuture <> ();
+    aScheduler.schedule ( () -> aFuture2.complete ("done"), Duration.ofMillis (10), aFuture2::completeExceptionally);
+    assertEquals ("done", aFuture2.get (5, TimeUnit.SECONDS));
+    assertEquals (0, aScheduler.getPendingCount ());
+
+    aScheduler.onBeforeDestroy (ScopeManager.getGlobalScope ());
+  }
+
+  @Test
+  @SuppressWarnings ("deprecation")
+  public void testPendingOnShutdown () throws Exception
+  {
+    final AS4HttpRetryScheduler aScheduler = new AS4HttpRetryScheduler ();
+    final CompletableFuture <String> aFuture = new CompletableFuture <> ();
+    aScheduler.schedule ( () -> aFuture.complete ("done"), Duration.ofHours (1), aFuture::completeExceptionally);
+    assertEquals (1, aScheduler.getPendingCount ());
+    assertFalse (aFuture.isDone ());
+
+    // Shutdown must complete the pending retry
+    aScheduler.onBeforeDestroy (ScopeManager.getGlobalScope ());
+    assertEquals (0, aScheduler.getPendingCount ());
+    _assertRejected (aFuture);
+  }
+
+  @Test
+  @SuppressWarnings ("deprecation")
+  public void testRejectedAfterShutdown () throws Exception
+  {
+    final AS4HttpRetryScheduler aScheduler = new AS4HttpRetryScheduler ();
+    aScheduler.onBeforeDestroy (ScopeManager.getGlobalScope ());
+
+    final CompletableFuture <String> aFuture = new CompletableFuture <> ();
+    aScheduler.execute ( () -> aFuture.complete ("done"), aFuture::completeExceptionally);
+    _assertRejected (aFuture);
+
+    final CompletableFuture <String> aFuture2 = new CompletableFuture <> ();
+    aScheduler.schedule ( () -> aFuture2.complete ("done"), Duration.ofMillis (10), aFuture2::completeExceptionally);
+    assertEquals (0, aScheduler.getPendingCount ());
+    _assertRejected (aFuture2);
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.entity.StringEntity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsVector;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EContinue;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.client.IAS4RetryCallback;
+
+/**
+ * Test class for class {@link BasicHttpPoster}.
+ *
+ * @author Philip Helger
+ */
+public final class BasicHttpPosterTest
+{
+  // Nothing is listening on this port, so every try fails
+  private static final String URL = "http://localhost:1/as4";
+
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  /**
+   * Remembers the arguments of all retry callback invocations.
+   */
+  private static final class RecordingRetryCallback implements IAS4RetryCallback
+  {
+    private final ICommonsList <long []> m_aCalls = new CommonsVector <> ();
+    private final CountDownLatch m_aFirstCall = new CountDownLatch (1);
+
+    @Nonnull
+    public EContinue onBeforeRetry (@Nonnull final String sMessageID,
+                                    @Nonnull final String sURL,
+                                    final int nTry,
+                                    final int nMaxTries,
+                                    final long nRetryIntervalMS,
+                                    @Nonnull final Exception ex)
+    {
+      m_aCalls.add (new long [] { nTry, nMaxTries, nRetryIntervalMS });
+      m_aFirstCall.countDown ();
+      return EContinue.CONTINUE;
+    }
+  }
+
+  @Test
+  public void testHttpClientFactory ()
+  {
+    final BasicHttpPoster aPoster1 = new BasicHttpPoster ();
+    final BasicHttpPoster aPoster2 = new BasicHttpPoster ();
+    // Each poster gets its own factory on first access
+    assertNotNull (aPoster1.getHttpClientFactory ());
+    assertSame (aPoster1.getHttpClientFactory (), aPoster1.getHttpClientFactory ());
+    assertNotSame (aPoster1.getHttpClientFactory (), aPoster2.getHttpClientFactory ());
+  }
+
+  @Nonnull
+  private static CompletableFuture <String> _send (@Nonnull final HttpRetrySettings aRetrySettings,
+                                                   @Nonnull final IAS4RetryCallback aRetryCallback)
+  {
+    return new BasicHttpPoster ().sendGenericMessageWithRetriesAsync (URL,
+                                                                      null,
+                                                                      new StringEntity ("test", "UTF-8"),
+                                                                      "msg-id",
+                                                                      aRetrySettings,
+                                                                      x -> "ok",
+                                                                      null,
+                                                                      aRetryCallback);
+  }
+
+  @Test
+  public void testAsyncRetryCountAndBackoff () throws Exception
+  {
+    final HttpRetrySettings aRetrySettings = new HttpRetrySettings ().setMaxRetries (3)
+                                                                     .setDurationBeforeRetry (Duration.ofMillis (10))
+                                                                     .setRetryIncreaseFactor (new BigDecimal ("2"))
+                                                                     .setRetryJitterFactor (BigDecimal.ZERO);
+    final RecordingRetryCallback aCallback = new RecordingRetryCallback ();
+    final CompletableFuture <String> aFuture = _send (aRetrySettings, aCallback);
+    try
+    {
+      aFuture.get (30, TimeUnit.SECONDS);
+      fail ();
+    }
+    catch (final ExecutionException ex)
+    {
+      // The error of the last try is propagated
+      assertTrue (ex.getCause () instanceof IOException);
+    }
+
+    // 1 try + 3 retries
+    assertEquals (3, aCallback.m_aCalls.size ());
+    for (int i = 0; i < 3; ++i)
+    {
+      assertEquals (i, aCallback.m_aCalls.get (i)[0]);
+      assertEquals (4, aCallback.m_aCalls.get (i)[1]);
+    }
+    // The waiting time is increased after the first retry
+    assertEquals (10, aCallback.m_aCalls.get (0)[2]);
+    assertEquals (10, aCallback.m_aCalls.get (1)[2]);
+    assertEquals (20, aCallback.m_aCalls.get (2)[2]);
+  }
+
+  @Test
+  public void testAsyncRetryJitter () throws Exception
+  {
+    final HttpRetrySettings aRetrySettings = new HttpRetrySettings ().setMaxRetries (2)
+                                                                     .setDurationBeforeRetry (Duration.ofMillis (100))
+                                                                     .setRetryIncreaseFactor (BigDecimal.ONE)
+                                                                     .setRetryJitterFactor (new BigDecimal ("0.5"));
+    final RecordingRetryCallback aCallback = new RecordingRetryCallback ();
+    final CompletableFuture <String> aFuture = _send (aRetrySettings, aCallback);
+    try
+    {
+      aFuture.get (30, TimeUnit.SECONDS);
+      fail ();
+    }
+    catch (final ExecutionException ex)
+    {
+      // expected
+    }
+
+    assertEquals (2, aCallback.m_aCalls.size ());
+    for (final long [] aCall : aCallback.m_aCalls)
+      assertTrue (Long.toString (aCall[2]), aCall[2] >= 50 && aCall[2] <= 150);
+  }
+
+  @Test
+  public void testAsyncRetryCancel () throws Exception
+  {
+    final HttpRetrySettings aRetrySettings = new HttpRetrySettings ().setMaxRetries (5)
+                                                                     .setDurationBeforeRetry (Duration.ofMillis (200))
+                                                                     .setRetryIncreaseFactor (BigDecimal.ONE)
+                                                                     .setRetryJitterFactor (BigDecimal.ZERO);
+    final RecordingRetryCallback aCallback = new RecordingRetryCallback ();
+    final CompletableFuture <String> aFuture = _send (aRetrySettings, aCallback);
+
+    // Cancel while waiting for the first retry
+    assertTrue (aCallback.m_aFirstCall.await (30, TimeUnit.SECONDS));
+    assertTrue (aFuture.cancel (false));
+
+    // Wait longer than all retries would take
+    Thread.sleep (1_500);
+    assertTrue (aFuture.isCancelled ());
+    assertEquals (1, aCallback.m_aCalls.size ());
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link HttpRetrySettings}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpRetrySettingsTest
+{
+  @Test
+  public void testIncreased ()
+  {
+    final Duration aDuration = Duration.ofMillis (100);
+    assertEquals (aDuration, HttpRetrySettings.getIncreased (aDuration, BigDecimal.ONE));
+    assertEquals (Duration.ofMillis (200), HttpRetrySettings.getIncreased (aDuration, new BigDecimal ("2")));
+    assertEquals (Duration.ofMillis (150), HttpRetrySettings.getIncreased (aDuration, new BigDecimal ("1.5")));
+  }
+
+  @Test
+  public void testJitterBounds ()
+  {
+    final Duration aDuration = Duration.ofMillis (1000);
+
+    // No jitter
+    assertEquals (aDuration, HttpRetrySettings.getJittered (aDuration, BigDecimal.ZERO));
+
+    final BigDecimal aFactor = new BigDecimal ("0.25");
+    boolean bDifferent = false;
+    for (int i = 0; i < 1000; ++i)
+    {
+      final Duration aJittered = HttpRetrySettings.getJittered (aDuration, aFactor);
+      assertTrue (aJittered.toString (), aJittered.compareTo (Duration.ofMillis (750)) >= 0);
+      assertTrue (aJittered.toString (), aJittered.compareTo (Duration.ofMillis (1250)) <= 0);
+      if (!aJittered.equals (aDuration))
+        bDifferent = true;
+    }
+    assertTrue (bDifferent);
+
+    // Maximum jitter never results in a negative duration
+    for (int i = 0; i < 1000; ++i)
+      assertTrue (HttpRetrySettings.getJittered (aDuration, BigDecimal.ONE).compareTo (Duration.ZERO) >= 0);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.XMLHelper;
+
+/**
+ * Test class for class {@link AS4SoapEnvelopeBuilder}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4SoapEnvelopeBuilderTest
+{
+  @Nonnull
+  private static Document _createPayload ()
+  {
+    final Document aPayload = XMLFactory.newDocument ();
+    final Element eRoot = (Element) aPayload.appendChild (aPayload.createElementNS ("urn:test", "root"));
+    eRoot.appendChild (aPayload.createElementNS ("urn:test", "child")).setTextContent ("value");
+    return aPayload;
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    for (final ESoapVersion eSoapVersion : ESoapVersion.values ())
+    {
+      final Document aPayload = _createPayload ();
+      final AS4ErrorMessage aMsg = AS4ErrorMessage.create (eSoapVersion,
+                                                           "srcmsgid",
+                                                           new CommonsArrayList <> (EEbmsError.EBMS_INVALID_HEADER.getAsEbms3Error (Locale.US,
+                                                                                                                                     null)));
+      final Document aDoc = aMsg.getAsSoapDocument (aPayload);
+      assertNotNull (aDoc);
+
+      final Element eEnvelope = aDoc.getDocumentElement ();
+      assertEquals (eSoapVersion.getNamespaceURI (), eEnvelope.getNamespaceURI ());
+      assertEquals ("Envelope", eEnvelope.getLocalName ());
+
+      final Element eHeader = XMLHelper.getFirstChildElement (eEnvelope);
+      assertEquals (eSoapVersion.getHeaderElementName (), eHeader.getLocalName ());
+      final Element eMessaging = XMLHelper.getFirstChildElement (eHeader);
+      assertEquals (CAS4.EBMS_NS, eMessaging.getNamespaceURI ());
+      assertEquals ("Messaging", eMessaging.getLocalName ());
+      assertEquals (aMsg.getMessagingID (), eMessaging.getAttributeNS (CAS4.WSU_NS, "Id"));
+
+      final Element eBody = XMLHelper.getFirstChildElementOfName (eEnvelope, eSoapVersion.getBodyElementName ());
+      assertNotNull (eBody);
+      final Element eBodyRoot = XMLHelper.getFirstChildElement (eBody);
+      assertEquals ("root", eBodyRoot.getLocalName ());
+      assertEquals ("value", eBodyRoot.getTextContent ());
+
+      // Payload was copied
+      assertNotNull (aPayload.getDocumentElement ());
+    }
+  }
+
+  @Test
+  public void testAdoptPayload ()
+  {
+    final Document aPayload = _createPayload ();
+    final Element eRoot = aPayload.getDocumentElement ();
+    final Document aDoc = new AS4SoapEnvelopeBuilder (ESoapVersion.SOAP_12).setPayload (aPayload).setAdoptPayload (true).build ();
+
+    final Element eBody = XMLHelper.getFirstChildElementOfName (aDoc.getDocumentElement (), "Body");
+    // Same node, moved to the new document
+    assertSame (eRoot, XMLHelper.getFirstChildElement (eBody));
+    assertNull (aPayload.getDocumentElement ());
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.marshaller.Ebms3WriterBuilder;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.soap12.Soap12Body;
+import com.helger.phase4.soap12.Soap12Envelope;
+import com.helger.phase4.soap12.Soap12Header;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Compares the allocated bytes of the previous double JAXB marshalling of the
+ * SOAP envelope with {@link AS4SoapEnvelopeBuilder} for different payload
+ * sizes.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4SoapEnvelopeBuilderBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4SoapEnvelopeBuilderBenchmark.class);
+  private static final int WARMUP_RUNS = 3;
+  private static final int RUNS = 5;
+
+  @Nonnull
+  private static Document _createPayload (final int nBytes)
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eRoot = (Element) aDoc.appendChild (aDoc.createElementNS ("urn:test", "Invoice"));
+    // Approximately 100 bytes per line
+    final String sText = "0123456789012345678901234567890123456789012345678901234567890123456789";
+    for (int i = 0; i < nBytes / 100; ++i)
+      eRoot.appendChild (aDoc.createElementNS ("urn:test", "Line")).setTextContent (sText);
+    return aDoc;
+  }
+
+  @Nonnull
+  private static Document _createLegacy (@Nonnull final AbstractAS4Message <?> aMsg, @Nonnull final Node aPayload)
+  {
+    // The previous implementation of getAsSoapDocument
+    final Document aEbms3Document = Ebms3WriterBuilder.ebms3Messaging ().getAsDocument (aMsg.m_aMessaging);
+    final Soap12Envelope aSoapEnv = new Soap12Envelope ();
+    aSoapEnv.setHeader (new Soap12Header ());
+    aSoapEnv.setBody (new Soap12Body ());
+    aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
+    aSoapEnv.getBody ().addAny (((Document) aPayload).getDocumentElement ());
+    return Ebms3WriterBuilder.soap12 ().getAsDocument (aSoapEnv);
+  }
+
+  private static long _getAllocatedBytes ()
+  {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ()).getThreadAllocatedBytes (Thread.currentThread ()
+                                                                                                                      .getId ());
+  }
+
+  private static void _measure (@Nonnull final String sName, @Nonnull final Supplier <Document> aAction)
+  {
+    for (int i = 0; i < WARMUP_RUNS; ++i)
+      aAction.get ();
+
+    final long nStartBytes = _getAllocatedBytes ();
+    final long nStartNanos = System.nanoTime ();
+    for (int i = 0; i < RUNS; ++i)
+      aAction.get ();
+    final long nBytes = (_getAllocatedBytes () - nStartBytes) / RUNS;
+    final long nMillis = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nStartNanos) / RUNS;
+    LOGGER.info (sName + ": " + (nBytes / CGlobal.BYTES_PER_KILOBYTE) + " KB allocated, " + nMillis + " ms per envelope");
+  }
+
+  public static void main (final String [] args)
+  {
+    final AS4ErrorMessage aMsg = AS4ErrorMessage.create (ESoapVersion.SOAP_12,
+                                                         "srcmsgid",
+                                                         new CommonsArrayList <> (EEbmsError.EBMS_INVALID_HEADER.getAsEbms3Error (Locale.US,
+                                                                                                                                   null)));
+    for (final int nPayloadBytes : new int [] { 10 * CGlobal.BYTES_PER_KILOBYTE,
+                                                CGlobal.BYTES_PER_MEGABYTE,
+                                                50 * CGlobal.BYTES_PER_MEGABYTE })
+    {
+      final Document aPayload = _createPayload (nPayloadBytes);
+      final String sSize = (nPayloadBytes / CGlobal.BYTES_PER_KILOBYTE) + " KB payload";
+      _measure ("JAXB envelope, " + sSize, () -> _createLegacy (aMsg, aPayload));
+      _measure ("Envelope builder, " + sSize, () -> aMsg.getAsSoapDocument (aPayload));
+    }
+  }
+}
@@ -16,13 +16,17 @@
  */
 package com.helger.phase4.model.pmode;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
 
 import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.CAS4;
 import com.helger.phase4.mgr.MetaAS4Manager;
 
 /**
@@ -42,4 +46,32 @@ public final class IPModeManagerTest
     final IPModeManager aPModeMgr = MetaAS4Manager.getPModeMgr ();
     assertNotNull (aPModeMgr);
   }
+
+  @Test
+  public void testIndexedLookup ()
+  {
+    final PModeManagerInMemory aPModeMgr = new PModeManagerInMemory ();
+    assertNull (aPModeMgr.getPModeOfServiceAndAction (CAS4.DEFAULT_SERVICE_URL, CAS4.DEFAULT_ACTION_URL));
+
+    final PMode aPMode1 = (PMode) DefaultPMode.getOrCreateDefaultPMode ("a", "b", null, false);
+    final PMode aPMode2 = (PMode) DefaultPMode.getOrCreateDefaultPMode ("a", "c", null, false);
+    aPModeMgr.createPMode (aPMode1);
+    aPModeMgr.createPMode (aPMode2);
+
+    assertSame (aPMode1, aPModeMgr.getPModeOfID (aPMode1.getID ()));
+    assertSame (aPMode2, aPModeMgr.getPModeOfID (aPMode2.getID ()));
+    assertNotNull (aPModeMgr.getPModeOfServiceAndAction (CAS4.DEFAULT_SERVICE_URL, CAS4.DEFAULT_ACTION_URL));
+    assertNull (aPModeMgr.getPModeOfServiceAndAction (CAS4.DEFAULT_SERVICE_URL, null));
+    assertEquals (1, aPModeMgr.getAllPModesOfInitiatorAndResponder ("a", "b").size ());
+    assertEquals (0, aPModeMgr.getAllPModesOfInitiatorAndResponder ("b", "a").size ());
+
+    // Create or update uses the index as well
+    aPModeMgr.createOrUpdatePMode (aPMode1);
+    assertEquals (2, aPModeMgr.getAll ().size ());
+
+    aPModeMgr.deletePMode (aPMode1.getID ());
+    assertNull (aPModeMgr.getPModeOfID (aPMode1.getID ()));
+    assertEquals (0, aPModeMgr.getAllPModesOfInitiatorAndResponder ("a", "b").size ());
+    assertSame (aPMode2, aPModeMgr.getPModeOfServiceAndAction (CAS4.DEFAULT_SERVICE_URL, CAS4.DEFAULT_ACTION_URL));
+  }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode.resolve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * Test class for class {@link PModeTemplateCache}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeTemplateCacheTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testBasic ()
+  {
+    final PModeTemplateCache aCache = new PModeTemplateCache (2);
+    assertEquals (0, aCache.size ());
+
+    final IPMode aPMode1 = aCache.getOrCreate (null, "a", "b", null, () -> DefaultPMode.getOrCreateDefaultPMode ("a", "b", null, false));
+    assertSame (aPMode1, aCache.getOrCreate (null, "a", "b", null, () -> DefaultPMode.getOrCreateDefaultPMode ("a", "b", null, false)));
+    // Different address
+    assertNotSame (aPMode1,
+                   aCache.getOrCreate (null, "a", "b", "http://x", () -> DefaultPMode.getOrCreateDefaultPMode ("a", "b", "http://x", false)));
+    assertEquals (2, aCache.size ());
+
+    // Use 1 again, so that the one with address is the eldest
+    aCache.getOrCreate (null, "a", "b", null, () -> null);
+    aCache.getOrCreate (null, "a", "c", null, () -> DefaultPMode.getOrCreateDefaultPMode ("a", "c", null, false));
+    assertEquals (2, aCache.size ());
+    assertSame (aPMode1, aCache.getOrCreate (null, "a", "b", null, () -> null));
+    assertNull (aCache.getOrCreate (null, "a", "b", "http://x", () -> null));
+
+    aCache.clear ();
+    assertEquals (0, aCache.size ());
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4AsyncProcessingExecutor}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AsyncProcessingExecutorTest
+{
+  private static final AS4ResourceHelper RES_HELPER = new AS4ResourceHelper ();
+
+  // The message state has no identity based equals
+  private final Map <IAS4MessageState, String> m_aKeys = Collections.synchronizedMap (new IdentityHashMap <> ());
+
+  @Nonnull
+  private IAS4MessageState _createState (@Nonnull final String sKey)
+  {
+    final AS4MessageState ret = new AS4MessageState (ESoapVersion.SOAP_12, RES_HELPER, Locale.US);
+    m_aKeys.put (ret, sKey);
+    return ret;
+  }
+
+  @Nonnull
+  private AS4AsyncProcessingExecutor _createExecutor (final int nThreads,
+                                                      final int nQueueCapacity,
+                                                      final int nMaxPerKey,
+                                                      @Nonnull final EAS4AsyncRejectionPolicy eRejectionPolicy)
+  {
+    return new AS4AsyncProcessingExecutor (nThreads,
+                                           nQueueCapacity,
+                                           nMaxPerKey,
+                                           m_aKeys::get,
+                                           eRejectionPolicy,
+                                           AS4AsyncProcessingExecutor.createDefaultThreadFactory ());
+  }
+
+  @Test (timeout = 10_000)
+  public void testPerKeyLimit () throws Exception
+  {
+    try (final AS4AsyncProcessingExecutor aExecutor = _createExecutor (4, 10, 1, EAS4AsyncRejectionPolicy.EBMS_ERROR))
+    {
+      final CountDownLatch aBlock = new CountDownLatch (1);
+      final CompletableFuture <Void> aFuture = aExecutor.submit (_createState ("a"), aBlock::await);
+      assertNotNull (aFuture);
+      assertEquals (1, aExecutor.getInFlightCount ("a"));
+
+      // Same key is rejected
+      assertNull (aExecutor.submit (_createState ("a"), () -> {}));
+      assertNull (aExecutor.admit (_createState ("a")));
+      assertEquals (2, aExecutor.getRejectedCount ());
+
+      // Other key is accepted
+      final AS4AsyncProcessingExecutor.Admission aAdmission = aExecutor.admit (_createState ("b"));
+      assertNotNull (aAdmission);
+      assertFalse (aAdmission.isCallerRuns ());
+      assertEquals (1, aExecutor.getInFlightCount ("b"));
+      aAdmission.cancel ();
+      assertEquals (0, aExecutor.getInFlightCount ("b"));
+
+      aBlock.countDown ();
+      aFuture.get ();
+      assertEquals (0, aExecutor.getInFlightCount ("a"));
+      assertEquals (1, aExecutor.getSubmittedCount ());
+      assertEquals (1, aExecutor.getCompletedCount ());
+      assertEquals (2, aExecutor.getRejectedCount ());
+
+      // Key is free again
+      final CompletableFuture <Void> aFuture2 = aExecutor.submit (_createState ("a"), () -> {});
+      assertNotNull (aFuture2);
+      aFuture2.get ();
+      assertEquals (2, aExecutor.getCompletedCount ());
+    }
+  }
+
+  @Test (timeout = 10_000)
+  public void testQueueRejectionEbmsError () throws Exception
+  {
+    try (final AS4AsyncProcessingExecutor aExecutor = _createExecutor (1, 1, 0, EAS4AsyncRejectionPolicy.EBMS_ERROR))
+    {
+      final CountDownLatch aStarted = new CountDownLatch (1);
+      final CountDownLatch aBlock = new CountDownLatch (1);
+      // Running
+      final CompletableFuture <Void> aFuture1 = aExecutor.submit (_createState ("a"), () -> {
+        aStarted.countDown ();
+        aBlock.await ();
+      });
+      assertNotNull (aFuture1);
+      aStarted.await ();
+      // Queued
+      final CompletableFuture <Void> aFuture2 = aExecutor.submit (_createState ("a"), () -> {});
+      assertNotNull (aFuture2);
+      assertEquals (1, aExecutor.getQueueDepth ());
+
+      // Capacity exhausted
+      assertNull (aExecutor.submit (_createState ("b"), () -> {}));
+      assertEquals (2, aExecutor.getSubmittedCount ());
+      assertEquals (1, aExecutor.getRejectedCount ());
+
+      aBlock.countDown ();
+      aFuture1.get ();
+      aFuture2.get ();
+      assertEquals (2, aExecutor.getCompletedCount ());
+      assertEquals (0, aExecutor.getQueueDepth ());
+
+      // Capacity is available again
+      final CompletableFuture <Void> aFuture3 = aExecutor.submit (_createState ("b"), () -> {});
+      assertNotNull (aFuture3);
+      aFuture3.get ();
+      assertEquals (3, aExecutor.getSubmittedCount ());
+      assertEquals (3, aExecutor.getCompletedCount ());
+      assertEquals (1, aExecutor.getRejectedCount ());
+    }
+  }
+
+  @Test (timeout = 10_000)
+  public void testQueueRejectionCallerRuns () throws Exception
+  {
+    try (final AS4AsyncProcessingExecutor aExecutor = _createExecutor (1, 1, 0, EAS4AsyncRejectionPolicy.CALLER_RUNS))
+    {
+      final CountDownLatch aStarted = new CountDownLatch (1);
+      final CountDownLatch aBlock = new CountDownLatch (1);
+      final CompletableFuture <Void> aFuture1 = aExecutor.submit (_createState ("a"), () -> {
+        aStarted.countDown ();
+        aBlock.await ();
+      });
+      aStarted.await ();
+      final CompletableFuture <Void> aFuture2 = aExecutor.submit (_createState ("a"), () -> {});
+
+      // Capacity exhausted - run in the calling thread
+      final AtomicReference <Thread> aRunner = new AtomicReference <> ();
+      final CompletableFuture <Void> aFuture3 = aExecutor.submit (_createState ("b"), () -> aRunner.set (Thread.currentThread ()));
+      assertNotNull (aFuture3);
+      assertTrue (aFuture3.isDone ());
+      assertSame (Thread.currentThread (), aRunner.get ());
+      assertEquals (3, aExecutor.getSubmittedCount ());
+      assertEquals (1, aExecutor.getRejectedCount ());
+
+      aBlock.countDown ();
+      aFuture1.get (5, TimeUnit.SECONDS);
+      aFuture2.get (5, TimeUnit.SECONDS);
+      // Only the tasks run by the executor threads
+      assertEquals (2, aExecutor.getCompletedCount ());
+    }
+  }
+
+  @Test (timeout = 10_000)
+  public void testCancelReleasesCapacity () throws Exception
+  {
+    try (final AS4AsyncProcessingExecutor aExecutor = _createExecutor (1, 1, 0, EAS4AsyncRejectionPolicy.EBMS_ERROR))
+    {
+      final AS4AsyncProcessingExecutor.Admission aAdmission1 = aExecutor.admit (_createState ("a"));
+      final AS4AsyncProcessingExecutor.Admission aAdmission2 = aExecutor.admit (_createState ("a"));
+      assertNotNull (aAdmission1);
+      assertNotNull (aAdmission2);
+      assertNull (aExecutor.admit (_createState ("a")));
+
+      // Cancelling twice has no additional effect
+      aAdmission1.cancel ();
+      aAdmission1.cancel ();
+      final AS4AsyncProcessingExecutor.Admission aAdmission3 = aExecutor.admit (_createState ("a"));
+      assertNotNull (aAdmission3);
+      assertNull (aExecutor.admit (_createState ("a")));
+
+      aAdmission2.submit ( () -> {}).get ();
+      aAdmission3.cancel ();
+      assertEquals (1, aExecutor.getSubmittedCount ());
+      assertEquals (2, aExecutor.getRejectedCount ());
+    }
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.w3c.dom.Document;
+
+import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.ebms3header.Ebms3CollaborationInfo;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3MessageInfo;
+import com.helger.phase4.ebms3header.Ebms3PartyInfo;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.domain.AS4ErrorMessage;
+import com.helger.phase4.messaging.domain.AS4UserMessage;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.Phase4Exception;
+import com.helger.xml.serialize.write.XMLWriter;
+
+/**
+ * Test class for class {@link AS4IncomingHandler}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4IncomingHandlerTest
+{
+  private static final String BOUNDARY = "----=_Part_0_phase4";
+  private static final String SOAP = "<S12:Envelope xmlns:S12=\"http://www.w3.org/2003/05/soap-envelope\"><S12:Header/><S12:Body/></S12:Envelope>";
+
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static byte [] _createMultipart (@Nonnull final byte [] aAttachment)
+  {
+    final String sHeader = "--" +
+                           BOUNDARY +
+                           "\r\n" +
+                           "Content-Type: application/soap+xml;charset=UTF-8\r\n" +
+                           "\r\n" +
+                           SOAP +
+                           "\r\n--" +
+                           BOUNDARY +
+                           "\r\n" +
+                           "Content-Type: application/octet-stream\r\n" +
+                           "Content-Transfer-Encoding: binary\r\n" +
+                           "Content-ID: <att1@phase4>\r\n" +
+                           "\r\n";
+    final String sFooter = "\r\n--" + BOUNDARY + "--\r\n";
+    return ArrayHelper.getConcatenated (ArrayHelper.getConcatenated (sHeader.getBytes (StandardCharsets.ISO_8859_1), aAttachment),
+                                        sFooter.getBytes (StandardCharsets.ISO_8859_1));
+  }
+
+  @Nonnull
+  private static HttpResponse _createSoapResponse ()
+  {
+    final HttpResponse ret = new BasicHttpResponse (HttpVersion.HTTP_1_1, 200, "OK");
+    ret.addHeader (CHttpHeader.CONTENT_TYPE, "application/soap+xml;charset=UTF-8");
+    return ret;
+  }
+
+  @Nonnull
+  private static NonBlockingByteArrayInputStream _getAsStream (@Nonnull final Document aDoc)
+  {
+    return new NonBlockingByteArrayInputStream (XMLWriter.getNodeAsString (aDoc).getBytes (StandardCharsets.UTF_8));
+  }
+
+  @Nonnull
+  private static IAS4IncomingProfileSelector _createProfileSelector ()
+  {
+    // No profile validation, as the test messages are not profile specific
+    return aState -> null;
+  }
+
+  @Nonnull
+  private static HttpHeaderMap _createHeaders ()
+  {
+    final HttpHeaderMap ret = new HttpHeaderMap ();
+    ret.addHeader (CHttpHeader.CONTENT_TYPE,
+                   "multipart/related; boundary=\"" + BOUNDARY + "\"; type=\"application/soap+xml\"");
+    return ret;
+  }
+
+  @Test
+  public void testStreamingLargeAttachment () throws Exception
+  {
+    assertTrue (AS4Configuration.isIncomingAttachmentStreaming ());
+
+    // Larger than the memory threshold, so that it is spooled to a file
+    final byte [] aAttachment = new byte [(int) AS4Configuration.getIncomingAttachmentMemoryThreshold () * 4 + 17];
+    new Random (42).nextBytes (aAttachment);
+
+    final ICommonsList <WSS4JAttachment> aReceived = new CommonsArrayList <> ();
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      AS4IncomingHandler.parseAS4Message (IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                          aResHelper,
+                                          new AS4IncomingMessageMetadata (EAS4MessageMode.REQUEST),
+                                          new NonBlockingByteArrayInputStream (_createMultipart (aAttachment)),
+                                          _createHeaders (),
+                                          (aHttpHeaders, aSoapDocument, eSoapVersion, aIncomingAttachments) -> {
+                                            assertNotNull (aSoapDocument);
+                                            assertEquals (ESoapVersion.SOAP_12, eSoapVersion);
+                                            aReceived.addAll (aIncomingAttachments);
+                                          },
+                                          null);
+
+      assertEquals (1, aReceived.size ());
+      final WSS4JAttachment aReceivedAttachment = aReceived.getFirst ();
+      assertEquals ("att1@phase4", aReceivedAttachment.getId ());
+      // Can be read more than once
+      assertArrayEquals (aAttachment, StreamHelper.getAllBytes (aReceivedAttachment.getSourceStream ()));
+      assertArrayEquals (aAttachment, StreamHelper.getAllBytes (aReceivedAttachment.getSourceStream ()));
+    }
+  }
+
+  @Test
+  public void testStreamingTruncatedBody () throws Exception
+  {
+    final byte [] aAttachment = new byte [(int) AS4Configuration.getIncomingAttachmentMemoryThreshold () * 2];
+    new Random (42).nextBytes (aAttachment);
+    final byte [] aFull = _createMultipart (aAttachment);
+    // Cut in the middle of the attachment - the closing boundary is missing
+    final byte [] aTruncated = Arrays.copyOf (aFull, aFull.length - aAttachment.length / 2);
+
+    final boolean [] aCalled = { false };
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      AS4IncomingHandler.parseAS4Message (IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                          aResHelper,
+                                          new AS4IncomingMessageMetadata (EAS4MessageMode.REQUEST),
+                                          new NonBlockingByteArrayInputStream (aTruncated),
+                                          _createHeaders (),
+                                          (aHttpHeaders, aSoapDocument, eSoapVersion, aIncomingAttachments) -> aCalled[0] = true,
+                                          null);
+      fail ("A truncated body must not be accepted");
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+    assertFalse (aCalled[0]);
+  }
+
+  @Test
+  public void testStreamingParseSignalMessage () throws Exception
+  {
+    final ICommonsList <Ebms3Error> aErrors = new CommonsArrayList <> (EEbmsError.EBMS_INVALID_HEADER.getAsEbms3Error (Locale.US,
+                                                                                                                       "srcmsgid"));
+    final AS4ErrorMessage aErrorMsg = AS4ErrorMessage.create (ESoapVersion.SOAP_12, "srcmsgid", aErrors);
+    final String sMessageID = aErrorMsg.getEbms3SignalMessage ().getMessageInfo ().getMessageId ();
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final Ebms3SignalMessage aSignalMsg = AS4IncomingHandler.parseSignalMessage (AS4CryptoFactoryProperties.getDefaultInstance (),
+                                                                                   new DefaultPModeResolver (true),
+                                                                                   IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                                                                   _createProfileSelector (),
+                                                                                   aResHelper,
+                                                                                   null,
+                                                                                   Locale.US,
+                                                                                   new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE),
+                                                                                   _createSoapResponse (),
+                                                                                   _getAsStream (aErrorMsg.getAsSoapDocument ()),
+                                                                                   null);
+      assertNotNull (aSignalMsg);
+      assertEquals (sMessageID, aSignalMsg.getMessageInfo ().getMessageId ());
+      assertEquals ("srcmsgid", aSignalMsg.getMessageInfo ().getRefToMessageId ());
+      assertEquals (1, aSignalMsg.getErrorCount ());
+      assertEquals (EEbmsError.EBMS_INVALID_HEADER.getErrorCode (), aSignalMsg.getErrorAtIndex (0).getErrorCode ());
+    }
+  }
+
+  @Test
+  public void testStreamingParseUserMessage () throws Exception
+  {
+    final Ebms3MessageInfo aMessageInfo = MessageHelperMethods.createEbms3MessageInfo ();
+    final Ebms3CollaborationInfo aCollaborationInfo = MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                                        "urn:as4:agreements:so-that-we-have-a-non-empty-value",
+                                                                                                        "MyServiceTypes",
+                                                                                                        "QuoteToCollect",
+                                                                                                        "NewPurchaseOrder",
+                                                                                                        "4321");
+    final Ebms3PartyInfo aPartyInfo = MessageHelperMethods.createEbms3PartyInfo (CAS4.DEFAULT_INITIATOR_URL,
+                                                                                 "1234",
+                                                                                 CAS4.DEFAULT_RESPONDER_URL,
+                                                                                 "5678");
+    final AS4UserMessage aUserMsg = AS4UserMessage.create (aMessageInfo,
+                                                           MessageHelperMethods.createEbms3PayloadInfo (false, null),
+                                                           aCollaborationInfo,
+                                                           aPartyInfo,
+                                                           MessageHelperMethods.createEbms3MessageProperties (null),
+                                                           ESoapVersion.SOAP_12);
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final Ebms3UserMessage aParsedMsg = AS4IncomingHandler.parseUserMessage (AS4CryptoFactoryProperties.getDefaultInstance (),
+                                                                               new DefaultPModeResolver (true),
+                                                                               IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                                                               _createProfileSelector (),
+                                                                               aResHelper,
+                                                                               null,
+                                                                               Locale.US,
+                                                                               new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE),
+                                                                               _createSoapResponse (),
+                                                                               _getAsStream (aUserMsg.getAsSoapDocument ()),
+                                                                               null);
+      assertNotNull (aParsedMsg);
+      assertEquals (aMessageInfo.getMessageId (), aParsedMsg.getMessageInfo ().getMessageId ());
+      assertEquals ("NewPurchaseOrder", aParsedMsg.getCollaborationInfo ().getAction ());
+
+      // A UserMessage is not a SignalMessage
+      assertNull (AS4IncomingHandler.parseSignalMessage (AS4CryptoFactoryProperties.getDefaultInstance (),
+                                                         new DefaultPModeResolver (true),
+                                                         IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                                         _createProfileSelector (),
+                                                         aResHelper,
+                                                         null,
+                                                         Locale.US,
+                                                         new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE),
+                                                         _createSoapResponse (),
+                                                         _getAsStream (aUserMsg.getAsSoapDocument ()),
+                                                         null));
+    }
+  }
+
+  @Test
+  public void testStreamingParseMalformedResponse () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      for (final String sBody : new String [] { "", "<S12:Envelope xmlns:S12=\"http://www.w3.org/2003/05/soap-envelope\"><S12:Header>" })
+      {
+        try
+        {
+          AS4IncomingHandler.parseSignalMessage (AS4CryptoFactoryProperties.getDefaultInstance (),
+                                                 new DefaultPModeResolver (true),
+                                                 IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                                 _createProfileSelector (),
+                                                 aResHelper,
+                                                 null,
+                                                 Locale.US,
+                                                 new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE),
+                                                 _createSoapResponse (),
+                                                 new NonBlockingByteArrayInputStream (sBody.getBytes (StandardCharsets.UTF_8)),
+                                                 null);
+          fail ("A malformed response must not be accepted: '" + sBody + "'");
+        }
+        catch (final Phase4Exception ex)
+        {
+          // expected
+        }
+      }
+    }
+  }
+}
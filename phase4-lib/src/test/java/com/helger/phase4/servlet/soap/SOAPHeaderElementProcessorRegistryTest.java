@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.soap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import com.helger.commons.state.ESuccess;
+
+/**
+ * Test class for class {@link SOAPHeaderElementProcessorRegistry}.
+ *
+ * @author Philip Helger
+ */
+public final class SOAPHeaderElementProcessorRegistryTest
+{
+  @Test
+  public void testFreeze ()
+  {
+    final ISOAPHeaderElementProcessor aProc1 = (aSOAPDoc, aHeaderElement, aAttachments, aState, aErrorList) -> ESuccess.SUCCESS;
+    final ISOAPHeaderElementProcessor aProc2 = (aSOAPDoc, aHeaderElement, aAttachments, aState, aErrorList) -> ESuccess.FAILURE;
+
+    final SOAPHeaderElementProcessorRegistry aRegistry = new SOAPHeaderElementProcessorRegistry ();
+    aRegistry.registerHeaderElementProcessor (new QName ("urn:a", "Messaging"), aProc1);
+    aRegistry.registerHeaderElementProcessor (new QName ("urn:b", "Security"), aProc2);
+    assertFalse (aRegistry.isFrozen ());
+
+    assertSame (aRegistry, aRegistry.freeze ());
+    assertTrue (aRegistry.isFrozen ());
+
+    // Lookup with new QName instances
+    assertSame (aProc1, aRegistry.getHeaderElementProcessor (new QName ("urn:a", "Messaging")));
+    assertSame (aProc2, aRegistry.getHeaderElementProcessor (new QName ("urn:b", "Security")));
+    assertNull (aRegistry.getHeaderElementProcessor (new QName ("urn:b", "Messaging")));
+    assertNull (aRegistry.getHeaderElementProcessor (null));
+    assertTrue (aRegistry.containsHeaderElementProcessor (new QName ("urn:a", "Messaging")));
+    assertEquals (2, aRegistry.getAllElementProcessorsView ().size ());
+
+    try
+    {
+      aRegistry.registerHeaderElementProcessor (new QName ("urn:c", "Other"), aProc1);
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+}
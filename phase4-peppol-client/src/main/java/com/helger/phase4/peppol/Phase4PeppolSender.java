@@ -59,6 +59,7 @@ import com.helger.peppolid.peppol.doctype.PeppolDocumentTypeIdentifierParts;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.Phase4OutgoingAttachment;
+import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailCache;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderPeppol;
 import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
@@ -307,7 +308,7 @@ public final class Phase4PeppolSender
       // Override default values
       try
       {
-        httpClientFactory (new Phase4PeppolHttpClientSettings ());
+        httpClientFactory (Phase4PeppolHttpClientSettings.getSharedHttpClientFactory ());
         agreementRef (PeppolPMode.DEFAULT_AGREEMENT_ID);
         fromPartyIDType (PeppolPMode.DEFAULT_PARTY_TYPE_ID);
         fromRole (CAS4.DEFAULT_INITIATOR_URL);
@@ -474,7 +475,10 @@ public final class Phase4PeppolSender
     /**
      * Set the SMP client to be used. This is the point where e.g. the
      * differentiation between SMK and SML can be done. This must be set prior
-     * to sending.
+     * to sending. The SMP lookup results are not cached. To use an
+     * {@link AS4EndpointDetailCache}, pass a provider with a cache instance
+     * specific to the SML via
+     * {@link #endpointDetailProvider(IAS4EndpointDetailProvider)}.
      *
      * @param aSMPClient
      *        The SMP client to be used. May not be <code>null</code>.
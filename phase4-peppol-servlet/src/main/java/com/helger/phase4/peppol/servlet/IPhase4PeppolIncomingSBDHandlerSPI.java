@@ -16,7 +16,10 @@
  */
 package com.helger.phase4.peppol.servlet;
 
+import java.time.Duration;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
 
@@ -70,9 +73,65 @@ public interface IPhase4PeppolIncomingSBDHandlerSPI
                           @Nonnull PeppolSBDHDocument aPeppolSBD,
                           @Nonnull IAS4MessageState aState) throws Exception;
 
+  /**
+   * Define if this handler supports the streaming mode. If all handlers
+   * support it, the incoming SBD is never fully read into memory - only the
+   * SBDH is parsed and
+   * {@link #handleIncomingSBDStreaming(IAS4IncomingMessageMetadata, HttpHeaderMap, Ebms3UserMessage, Phase4PeppolStreamedSBD, PeppolSBDHDocument, IAS4MessageState)}
+   * is invoked instead of
+   * {@link #handleIncomingSBD(IAS4IncomingMessageMetadata, HttpHeaderMap, Ebms3UserMessage, byte[], StandardBusinessDocument, PeppolSBDHDocument, IAS4MessageState)}.
+   * By default it is not supported.
+   *
+   * @return <code>true</code> if the streaming mode is supported,
+   *         <code>false</code> if not.
+   * @since 1.3.3
+   */
+  default boolean isStreamingSupported ()
+  {
+    return false;
+  }
+
+  /**
+   * Handle the provided incoming StandardBusinessDocument in streaming mode.
+   * This is only invoked if {@link #isStreamingSupported()} returns
+   * <code>true</code>.
+   *
+   * @param aMessageMetadata
+   *        Message metadata. Includes data when and from whom it was received.
+   *        Never <code>null</code>.
+   * @param aHeaders
+   *        The (HTTP) headers of the incoming request. Never <code>null</code>.
+   * @param aUserMessage
+   *        The received EBMS user message. Never <code>null</code>.
+   * @param aStreamedSBD
+   *        The incoming SBD with the parsed SBDH and the business message as a
+   *        stream that can be read more than once. Never <code>null</code>.
+   * @param aPeppolSBD
+   *        The pre-parsed Peppol Standard Business Document. Never
+   *        <code>null</code>. Note: if all handlers support streaming, the
+   *        contained business message is only an empty element with the name
+   *        of the real business message root element.
+   * @param aState
+   *        The message state. Never <code>null</code>.
+   * @throws Exception
+   *         In case it cannot be processed.
+   * @since 1.3.3
+   */
+  default void handleIncomingSBDStreaming (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nonnull final HttpHeaderMap aHeaders,
+                                           @Nonnull final Ebms3UserMessage aUserMessage,
+                                           @Nonnull final Phase4PeppolStreamedSBD aStreamedSBD,
+                                           @Nonnull final PeppolSBDHDocument aPeppolSBD,
+                                           @Nonnull final IAS4MessageState aState) throws Exception
+  {
+    throw new UnsupportedOperationException ("Streaming mode is not supported by " + getClass ().getName ());
+  }
+
   /**
    * Define if an exception from
    * {@link #handleIncomingSBD(IAS4IncomingMessageMetadata, HttpHeaderMap, Ebms3UserMessage, byte[], StandardBusinessDocument, PeppolSBDHDocument, IAS4MessageState)}
+   * or
+   * {@link #handleIncomingSBDStreaming(IAS4IncomingMessageMetadata, HttpHeaderMap, Ebms3UserMessage, Phase4PeppolStreamedSBD, PeppolSBDHDocument, IAS4MessageState)}
    * results in a negative AS4 response or not. By default it is not.
    *
    * @return <code>true</code> to convert an Exception into an AS4 Error,
@@ -84,4 +143,40 @@ public interface IPhase4PeppolIncomingSBDHandlerSPI
   {
     return false;
   }
+
+  /**
+   * Define if this handler is invoked detached from the message processing.
+   * This only has an effect if a handler executor is set in
+   * {@link Phase4PeppolServletMessageProcessorSPI}. In that case the handler
+   * is started after all other handlers finished and the AS4 receipt is not
+   * waiting for it. Exceptions of such handlers are only logged. Note: the
+   * message state may only be used for reading simple values, because the
+   * resources of the request may already be closed. By default it is not
+   * detached.
+   *
+   * @return <code>true</code> if the handler is fire-and-forget,
+   *         <code>false</code> if the AS4 receipt waits for it.
+   * @since 1.3.3
+   */
+  default boolean isFireAndForget ()
+  {
+    return false;
+  }
+
+  /**
+   * Get the maximum duration this handler may take. This only has an effect
+   * if a handler executor is set in
+   * {@link Phase4PeppolServletMessageProcessorSPI}. A handler that takes
+   * longer is interrupted and handled like a handler throwing an exception.
+   *
+   * @return The timeout of this handler. May be <code>null</code> to use the
+   *         timeout of {@link Phase4PeppolServletMessageProcessorSPI}, which is
+   *         the default.
+   * @since 1.3.3
+   */
+  @Nullable
+  default Duration getHandlerTimeout ()
+  {
+    return null;
+  }
 }
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.smpclient.exception.SMPClientException;
+import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
+import com.helger.xsds.peppol.smp1.EndpointType;
+import com.helger.xsds.peppol.smp1.SignedServiceMetadataType;
+
+/**
+ * An {@link ISMPServiceMetadataProvider} that wraps another provider and
+ * caches the results of {@link #getEndpoint(IParticipantIdentifier,
+ * IDocumentTypeIdentifier, IProcessIdentifier, ISMPTransportProfile)} keyed by
+ * participant ID, document type ID, process ID and transport profile. The
+ * endpoint certificate is parsed only once per lookup. Found endpoints are
+ * cached for the time to live and missing endpoints for the (usually shorter)
+ * negative time to live. Failed lookups are never cached. Concurrent lookups
+ * of the same key are performed only once. If the maximum size is exceeded,
+ * the least recently used entry is removed.<br>
+ * Use an instance of this class as the SMP client of
+ * {@link Phase4PeppolReceiverCheckData} or
+ * {@link Phase4PeppolServletConfiguration#setSMPClient(ISMPServiceMetadataProvider)}.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@ThreadSafe
+public class Phase4PeppolCachingServiceMetadataProvider implements ISMPServiceMetadataProvider
+{
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes (10);
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes (1);
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolCachingServiceMetadataProvider.class);
+  private static final char SEPARATOR = '\u0000';
+
+  private static final class Entry
+  {
+    private final Phase4PeppolResolvedEndpoint m_aResolved;
+    private final long m_nExpirationMillis;
+
+    Entry (@Nonnull final Phase4PeppolResolvedEndpoint aResolved, final long nExpirationMillis)
+    {
+      m_aResolved = aResolved;
+      m_nExpirationMillis = nExpirationMillis;
+    }
+  }
+
+  private final ISMPServiceMetadataProvider m_aDelegate;
+  private final Duration m_aTTL;
+  private final Duration m_aNegativeTTL;
+  private final int m_nMaxSize;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Access ordered for LRU
+  @GuardedBy ("m_aLock")
+  private final Map <String, Entry> m_aMap;
+  // The lookups currently in progress
+  private final Map <String, CompletableFuture <Phase4PeppolResolvedEndpoint>> m_aInFlight = new ConcurrentHashMap <> ();
+
+  /**
+   * Constructor with {@link #DEFAULT_TTL}, {@link #DEFAULT_NEGATIVE_TTL} and
+   * {@link #DEFAULT_MAX_SIZE}.
+   *
+   * @param aDelegate
+   *        The SMP client to perform the real lookups. May not be
+   *        <code>null</code>.
+   */
+  public Phase4PeppolCachingServiceMetadataProvider (@Nonnull final ISMPServiceMetadataProvider aDelegate)
+  {
+    this (aDelegate, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The SMP client to perform the real lookups. May not be
+   *        <code>null</code>.
+   * @param aTTL
+   *        The time to live of found endpoints. May not be <code>null</code>
+   *        and must be positive.
+   * @param aNegativeTTL
+   *        The time to live of missing endpoints. May not be <code>null</code>
+   *        and must not be negative. Use {@link Duration#ZERO} to disable
+   *        negative caching.
+   * @param nMaxSize
+   *        The maximum number of cached entries. Must be &gt; 0.
+   */
+  public Phase4PeppolCachingServiceMetadataProvider (@Nonnull final ISMPServiceMetadataProvider aDelegate,
+                                                     @Nonnull final Duration aTTL,
+                                                     @Nonnull final Duration aNegativeTTL,
+                                                     @Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative () || aTTL.isZero (), "TTL must be positive");
+    ValueEnforcer.notNull (aNegativeTTL, "NegativeTTL");
+    ValueEnforcer.isFalse (aNegativeTTL.isNegative (), "NegativeTTL must not be negative");
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aDelegate = aDelegate;
+    m_aTTL = aTTL;
+    m_aNegativeTTL = aNegativeTTL;
+    m_nMaxSize = nMaxSize;
+    m_aMap = new LinkedHashMap <String, Entry> (16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <String, Entry> aEldest)
+      {
+        return size () > m_nMaxSize;
+      }
+    };
+  }
+
+  /**
+   * @return The wrapped SMP client. Never <code>null</code>.
+   */
+  @Nonnull
+  public final ISMPServiceMetadataProvider getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  /**
+   * @return The time to live of found endpoints. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  /**
+   * @return The time to live of missing endpoints. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getNegativeTTL ()
+  {
+    return m_aNegativeTTL;
+  }
+
+  /**
+   * @return The maximum number of cached entries. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return The number of currently cached entries, including expired ones.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * Remove all cached entries.
+   */
+  public void clearCache ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  /**
+   * Not cached - always delegated.
+   */
+  @Nullable
+  public SignedServiceMetadataType getServiceMetadataOrNull (@Nonnull final IParticipantIdentifier aServiceGroupID,
+                                                             @Nonnull final IDocumentTypeIdentifier aDocumentTypeID) throws SMPClientException
+  {
+    return m_aDelegate.getServiceMetadataOrNull (aServiceGroupID, aDocumentTypeID);
+  }
+
+  @Nonnull
+  private static String _getKey (@Nonnull final IParticipantIdentifier aServiceGroupID,
+                                 @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                 @Nonnull final IProcessIdentifier aProcessID,
+                                 @Nonnull final ISMPTransportProfile aTransportProfile)
+  {
+    return aServiceGroupID.getURIEncoded () +
+           SEPARATOR +
+           aDocumentTypeID.getURIEncoded () +
+           SEPARATOR +
+           aProcessID.getURIEncoded () +
+           SEPARATOR +
+           aTransportProfile.getID ();
+  }
+
+  @Nonnull
+  private Phase4PeppolResolvedEndpoint _lookup (@Nonnull final IParticipantIdentifier aServiceGroupID,
+                                                @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                                @Nonnull final IProcessIdentifier aProcessID,
+                                                @Nonnull final ISMPTransportProfile aTransportProfile,
+                                                @Nonnull final String sKey) throws SMPClientException
+  {
+    final CompletableFuture <Phase4PeppolResolvedEndpoint> aOwnFuture = new CompletableFuture <> ();
+    final CompletableFuture <Phase4PeppolResolvedEndpoint> aOtherFuture = m_aInFlight.putIfAbsent (sKey, aOwnFuture);
+    if (aOtherFuture != null)
+    {
+      // Another thread is already performing the lookup
+      try
+      {
+        return aOtherFuture.get ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new SMPClientException ("Interrupted while waiting for the SMP lookup", ex);
+      }
+      catch (final ExecutionException ex)
+      {
+        if (ex.getCause () instanceof SMPClientException)
+          throw (SMPClientException) ex.getCause ();
+        throw new SMPClientException ("Error performing SMP lookup", ex.getCause ());
+      }
+    }
+
+    try
+    {
+      final EndpointType aEndpoint = m_aDelegate.getEndpoint (aServiceGroupID, aDocumentTypeID, aProcessID, aTransportProfile);
+      final Phase4PeppolResolvedEndpoint ret = Phase4PeppolResolvedEndpoint.create (aEndpoint);
+      final Duration aTTL = ret.hasEndpoint () ? m_aTTL : m_aNegativeTTL;
+      if (!aTTL.isZero ())
+      {
+        final Entry aEntry = new Entry (ret, System.currentTimeMillis () + aTTL.toMillis ());
+        m_aLock.locked ( () -> m_aMap.put (sKey, aEntry));
+      }
+      aOwnFuture.complete (ret);
+      return ret;
+    }
+    catch (final Throwable t)
+    {
+      // Make sure waiting threads are never blocked forever
+      aOwnFuture.completeExceptionally (t);
+      throw t;
+    }
+    finally
+    {
+      m_aInFlight.remove (sKey, aOwnFuture);
+    }
+  }
+
+  /**
+   * Get the resolved endpoint from the cache or perform the lookup.
+   *
+   * @param aServiceGroupID
+   *        Participant ID. May not be <code>null</code>.
+   * @param aDocumentTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcessID
+   *        Process ID. May not be <code>null</code>.
+   * @param aTransportProfile
+   *        Transport profile. May not be <code>null</code>.
+   * @return The resolved endpoint and never <code>null</code>. Use
+   *         {@link Phase4PeppolResolvedEndpoint#hasEndpoint()} to check if an
+   *         endpoint was found. The contained endpoint is shared between all
+   *         users of this cache and must not be modified.
+   * @throws SMPClientException
+   *         If the lookup failed
+   */
+  @Nonnull
+  public Phase4PeppolResolvedEndpoint getResolvedEndpoint (@Nonnull final IParticipantIdentifier aServiceGroupID,
+                                                           @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                                           @Nonnull final IProcessIdentifier aProcessID,
+                                                           @Nonnull final ISMPTransportProfile aTransportProfile) throws SMPClientException
+  {
+    ValueEnforcer.notNull (aServiceGroupID, "ServiceGroupID");
+    ValueEnforcer.notNull (aDocumentTypeID, "DocumentTypeID");
+    ValueEnforcer.notNull (aProcessID, "ProcessID");
+    ValueEnforcer.notNull (aTransportProfile, "TransportProfile");
+
+    final String sKey = _getKey (aServiceGroupID, aDocumentTypeID, aProcessID, aTransportProfile);
+    final Entry aEntry = m_aLock.lockedGet ( () -> m_aMap.get (sKey));
+    if (aEntry != null && aEntry.m_nExpirationMillis > System.currentTimeMillis ())
+      return aEntry.m_aResolved;
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("SMP endpoint cache miss for '" + sKey.replace (SEPARATOR, ' ') + "'");
+    return _lookup (aServiceGroupID, aDocumentTypeID, aProcessID, aTransportProfile, sKey);
+  }
+
+  /**
+   * Get the endpoint from the cache or perform the lookup. As the cached
+   * endpoint is shared, a copy is returned so that the caller may modify it.
+   * Use
+   * {@link #getResolvedEndpoint(IParticipantIdentifier, IDocumentTypeIdentifier, IProcessIdentifier, ISMPTransportProfile)}
+   * to avoid the copy.
+   */
+  @Override
+  @Nullable
+  public EndpointType getEndpoint (@Nonnull final IParticipantIdentifier aServiceGroupID,
+                                   @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                   @Nonnull final IProcessIdentifier aProcessID,
+                                   @Nonnull final ISMPTransportProfile aTransportProfile) throws SMPClientException
+  {
+    final EndpointType aEndpoint = getResolvedEndpoint (aServiceGroupID, aDocumentTypeID, aProcessID, aTransportProfile).getEndpoint ();
+    return aEndpoint == null ? null : aEndpoint.clone ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate)
+                                       .append ("TTL", m_aTTL)
+                                       .append ("NegativeTTL", m_aNegativeTTL)
+                                       .append ("MaxSize", m_nMaxSize)
+                                       .getToString ();
+  }
+}
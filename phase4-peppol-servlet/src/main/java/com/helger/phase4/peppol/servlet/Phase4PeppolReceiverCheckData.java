@@ -44,6 +44,8 @@ public class Phase4PeppolReceiverCheckData
    *
    * @param aSMPClient
    *        The SMP metadata provider to be used. May not be <code>null</code>.
+   *        Use a {@link Phase4PeppolCachingServiceMetadataProvider} to avoid an
+   *        SMP lookup for each incoming message.
    * @param sAS4EndpointURL
    *        The endpoint URL to check against. May neither be <code>null</code>
    *        nor empty.
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.smpclient.peppol.SMPClientReadOnly;
+import com.helger.xsds.peppol.smp1.EndpointType;
+
+/**
+ * The result of an SMP endpoint lookup together with the already parsed
+ * endpoint certificate, so that the certificate string needs to be parsed only
+ * once per lookup.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@Immutable
+public final class Phase4PeppolResolvedEndpoint
+{
+  private final EndpointType m_aEndpoint;
+  private final X509Certificate m_aCertificate;
+  private final CertificateException m_aCertificateEx;
+
+  private Phase4PeppolResolvedEndpoint (@Nullable final EndpointType aEndpoint,
+                                        @Nullable final X509Certificate aCertificate,
+                                        @Nullable final CertificateException aCertificateEx)
+  {
+    m_aEndpoint = aEndpoint;
+    m_aCertificate = aCertificate;
+    m_aCertificateEx = aCertificateEx;
+  }
+
+  /**
+   * @return The resolved endpoint or <code>null</code> if no endpoint is
+   *         registered. If this object is cached, the endpoint is shared and
+   *         must not be modified.
+   */
+  @Nullable
+  public EndpointType getEndpoint ()
+  {
+    return m_aEndpoint;
+  }
+
+  /**
+   * @return <code>true</code> if an endpoint is registered.
+   */
+  public boolean hasEndpoint ()
+  {
+    return m_aEndpoint != null;
+  }
+
+  /**
+   * @return The parsed certificate of the endpoint or <code>null</code> if the
+   *         endpoint has no certificate.
+   * @throws CertificateException
+   *         If the certificate string of the endpoint could not be parsed
+   */
+  @Nullable
+  public X509Certificate getCertificate () throws CertificateException
+  {
+    if (m_aCertificateEx != null)
+      throw m_aCertificateEx;
+    return m_aCertificate;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Endpoint", m_aEndpoint)
+                                       .append ("Certificate", m_aCertificate)
+                                       .append ("CertificateEx", m_aCertificateEx)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a new resolved endpoint and parse the contained certificate.
+   *
+   * @param aEndpoint
+   *        The endpoint as returned from the SMP. May be <code>null</code>.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static Phase4PeppolResolvedEndpoint create (@Nullable final EndpointType aEndpoint)
+  {
+    if (aEndpoint == null)
+      return new Phase4PeppolResolvedEndpoint (null, null, null);
+
+    try
+    {
+      return new Phase4PeppolResolvedEndpoint (aEndpoint, SMPClientReadOnly.getEndpointCertificate (aEndpoint), null);
+    }
+    catch (final CertificateException ex)
+    {
+      return new Phase4PeppolResolvedEndpoint (aEndpoint, null, ex);
+    }
+  }
+}
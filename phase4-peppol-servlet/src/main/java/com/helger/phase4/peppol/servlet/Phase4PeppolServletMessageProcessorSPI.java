@@ -21,14 +21,25 @@ import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.namespace.QName;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
@@ -38,15 +49,21 @@ import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.annotation.UnsupportedOperation;
 import com.helger.commons.annotation.UsedViaReflection;
+import com.helger.commons.collection.ArrayHelper;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.IError;
 import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.ServiceLoaderHelper;
+import com.helger.commons.statistics.StatisticsManager;
 import com.helger.commons.string.StringHelper;
+import com.helger.commons.timing.StopWatch;
 import com.helger.jaxb.validation.WrappedCollectingValidationEventHandler;
 import com.helger.peppol.sbdh.PeppolSBDHDocument;
 import com.helger.peppol.sbdh.read.PeppolSBDHDocumentReadException;
@@ -59,8 +76,8 @@ import com.helger.peppolid.IProcessIdentifier;
 import com.helger.peppolid.factory.SimpleIdentifierFactory;
 import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.EAS4CompressionMode;
-import com.helger.phase4.attachment.IAS4Attachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3Property;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
@@ -74,7 +91,6 @@ import com.helger.phase4.servlet.spi.AS4SignalMessageProcessorResult;
 import com.helger.phase4.servlet.spi.IAS4ServletMessageProcessorSPI;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.sbdh.builder.SBDHReader;
-import com.helger.security.certificate.CertificateHelper;
 import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
 import com.helger.smpclient.peppol.SMPClientReadOnly;
 import com.helger.xml.serialize.write.XMLWriter;
@@ -99,6 +115,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     private EAS4CompressionMode m_eCompressionMode;
     private byte [] m_aPayloadBytes;
     private StandardBusinessDocument m_aSBDH;
+    private Phase4PeppolStreamedSBD m_aStreamedSBD;
 
     private ReadAttachment ()
     {}
@@ -146,14 +163,172 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     {
       return m_aSBDH;
     }
+
+    /**
+     * @return The SBD for the Peppol data extraction. In streaming mode only
+     *         the header is contained.
+     */
+    @Nonnull
+    public StandardBusinessDocument getSBDForExtraction ()
+    {
+      return m_aSBDH != null ? m_aSBDH : m_aStreamedSBD.getAsHeaderOnlyStandardBusinessDocument ();
+    }
+
+    @Nonnull
+    public Phase4PeppolStreamedSBD getStreamedSBD ()
+    {
+      if (m_aStreamedSBD == null)
+      {
+        // Not in streaming mode - create from the already read data
+        final Object aBusinessMessage = m_aSBDH.getAny ();
+        if (!(aBusinessMessage instanceof Element))
+          throw new IllegalStateException ("The SBD contains no business message element");
+        final Element eBusinessMessage = (Element) aBusinessMessage;
+        final byte [] aPayloadBytes = m_aPayloadBytes;
+        m_aStreamedSBD = new Phase4PeppolStreamedSBD (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aPayloadBytes)),
+                                                      m_aSBDH.getStandardBusinessDocumentHeader (),
+                                                      new QName (eBusinessMessage.getNamespaceURI (), eBusinessMessage.getLocalName ()));
+      }
+      return m_aStreamedSBD;
+    }
+
+    /**
+     * Create a copy of this attachment that shares no mutable object with this
+     * one. The payload is copied and parsed again.
+     *
+     * @return The new attachment. Never <code>null</code>.
+     * @throws Phase4PeppolServletException
+     *         If the payload cannot be parsed again
+     */
+    @Nonnull
+    public ReadAttachment getIsolatedCopy () throws Phase4PeppolServletException
+    {
+      final ReadAttachment ret = new ReadAttachment ();
+      ret.m_sID = m_sID;
+      ret.m_sMimeType = m_sMimeType;
+      ret.m_sUncompressedMimeType = m_sUncompressedMimeType;
+      ret.m_aCharset = m_aCharset;
+      ret.m_eCompressionMode = m_eCompressionMode;
+      if (m_aPayloadBytes != null)
+      {
+        ret.m_aPayloadBytes = ArrayHelper.getCopy (m_aPayloadBytes);
+        ret.m_aSBDH = SBDHReader.standardBusinessDocument ().read (ret.m_aPayloadBytes);
+        if (ret.m_aSBDH == null)
+          throw new Phase4PeppolServletException ("Failed to read the provided SBDH document again");
+      }
+      else
+      {
+        // Streaming mode - only the header needs to be read again
+        ret.m_aStreamedSBD = Phase4PeppolStreamedSBD.read (m_aStreamedSBD.getSBDStreamProvider ());
+      }
+      return ret;
+    }
+  }
+
+  /**
+   * A single invocation of a handler. If the invocation runs concurrently to
+   * other handlers, the HTTP headers and the user message are copied. If the
+   * invocation is isolated, the payload bytes, the
+   * SBD (including the DOM of the business message) and the Peppol SBD are
+   * created anew from the payload when the invocation is run, so that
+   * handlers running in parallel never share a mutable object. Only one
+   * invocation per message may be non-isolated and use the original objects.
+   * The message metadata and the message state are shared.
+   */
+  private static final class HandlerInvocation implements Callable <Void>
+  {
+    private final String m_sLogPrefix;
+    private final IPhase4PeppolIncomingSBDHandlerSPI m_aHandler;
+    private final IAS4IncomingMessageMetadata m_aMessageMetadata;
+    private final HttpHeaderMap m_aHttpHeaders;
+    private final Ebms3UserMessage m_aUserMessage;
+    private final ReadAttachment m_aReadAttachment;
+    private final Phase4PeppolStreamedSBD m_aStreamedSBD;
+    private final PeppolSBDHDocument m_aPeppolSBD;
+    private final IAS4MessageState m_aState;
+    private final boolean m_bIsolated;
+
+    HandlerInvocation (@Nonnull final String sLogPrefix,
+                       @Nonnull final IPhase4PeppolIncomingSBDHandlerSPI aHandler,
+                       @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                       @Nonnull final HttpHeaderMap aHttpHeaders,
+                       @Nonnull final Ebms3UserMessage aUserMessage,
+                       @Nonnull final ReadAttachment aReadAttachment,
+                       @Nonnull final PeppolSBDHDocument aPeppolSBD,
+                       @Nonnull final IAS4MessageState aState,
+                       final boolean bConcurrent,
+                       final boolean bIsolated)
+    {
+      m_sLogPrefix = sLogPrefix;
+      m_aHandler = aHandler;
+      m_aMessageMetadata = aMessageMetadata;
+      // Sequential handlers see the modifications of their predecessors anyway
+      final boolean bCopy = bConcurrent || bIsolated;
+      m_aHttpHeaders = bCopy ? aHttpHeaders.getClone () : aHttpHeaders;
+      m_aUserMessage = bCopy ? aUserMessage.clone () : aUserMessage;
+      m_aReadAttachment = aReadAttachment;
+      // Create it in the calling thread, because it is lazily initialized
+      m_aStreamedSBD = !bIsolated && aHandler.isStreamingSupported () ? aReadAttachment.getStreamedSBD () : null;
+      m_aPeppolSBD = aPeppolSBD;
+      m_aState = aState;
+      m_bIsolated = bIsolated;
+    }
+
+    @Nullable
+    public Void call () throws Exception
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug (m_sLogPrefix + "Invoking Peppol handler " + m_aHandler);
+
+      final StopWatch aSW = StopWatch.createdStarted ();
+      try
+      {
+        ReadAttachment aReadAttachment = m_aReadAttachment;
+        Phase4PeppolStreamedSBD aStreamedSBD = m_aStreamedSBD;
+        PeppolSBDHDocument aPeppolSBD = m_aPeppolSBD;
+        if (m_bIsolated)
+        {
+          // Parse in this thread - the values were already checked
+          aReadAttachment = m_aReadAttachment.getIsolatedCopy ();
+          if (m_aHandler.isStreamingSupported ())
+            aStreamedSBD = aReadAttachment.getStreamedSBD ();
+          aPeppolSBD = new PeppolSBDHDocumentReader (SimpleIdentifierFactory.INSTANCE).setPerformValueChecks (false)
+                                                                                      .extractData (aReadAttachment.getSBDForExtraction ());
+        }
+
+        if (aStreamedSBD != null)
+          m_aHandler.handleIncomingSBDStreaming (m_aMessageMetadata, m_aHttpHeaders, m_aUserMessage, aStreamedSBD, aPeppolSBD, m_aState);
+        else
+          m_aHandler.handleIncomingSBD (m_aMessageMetadata,
+                                        m_aHttpHeaders,
+                                        m_aUserMessage,
+                                        aReadAttachment.payloadBytes (),
+                                        aReadAttachment.standardBusinessDocument (),
+                                        aPeppolSBD,
+                                        m_aState);
+      }
+      finally
+      {
+        // Remember the latency per handler class
+        final long nMillis = aSW.stopAndGetMillis ();
+        StatisticsManager.getTimerHandler (HANDLER_STATISTICS_PREFIX + m_aHandler.getClass ().getName ()).addTime (nMillis);
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (m_sLogPrefix + "Peppol handler " + m_aHandler + " took " + nMillis + " milliseconds");
+      }
+      return null;
+    }
   }
 
+  /** Statistics timer name prefix - the handler class name is appended */
+  public static final String HANDLER_STATISTICS_PREFIX = Phase4PeppolServletMessageProcessorSPI.class.getName () + "$handler:";
   public static final ESMPTransportProfile DEFAULT_TRANSPORT_PROFILE = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
   private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolServletMessageProcessorSPI.class);
 
   private ICommonsList <IPhase4PeppolIncomingSBDHandlerSPI> m_aHandlers;
   private ISMPTransportProfile m_aTransportProfile = DEFAULT_TRANSPORT_PROFILE;
   private Phase4PeppolReceiverCheckData m_aReceiverCheckData;
+  private ExecutorService m_aHandlerExecutor;
+  private Duration m_aHandlerTimeout;
 
   /**
    * Constructor. Uses all SPI implementations of
@@ -247,8 +422,85 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     return this;
   }
 
+  /**
+   * @return The executor to run the handlers in parallel. <code>null</code> by
+   *         default.
+   * @since 1.3.3
+   */
+  @Nullable
+  public final ExecutorService getHandlerExecutor ()
+  {
+    return m_aHandlerExecutor;
+  }
+
+  /**
+   * Set the executor to run the handlers in parallel. If it is set, all
+   * handlers are submitted to it and the processing waits until all of them
+   * finished or timed out. Handlers that are fire-and-forget are submitted
+   * afterwards without waiting for them. If it is not set, all handlers are
+   * invoked one after another in the calling thread. The lifecycle of the
+   * executor must be managed by the caller.<br>
+   * Note: in parallel mode each handler except the first one gets its own
+   * copy of the payload bytes, the SBD and the Peppol SBD. So the payload is
+   * parsed once more for each additional handler.
+   *
+   * @param aHandlerExecutor
+   *        The executor to be used. May be <code>null</code>.
+   * @return this for chaining
+   * @see IPhase4PeppolIncomingSBDHandlerSPI#isFireAndForget()
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final Phase4PeppolServletMessageProcessorSPI setHandlerExecutor (@Nullable final ExecutorService aHandlerExecutor)
+  {
+    m_aHandlerExecutor = aHandlerExecutor;
+    return this;
+  }
+
+  /**
+   * @return The timeout for handlers that don't provide their own timeout.
+   *         <code>null</code> by default.
+   * @since 1.3.3
+   */
+  @Nullable
+  public final Duration getHandlerTimeout ()
+  {
+    return m_aHandlerTimeout;
+  }
+
+  /**
+   * Set the timeout for handlers that don't provide their own timeout. This is
+   * only used if a handler executor is set.
+   *
+   * @param aHandlerTimeout
+   *        The timeout to be used. May be <code>null</code> to wait without a
+   *        timeout.
+   * @return this for chaining
+   * @see IPhase4PeppolIncomingSBDHandlerSPI#getHandlerTimeout()
+   * @since 1.3.3
+   */
+  @Nonnull
+  public final Phase4PeppolServletMessageProcessorSPI setHandlerTimeout (@Nullable final Duration aHandlerTimeout)
+  {
+    if (aHandlerTimeout != null)
+      ValueEnforcer.isFalse (aHandlerTimeout.isNegative () || aHandlerTimeout.isZero (), "HandlerTimeout must be positive");
+    m_aHandlerTimeout = aHandlerTimeout;
+    return this;
+  }
+
+  /**
+   * @param aHandler
+   *        The handler in question. May not be <code>null</code>.
+   * @return <code>true</code> if the handler is run detached from the
+   *         processing.
+   */
+  private boolean _isDetached (@Nonnull final IPhase4PeppolIncomingSBDHandlerSPI aHandler)
+  {
+    return m_aHandlerExecutor != null && aHandler.isFireAndForget ();
+  }
+
   @Nullable
-  private EndpointType _getReceiverEndpoint (@Nonnull final String sLogPrefix,
+  private Phase4PeppolResolvedEndpoint _getReceiverEndpoint (@Nonnull final String sLogPrefix,
                                              @Nonnull final ISMPServiceMetadataProvider aSMPClient,
                                              @Nullable final IParticipantIdentifier aRecipientID,
                                              @Nullable final IDocumentTypeIdentifier aDocTypeID,
@@ -274,8 +526,14 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
                       m_aTransportProfile.getID ());
       }
 
-      // Query the SMP
-      return aSMPClient.getEndpoint (aRecipientID, aDocTypeID, aProcessID, m_aTransportProfile);
+      // Query the SMP - the caching provider also keeps the parsed
+      // certificate
+      if (aSMPClient instanceof Phase4PeppolCachingServiceMetadataProvider)
+        return ((Phase4PeppolCachingServiceMetadataProvider) aSMPClient).getResolvedEndpoint (aRecipientID,
+                                                                                            aDocTypeID,
+                                                                                            aProcessID,
+                                                                                            m_aTransportProfile);
+      return Phase4PeppolResolvedEndpoint.create (aSMPClient.getEndpoint (aRecipientID, aDocTypeID, aProcessID, m_aTransportProfile));
     }
     catch (final Exception ex)
     {
@@ -320,19 +578,18 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
 
   private static void _checkIfEndpointCertificateMatches (@Nonnull final String sLogPrefix,
                                                           @Nonnull final X509Certificate aOurCert,
-                                                          @Nonnull final EndpointType aRecipientEndpoint) throws Phase4PeppolServletException
+                                                          @Nonnull final Phase4PeppolResolvedEndpoint aRecipientEndpoint) throws Phase4PeppolServletException
   {
-    final String sRecipientCertString = aRecipientEndpoint.getCertificate ();
     X509Certificate aRecipientCert = null;
     try
     {
-      aRecipientCert = CertificateHelper.convertStringToCertficate (sRecipientCertString);
+      aRecipientCert = aRecipientEndpoint.getCertificate ();
     }
     catch (final CertificateException t)
     {
       throw new Phase4PeppolServletException (sLogPrefix +
                                               "Internal error: Failed to convert looked up endpoint certificate string '" +
-                                              sRecipientCertString +
+                                              aRecipientEndpoint.getEndpoint ().getCertificate () +
                                               "' to an X.509 certificate!",
                                               t);
     }
@@ -365,6 +622,208 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
       LOGGER.debug (sLogPrefix + "The certificate of the SMP lookup matches our certificate");
   }
 
+  @Nonnull
+  private static IHasInputStream _getRepeatableSourceStreamProvider (@Nonnull final WSS4JAttachment aAttachment,
+                                                                     @Nonnull final IAS4MessageState aState) throws IOException
+  {
+    if (aAttachment.isRepeatable ())
+      return HasInputStream.multiple (aAttachment::getSourceStream);
+
+    // Spool it, so that it can be read more than once
+    try (final InputStream aSIS = aAttachment.getSourceStream ())
+    {
+      return WSS4JAttachment.createSpooledInputStreamProvider (aSIS,
+                                                               aState.getResourceHelper (),
+                                                               AS4Configuration.getIncomingAttachmentMemoryThreshold ());
+    }
+  }
+
+  @Nullable
+  private static String _handleHandlerException (@Nonnull final String sLogPrefix,
+                                                 @Nonnull final IPhase4PeppolIncomingSBDHandlerSPI aHandler,
+                                                 @Nonnull final Throwable t)
+  {
+    LOGGER.error (sLogPrefix + "Error invoking Peppol handler " + aHandler, t);
+    if (aHandler.exceptionTranslatesToAS4Error ())
+    {
+      final String sMsg = "The incoming Peppol message could not be processed. Technical details: " +
+                          t.getClass ().getName () +
+                          " - " +
+                          t.getMessage ();
+      LOGGER.error (sLogPrefix + sMsg);
+      return sMsg;
+    }
+    return null;
+  }
+
+  @Nullable
+  private String _invokeHandlersSequentially (@Nonnull final String sLogPrefix,
+                                              @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                              @Nonnull final HttpHeaderMap aHttpHeaders,
+                                              @Nonnull final Ebms3UserMessage aUserMessage,
+                                              @Nonnull final ReadAttachment aReadAttachment,
+                                              @Nonnull final PeppolSBDHDocument aPeppolSBD,
+                                              @Nonnull final IAS4MessageState aState)
+  {
+    for (final IPhase4PeppolIncomingSBDHandlerSPI aHandler : m_aHandlers)
+    {
+      try
+      {
+        new HandlerInvocation (sLogPrefix,
+                               aHandler,
+                               aMessageMetadata,
+                               aHttpHeaders,
+                               aUserMessage,
+                               aReadAttachment,
+                               aPeppolSBD,
+                               aState,
+                               false,
+                               false).call ();
+      }
+      catch (final Exception ex)
+      {
+        final String sMsg = _handleHandlerException (sLogPrefix, aHandler, ex);
+        if (sMsg != null)
+          return sMsg;
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private String _invokeHandlersParallel (@Nonnull final String sLogPrefix,
+                                          @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                          @Nonnull final HttpHeaderMap aHttpHeaders,
+                                          @Nonnull final Ebms3UserMessage aUserMessage,
+                                          @Nonnull final ReadAttachment aReadAttachment,
+                                          @Nonnull final PeppolSBDHDocument aPeppolSBD,
+                                          @Nonnull final IAS4MessageState aState)
+  {
+    final ExecutorService aExecutor = m_aHandlerExecutor;
+    final ICommonsList <IPhase4PeppolIncomingSBDHandlerSPI> aWaitHandlers = new CommonsArrayList <> ();
+    final ICommonsList <Future <Void>> aFutures = new CommonsArrayList <> ();
+    final ICommonsList <IPhase4PeppolIncomingSBDHandlerSPI> aDetachedHandlers = new CommonsArrayList <> ();
+    final long nStartMillis = System.currentTimeMillis ();
+    // Only the first invocation uses the original objects - all others
+    // create their own copies
+    boolean bOriginalUsed = false;
+
+    // Start all handlers we need to wait for
+    for (final IPhase4PeppolIncomingSBDHandlerSPI aHandler : m_aHandlers)
+      if (aHandler.isFireAndForget ())
+        aDetachedHandlers.add (aHandler);
+      else
+      {
+        final HandlerInvocation aInvocation = new HandlerInvocation (sLogPrefix,
+                                                                     aHandler,
+                                                                     aMessageMetadata,
+                                                                     aHttpHeaders,
+                                                                     aUserMessage,
+                                                                     aReadAttachment,
+                                                                     aPeppolSBD,
+                                                                     aState,
+                                                                     true,
+                                                                     bOriginalUsed);
+        bOriginalUsed = true;
+        Future <Void> aFuture;
+        try
+        {
+          aFuture = aExecutor.submit (aInvocation);
+        }
+        catch (final RejectedExecutionException ex)
+        {
+          // Run it in this thread
+          LOGGER.warn (sLogPrefix + "Peppol handler executor rejected " + aHandler + " - running it in the calling thread");
+          final FutureTask <Void> aTask = new FutureTask <> (aInvocation);
+          aTask.run ();
+          aFuture = aTask;
+        }
+        aWaitHandlers.add (aHandler);
+        aFutures.add (aFuture);
+      }
+
+    // Wait for all of them
+    String ret = null;
+    for (int i = 0; i < aFutures.size (); ++i)
+    {
+      final IPhase4PeppolIncomingSBDHandlerSPI aHandler = aWaitHandlers.get (i);
+      final Future <Void> aFuture = aFutures.get (i);
+      final Duration aTimeout = aHandler.getHandlerTimeout () != null ? aHandler.getHandlerTimeout () : m_aHandlerTimeout;
+      Throwable aError = null;
+      try
+      {
+        if (aTimeout == null)
+          aFuture.get ();
+        else
+        {
+          // The timeout starts when the handler was submitted
+          final long nRemainingMillis = nStartMillis + aTimeout.toMillis () - System.currentTimeMillis ();
+          aFuture.get (Math.max (nRemainingMillis, 0), TimeUnit.MILLISECONDS);
+        }
+      }
+      catch (final ExecutionException ex)
+      {
+        aError = ex.getCause ();
+      }
+      catch (final TimeoutException ex)
+      {
+        aFuture.cancel (true);
+        aError = new Phase4PeppolServletException ("Peppol handler " + aHandler + " timed out after " + aTimeout);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        aFuture.cancel (true);
+        aError = ex;
+      }
+
+      if (aError != null)
+      {
+        final String sMsg = _handleHandlerException (sLogPrefix, aHandler, aError);
+        if (sMsg != null && ret == null)
+          ret = sMsg;
+      }
+    }
+
+    if (ret == null)
+    {
+      // Start all detached handlers without waiting for them. Handlers that
+      // timed out may still be running, so the copies are needed as well.
+      for (final IPhase4PeppolIncomingSBDHandlerSPI aHandler : aDetachedHandlers)
+      {
+        final HandlerInvocation aInvocation = new HandlerInvocation (sLogPrefix,
+                                                                     aHandler,
+                                                                     aMessageMetadata,
+                                                                     aHttpHeaders,
+                                                                     aUserMessage,
+                                                                     aReadAttachment,
+                                                                     aPeppolSBD,
+                                                                     aState,
+                                                                     true,
+                                                                     bOriginalUsed);
+        bOriginalUsed = true;
+        try
+        {
+          aExecutor.execute ( () -> {
+            try
+            {
+              aInvocation.call ();
+            }
+            catch (final Exception ex)
+            {
+              LOGGER.error (sLogPrefix + "Error invoking fire-and-forget Peppol handler " + aHandler, ex);
+            }
+          });
+        }
+        catch (final RejectedExecutionException ex)
+        {
+          LOGGER.error (sLogPrefix + "Peppol handler executor rejected fire-and-forget handler " + aHandler);
+        }
+      }
+    }
+    return ret;
+  }
+
   @Nonnull
   public AS4MessageProcessorResult processAS4UserMessage (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
                                                           @Nonnull final HttpHeaderMap aHttpHeaders,
@@ -413,12 +872,19 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
         LOGGER.debug (sLogPrefix + "  SOAP Body Payload = " + XMLWriter.getNodeAsString (aPayload));
     }
 
+    // If all handlers support streaming, the SBD is never read completely.
+    // Detached handlers may run after the request resources are closed, so
+    // they need the data in memory.
+    final boolean bStreamingMode = m_aHandlers.containsNone (x -> !x.isStreamingSupported () || _isDetached (x));
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug (sLogPrefix + "Streaming mode is " + (bStreamingMode ? "enabled" : "disabled"));
+
     // Read all attachments
     final ICommonsList <ReadAttachment> aReadAttachments = new CommonsArrayList <> ();
     if (aIncomingAttachments != null)
     {
       int nAttachmentIndex = 0;
-      for (final IAS4Attachment aIncomingAttachment : aIncomingAttachments)
+      for (final WSS4JAttachment aIncomingAttachment : aIncomingAttachments)
       {
         final ReadAttachment a = new ReadAttachment ();
         a.m_sID = aIncomingAttachment.getId ();
@@ -426,49 +892,73 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
         a.m_sUncompressedMimeType = aIncomingAttachment.getUncompressedMimeType ();
         a.m_aCharset = aIncomingAttachment.getCharset ();
         a.m_eCompressionMode = aIncomingAttachment.getCompressionMode ();
-        try (final InputStream aSIS = aIncomingAttachment.getSourceStream ())
+        if (bStreamingMode)
         {
-          final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
-          if (StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aSIS, aBAOS).isSuccess ())
+          // Parse only the SBDH and keep the rest as a stream
+          try
           {
-            a.m_aPayloadBytes = aBAOS.getBufferOrCopy ();
+            a.m_aStreamedSBD = Phase4PeppolStreamedSBD.read (_getRepeatableSourceStreamProvider (aIncomingAttachment, aState));
           }
-        }
-        catch (final IOException | AS4DecompressException ex)
-        {
-          // Fall through
-        }
-        if (a.m_aPayloadBytes == null)
-        {
-          LOGGER.error (sLogPrefix + "Failed to decompress the payload");
-          aProcessingErrorMessages.add (EEbmsError.EBMS_DECOMPRESSION_FAILURE.getAsEbms3Error (aDisplayLocale, aState.getMessageID ()));
-          return AS4MessageProcessorResult.createFailure (null);
-        }
-
-        // Read data as SBDH
-        final ErrorList aSBDHErrors = new ErrorList ();
-        a.m_aSBDH = SBDHReader.standardBusinessDocument ()
-                              .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aSBDHErrors))
-                              .read (a.m_aPayloadBytes);
-        if (a.m_aSBDH == null)
-        {
-          if (aSBDHErrors.isEmpty ())
+          catch (final IOException | AS4DecompressException ex)
           {
-            final String sMsg = "Failed to read the provided SBDH document";
+            LOGGER.error (sLogPrefix + "Failed to decompress the payload");
+            aProcessingErrorMessages.add (EEbmsError.EBMS_DECOMPRESSION_FAILURE.getAsEbms3Error (aDisplayLocale, aState.getMessageID ()));
+            return AS4MessageProcessorResult.createFailure (null);
+          }
+          catch (final Phase4PeppolServletException ex)
+          {
+            final String sMsg = ex.getMessage () + (ex.getCause () == null ? "" : " - " + ex.getCause ().getMessage ());
             LOGGER.error (sLogPrefix + sMsg);
             aProcessingErrorMessages.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (aDisplayLocale, aState.getMessageID (), sMsg));
+            return AS4MessageProcessorResult.createFailure (null);
+          }
+        }
+        else
+        {
+          try (final InputStream aSIS = aIncomingAttachment.getSourceStream ())
+          {
+            final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+            if (StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aSIS, aBAOS).isSuccess ())
+            {
+              a.m_aPayloadBytes = aBAOS.getBufferOrCopy ();
+            }
+          }
+          catch (final IOException | AS4DecompressException ex)
+          {
+            // Fall through
+          }
+          if (a.m_aPayloadBytes == null)
+          {
+            LOGGER.error (sLogPrefix + "Failed to decompress the payload");
+            aProcessingErrorMessages.add (EEbmsError.EBMS_DECOMPRESSION_FAILURE.getAsEbms3Error (aDisplayLocale, aState.getMessageID ()));
+            return AS4MessageProcessorResult.createFailure (null);
           }
-          else
+
+          // Read data as SBDH
+          final ErrorList aSBDHErrors = new ErrorList ();
+          a.m_aSBDH = SBDHReader.standardBusinessDocument ()
+                                .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aSBDHErrors))
+                                .read (a.m_aPayloadBytes);
+          if (a.m_aSBDH == null)
           {
-            for (final IError aError : aSBDHErrors)
+            if (aSBDHErrors.isEmpty ())
             {
-              final String sMsg = "Peppol SBDH Issue: " + aError.getAsString (aDisplayLocale);
+              final String sMsg = "Failed to read the provided SBDH document";
               LOGGER.error (sLogPrefix + sMsg);
               aProcessingErrorMessages.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (aDisplayLocale, aState.getMessageID (), sMsg));
             }
-          }
+            else
+            {
+              for (final IError aError : aSBDHErrors)
+              {
+                final String sMsg = "Peppol SBDH Issue: " + aError.getAsString (aDisplayLocale);
+                LOGGER.error (sLogPrefix + sMsg);
+                aProcessingErrorMessages.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (aDisplayLocale, aState.getMessageID (), sMsg));
+              }
+            }
 
-          return AS4MessageProcessorResult.createFailure (null);
+            return AS4MessageProcessorResult.createFailure (null);
+          }
         }
 
         aReadAttachments.add (a);
@@ -485,8 +975,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
                         "] and [" +
                         StringHelper.getToString (a.m_aCharset, "no charset") +
                         "] and length is " +
-                        (a.m_aPayloadBytes == null ? "<error>" : Integer.toString (a.m_aPayloadBytes.length)) +
-                        " bytes" +
+                        (a.m_aPayloadBytes == null ? "<streamed>" : Integer.toString (a.m_aPayloadBytes.length) + " bytes") +
                         (a.m_eCompressionMode == null ? "" : " of compressed payload"));
         nAttachmentIndex++;
       }
@@ -514,7 +1003,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
 
       final boolean bPerformValueChecks = Phase4PeppolServletConfiguration.isPerformSBDHValueChecks ();
       aPeppolSBD = new PeppolSBDHDocumentReader (SimpleIdentifierFactory.INSTANCE).setPerformValueChecks (bPerformValueChecks)
-                                                                                  .extractData (aReadAttachment.standardBusinessDocument ());
+                                                                                  .extractData (aReadAttachment.getSBDForExtraction ());
 
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug (sLogPrefix +
@@ -552,12 +1041,12 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
           final IParticipantIdentifier aReceiverID = aPeppolSBD.getReceiverAsIdentifier ();
           final IDocumentTypeIdentifier aDocTypeID = aPeppolSBD.getDocumentTypeAsIdentifier ();
           final IProcessIdentifier aProcessID = aPeppolSBD.getProcessAsIdentifier ();
-          final EndpointType aReceiverEndpoint = _getReceiverEndpoint (sLogPrefix,
-                                                                       aReceiverCheckData.getSMPClient (),
-                                                                       aReceiverID,
-                                                                       aDocTypeID,
-                                                                       aProcessID);
-          if (aReceiverEndpoint == null)
+          final Phase4PeppolResolvedEndpoint aReceiverEndpoint = _getReceiverEndpoint (sLogPrefix,
+                                                                                       aReceiverCheckData.getSMPClient (),
+                                                                                       aReceiverID,
+                                                                                       aDocTypeID,
+                                                                                       aProcessID);
+          if (aReceiverEndpoint == null || !aReceiverEndpoint.hasEndpoint ())
           {
             final String sMsg = "Failed to resolve SMP endpoint for provided receiver ID (" +
                                 (aReceiverID == null ? "null" : aReceiverID.getURIEncoded ()) +
@@ -573,7 +1062,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
           }
 
           // Check if the message is for us
-          _checkIfReceiverEndpointURLMatches (sLogPrefix, aReceiverCheckData.getAS4EndpointURL (), aReceiverEndpoint);
+          _checkIfReceiverEndpointURLMatches (sLogPrefix, aReceiverCheckData.getAS4EndpointURL (), aReceiverEndpoint.getEndpoint ());
 
           // Get the recipient certificate from the SMP
           _checkIfEndpointCertificateMatches (sLogPrefix, aReceiverCheckData.getAPCertificate (), aReceiverEndpoint);
@@ -593,34 +1082,19 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
         LOGGER.info (sLogPrefix + "Endpoint checks for incoming AS4 messages are disabled");
       }
 
-      for (final IPhase4PeppolIncomingSBDHandlerSPI aHandler : m_aHandlers)
-      {
-        try
-        {
-          if (LOGGER.isDebugEnabled ())
-            LOGGER.debug (sLogPrefix + "Invoking Peppol handler " + aHandler);
-          aHandler.handleIncomingSBD (aMessageMetadata,
-                                      aHttpHeaders.getClone (),
-                                      aUserMessage.clone (),
-                                      aReadAttachment.payloadBytes (),
-                                      aReadAttachment.standardBusinessDocument (),
-                                      aPeppolSBD,
-                                      aState);
-        }
-        catch (final Exception ex)
-        {
-          LOGGER.error (sLogPrefix + "Error invoking Peppol handler " + aHandler, ex);
-          if (aHandler.exceptionTranslatesToAS4Error ())
-          {
-            final String sMsg = "The incoming Peppol message could not be processed. Technical details: " +
-                                ex.getClass ().getName () +
-                                " - " +
-                                ex.getMessage ();
-            LOGGER.error (sLogPrefix + sMsg);
-            return AS4MessageProcessorResult.createFailure (sMsg);
-          }
-        }
-      }
+      final String sErrorMsg;
+      if (m_aHandlerExecutor == null)
+        sErrorMsg = _invokeHandlersSequentially (sLogPrefix,
+                                                 aMessageMetadata,
+                                                 aHttpHeaders,
+                                                 aUserMessage,
+                                                 aReadAttachment,
+                                                 aPeppolSBD,
+                                                 aState);
+      else
+        sErrorMsg = _invokeHandlersParallel (sLogPrefix, aMessageMetadata, aHttpHeaders, aUserMessage, aReadAttachment, aPeppolSBD, aState);
+      if (sErrorMsg != null)
+        return AS4MessageProcessorResult.createFailure (sErrorMsg);
     }
 
     return AS4MessageProcessorResult.createSuccess ();
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocumentHeader;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.jaxb.JAXBContextCache;
+import com.helger.sbdh.CSBDH;
+import com.helger.xml.XMLFactory;
+
+/**
+ * An incoming Standard Business Document, where only the header was parsed and
+ * the business message is only available as a stream. The stream can be
+ * opened more than once and is backed by the (spooled) incoming attachment.
+ *
+ * @author Philip Helger
+ * @since 1.3.3
+ */
+@Immutable
+public final class Phase4PeppolStreamedSBD
+{
+  private static final QName QNAME_SBD = new QName (CSBDH.SBDH_NS, "StandardBusinessDocument");
+  private static final QName QNAME_SBDH = new QName (CSBDH.SBDH_NS, "StandardBusinessDocumentHeader");
+  private static final XMLInputFactory XML_INPUT_FACTORY;
+
+  static
+  {
+    XML_INPUT_FACTORY = XMLInputFactory.newInstance ();
+    // No DTDs and no external entities
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  private final IHasInputStream m_aSBDStreamProvider;
+  private final StandardBusinessDocumentHeader m_aSBDH;
+  private final QName m_aBusinessMessageName;
+
+  public Phase4PeppolStreamedSBD (@Nonnull final IHasInputStream aSBDStreamProvider,
+                                  @Nonnull final StandardBusinessDocumentHeader aSBDH,
+                                  @Nonnull final QName aBusinessMessageName)
+  {
+    ValueEnforcer.notNull (aSBDStreamProvider, "SBDStreamProvider");
+    ValueEnforcer.isTrue (aSBDStreamProvider.isReadMultiple (), "SBDStreamProvider must be readable more than once");
+    ValueEnforcer.notNull (aSBDH, "SBDH");
+    ValueEnforcer.notNull (aBusinessMessageName, "BusinessMessageName");
+    m_aSBDStreamProvider = aSBDStreamProvider;
+    m_aSBDH = aSBDH;
+    m_aBusinessMessageName = aBusinessMessageName;
+  }
+
+  /**
+   * @return The provider for the complete SBD (header and business message).
+   *         Can be read more than once. Never <code>null</code>.
+   */
+  @Nonnull
+  public IHasInputStream getSBDStreamProvider ()
+  {
+    return m_aSBDStreamProvider;
+  }
+
+  /**
+   * @return A new stream on the complete SBD (header and business message).
+   *         Must be closed by the caller. Never <code>null</code>.
+   * @throws IOException
+   *         If the stream could not be opened
+   */
+  @Nonnull
+  public InputStream openSBDStream () throws IOException
+  {
+    final InputStream ret = m_aSBDStreamProvider.getInputStream ();
+    if (ret == null)
+      throw new IOException ("Failed to open InputStream from " + m_aSBDStreamProvider);
+    return ret;
+  }
+
+  /**
+   * @return The parsed SBDH. Never <code>null</code>.
+   */
+  @Nonnull
+  public StandardBusinessDocumentHeader getStandardBusinessDocumentHeader ()
+  {
+    return m_aSBDH;
+  }
+
+  /**
+   * @return The qualified name of the root element of the business message.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public QName getBusinessMessageName ()
+  {
+    return m_aBusinessMessageName;
+  }
+
+  /**
+   * Create a new StAX reader that is positioned on the start element of the
+   * business message. The reader ends with the end element of the
+   * StandardBusinessDocument.
+   *
+   * @param aIS
+   *        The input stream as opened via {@link #openSBDStream()}. It is not
+   *        closed by this method. May not be <code>null</code>.
+   * @return The new reader. Never <code>null</code>.
+   * @throws XMLStreamException
+   *         In case of an XML error
+   */
+  @Nonnull
+  public XMLStreamReader createBusinessMessageReader (@Nonnull @WillNotClose final InputStream aIS) throws XMLStreamException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+
+    final XMLStreamReader ret = XML_INPUT_FACTORY.createXMLStreamReader (aIS);
+    // Root element
+    ret.nextTag ();
+    // Header element
+    ret.nextTag ();
+    // Skip all of the header
+    int nDepth = 1;
+    while (nDepth > 0)
+    {
+      final int nEventType = ret.next ();
+      if (nEventType == XMLStreamConstants.START_ELEMENT)
+        nDepth++;
+      else
+        if (nEventType == XMLStreamConstants.END_ELEMENT)
+          nDepth--;
+    }
+    // Business message
+    ret.nextTag ();
+    return ret;
+  }
+
+  /**
+   * @return A {@link StandardBusinessDocument} containing the parsed header and
+   *         an empty business message element, that has the same name as the
+   *         real business message. Used to extract the Peppol specific data.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public StandardBusinessDocument getAsHeaderOnlyStandardBusinessDocument ()
+  {
+    final StandardBusinessDocument ret = new StandardBusinessDocument ();
+    ret.setStandardBusinessDocumentHeader (m_aSBDH);
+    ret.setAny (XMLFactory.newDocument ()
+                          .createElementNS (m_aBusinessMessageName.getNamespaceURI (), m_aBusinessMessageName.getLocalPart ()));
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("SBDStreamProvider", m_aSBDStreamProvider)
+                                       .append ("SBDH", m_aSBDH)
+                                       .append ("BusinessMessageName", m_aBusinessMessageName)
+                                       .getToString ();
+  }
+
+  /**
+   * Read only the SBDH from the provided stream provider. The business message
+   * is not parsed, only the name of its root element is determined.
+   *
+   * @param aSBDStreamProvider
+   *        The provider of the complete SBD. Must be readable more than once.
+   *        May not be <code>null</code>.
+   * @return The new object and never <code>null</code>.
+   * @throws Phase4PeppolServletException
+   *         If the SBD could not be read
+   */
+  @Nonnull
+  public static Phase4PeppolStreamedSBD read (@Nonnull final IHasInputStream aSBDStreamProvider) throws Phase4PeppolServletException
+  {
+    ValueEnforcer.notNull (aSBDStreamProvider, "SBDStreamProvider");
+
+    try (final InputStream aIS = aSBDStreamProvider.getInputStream ())
+    {
+      if (aIS == null)
+        throw new Phase4PeppolServletException ("Failed to open InputStream from " + aSBDStreamProvider);
+
+      final XMLStreamReader aReader = XML_INPUT_FACTORY.createXMLStreamReader (aIS);
+      try
+      {
+        aReader.nextTag ();
+        if (!QNAME_SBD.equals (aReader.getName ()))
+          throw new Phase4PeppolServletException ("The root element is not a StandardBusinessDocument but " + aReader.getName ());
+
+        aReader.nextTag ();
+        if (!aReader.isStartElement () || !QNAME_SBDH.equals (aReader.getName ()))
+          throw new Phase4PeppolServletException ("The StandardBusinessDocument does not start with a StandardBusinessDocumentHeader");
+
+        // Read only the header with JAXB
+        final Unmarshaller aUnmarshaller = JAXBContextCache.getInstance ()
+                                                           .getFromCache (StandardBusinessDocumentHeader.class)
+                                                           .createUnmarshaller ();
+        final StandardBusinessDocumentHeader aSBDH = aUnmarshaller.unmarshal (aReader, StandardBusinessDocumentHeader.class)
+                                                                  .getValue ();
+
+        // The reader is now on the token after the end of the header
+        if (!aReader.isStartElement () && aReader.nextTag () != XMLStreamConstants.START_ELEMENT)
+          throw new Phase4PeppolServletException ("The StandardBusinessDocument contains no business message");
+
+        return new Phase4PeppolStreamedSBD (aSBDStreamProvider, aSBDH, aReader.getName ());
+      }
+      finally
+      {
+        aReader.close ();
+      }
+    }
+    catch (final IOException | XMLStreamException | JAXBException ex)
+    {
+      throw new Phase4PeppolServletException ("Failed to read the provided SBDH document", ex);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.peppol.smp.ESMPTransportProfile;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.factory.SimpleIdentifierFactory;
+import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
+import com.helger.xsds.peppol.smp1.EndpointType;
+import com.helger.xsds.peppol.smp1.SignedServiceMetadataType;
+
+/**
+ * Test class for class {@link Phase4PeppolCachingServiceMetadataProvider}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolCachingServiceMetadataProviderTest
+{
+  @Test
+  public void testNegativeCaching () throws Exception
+  {
+    final AtomicInteger aLookupCount = new AtomicInteger (0);
+    final ISMPServiceMetadataProvider aDelegate = new ISMPServiceMetadataProvider ()
+    {
+      public SignedServiceMetadataType getServiceMetadataOrNull (final IParticipantIdentifier aServiceGroupID,
+                                                                 final IDocumentTypeIdentifier aDocumentTypeID)
+      {
+        return null;
+      }
+
+      @Override
+      public EndpointType getEndpoint (final IParticipantIdentifier aServiceGroupID,
+                                       final IDocumentTypeIdentifier aDocumentTypeID,
+                                       final IProcessIdentifier aProcessID,
+                                       final ISMPTransportProfile aTransportProfile)
+      {
+        aLookupCount.incrementAndGet ();
+        return null;
+      }
+    };
+
+    final Phase4PeppolCachingServiceMetadataProvider aCache = new Phase4PeppolCachingServiceMetadataProvider (aDelegate,
+                                                                                                             Duration.ofMinutes (1),
+                                                                                                             Duration.ofMinutes (1),
+                                                                                                             10);
+    final SimpleIdentifierFactory aIF = SimpleIdentifierFactory.INSTANCE;
+    final IParticipantIdentifier aPI = aIF.createParticipantIdentifier ("iso6523-actorid-upis", "9915:test");
+    final IDocumentTypeIdentifier aDTI = aIF.createDocumentTypeIdentifier ("busdox-docid-qns", "doctype");
+    final IProcessIdentifier aPrI = aIF.createProcessIdentifier ("cenbii-procid-ubl", "process");
+    final ISMPTransportProfile aTP = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+
+    assertNull (aCache.getEndpoint (aPI, aDTI, aPrI, aTP));
+    assertFalse (aCache.getResolvedEndpoint (aPI, aDTI, aPrI, aTP).hasEndpoint ());
+    assertEquals (1, aLookupCount.get ());
+    assertEquals (1, aCache.size ());
+
+    // Different transport profile
+    assertNull (aCache.getEndpoint (aPI, aDTI, aPrI, ESMPTransportProfile.TRANSPORT_PROFILE_BDXR_AS4));
+    assertEquals (2, aLookupCount.get ());
+
+    aCache.clearCache ();
+    assertNull (aCache.getEndpoint (aPI, aDTI, aPrI, aTP));
+    assertEquals (3, aLookupCount.get ());
+  }
+}
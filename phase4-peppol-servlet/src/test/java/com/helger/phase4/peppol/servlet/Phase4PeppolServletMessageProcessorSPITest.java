@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsCopyOnWriteArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.peppol.sbdh.PeppolSBDHDocument;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.servlet.AS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.AS4MessageState;
+import com.helger.phase4.servlet.IAS4MessageState;
+import com.helger.phase4.servlet.spi.AS4MessageProcessorResult;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.photon.app.mock.PhotonAppWebTestRule;
+
+/**
+ * Test class for class {@link Phase4PeppolServletMessageProcessorSPI} with a
+ * handler executor.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolServletMessageProcessorSPITest
+{
+  private static final String SBD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                                    "<StandardBusinessDocument xmlns=\"http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader\">" +
+                                    "<StandardBusinessDocumentHeader>" +
+                                    "<HeaderVersion>1.0</HeaderVersion>" +
+                                    "<Sender><Identifier Authority=\"iso6523-actorid-upis\">9915:sender</Identifier></Sender>" +
+                                    "<Receiver><Identifier Authority=\"iso6523-actorid-upis\">9915:receiver</Identifier></Receiver>" +
+                                    "<DocumentIdentification>" +
+                                    "<Standard>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2</Standard>" +
+                                    "<TypeVersion>2.1</TypeVersion>" +
+                                    "<InstanceIdentifier>123</InstanceIdentifier>" +
+                                    "<Type>Invoice</Type>" +
+                                    "<CreationDateAndTime>2021-10-01T12:00:00Z</CreationDateAndTime>" +
+                                    "</DocumentIdentification>" +
+                                    "<BusinessScope>" +
+                                    "<Scope><Type>DOCUMENTID</Type>" +
+                                    "<InstanceIdentifier>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1</InstanceIdentifier>" +
+                                    "<Identifier>busdox-docid-qns</Identifier></Scope>" +
+                                    "<Scope><Type>PROCESSID</Type>" +
+                                    "<InstanceIdentifier>urn:fdc:peppol.eu:2017:poacc:billing:01:1.0</InstanceIdentifier>" +
+                                    "<Identifier>cenbii-procid-ubl</Identifier></Scope>" +
+                                    "</BusinessScope>" +
+                                    "</StandardBusinessDocumentHeader>" +
+                                    "<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"><ID>123</ID></Invoice>" +
+                                    "</StandardBusinessDocument>";
+
+  @Rule
+  public final TestRule m_aTestRule = new PhotonAppWebTestRule ();
+
+  private static boolean s_bOldReceiverCheckEnabled;
+
+  @BeforeClass
+  public static void beforeClass ()
+  {
+    s_bOldReceiverCheckEnabled = Phase4PeppolServletConfiguration.isReceiverCheckEnabled ();
+    Phase4PeppolServletConfiguration.setReceiverCheckEnabled (false);
+  }
+
+  @AfterClass
+  public static void afterClass ()
+  {
+    Phase4PeppolServletConfiguration.setReceiverCheckEnabled (s_bOldReceiverCheckEnabled);
+  }
+
+  /**
+   * The objects a handler received
+   */
+  private static final class Received
+  {
+    private final byte [] m_aSBDBytes;
+    private final StandardBusinessDocument m_aSBD;
+    private final PeppolSBDHDocument m_aPeppolSBD;
+
+    Received (final byte [] aSBDBytes, final StandardBusinessDocument aSBD, final PeppolSBDHDocument aPeppolSBD)
+    {
+      m_aSBDBytes = aSBDBytes;
+      m_aSBD = aSBD;
+      m_aPeppolSBD = aPeppolSBD;
+    }
+  }
+
+  private abstract static class AbstractTestHandler implements IPhase4PeppolIncomingSBDHandlerSPI
+  {
+    protected abstract void onHandle (@Nonnull byte [] aSBDBytes,
+                                      @Nonnull StandardBusinessDocument aSBD,
+                                      @Nonnull PeppolSBDHDocument aPeppolSBD) throws Exception;
+
+    public final void handleIncomingSBD (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                         @Nonnull final HttpHeaderMap aHeaders,
+                                         @Nonnull final Ebms3UserMessage aUserMessage,
+                                         @Nonnull final byte [] aSBDBytes,
+                                         @Nonnull final StandardBusinessDocument aSBD,
+                                         @Nonnull final PeppolSBDHDocument aPeppolSBD,
+                                         @Nonnull final IAS4MessageState aState) throws Exception
+    {
+      onHandle (aSBDBytes, aSBD, aPeppolSBD);
+    }
+
+    @Override
+    public boolean exceptionTranslatesToAS4Error ()
+    {
+      return true;
+    }
+  }
+
+  @Nonnull
+  private static AS4MessageProcessorResult _process (@Nonnull final Phase4PeppolServletMessageProcessorSPI aProcessor,
+                                                     @Nonnull final AS4ResourceHelper aResHelper)
+  {
+    final byte [] aBytes = SBD.getBytes (StandardCharsets.UTF_8);
+    final WSS4JAttachment aAttachment = new WSS4JAttachment (aResHelper, "application/xml");
+    aAttachment.setUniqueID ();
+    aAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aBytes)));
+
+    final Ebms3UserMessage aUserMessage = new Ebms3UserMessage ();
+    aUserMessage.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ());
+    aUserMessage.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                         null,
+                                                                                         null,
+                                                                                         "service",
+                                                                                         "action",
+                                                                                         "conversation"));
+    final PMode aPMode = new PMode ("test", null, null, "Agreement", EMEP.ONE_WAY, EMEPBinding.PUSH, null, null, null, null);
+    final ICommonsList <Ebms3Error> aErrors = new CommonsArrayList <> ();
+    return aProcessor.processAS4UserMessage (new AS4IncomingMessageMetadata (EAS4MessageMode.REQUEST),
+                                             new HttpHeaderMap (),
+                                             aUserMessage,
+                                             aPMode,
+                                             null,
+                                             new CommonsArrayList <> (aAttachment),
+                                             new AS4MessageState (ESoapVersion.SOAP_12, aResHelper, Locale.US),
+                                             aErrors);
+  }
+
+  @Test (timeout = 30_000)
+  public void testParallelHandlersGetOwnCopies () throws Exception
+  {
+    final int nHandlers = 3;
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (nHandlers);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // All handlers must run at the same time to pass the barrier
+      final CyclicBarrier aBarrier = new CyclicBarrier (nHandlers);
+      final ICommonsList <Received> aReceived = new CommonsCopyOnWriteArrayList <> ();
+      final ICommonsList <IPhase4PeppolIncomingSBDHandlerSPI> aHandlers = new CommonsArrayList <> ();
+      for (int i = 0; i < nHandlers; ++i)
+      {
+        final String sMarker = "handler" + i;
+        aHandlers.add (new AbstractTestHandler ()
+        {
+          @Override
+          protected void onHandle (final byte [] aSBDBytes,
+                                   final StandardBusinessDocument aSBD,
+                                   final PeppolSBDHDocument aPeppolSBD) throws Exception
+          {
+            aBarrier.await (10, TimeUnit.SECONDS);
+            // Modify the DOM - must not be visible to the other handlers
+            final Element eBusinessMessage = (Element) aSBD.getAny ();
+            assertFalse (eBusinessMessage.hasAttribute ("marker"));
+            eBusinessMessage.setAttribute ("marker", sMarker);
+            aSBDBytes[0] = 0;
+            aReceived.add (new Received (aSBDBytes, aSBD, aPeppolSBD));
+          }
+        });
+      }
+
+      final Phase4PeppolServletMessageProcessorSPI aProcessor = new Phase4PeppolServletMessageProcessorSPI ().setAllHandler (aHandlers)
+                                                                                                            .setHandlerExecutor (aExecutor);
+      final AS4MessageProcessorResult aResult = _process (aProcessor, aResHelper);
+      assertTrue (aResult.getErrorMessage (), aResult.isSuccess ());
+      assertEquals (nHandlers, aReceived.size ());
+
+      for (int i = 0; i < nHandlers; ++i)
+        for (int j = i + 1; j < nHandlers; ++j)
+        {
+          final Received r1 = aReceived.get (i);
+          final Received r2 = aReceived.get (j);
+          assertNotSame (r1.m_aSBDBytes, r2.m_aSBDBytes);
+          assertNotSame (r1.m_aSBD, r2.m_aSBD);
+          assertNotSame (r1.m_aSBD.getAny (), r2.m_aSBD.getAny ());
+          assertNotSame (r1.m_aPeppolSBD, r2.m_aPeppolSBD);
+          assertNotSame (r1.m_aPeppolSBD.getBusinessMessage (), r2.m_aPeppolSBD.getBusinessMessage ());
+        }
+      for (final Received r : aReceived)
+        assertEquals ("9915:receiver", r.m_aPeppolSBD.getReceiverValue ());
+    }
+    finally
+    {
+      aExecutor.shutdownNow ();
+    }
+  }
+
+  @Test (timeout = 30_000)
+  public void testHandlerTimeout () throws Exception
+  {
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (2);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final CountDownLatch aInterrupted = new CountDownLatch (1);
+      final IPhase4PeppolIncomingSBDHandlerSPI aSlowHandler = new AbstractTestHandler ()
+      {
+        @Override
+        protected void onHandle (final byte [] aSBDBytes,
+                                 final StandardBusinessDocument aSBD,
+                                 final PeppolSBDHDocument aPeppolSBD) throws Exception
+        {
+          try
+          {
+            Thread.sleep (20_000);
+          }
+          catch (final InterruptedException ex)
+          {
+            aInterrupted.countDown ();
+            throw ex;
+          }
+        }
+
+        @Override
+        public Duration getHandlerTimeout ()
+        {
+          return Duration.ofMillis (200);
+        }
+      };
+      final CountDownLatch aFastDone = new CountDownLatch (1);
+      final IPhase4PeppolIncomingSBDHandlerSPI aFastHandler = new AbstractTestHandler ()
+      {
+        @Override
+        protected void onHandle (final byte [] aSBDBytes,
+                                 final StandardBusinessDocument aSBD,
+                                 final PeppolSBDHDocument aPeppolSBD)
+        {
+          aFastDone.countDown ();
+        }
+      };
+
+      final Phase4PeppolServletMessageProcessorSPI aProcessor = new Phase4PeppolServletMessageProcessorSPI ().setAllHandler (new CommonsArrayList <> (aSlowHandler,
+                                                                                                                                                       aFastHandler))
+                                                                                                            .setHandlerExecutor (aExecutor)
+                                                                                                            .setHandlerTimeout (Duration.ofSeconds (10));
+      final long nStart = System.currentTimeMillis ();
+      final AS4MessageProcessorResult aResult = _process (aProcessor, aResHelper);
+      final long nDuration = System.currentTimeMillis () - nStart;
+
+      // The timeout of the handler wins over the processor timeout
+      assertFalse (aResult.isSuccess ());
+      assertTrue ("Took " + nDuration + " ms", nDuration < 5_000);
+      assertEquals (0, aFastDone.getCount ());
+      // The timed out handler was cancelled
+      assertTrue (aInterrupted.await (5, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      aExecutor.shutdownNow ();
+    }
+  }
+
+  @Test (timeout = 30_000)
+  public void testFireAndForget () throws Exception
+  {
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (2);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final CountDownLatch aRegularDone = new CountDownLatch (1);
+      final IPhase4PeppolIncomingSBDHandlerSPI aRegularHandler = new AbstractTestHandler ()
+      {
+        @Override
+        protected void onHandle (final byte [] aSBDBytes,
+                                 final StandardBusinessDocument aSBD,
+                                 final PeppolSBDHDocument aPeppolSBD)
+        {
+          aRegularDone.countDown ();
+        }
+      };
+      final CountDownLatch aRelease = new CountDownLatch (1);
+      final CountDownLatch aDetachedStarted = new CountDownLatch (1);
+      final CountDownLatch aDetachedDone = new CountDownLatch (1);
+      final IPhase4PeppolIncomingSBDHandlerSPI aDetachedHandler = new AbstractTestHandler ()
+      {
+        @Override
+        protected void onHandle (final byte [] aSBDBytes,
+                                 final StandardBusinessDocument aSBD,
+                                 final PeppolSBDHDocument aPeppolSBD) throws Exception
+        {
+          // Must be started after the regular handler finished
+          assertEquals (0, aRegularDone.getCount ());
+          aDetachedStarted.countDown ();
+          aRelease.await ();
+          aDetachedDone.countDown ();
+          // Is only logged
+          throw new IllegalStateException ("Expected error in fire-and-forget handler");
+        }
+
+        @Override
+        public boolean isFireAndForget ()
+        {
+          return true;
+        }
+      };
+
+      // Detached handler first, to make sure it does not block the others
+      final Phase4PeppolServletMessageProcessorSPI aProcessor = new Phase4PeppolServletMessageProcessorSPI ().setAllHandler (new CommonsArrayList <> (aDetachedHandler,
+                                                                                                                                                       aRegularHandler))
+                                                                                                            .setHandlerExecutor (aExecutor);
+      final AS4MessageProcessorResult aResult = _process (aProcessor, aResHelper);
+
+      // Processing finished while the detached handler is still running
+      assertTrue (aResult.isSuccess ());
+      assertEquals (0, aRegularDone.getCount ());
+      assertTrue (aDetachedStarted.await (10, TimeUnit.SECONDS));
+      assertEquals (1, aDetachedDone.getCount ());
+
+      aRelease.countDown ();
+      assertTrue (aDetachedDone.await (10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      aExecutor.shutdownNow ();
+    }
+  }
+}
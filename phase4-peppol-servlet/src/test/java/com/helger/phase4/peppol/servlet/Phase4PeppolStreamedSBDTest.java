@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+
+/**
+ * Test class for class {@link Phase4PeppolStreamedSBD}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolStreamedSBDTest
+{
+  private static final String SBD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                                    "<!-- comment -->" +
+                                    "<StandardBusinessDocument xmlns=\"http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader\">" +
+                                    "<StandardBusinessDocumentHeader>" +
+                                    "<HeaderVersion>1.0</HeaderVersion>" +
+                                    "<Sender><Identifier Authority=\"iso6523-actorid-upis\">9999:you</Identifier></Sender>" +
+                                    "<Receiver><Identifier Authority=\"iso6523-actorid-upis\">9915:test</Identifier></Receiver>" +
+                                    "</StandardBusinessDocumentHeader>" +
+                                    "<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"><ID>123</ID></Invoice>" +
+                                    "</StandardBusinessDocument>";
+
+  @Test
+  public void testRead () throws Exception
+  {
+    final byte [] aBytes = SBD.getBytes (StandardCharsets.UTF_8);
+    final Phase4PeppolStreamedSBD aSBD = Phase4PeppolStreamedSBD.read (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aBytes)));
+    assertEquals ("1.0", aSBD.getStandardBusinessDocumentHeader ().getHeaderVersion ());
+    assertEquals ("9915:test", aSBD.getStandardBusinessDocumentHeader ().getReceiverAtIndex (0).getIdentifier ().getValue ());
+    assertEquals (new QName ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2", "Invoice"), aSBD.getBusinessMessageName ());
+    assertNotNull (aSBD.getAsHeaderOnlyStandardBusinessDocument ().getAny ());
+
+    // Read the business message twice
+    for (int i = 0; i < 2; ++i)
+      try (final InputStream aIS = aSBD.openSBDStream ())
+      {
+        final XMLStreamReader aReader = aSBD.createBusinessMessageReader (aIS);
+        assertTrue (aReader.isStartElement ());
+        assertEquals (aSBD.getBusinessMessageName (), aReader.getName ());
+        aReader.close ();
+      }
+  }
+
+  @Test (expected = Phase4PeppolServletException.class)
+  public void testReadNoSBD () throws Exception
+  {
+    final byte [] aBytes = "<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\" />".getBytes (StandardCharsets.UTF_8);
+    Phase4PeppolStreamedSBD.read (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aBytes)));
+  }
+}
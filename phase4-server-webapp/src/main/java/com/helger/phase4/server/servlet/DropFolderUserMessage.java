@@ -146,7 +146,9 @@ public final class DropFolderUserMessage
                           MessageHelperMethods.createEbms3Property (CAS4.FINAL_RECIPIENT,
                                                                     aSBDH.getReceiverScheme (),
                                                                     aSBDH.getReceiverValue ()));
+          // The SBD document is only created for this message
           aClient.setPayload (SBDHWriter.standardBusinessDocument ().getAsDocument (aSBD));
+          aClient.setAdoptPayload (true);
 
           final IAS4ClientBuildMessageCallback aCallback = null;
           final IAS4OutgoingDumper aOutgoingDumper = null;
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.supplementary.test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.system.SystemProperties;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.AS4SigningParams;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.messaging.crypto.AS4Signer;
+import com.helger.phase4.messaging.domain.AS4UserMessage;
+import com.helger.phase4.server.message.MockMessages;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.wss.WSSConfigManager;
+import com.helger.phase4.wss.WSSSynchronizer;
+import com.helger.servlet.mock.MockServletContext;
+import com.helger.web.scope.mgr.WebScopeManager;
+
+/**
+ * Simple throughput benchmark for signing and verifying AS4 messages with
+ * synchronized security enabled. The linearized mode is compared to the
+ * concurrent mode for 1 to n threads, where n is the number of available
+ * cores.
+ *
+ * @author Philip Helger
+ */
+public final class MainWSSConcurrentSecurityBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainWSSConcurrentSecurityBenchmark.class);
+  private static final long WARMUP_MS = 2_000;
+  private static final long DURATION_MS = 10_000;
+
+  private static void _signAndVerify (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                      @Nonnull final AS4ResourceHelper aResHelper,
+                                      final boolean bConcurrent) throws Exception
+  {
+    final ESoapVersion eSoapVersion = ESoapVersion.SOAP_12;
+    final AS4UserMessage aMsg = MockMessages.createUserMessageNotSigned (eSoapVersion, null, null);
+    final Document aSignedDoc = AS4Signer.createSignedMessage (aCryptoFactory,
+                                                               aMsg.getAsSoapDocument (),
+                                                               eSoapVersion,
+                                                               aMsg.getMessagingID (),
+                                                               null,
+                                                               aResHelper,
+                                                               false,
+                                                               AS4SigningParams.createDefault ());
+
+    // Same as in SOAPHeaderElementProcessorWSS4J
+    if (bConcurrent)
+      WSSSynchronizer.callConcurrent ( () -> _verify (aCryptoFactory, aSignedDoc, WSSConfigManager.getThreadLocalWSSConfig ()));
+    else
+      WSSSynchronizer.call ( () -> _verify (aCryptoFactory, aSignedDoc, WSSConfigManager.createStaticWSSConfig ()));
+  }
+
+  private static Object _verify (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                 @Nonnull final Document aSignedDoc,
+                                 @Nonnull final WSSConfig aWSSConfig) throws Exception
+  {
+    final WSSecurityEngine aSecEngine = new WSSecurityEngine ();
+    aSecEngine.setWssConfig (aWSSConfig);
+    return aSecEngine.processSecurityHeader (aSignedDoc, null, null, aCryptoFactory.getCrypto ());
+  }
+
+  private static long _run (final int nThreads, final long nDurationMS, final boolean bConcurrent)
+  {
+    final IAS4CryptoFactory aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+    final LongAdder aCount = new LongAdder ();
+    final long nEnd = System.currentTimeMillis () + nDurationMS;
+
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    for (int i = 0; i < nThreads; ++i)
+      aES.submit ( () -> {
+        try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+        {
+          while (System.currentTimeMillis () < nEnd)
+          {
+            _signAndVerify (aCryptoFactory, aResHelper, bConcurrent);
+            aCount.increment ();
+          }
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.error ("Error in benchmark", ex);
+        }
+      });
+    aES.shutdown ();
+    ExecutorServiceHelper.waitUntilAllTasksAreFinished (aES);
+    return aCount.sum ();
+  }
+
+  public static void main (final String [] args)
+  {
+    WebScopeManager.onGlobalBegin (MockServletContext.create ());
+    try
+    {
+      SystemProperties.setPropertyValue (AS4Configuration.PROPERTY_PHASE4_WSS4J_SYNCSECURITY, true);
+      final int nMaxThreads = Runtime.getRuntime ().availableProcessors ();
+
+      for (final boolean bConcurrent : new boolean [] { false, true })
+      {
+        SystemProperties.setPropertyValue (AS4Configuration.PROPERTY_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT, bConcurrent);
+
+        // Warm up
+        _run (nMaxThreads, WARMUP_MS, bConcurrent);
+
+        for (int nThreads = 1; nThreads <= nMaxThreads; nThreads *= 2)
+        {
+          final long nCount = _run (nThreads, DURATION_MS, bConcurrent);
+          LOGGER.info ((bConcurrent ? "concurrent" : "linearized") +
+                       " with " +
+                       nThreads +
+                       " thread(s): " +
+                       (nCount * 1000 / DURATION_MS) +
+                       " sign+verify ops/s");
+        }
+      }
+    }
+    finally
+    {
+      WebScopeManager.onGlobalEnd ();
+    }
+  }
+}